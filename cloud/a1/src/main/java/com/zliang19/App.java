@@ -2,20 +2,36 @@ package com.zliang19;
 
 import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.S3Object;
-import software.amazon.awssdk.services.s3.model.PutObjectRequest;
-import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.sqs.SqsClient;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Main application class for counting file types in S3 bucket and generating HTML report.
  * This application connects to AWS S3, analyzes files in specified bucket,
  * counts files by type, and generates a static HTML page with the results.
+ * Listing and inventory scans also collect object sizes and ages ({@link BucketStatistics}),
+ * which the report shows as bytes per type, a size histogram and age buckets.
  */
 public class App {
     
@@ -28,9 +44,51 @@ public class App {
         FILE_TYPE_MAPPINGS.put("xlsx", "Excel");
     }
 
+    // Display categories in report order; "Other" collects every unmapped extension
+    static final String[] CATEGORIES = {"Web", "Text", "Image", "Excel", "Other"};
+
+    // FILE_TYPE_MAPPINGS as lower-case ASCII extensions and category indexes, for keys held as bytes
+    private static final byte[][] EXTENSION_BYTES = new byte[FILE_TYPE_MAPPINGS.size()][];
+    private static final int[] EXTENSION_CATEGORIES = new int[FILE_TYPE_MAPPINGS.size()];
+    static {
+        int m = 0;
+        for (Map.Entry<String, String> mapping : FILE_TYPE_MAPPINGS.entrySet()) {
+            EXTENSION_BYTES[m] = mapping.getKey().getBytes(StandardCharsets.US_ASCII);
+            EXTENSION_CATEGORIES[m] = Arrays.asList(CATEGORIES).indexOf(mapping.getValue());
+            m++;
+        }
+    }
+
+    // Optional endpoint for a local S3 stand-in such as MinIO or LocalStack
+    private static final String ENDPOINT_ENV = "S3_ENDPOINT_URL";
+
+    // Number of partitions listed concurrently in parallel mode
+    private static final int PARALLEL_SCAN_CONCURRENCY = 32;
+
+    // Key of the generated website page, and how long browsers and CDNs may reuse it before revalidating
+    private static final String REPORT_KEY = "home.html";
+    private static final String CACHE_CONTROL_ENV = "REPORT_CACHE_CONTROL";
+    private static final String DEFAULT_CACHE_CONTROL = "public, max-age=300";
+
+    // Where delta mode keeps its counters between runs, and how often it rescans the bucket
+    private static final String SNAPSHOT_PATH_ENV = "INVENTORY_SNAPSHOT_PATH";
+    private static final String RECONCILE_HOURS_ENV = "INVENTORY_RECONCILE_HOURS";
+    private static final long DEFAULT_RECONCILE_HOURS = 24;
+
+    // Margin between this host's clock and S3's when picking objects written during a reconcile scan
+    private static final long SCAN_CLOCK_SKEW_MILLIS = 300_000L;
+
     /**
      * Main entry point for the application
-     * @param args Command line arguments (not used)
+     * @param args Optional mode: none for a paginated scan, "parallel [prefix...]" for a
+     *             partitioned concurrent scan, "delta &lt;queueUrl&gt;" to apply queued S3 event
+     *             notifications to the stored snapshot (its counts drift upwards between full
+     *             reconciliations, since the first overwrite of an object that existed at the last
+     *             scan counts as a new object; INVENTORY_RECONCILE_HOURS bounds how long), "inventory &lt;manifest&gt;" to count an
+     *             S3 Inventory report (local path or s3://bucket/key of manifest.json) instead of
+     *             listing the bucket, or "seed &lt;bucket&gt; [count]" to fill a bucket with synthetic
+     *             keys for benchmarking; seeding the report bucket itself needs S3_ENDPOINT_URL set,
+     *             so it only ever runs against a local stand-in
      */
     public static void main(String[] args) {
         // Configuration constants
@@ -40,21 +98,61 @@ public class App {
         System.out.println("Starting S3 File Counter Application...");
         
         try {
+            String mode = args.length > 0 ? args[0] : "";
+            
+            if ("seed".equals(mode)) {
+                if (args.length < 2) {
+                    throw new IllegalArgumentException("seed mode requires the bucket to fill");
+                }
+                String seedBucket = args[1];
+                String endpoint = System.getenv(ENDPOINT_ENV);
+                if (seedBucket.equals(targetBucket) && (endpoint == null || endpoint.isEmpty())) {
+                    throw new IllegalArgumentException("Refusing to seed " + targetBucket + " without "
+                        + ENDPOINT_ENV + " pointing at a local stand-in");
+                }
+                long keyCount = args.length > 2 ? Long.parseLong(args[2]) : 1_000_000L;
+                try (S3AsyncClient s3Async = buildAsyncClient(awsRegion)) {
+                    long failures = SyntheticKeySeeder.seed(s3Async, seedBucket, keyCount, PARALLEL_SCAN_CONCURRENCY);
+                    System.out.println("Seeded " + keyCount + " synthetic keys into " + seedBucket + " (" + failures
+                        + " failures).");
+                }
+                return;
+            }
+            
             // Initialize S3 client with specified region
-            S3Client s3 = S3Client.builder()
-                .region(awsRegion)
-                .build();
+            S3Client s3 = buildClient(awsRegion);
             
-            // Step 1: Analyze bucket contents and count file types
-            Map<String, Integer> typeCounts = analyzeBucketContents(s3, targetBucket);
+            // Step 1: Analyze bucket contents; delta mode keeps counts only, so its report has no sizes
+            Map<String, Integer> typeCounts = null;
+            BucketStatistics statistics = null;
+            if ("parallel".equals(mode)) {
+                List<String> prefixes = Arrays.asList(args).subList(1, args.length);
+                statistics = analyzeBucketContentsParallel(awsRegion, targetBucket, prefixes);
+            } else if ("delta".equals(mode)) {
+                if (args.length < 2) {
+                    throw new IllegalArgumentException("delta mode requires the notification queue URL");
+                }
+                typeCounts = updateInventoryIncrementally(s3, awsRegion, targetBucket, args[1]);
+            } else if ("inventory".equals(mode)) {
+                if (args.length < 2) {
+                    throw new IllegalArgumentException("inventory mode requires the manifest.json location");
+                }
+                statistics = analyzeInventoryManifest(s3, args[1]);
+            } else {
+                statistics = collectBucketStatistics(s3, targetBucket);
+            }
+            if (statistics != null) {
+                typeCounts = statistics.toCounterMap();
+            }
             
             // Step 2: Generate HTML content from the analysis
-            String htmlPage = createHtmlReport(typeCounts);
+            String htmlPage = createHtmlReport(typeCounts, statistics);
             
-            // Step 3: Upload generated HTML to S3 bucket
-            updateBucketWebsite(s3, targetBucket, htmlPage);
+            // Step 3: Upload generated HTML to S3 bucket unless the stored page is identical
+            boolean uploaded = updateBucketWebsite(s3, targetBucket, htmlPage);
             
-            System.out.println("Operation completed successfully. Website updated.");
+            System.out.println("Operation completed successfully. "
+                + (uploaded ? "Website updated." : "Website already up to date."));
             
         } catch (SdkException awsError) {
             System.err.println("AWS Service Error: " + awsError.getMessage());
@@ -72,8 +170,29 @@ public class App {
      * @return Map containing counts for each file category
      */
     public static Map<String, Integer> analyzeBucketContents(S3Client s3Client, String bucketName) {
-        // Initialize counters for all known file types
-        Map<String, Integer> counters = initializeCounters();
+        return collectBucketStatistics(s3Client, bucketName).toCounterMap();
+    }
+
+    /**
+     * Lists every object in S3 bucket once, recording its type, size and age
+     * @param s3Client Initialized S3 client object
+     * @param bucketName Name of bucket to analyze
+     * @return Statistics of the bucket's objects
+     */
+    public static BucketStatistics collectBucketStatistics(S3Client s3Client, String bucketName) {
+        return collectBucketStatistics(s3Client, bucketName, null);
+    }
+
+    /**
+     * Lists every object in S3 bucket once, recording its type, size and age
+     * @param s3Client Initialized S3 client object
+     * @param bucketName Name of bucket to analyze
+     * @param listener Also receives every listed object, or null
+     * @return Statistics of the bucket's objects
+     */
+    public static BucketStatistics collectBucketStatistics(S3Client s3Client, String bucketName,
+                                                           Consumer<S3Object> listener) {
+        BucketStatistics statistics = new BucketStatistics(System.currentTimeMillis());
         
         try {
             // Create request to list all objects in bucket
@@ -81,30 +200,124 @@ public class App {
                 .bucket(bucketName)
                 .build();
             
-            // Execute listing operation
-            ListObjectsV2Response listing = s3Client.listObjectsV2(listRequest);
-            
-            // Process each object in the bucket
-            for (S3Object object : listing.contents()) {
-                String objectKey = object.key();
-                String fileExtension = extractFileExtension(objectKey);
+            // Execute listing operation; the paginator follows continuation tokens past 1,000 keys
+            for (ListObjectsV2Response listing : s3Client.listObjectsV2Paginator(listRequest)) {
                 
-                // Determine file category based on extension
-                String fileCategory = FILE_TYPE_MAPPINGS.getOrDefault(
-                    fileExtension != null ? fileExtension.toLowerCase() : "", 
-                    "Other"
-                );
-                
-                // Increment appropriate counter
-                counters.put(fileCategory, counters.get(fileCategory) + 1);
+                // Process each object in the page
+                for (S3Object object : listing.contents()) {
+                    statistics.record(object);
+                    if (listener != null) {
+                        listener.accept(object);
+                    }
+                }
+            }
+            
+        } catch (SdkException listError) {
+            System.err.println("Failed to list bucket contents: " + listError.getMessage());
+            throw listError;
+        }
+        
+        return statistics;
+    }
+
+    /**
+     * Analyzes files in S3 bucket by listing keyspace partitions concurrently
+     * @param awsRegion Region of the bucket
+     * @param bucketName Name of bucket to analyze
+     * @param prefixes Explicit partition prefixes, or empty to plan partitions automatically
+     * @return Statistics of the bucket's objects
+     */
+    public static BucketStatistics analyzeBucketContentsParallel(Region awsRegion, String bucketName,
+                                                                     List<String> prefixes) {
+        try (S3AsyncClient s3Async = buildAsyncClient(awsRegion)) {
+            ParallelBucketScanner scanner = new ParallelBucketScanner(s3Async, PARALLEL_SCAN_CONCURRENCY);
+            
+            List<ParallelBucketScanner.Partition> partitions;
+            if (prefixes.isEmpty()) {
+                partitions = scanner.planPartitions(bucketName, "/");
+            } else {
+                partitions = new ArrayList<>();
+                for (String prefix : prefixes) {
+                    partitions.add(ParallelBucketScanner.Partition.prefix(prefix));
+                }
             }
             
+            ParallelBucketScanner.ScanResult result = scanner.scan(bucketName, partitions);
+            System.out.printf("Scanned %d keys in %d partitions in %.2fs (%.0f keys/sec)%n",
+                result.totalKeys(), result.partitionCount(), result.elapsedSeconds(), result.keysPerSecond());
+            
+            return result.statistics();
         } catch (SdkException listError) {
             System.err.println("Failed to list bucket contents: " + listError.getMessage());
             throw listError;
         }
+    }
+
+    /**
+     * Counts files from an S3 Inventory report rather than listing the bucket
+     * @param s3Client Initialized S3 client, used when the report is in S3
+     * @param manifestLocation Local path of the report's manifest.json, or its s3://bucket/key
+     * @return Statistics of the reported objects
+     * @throws IOException If the manifest or a data file cannot be read
+     */
+    public static BucketStatistics analyzeInventoryManifest(S3Client s3Client, String manifestLocation)
+            throws IOException {
+        InventoryManifestScanner scanner = new InventoryManifestScanner(s3Client,
+            Runtime.getRuntime().availableProcessors());
+        ParallelBucketScanner.ScanResult result = scanner.scan(manifestLocation);
+        System.out.printf("Scanned %d inventory keys in %d files in %.2fs (%.0f keys/sec)%n",
+            result.totalKeys(), result.partitionCount(), result.elapsedSeconds(), result.keysPerSecond());
+        return result.statistics();
+    }
+
+    /**
+     * Brings the stored inventory snapshot up to date from queued S3 event notifications.
+     * A full scan replaces the snapshot when none exists or the last one is older than
+     * the reconciliation interval; otherwise only the queued deltas are applied.
+     * The snapshot holds no per-key state for objects that were already there at the scan,
+     * since loading it would then cost as much as listing the bucket; the first overwrite of
+     * such an object therefore counts it again until the next reconciliation.
+     * @param s3Client Initialized S3 client, used for reconciliation scans
+     * @param awsRegion Region of the notification queue
+     * @param bucketName Name of bucket to track
+     * @param queueUrl URL of the SQS queue receiving the bucket notifications
+     * @return Map containing counts for each file category
+     * @throws IOException If the snapshot cannot be read or written
+     */
+    public static Map<String, Integer> updateInventoryIncrementally(S3Client s3Client, Region awsRegion,
+                                                                    String bucketName, String queueUrl)
+            throws IOException {
+        String configuredPath = System.getenv(SNAPSHOT_PATH_ENV);
+        Path snapshotPath = Paths.get(configuredPath != null && !configuredPath.isEmpty()
+            ? configuredPath : "inventory-snapshot.properties");
+        String configuredHours = System.getenv(RECONCILE_HOURS_ENV);
+        long reconcileHours = configuredHours != null && !configuredHours.isEmpty()
+            ? Long.parseLong(configuredHours) : DEFAULT_RECONCILE_HOURS;
+        
+        long now = System.currentTimeMillis();
+        InventorySnapshot snapshot = InventorySnapshot.load(snapshotPath);
+        
+        if (snapshot == null || snapshot.isReconciliationDue(now, reconcileHours * 3_600_000L)) {
+            System.out.println("Reconciling inventory snapshot with a full bucket scan...");
+            // Objects written while the scan runs are counted by it and also sent as events; remember them
+            List<String> createdDuringScan = new ArrayList<>();
+            Instant scanStart = Instant.ofEpochMilli(now - SCAN_CLOCK_SKEW_MILLIS);
+            BucketStatistics statistics = collectBucketStatistics(s3Client, bucketName, object -> {
+                if (object.lastModified() != null && !object.lastModified().isBefore(scanStart)) {
+                    createdDuringScan.add(object.key());
+                }
+            });
+            snapshot = InventorySnapshot.fromFullScan(statistics.toCounterMap(), now, createdDuringScan);
+            snapshot.save(snapshotPath);
+        }
+        
+        try (SqsClient sqs = SqsClient.builder().region(awsRegion).build()) {
+            IncrementalInventory inventory = new IncrementalInventory(sqs, Collections.singleton(REPORT_KEY));
+            long applied = inventory.applyPendingEvents(queueUrl, snapshot, snapshotPath);
+            System.out.println("Applied " + applied + " object events to inventory snapshot.");
+        }
         
-        return counters;
+        return snapshot.toCounterMap();
     }
 
     /**
@@ -113,6 +326,16 @@ public class App {
      * @return String containing complete HTML document
      */
     public static String createHtmlReport(Map<String, Integer> counts) {
+        return createHtmlReport(counts, null);
+    }
+
+    /**
+     * Creates HTML content displaying file type counts and, when available, object sizes and ages
+     * @param counts Map containing file type counts
+     * @param statistics Statistics from the same scan, or null if only counts are known
+     * @return String containing complete HTML document
+     */
+    public static String createHtmlReport(Map<String, Integer> counts, BucketStatistics statistics) {
         StringBuilder html = new StringBuilder();
         
         // HTML document structure
@@ -124,9 +347,15 @@ public class App {
            .append("    <style>\n")
            .append("        body { font-family: 'Segoe UI', Tahoma, sans-serif; line-height: 1.6; margin: 2rem; }\n")
            .append("        h1 { color: #2c3e50; border-bottom: 2px solid #3498db; padding-bottom: 0.5rem; }\n")
+           .append("        h2 { color: #2c3e50; margin-top: 2rem; }\n")
            .append("        ul { margin: 1rem 0; padding: 0; }\n")
            .append("        li { background: #ecf0f1; margin: 0.5rem 0; padding: 0.75rem; border-radius: 4px; }\n")
            .append("        li:nth-child(odd) { background: #d6eaf8; }\n")
+           .append("        table { border-collapse: collapse; margin: 1rem 0; }\n")
+           .append("        th, td { padding: 0.4rem 0.75rem; text-align: right; }\n")
+           .append("        th:first-child, td:first-child { text-align: left; }\n")
+           .append("        tr:nth-child(even) { background: #ecf0f1; }\n")
+           .append("        .bar { background: #3498db; height: 0.8rem; }\n")
            .append("    </style>\n")
            .append("</head>\n")
            .append("<body>\n")
@@ -137,33 +366,135 @@ public class App {
         counts.forEach((type, count) -> {
             html.append("        <li><strong>").append(type).append(":</strong> ").append(count).append("</li>\n");
         });
+        html.append("    </ul>\n");
+        
+        // Sizes and ages are left out for objects the scan could not see them for
+        if (statistics != null && statistics.getSizedCount() > 0) {
+            appendStorageByType(html, statistics);
+            appendSizeHistogram(html, statistics);
+        }
+        if (statistics != null && statistics.getDatedCount() > 0) {
+            appendAgeBuckets(html, statistics);
+        }
         
         // Close HTML tags
-        html.append("    </ul>\n")
-           .append("</body>\n")
+        html.append("</body>\n")
            .append("</html>");
         
         return html.toString();
     }
 
     /**
-     * Uploads HTML content to S3 bucket as website index
+     * Adds a table of object count, total bytes and average object size per file type
+     */
+    private static void appendStorageByType(StringBuilder html, BucketStatistics statistics) {
+        html.append("    <h2>Storage by Type</h2>\n")
+           .append("    <table>\n")
+           .append("        <tr><th>Type</th><th>Files</th><th>Total size</th><th>Average size</th></tr>\n");
+        for (int c = 0; c < CATEGORIES.length; c++) {
+            appendStorageRow(html, CATEGORIES[c], statistics.getCount(c), statistics.getBytes(c));
+        }
+        appendStorageRow(html, "Total", statistics.getTotalCount(), statistics.getTotalBytes());
+        html.append("    </table>\n");
+    }
+
+    private static void appendStorageRow(StringBuilder html, String type, long count, long bytes) {
+        html.append("        <tr><td>").append(type)
+           .append("</td><td>").append(count)
+           .append("</td><td>").append(formatBytes(bytes))
+           .append("</td><td>").append(count > 0 ? formatBytes(bytes / count) : "-")
+           .append("</td></tr>\n");
+    }
+
+    /**
+     * Adds the log2 size histogram, from the smallest to the largest occupied bucket
+     */
+    private static void appendSizeHistogram(StringBuilder html, BucketStatistics statistics) {
+        int first = -1;
+        int last = -1;
+        long largest = 0;
+        for (int b = 0; b < BucketStatistics.SIZE_BUCKETS; b++) {
+            long count = statistics.getSizeBucketCount(b);
+            if (count > 0) {
+                first = first < 0 ? b : first;
+                last = b;
+                largest = Math.max(largest, count);
+            }
+        }
+        
+        html.append("    <h2>Object Sizes</h2>\n")
+           .append("    <table>\n")
+           .append("        <tr><th>Size</th><th>Files</th><th></th></tr>\n");
+        for (int b = first; b <= last; b++) {
+            String range;
+            if (b == 0) {
+                range = "0 B";
+            } else if (b == 1) {
+                range = "1 B";
+            } else if (b < BucketStatistics.SIZE_BUCKETS - 1) {
+                range = formatBytes(1L << (b - 1)) + " to under " + formatBytes(1L << b);
+            } else {
+                range = formatBytes(1L << (b - 1)) + " and over";
+            }
+            appendBarRow(html, range, statistics.getSizeBucketCount(b), largest);
+        }
+        html.append("    </table>\n");
+    }
+
+    /**
+     * Adds the number of objects per age bucket
+     */
+    private static void appendAgeBuckets(StringBuilder html, BucketStatistics statistics) {
+        long largest = 0;
+        for (int b = 0; b < BucketStatistics.AGE_BUCKET_LABELS.length; b++) {
+            largest = Math.max(largest, statistics.getAgeBucketCount(b));
+        }
+        
+        html.append("    <h2>Object Age</h2>\n")
+           .append("    <table>\n")
+           .append("        <tr><th>Last modified</th><th>Files</th><th></th></tr>\n");
+        for (int b = 0; b < BucketStatistics.AGE_BUCKET_LABELS.length; b++) {
+            appendBarRow(html, BucketStatistics.AGE_BUCKET_LABELS[b], statistics.getAgeBucketCount(b), largest);
+        }
+        html.append("    </table>\n");
+    }
+
+    private static void appendBarRow(StringBuilder html, String label, long count, long largest) {
+        long width = count > 0 ? Math.max(1, Math.round(count * 300.0 / largest)) : 0;
+        html.append("        <tr><td>").append(label)
+           .append("</td><td>").append(count)
+           .append("</td><td><div class='bar' style='width: ").append(width).append("px'></div></td></tr>\n");
+    }
+
+    /**
+     * Formats a byte count with binary units
+     * @param bytes Non-negative byte count
+     * @return e.g. "512 B" or "1.5 MiB"
+     */
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        int exponent = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format(Locale.ROOT, "%.1f %siB", bytes / (double) (1L << (exponent * 10)),
+            "KMGTPE".charAt(exponent - 1));
+    }
+
+    /**
+     * Uploads HTML content to S3 bucket as website index, gzip-encoded and only if it changed
+     * since the last upload (see {@link ReportPublisher})
      * @param s3Client Initialized S3 client
      * @param bucketName Target bucket name
      * @param htmlContent HTML content to upload
+     * @return true if the page was uploaded, false if the stored page is already current
      */
-    public static void updateBucketWebsite(S3Client s3Client, String bucketName, String htmlContent) {
+    public static boolean updateBucketWebsite(S3Client s3Client, String bucketName, String htmlContent) {
+        String configuredCacheControl = System.getenv(CACHE_CONTROL_ENV);
+        ReportPublisher publisher = new ReportPublisher(s3Client,
+            configuredCacheControl != null && !configuredCacheControl.isEmpty()
+                ? configuredCacheControl : DEFAULT_CACHE_CONTROL);
         try {
-            // Configure upload request
-            PutObjectRequest uploadRequest = PutObjectRequest.builder()
-                .bucket(bucketName)
-                .key("home.html") // Main website page
-                .contentType("text/html")
-                .build();
-            
-            // Execute upload
-            s3Client.putObject(uploadRequest, RequestBody.fromString(htmlContent));
-            
+            return publisher.publish(bucketName, REPORT_KEY, htmlContent);
         } catch (SdkException uploadError) {
             System.err.println("Failed to upload HTML content: " + uploadError.getMessage());
             throw uploadError;
@@ -171,17 +502,108 @@ public class App {
     }
 
     /**
-     * Initializes counter map with all possible file categories
-     * @return Pre-populated counter map
+     * Determines the display category of an object from its key
+     * @param objectKey Complete object key
+     * @return One of {@link #CATEGORIES}
+     */
+    static String classifyObject(String objectKey) {
+        String fileExtension = extractFileExtension(objectKey);
+        return FILE_TYPE_MAPPINGS.getOrDefault(
+            fileExtension != null ? fileExtension.toLowerCase() : "",
+            "Other"
+        );
+    }
+
+    /**
+     * Determines the position of an object's category in {@link #CATEGORIES}
+     * @param objectKey Complete object key
+     * @return Index into {@link #CATEGORIES}
+     */
+    static int categoryIndex(String objectKey) {
+        String category = classifyObject(objectKey);
+        for (int i = 0; i < CATEGORIES.length - 1; i++) {
+            if (CATEGORIES[i].equals(category)) {
+                return i;
+            }
+        }
+        return CATEGORIES.length - 1;
+    }
+
+    /**
+     * Determines the category index of a key held as bytes, as {@link #categoryIndex(String)}
+     * does for the same key as a String, without decoding or copying it. Mapped extensions
+     * are ASCII, so any key whose extension is not ASCII is "Other" either way.
+     * @param buffer Buffer holding the key
+     * @param start Index of the key's first byte
+     * @param end Index after the key's last byte
+     * @return Index into {@link #CATEGORIES}
+     */
+    static int categoryIndex(ByteBuffer buffer, int start, int end) {
+        // Like extractFileExtension: a dot at the start or the end of the key gives no extension
+        int lastDot = -1;
+        for (int i = end - 1; i > start; i--) {
+            if (buffer.get(i) == '.') {
+                lastDot = i;
+                break;
+            }
+        }
+        int length = end - lastDot - 1;
+        if (lastDot < 0 || length == 0) {
+            return CATEGORIES.length - 1;
+        }
+        
+        for (int m = 0; m < EXTENSION_BYTES.length; m++) {
+            byte[] extension = EXTENSION_BYTES[m];
+            if (extension.length != length) {
+                continue;
+            }
+            int j = 0;
+            while (j < length && toLowerAscii(buffer.get(lastDot + 1 + j)) == extension[j]) {
+                j++;
+            }
+            if (j == length) {
+                return EXTENSION_CATEGORIES[m];
+            }
+        }
+        return CATEGORIES.length - 1;
+    }
+
+    private static byte toLowerAscii(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    /**
+     * Builds a synchronous S3 client, pointed at a local stand-in when S3_ENDPOINT_URL is set
+     * @param awsRegion Region for signing requests
+     * @return Initialized S3 client
+     */
+    static S3Client buildClient(Region awsRegion) {
+        String endpoint = System.getenv(ENDPOINT_ENV);
+        if (endpoint == null || endpoint.isEmpty()) {
+            return S3Client.builder().region(awsRegion).build();
+        }
+        return S3Client.builder()
+            .region(awsRegion)
+            .endpointOverride(URI.create(endpoint))
+            .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+            .build();
+    }
+
+    /**
+     * Builds an asynchronous S3 client, pointed at a local stand-in when S3_ENDPOINT_URL is set
+     * @param awsRegion Region for signing requests
+     * @return Initialized async S3 client
      */
-    private static Map<String, Integer> initializeCounters() {
-        Map<String, Integer> counters = new HashMap<>();
-        counters.put("Web", 0);
-        counters.put("Text", 0);
-        counters.put("Image", 0);
-        counters.put("Excel", 0);
-        counters.put("Other", 0);
-        return counters;
+    static S3AsyncClient buildAsyncClient(Region awsRegion) {
+        String endpoint = System.getenv(ENDPOINT_ENV);
+        if (endpoint == null || endpoint.isEmpty()) {
+            return S3AsyncClient.builder().region(awsRegion).build();
+        }
+        return S3AsyncClient.builder()
+            .region(awsRegion)
+            .endpointOverride(URI.create(endpoint))
+            .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+            .build();
     }
 
     /**
@@ -0,0 +1,185 @@
+package com.zliang19;
+
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Object statistics for a bucket, collected in one pass over a listing or inventory:
+ * object count and total bytes per category, a log2 histogram of object sizes, and
+ * object age buckets. Every counter is a {@link LongAdder}, which stripes updates over
+ * per-thread cells, so concurrent listing threads record objects without contending on
+ * a shared counter. The counters are a fixed set, so memory is the same for a thousand
+ * keys or a hundred million.
+ */
+public class BucketStatistics {
+
+    /**
+     * Size histogram buckets: 0 holds empty objects, bucket k holds sizes in [2^(k-1), 2^k),
+     * and the last bucket everything from 2^62 up
+     */
+    public static final int SIZE_BUCKETS = 64;
+
+    /**
+     * Upper bounds of the age buckets in days; the last bucket is everything older
+     */
+    static final long[] AGE_BUCKET_DAYS = {1, 7, 30, 90, 365};
+    static final String[] AGE_BUCKET_LABELS = {"Under 1 day", "1-7 days", "7-30 days", "30-90 days",
+        "90-365 days", "Over 1 year"};
+
+    /**
+     * Size or modification time not known, e.g. a column missing from an inventory report
+     */
+    public static final long UNKNOWN_SIZE = -1;
+    public static final long UNKNOWN_TIME = Long.MIN_VALUE;
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private final long nowMillis;
+    private final LongAdder[] categoryCounts = adders(App.CATEGORIES.length);
+    private final LongAdder[] categoryBytes = adders(App.CATEGORIES.length);
+    private final LongAdder[] sizeHistogram = adders(SIZE_BUCKETS);
+    private final LongAdder[] ageBuckets = adders(AGE_BUCKET_LABELS.length);
+
+    /**
+     * @param nowMillis Time object ages are measured from
+     */
+    public BucketStatistics(long nowMillis) {
+        this.nowMillis = nowMillis;
+    }
+
+    /**
+     * Records one object from a bucket listing
+     * @param object Listed object
+     */
+    public void record(S3Object object) {
+        Long size = object.size();
+        Instant lastModified = object.lastModified();
+        record(App.categoryIndex(object.key()),
+            size != null ? size : UNKNOWN_SIZE,
+            lastModified != null ? lastModified.toEpochMilli() : UNKNOWN_TIME);
+    }
+
+    /**
+     * Records one object
+     * @param category Index into {@link App#CATEGORIES}
+     * @param size Object size in bytes, or {@link #UNKNOWN_SIZE}
+     * @param lastModifiedMillis Last modification time in epoch millis, or {@link #UNKNOWN_TIME}
+     */
+    public void record(int category, long size, long lastModifiedMillis) {
+        categoryCounts[category].increment();
+        if (size >= 0) {
+            categoryBytes[category].add(size);
+            sizeHistogram[sizeBucket(size)].increment();
+        }
+        if (lastModifiedMillis != UNKNOWN_TIME) {
+            ageBuckets[ageBucket(nowMillis - lastModifiedMillis)].increment();
+        }
+    }
+
+    /**
+     * @param size Object size in bytes
+     * @return Index of the histogram bucket holding the size
+     */
+    static int sizeBucket(long size) {
+        return size <= 0 ? 0 : Math.min(SIZE_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(size));
+    }
+
+    /**
+     * @param ageMillis Object age; objects dated in the future count as new
+     * @return Index into {@link #AGE_BUCKET_LABELS}
+     */
+    static int ageBucket(long ageMillis) {
+        long ageDays = Math.max(0, ageMillis) / MILLIS_PER_DAY;
+        for (int b = 0; b < AGE_BUCKET_DAYS.length; b++) {
+            if (ageDays < AGE_BUCKET_DAYS[b]) {
+                return b;
+            }
+        }
+        return AGE_BUCKET_DAYS.length;
+    }
+
+    public long getCount(int category) {
+        return categoryCounts[category].sum();
+    }
+
+    public long getBytes(int category) {
+        return categoryBytes[category].sum();
+    }
+
+    /**
+     * @param bucket Histogram bucket, see {@link #SIZE_BUCKETS}
+     * @return Number of objects whose size falls into the bucket
+     */
+    public long getSizeBucketCount(int bucket) {
+        return sizeHistogram[bucket].sum();
+    }
+
+    /**
+     * @param bucket Index into {@link #AGE_BUCKET_LABELS}
+     * @return Number of objects of that age
+     */
+    public long getAgeBucketCount(int bucket) {
+        return ageBuckets[bucket].sum();
+    }
+
+    /**
+     * @return Number of objects recorded with a size; less than the total when sizes were not available
+     */
+    public long getSizedCount() {
+        long total = 0;
+        for (LongAdder count : sizeHistogram) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @return Number of objects recorded with a modification time
+     */
+    public long getDatedCount() {
+        long total = 0;
+        for (LongAdder count : ageBuckets) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    public long getTotalCount() {
+        long total = 0;
+        for (LongAdder count : categoryCounts) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    public long getTotalBytes() {
+        long total = 0;
+        for (LongAdder bytes : categoryBytes) {
+            total += bytes.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @return Counters keyed by display category, in report order
+     */
+    public Map<String, Integer> toCounterMap() {
+        Map<String, Integer> counters = new LinkedHashMap<>();
+        for (int c = 0; c < App.CATEGORIES.length; c++) {
+            counters.put(App.CATEGORIES[c], (int) Math.min(Integer.MAX_VALUE, getCount(c)));
+        }
+        return counters;
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
@@ -0,0 +1,178 @@
+package com.zliang19;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Applies S3 event notifications delivered to an SQS queue to an {@link InventorySnapshot}.
+ * ObjectCreated events increment and ObjectRemoved events decrement the category counter
+ * of the affected key. SQS delivers at least once, so every event goes through
+ * {@link InventorySnapshot#applyEvent}, which skips events whose sequencer was already applied
+ * to the key. The first overwrite of a key that existed at the last full scan is
+ * indistinguishable from a new object here, as is a removal during the scan of a key it had
+ * not reached yet; that is the drift the periodic full reconciliation corrects.
+ */
+public class IncrementalInventory {
+
+    // SQS returns at most 10 messages per receive call
+    private static final int MAX_MESSAGES_PER_RECEIVE = 10;
+
+    private static final int RECEIVE_WAIT_SECONDS = 1;
+
+    private final SqsClient sqsClient;
+    private final ObjectMapper objectMapper;
+    private final Set<String> ignoredKeys;
+
+    /**
+     * @param sqsClient Initialized SQS client
+     * @param ignoredKeys Keys written by this application whose events must not change the counts
+     */
+    public IncrementalInventory(SqsClient sqsClient, Set<String> ignoredKeys) {
+        this.sqsClient = sqsClient;
+        this.objectMapper = new ObjectMapper();
+        this.ignoredKeys = Collections.unmodifiableSet(new HashSet<>(ignoredKeys));
+    }
+
+    /**
+     * Drains the queue into the snapshot. After every received batch its changes are appended
+     * to the snapshot's journal before the batch is deleted, so a crash can only re-apply events,
+     * never lose them. The full snapshot is rewritten at the end only once the journal outgrows it.
+     * @param queueUrl URL of the queue receiving the bucket notifications
+     * @param snapshot Snapshot to update
+     * @param snapshotPath Location the snapshot is persisted to
+     * @return Number of object events applied
+     * @throws IOException If the snapshot cannot be saved
+     */
+    public long applyPendingEvents(String queueUrl, InventorySnapshot snapshot, Path snapshotPath)
+            throws IOException {
+        long applied = 0;
+
+        while (true) {
+            ReceiveMessageRequest receiveRequest = ReceiveMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .maxNumberOfMessages(MAX_MESSAGES_PER_RECEIVE)
+                .waitTimeSeconds(RECEIVE_WAIT_SECONDS)
+                .build();
+
+            List<Message> messages = sqsClient.receiveMessage(receiveRequest).messages();
+            if (messages.isEmpty()) {
+                break;
+            }
+
+            for (Message message : messages) {
+                applied += applyNotification(message.body(), snapshot);
+            }
+
+            // Only the keys this batch touched are written; the messages go once they are on disk
+            snapshot.appendChanges(snapshotPath);
+            deleteMessages(queueUrl, messages);
+        }
+
+        if (InventorySnapshot.isJournalLargerThanSnapshot(snapshotPath)) {
+            snapshot.save(snapshotPath);
+        }
+        return applied;
+    }
+
+    /**
+     * Applies every record of one S3 event notification
+     * @param notificationJson Message body as delivered by S3
+     * @param snapshot Snapshot to update
+     * @return Number of object events applied
+     */
+    int applyNotification(String notificationJson, InventorySnapshot snapshot) {
+        JsonNode records;
+        try {
+            records = objectMapper.readTree(notificationJson).path("Records");
+        } catch (IOException parseError) {
+            System.err.println("Skipping unreadable notification: " + parseError.getMessage());
+            return 0;
+        }
+
+        int applied = 0;
+        // s3:TestEvent messages carry no Records and fall through here
+        for (JsonNode record : records) {
+            String eventName = record.path("eventName").asText("");
+            JsonNode object = record.path("s3").path("object");
+            String objectKey = decodeKey(object.path("key").asText(""));
+            String sequencer = object.path("sequencer").asText("");
+
+            if (objectKey.isEmpty() || ignoredKeys.contains(objectKey)) {
+                continue;
+            }
+
+            // Events older than the last full scan are already reflected in its counts
+            if (eventTimeMillis(record) < snapshot.getReconciledAtMillis()) {
+                continue;
+            }
+
+            boolean created = eventName.startsWith("ObjectCreated");
+            if ((created || eventName.startsWith("ObjectRemoved"))
+                && snapshot.applyEvent(objectKey, created, sequencer)) {
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Deletes processed messages in batches of up to 10
+     */
+    private void deleteMessages(String queueUrl, List<Message> messages) {
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            entries.add(DeleteMessageBatchRequestEntry.builder()
+                .id(Integer.toString(i))
+                .receiptHandle(messages.get(i).receiptHandle())
+                .build());
+        }
+
+        sqsClient.deleteMessageBatch(DeleteMessageBatchRequest.builder()
+            .queueUrl(queueUrl)
+            .entries(entries)
+            .build());
+    }
+
+    /**
+     * Event keys are URL-encoded, with spaces sent as '+'
+     */
+    private static String decodeKey(String encodedKey) {
+        try {
+            return URLDecoder.decode(encodedKey, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException decodeError) {
+            return encodedKey;
+        }
+    }
+
+    /**
+     * @return Event time in epoch millis, or Long.MAX_VALUE if missing so the event is applied
+     */
+    private static long eventTimeMillis(JsonNode record) {
+        String eventTime = record.path("eventTime").asText("");
+        if (eventTime.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            return Instant.parse(eventTime).toEpochMilli();
+        } catch (DateTimeParseException parseError) {
+            return Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package com.zliang19;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Counts the objects of a bucket from an S3 Inventory report instead of listing it.
+ * The report's manifest.json names the CSV data files and their column order; the
+ * manifest and the files are read from a local copy or straight from the destination
+ * bucket when the manifest is given as s3://bucket/key.
+ *
+ * Records never become Strings: the Key column is classified and the Size and
+ * LastModifiedDate columns, when the report has them, are parsed from the bytes in place.
+ * Uncompressed local files are memory-mapped in windows; gzip files, local or in S3,
+ * are decompressed through one fixed buffer. Memory therefore stays the same for any
+ * number of keys. Data files are scanned concurrently into one {@link BucketStatistics}.
+ *
+ * Inventory keys are URL-encoded. Encoding never touches '.' or letters, so a key's
+ * category is the same encoded or decoded and no decoding is needed.
+ */
+public class InventoryManifestScanner {
+
+    private static final String S3_SCHEME = "s3://";
+    private static final String BUCKET_ARN_PREFIX = "arn:aws:s3:::";
+
+    // Mapped window per step through an uncompressed file; a record never spans more than one
+    private static final int MAP_WINDOW_BYTES = 64 << 20;
+
+    // Decompression buffer per gzip file being scanned
+    private static final int STREAM_BUFFER_BYTES = 1 << 20;
+
+    private final S3Client s3Client;
+    private final int parallelism;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * @param s3Client Initialized S3 client, used when the manifest is in S3
+     * @param parallelism Maximum number of data files scanned at the same time
+     */
+    public InventoryManifestScanner(S3Client s3Client, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.s3Client = s3Client;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Scans every data file of an inventory report
+     * @param manifestLocation Local path of manifest.json, or its s3://bucket/key
+     * @return Statistics of the current, non-deleted object versions; one partition per data file
+     * @throws IOException If the manifest or a data file cannot be read
+     */
+    public ParallelBucketScanner.ScanResult scan(String manifestLocation) throws IOException {
+        long startNanos = System.nanoTime();
+
+        // Step 1: Read the manifest and locate the columns
+        boolean inS3 = manifestLocation.startsWith(S3_SCHEME);
+        JsonNode manifest;
+        if (inS3) {
+            String bucketAndKey = manifestLocation.substring(S3_SCHEME.length());
+            int slash = bucketAndKey.indexOf('/');
+            if (slash <= 0) {
+                throw new IllegalArgumentException("Expected s3://bucket/key, got " + manifestLocation);
+            }
+            try (InputStream in = openObject(bucketAndKey.substring(0, slash), bucketAndKey.substring(slash + 1))) {
+                manifest = objectMapper.readTree(in);
+            }
+        } else {
+            manifest = objectMapper.readTree(Paths.get(manifestLocation).toFile());
+        }
+
+        String fileFormat = manifest.path("fileFormat").asText("");
+        if (!"CSV".equalsIgnoreCase(fileFormat)) {
+            throw new IllegalArgumentException("Only CSV inventory reports are supported, not " + fileFormat);
+        }
+        List<String> columns = new ArrayList<>();
+        for (String column : manifest.path("fileSchema").asText("").split(",")) {
+            columns.add(column.trim());
+        }
+        if (!columns.contains("Key")) {
+            throw new IllegalArgumentException("Inventory schema has no Key column: " + columns);
+        }
+        String destinationBucket = manifest.path("destinationBucket").asText("");
+        if (destinationBucket.startsWith(BUCKET_ARN_PREFIX)) {
+            destinationBucket = destinationBucket.substring(BUCKET_ARN_PREFIX.length());
+        }
+        List<String> fileKeys = new ArrayList<>();
+        for (JsonNode file : manifest.path("files")) {
+            fileKeys.add(file.path("key").asText());
+        }
+
+        // Step 2: Scan the data files concurrently into shared statistics
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, fileKeys.size())));
+        BucketStatistics statistics = new BucketStatistics(System.currentTimeMillis());
+        try {
+            List<Future<Void>> scans = new ArrayList<>();
+            for (String fileKey : fileKeys) {
+                String bucket = destinationBucket;
+                Callable<Void> fileScan = () -> {
+                    RecordCounter counter = new RecordCounter(columns, statistics);
+                    if (inS3) {
+                        scanObject(bucket, fileKey, counter);
+                    } else {
+                        scanLocalFile(Paths.get(manifestLocation), fileKey, counter);
+                    }
+                    return null;
+                };
+                scans.add(executor.submit(fileScan));
+            }
+            for (Future<Void> fileScan : scans) {
+                fileScan.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning inventory files", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return new ParallelBucketScanner.ScanResult(statistics, fileKeys.size(), System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Scans a data file in the destination bucket; gzip files are decompressed as they stream in
+     */
+    private void scanObject(String bucketName, String fileKey, RecordCounter counter) throws IOException {
+        try (InputStream in = openObject(bucketName, fileKey)) {
+            scanStream(fileKey.endsWith(".gz") ? new GZIPInputStream(in, STREAM_BUFFER_BYTES) : in, counter);
+        }
+    }
+
+    /**
+     * Scans a local copy of a data file, preferring an already decompressed copy that can be mapped
+     */
+    private void scanLocalFile(Path manifestPath, String fileKey, RecordCounter counter) throws IOException {
+        Path file = locateLocalFile(manifestPath, fileKey);
+        if (file.getFileName().toString().endsWith(".gz")) {
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(file), STREAM_BUFFER_BYTES)) {
+                scanStream(in, counter);
+            }
+        } else {
+            scanMapped(file, counter);
+        }
+    }
+
+    /**
+     * Finds a data file of a local report. Reports are laid out as
+     * .../&lt;config&gt;/&lt;date&gt;/manifest.json next to .../&lt;config&gt;/data/&lt;file&gt;.csv.gz;
+     * the file may also sit beside the manifest, and either copy may have been gunzipped.
+     */
+    private static Path locateLocalFile(Path manifestPath, String fileKey) throws FileNotFoundException {
+        String fileName = fileKey.substring(fileKey.lastIndexOf('/') + 1);
+        Path manifestDir = manifestPath.toAbsolutePath().getParent();
+        List<Path> directories = new ArrayList<>();
+        if (manifestDir.getParent() != null) {
+            directories.add(manifestDir.getParent().resolve("data"));
+        }
+        directories.add(manifestDir);
+
+        List<Path> candidates = new ArrayList<>();
+        for (Path directory : directories) {
+            if (fileName.endsWith(".gz")) {
+                candidates.add(directory.resolve(fileName.substring(0, fileName.length() - 3)));
+            }
+            candidates.add(directory.resolve(fileName));
+        }
+        for (Path candidate : candidates) {
+            if (Files.isRegularFile(candidate)) {
+                return candidate;
+            }
+        }
+        throw new FileNotFoundException("Inventory file " + fileKey + " not found; looked for " + candidates);
+    }
+
+    private InputStream openObject(String bucketName, String key) {
+        if (s3Client == null) {
+            throw new IllegalStateException("An S3 client is needed to read s3:// inventory reports");
+        }
+        return s3Client.getObject(GetObjectRequest.builder().bucket(bucketName).key(key).build());
+    }
+
+    /**
+     * Maps the file window by window and scans each window in place
+     */
+    private static void scanMapped(Path file, RecordCounter counter) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                int length = (int) Math.min(MAP_WINDOW_BYTES, size - position);
+                boolean last = position + length == size;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int consumed = counter.scan(window, length, last);
+                if (consumed == 0 && !last) {
+                    throw new IOException("Record longer than " + MAP_WINDOW_BYTES + " bytes in " + file);
+                }
+                position += consumed;
+            }
+        }
+    }
+
+    /**
+     * Fills one buffer from the stream, scans the complete records in it and moves the
+     * partial last record to the front before the next fill
+     */
+    private static void scanStream(InputStream in, RecordCounter counter) throws IOException {
+        byte[] bytes = new byte[STREAM_BUFFER_BYTES];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int filled = 0;
+        boolean endOfInput = false;
+        while (!endOfInput) {
+            while (filled < bytes.length) {
+                int read = in.read(bytes, filled, bytes.length - filled);
+                if (read < 0) {
+                    endOfInput = true;
+                    break;
+                }
+                filled += read;
+            }
+            int consumed = counter.scan(buffer, filled, endOfInput);
+            if (consumed == 0 && filled == bytes.length) {
+                throw new IOException("Record longer than " + STREAM_BUFFER_BYTES + " bytes");
+            }
+            System.arraycopy(bytes, consumed, bytes, 0, filled - consumed);
+            filled -= consumed;
+        }
+    }
+
+    /**
+     * Records the CSV records of one data file into the scan's statistics. Fields may be
+     * quoted, with quotes inside doubled; only the Key, Size, LastModifiedDate, IsLatest and
+     * IsDeleteMarker columns are looked at. Without the last two every record counts, as in
+     * a current-version report; without Size or LastModifiedDate sizes or ages are unknown.
+     */
+    private static final class RecordCounter {
+        private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+
+        private final BucketStatistics statistics;
+        private final int keyColumn;
+        private final int sizeColumn;
+        private final int lastModifiedColumn;
+        private final int latestColumn;
+        private final int deleteMarkerColumn;
+
+        // Fields of the record being scanned
+        private int keyStart;
+        private int keyEnd;
+        private long size;
+        private long lastModified;
+        private boolean latest;
+        private boolean deleteMarker;
+
+        RecordCounter(List<String> columns, BucketStatistics statistics) {
+            this.statistics = statistics;
+            this.keyColumn = columns.indexOf("Key");
+            this.sizeColumn = columns.indexOf("Size");
+            this.lastModifiedColumn = columns.indexOf("LastModifiedDate");
+            this.latestColumn = columns.indexOf("IsLatest");
+            this.deleteMarkerColumn = columns.indexOf("IsDeleteMarker");
+        }
+
+        /**
+         * Scans the records in buffer[0, limit)
+         * @param endOfInput Whether the bytes after the last line break are a complete record
+         * @return Number of bytes consumed, up to the end of the last complete record
+         */
+        int scan(ByteBuffer buffer, int limit, boolean endOfInput) {
+            int recordStart = 0;
+            int fieldStart = 0;
+            int field = 0;
+            boolean quoted = false;
+            startRecord();
+            for (int i = 0; i < limit; i++) {
+                byte b = buffer.get(i);
+                if (b == '"') {
+                    quoted = !quoted;
+                } else if (quoted) {
+                    continue;
+                } else if (b == ',') {
+                    endField(buffer, field++, fieldStart, i);
+                    fieldStart = i + 1;
+                } else if (b == '\n') {
+                    int end = i > fieldStart && buffer.get(i - 1) == '\r' ? i - 1 : i;
+                    endField(buffer, field, fieldStart, end);
+                    endRecord(buffer, field, end - recordStart);
+                    recordStart = i + 1;
+                    fieldStart = i + 1;
+                    field = 0;
+                    startRecord();
+                }
+            }
+            if (endOfInput && recordStart < limit) {
+                endField(buffer, field, fieldStart, limit);
+                endRecord(buffer, field, limit - recordStart);
+                return limit;
+            }
+            return recordStart;
+        }
+
+        private void startRecord() {
+            keyStart = -1;
+            size = BucketStatistics.UNKNOWN_SIZE;
+            lastModified = BucketStatistics.UNKNOWN_TIME;
+            latest = true;
+            deleteMarker = false;
+        }
+
+        private void endField(ByteBuffer buffer, int field, int start, int end) {
+            if (end - start >= 2 && buffer.get(start) == '"' && buffer.get(end - 1) == '"') {
+                start++;
+                end--;
+            }
+            if (field == keyColumn) {
+                keyStart = start;
+                keyEnd = end;
+            } else if (field == sizeColumn) {
+                size = parseSize(buffer, start, end);
+            } else if (field == lastModifiedColumn) {
+                lastModified = parseTimestamp(buffer, start, end);
+            } else if (field == latestColumn) {
+                latest = isTrue(buffer, start, end);
+            } else if (field == deleteMarkerColumn) {
+                deleteMarker = isTrue(buffer, start, end);
+            }
+        }
+
+        private void endRecord(ByteBuffer buffer, int lastField, int length) {
+            // Blank lines, such as a trailing line break, hold no record
+            if (length == 0 && lastField == 0) {
+                return;
+            }
+            if (keyStart >= 0 && latest && !deleteMarker) {
+                statistics.record(App.categoryIndex(buffer, keyStart, keyEnd), size, lastModified);
+            }
+        }
+
+        /**
+         * @return Decimal byte count, or UNKNOWN_SIZE for an empty or malformed field
+         */
+        private static long parseSize(ByteBuffer buffer, int start, int end) {
+            if (start == end || end - start > 18) {
+                return BucketStatistics.UNKNOWN_SIZE;
+            }
+            long value = 0;
+            for (int i = start; i < end; i++) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return BucketStatistics.UNKNOWN_SIZE;
+                }
+                value = value * 10 + digit;
+            }
+            return value;
+        }
+
+        /**
+         * Parses an ISO-8601 UTC timestamp as written to inventory reports, e.g. 2024-05-01T09:30:00.000Z
+         * @return Epoch millis, or UNKNOWN_TIME for an empty or malformed field
+         */
+        private static long parseTimestamp(ByteBuffer buffer, int start, int end) {
+            if (end - start < 20 || buffer.get(start + 4) != '-' || buffer.get(start + 7) != '-'
+                || buffer.get(start + 10) != 'T' || buffer.get(start + 13) != ':'
+                || buffer.get(start + 16) != ':' || buffer.get(end - 1) != 'Z') {
+                return BucketStatistics.UNKNOWN_TIME;
+            }
+            int year = parseDigits(buffer, start, 4);
+            int month = parseDigits(buffer, start + 5, 2);
+            int day = parseDigits(buffer, start + 8, 2);
+            int hour = parseDigits(buffer, start + 11, 2);
+            int minute = parseDigits(buffer, start + 14, 2);
+            int second = parseDigits(buffer, start + 17, 2);
+            if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || minute < 0 || second < 0) {
+                return BucketStatistics.UNKNOWN_TIME;
+            }
+            // Fractional seconds, if any, sit between the seconds and the trailing Z
+            int millis = 0;
+            if (end - start > 20 && buffer.get(start + 19) == '.') {
+                int fractionDigits = Math.min(3, end - start - 21);
+                millis = parseDigits(buffer, start + 20, fractionDigits);
+                if (millis < 0) {
+                    return BucketStatistics.UNKNOWN_TIME;
+                }
+                for (int i = fractionDigits; i < 3; i++) {
+                    millis *= 10;
+                }
+            }
+            long seconds = epochDay(year, month, day) * 86_400L + hour * 3_600L + minute * 60L + second;
+            return seconds * 1_000L + millis;
+        }
+
+        /**
+         * @return Value of the ASCII digits at buffer[start, start + count), or -1 if any is not a digit
+         */
+        private static int parseDigits(ByteBuffer buffer, int start, int count) {
+            int value = 0;
+            for (int i = start; i < start + count; i++) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return -1;
+                }
+                value = value * 10 + digit;
+            }
+            return value;
+        }
+
+        /**
+         * @return Days since 1970-01-01 of a proleptic Gregorian date, as LocalDate.toEpochDay computes it
+         */
+        private static long epochDay(int year, int month, int day) {
+            long y = month <= 2 ? year - 1 : year;
+            long era = (y >= 0 ? y : y - 399) / 400;
+            long yearOfEra = y - era * 400;
+            long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+            long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+            return era * 146_097 + dayOfEra - 719_468;
+        }
+
+        private static boolean isTrue(ByteBuffer buffer, int start, int end) {
+            if (end - start != TRUE.length) {
+                return false;
+            }
+            for (int i = 0; i < TRUE.length; i++) {
+                if (buffer.get(start + i) != TRUE[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
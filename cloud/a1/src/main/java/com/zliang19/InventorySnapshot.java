@@ -0,0 +1,288 @@
+package com.zliang19;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Persisted per-category object counters for a bucket.
+ * The snapshot is rebuilt by a full scan on reconciliation and then kept current
+ * by applying object created/removed deltas, so each update costs O(changes).
+ *
+ * For every key an event touched since the last full scan, the snapshot also keeps the
+ * S3 event sequencer of the last applied event and whether the object exists. Redelivered
+ * and out-of-date events carry a sequencer no greater than the stored one and are skipped,
+ * and a repeated create only counts once. Keys created while the full scan was listing are
+ * stored as existing, so their creation event does not count them a second time.
+ *
+ * Rewriting the whole file after every batch of events would cost O(tracked keys) per batch,
+ * so changes are appended to a journal next to the snapshot instead ({@link #appendChanges}).
+ * Each journal block holds the current counters and the new state of every key it changed,
+ * all as absolute values, so replaying a block twice is harmless. {@link #save} writes the
+ * full snapshot and removes the journal; it runs on reconciliation and whenever the journal
+ * has grown larger than the snapshot. Blocks from before the last reconciliation, or cut
+ * short by a crash, are ignored on load.
+ */
+public class InventorySnapshot {
+
+    private static final String RECONCILED_AT_PROPERTY = "reconciledAt";
+    private static final String OBJECT_PROPERTY_PREFIX = "object.";
+
+    // Ends every complete journal block; comment lines are ignored by Properties
+    private static final String JOURNAL_BLOCK_END = "#end\n";
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    /**
+     * Sequencer of a key the full scan listed; lower than any sequencer S3 sends
+     */
+    private static final String LISTED_SEQUENCER = "";
+
+    private final long[] categoryCounts;
+    private long reconciledAtMillis;
+
+    // Per key: "1" or "0" for exists, a colon, then the sequencer of the last applied event
+    private final Map<String, String> objectStates;
+
+    // Keys whose state changed since the last save or journal append
+    private final Map<String, String> changedStates = new LinkedHashMap<>();
+
+    private InventorySnapshot(long[] categoryCounts, long reconciledAtMillis, Map<String, String> objectStates) {
+        this.categoryCounts = categoryCounts;
+        this.reconciledAtMillis = reconciledAtMillis;
+        this.objectStates = objectStates;
+    }
+
+    /**
+     * Creates a snapshot from the result of a full bucket scan
+     * @param counts Counters keyed by display category
+     * @param reconciledAtMillis Time the full scan started
+     * @param keysCreatedDuringScan Listed keys modified after the scan started, whose events arrive after it
+     * @return New snapshot
+     */
+    public static InventorySnapshot fromFullScan(Map<String, Integer> counts, long reconciledAtMillis,
+                                                 Collection<String> keysCreatedDuringScan) {
+        long[] categoryCounts = new long[App.CATEGORIES.length];
+        for (int c = 0; c < App.CATEGORIES.length; c++) {
+            Integer count = counts.get(App.CATEGORIES[c]);
+            categoryCounts[c] = count != null ? count : 0;
+        }
+        Map<String, String> objectStates = new HashMap<>();
+        for (String objectKey : keysCreatedDuringScan) {
+            objectStates.put(objectKey, state(true, LISTED_SEQUENCER));
+        }
+        return new InventorySnapshot(categoryCounts, reconciledAtMillis, objectStates);
+    }
+
+    /**
+     * Loads a snapshot from disk
+     * @param path Snapshot file location
+     * @return Stored snapshot, or null if none has been written yet
+     * @throws IOException If the file exists but cannot be read
+     */
+    public static InventorySnapshot load(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            properties.load(in);
+        }
+        replayJournal(journalPath(path), properties);
+
+        long[] categoryCounts = new long[App.CATEGORIES.length];
+        for (int c = 0; c < App.CATEGORIES.length; c++) {
+            categoryCounts[c] = Long.parseLong(properties.getProperty(App.CATEGORIES[c], "0"));
+        }
+        long reconciledAt = Long.parseLong(properties.getProperty(RECONCILED_AT_PROPERTY, "0"));
+        Map<String, String> objectStates = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(OBJECT_PROPERTY_PREFIX)) {
+                objectStates.put(name.substring(OBJECT_PROPERTY_PREFIX.length()), properties.getProperty(name));
+            }
+        }
+        return new InventorySnapshot(categoryCounts, reconciledAt, objectStates);
+    }
+
+    /**
+     * Writes the snapshot to disk, replacing any previous version atomically, and removes its journal
+     * @param path Snapshot file location
+     * @throws IOException If the file cannot be written
+     */
+    public void save(Path path) throws IOException {
+        Properties properties = countProperties();
+        for (Map.Entry<String, String> object : objectStates.entrySet()) {
+            properties.setProperty(OBJECT_PROPERTY_PREFIX + object.getKey(), object.getValue());
+        }
+
+        Path parent = path.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, "inventory", ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "S3 bucket inventory snapshot");
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // A crash before this delete only leaves blocks whose values the snapshot already holds
+        Files.deleteIfExists(journalPath(path));
+        changedStates.clear();
+    }
+
+    /**
+     * Appends the counters and the keys changed since the last save or append to the journal,
+     * so persisting a batch of events costs O(keys it touched) rather than O(keys tracked)
+     * @param path Snapshot file location; the journal is kept next to it
+     * @throws IOException If the journal cannot be written
+     */
+    public void appendChanges(Path path) throws IOException {
+        if (changedStates.isEmpty()) {
+            return;
+        }
+        Properties block = countProperties();
+        for (Map.Entry<String, String> object : changedStates.entrySet()) {
+            block.setProperty(OBJECT_PROPERTY_PREFIX + object.getKey(), object.getValue());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        block.store(bytes, null);
+        bytes.write(JOURNAL_BLOCK_END.getBytes(StandardCharsets.ISO_8859_1));
+        Files.write(journalPath(path), bytes.toByteArray(), StandardOpenOption.CREATE, StandardOpenOption.APPEND,
+            StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+        changedStates.clear();
+    }
+
+    /**
+     * @param path Snapshot file location
+     * @return true if the journal has grown larger than the snapshot, so loading it costs more than a rewrite
+     * @throws IOException If the file sizes cannot be read
+     */
+    public static boolean isJournalLargerThanSnapshot(Path path) throws IOException {
+        Path journal = journalPath(path);
+        return Files.exists(journal) && (!Files.exists(path) || Files.size(journal) > Files.size(path));
+    }
+
+    /**
+     * Applies the complete journal blocks written since the snapshot's reconciliation, in order.
+     * Later values replace earlier ones, as they did when the blocks were written.
+     */
+    private static void replayJournal(Path journal, Properties properties) throws IOException {
+        if (!Files.exists(journal)) {
+            return;
+        }
+        String reconciledAt = properties.getProperty(RECONCILED_AT_PROPERTY, "0");
+        String text = new String(Files.readAllBytes(journal), StandardCharsets.ISO_8859_1);
+        int start = 0;
+        while (true) {
+            int end = text.indexOf(JOURNAL_BLOCK_END, start);
+            // Only the last block can be incomplete, after a crash during its append
+            if (end < 0) {
+                break;
+            }
+            Properties block = new Properties();
+            block.load(new StringReader(text.substring(start, end)));
+            // A journal left behind by a crash during a reconciliation belongs to the previous scan
+            if (reconciledAt.equals(block.getProperty(RECONCILED_AT_PROPERTY))) {
+                properties.putAll(block);
+            }
+            start = end + JOURNAL_BLOCK_END.length();
+        }
+    }
+
+    private static Path journalPath(Path path) {
+        return path.resolveSibling(path.getFileName() + JOURNAL_SUFFIX);
+    }
+
+    private Properties countProperties() {
+        Properties properties = new Properties();
+        for (int c = 0; c < App.CATEGORIES.length; c++) {
+            properties.setProperty(App.CATEGORIES[c], Long.toString(categoryCounts[c]));
+        }
+        properties.setProperty(RECONCILED_AT_PROPERTY, Long.toString(reconciledAtMillis));
+        return properties;
+    }
+
+    /**
+     * Applies one object event unless an event with the same or a later sequencer was applied
+     * to the key already. The first event of a key is taken to change whether it exists:
+     * a create counts it, a removal uncounts it.
+     * @param objectKey Key of the object
+     * @param created true for an ObjectCreated event, false for ObjectRemoved
+     * @param sequencer The event's s3.object.sequencer, or empty if it has none, which is never skipped
+     * @return false if the event was skipped as a duplicate or out of date
+     */
+    public boolean applyEvent(String objectKey, boolean created, String sequencer) {
+        String previous = objectStates.get(objectKey);
+        if (previous != null && !sequencer.isEmpty()
+                && compareSequencers(sequencer, previous.substring(2)) <= 0) {
+            return false;
+        }
+
+        boolean existed = previous != null ? previous.charAt(0) == '1' : !created;
+        if (created && !existed) {
+            categoryCounts[App.categoryIndex(objectKey)]++;
+        } else if (!created && existed) {
+            int category = App.categoryIndex(objectKey);
+            // Counters never go below zero
+            if (categoryCounts[category] > 0) {
+                categoryCounts[category]--;
+            }
+        }
+        String state = state(created, sequencer);
+        objectStates.put(objectKey, state);
+        changedStates.put(objectKey, state);
+        return true;
+    }
+
+    /**
+     * Orders sequencers as S3 documents it: hex strings compared after right-padding the shorter with zeros
+     */
+    static int compareSequencers(String a, String b) {
+        int length = Math.max(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char x = i < a.length() ? Character.toUpperCase(a.charAt(i)) : '0';
+            char y = i < b.length() ? Character.toUpperCase(b.charAt(i)) : '0';
+            if (x != y) {
+                return x < y ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    private static String state(boolean exists, String sequencer) {
+        return (exists ? "1:" : "0:") + sequencer;
+    }
+
+    public long getReconciledAtMillis() {
+        return reconciledAtMillis;
+    }
+
+    /**
+     * @param nowMillis Current time
+     * @param intervalMillis Maximum age of the last full scan
+     * @return true if a full reconciliation scan is due
+     */
+    public boolean isReconciliationDue(long nowMillis, long intervalMillis) {
+        return nowMillis - reconciledAtMillis >= intervalMillis;
+    }
+
+    /**
+     * @return Counters keyed by display category, in report order
+     */
+    public Map<String, Integer> toCounterMap() {
+        Map<String, Integer> counters = new LinkedHashMap<>();
+        for (int c = 0; c < App.CATEGORIES.length; c++) {
+            counters.put(App.CATEGORIES[c], (int) Math.min(Integer.MAX_VALUE, categoryCounts[c]));
+        }
+        return counters;
+    }
+}
@@ -0,0 +1,275 @@
+package com.zliang19;
+
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Lists a bucket as a set of independent keyspace partitions on an async S3 client.
+ * Each partition follows its own continuation tokens; all of them record into one
+ * {@link BucketStatistics}, whose striped counters take updates from the client's
+ * completion threads without contention.
+ */
+public class ParallelBucketScanner {
+
+    // Boundaries used to split a flat bucket into key ranges when no prefixes are available
+    private static final String DEFAULT_RANGE_BOUNDARIES =
+        "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+    private final S3AsyncClient s3AsyncClient;
+    private final int maxConcurrency;
+
+    /**
+     * @param s3AsyncClient Initialized async S3 client
+     * @param maxConcurrency Maximum number of partitions listed at the same time
+     */
+    public ParallelBucketScanner(S3AsyncClient s3AsyncClient, int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1");
+        }
+        this.s3AsyncClient = s3AsyncClient;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Builds the partition plan for a bucket. Top-level prefixes under the delimiter
+     * become one partition each; if the bucket has fewer than two of them it is
+     * split into lexicographic key ranges instead.
+     * @param bucketName Name of bucket to plan
+     * @param delimiter Delimiter used to discover prefixes, usually "/"
+     * @return Partitions that together cover every key exactly once
+     */
+    public List<Partition> planPartitions(String bucketName, String delimiter) {
+        List<String> prefixes = discoverPrefixes(bucketName, delimiter);
+        if (prefixes.size() < 2) {
+            return keyRangePartitions(DEFAULT_RANGE_BOUNDARIES);
+        }
+
+        List<Partition> partitions = new ArrayList<>();
+        // Objects sitting directly under the root are not covered by any prefix
+        partitions.add(Partition.rootLevel(delimiter));
+        for (String prefix : prefixes) {
+            partitions.add(Partition.prefix(prefix));
+        }
+        return partitions;
+    }
+
+    /**
+     * Lists the top-level common prefixes of a bucket, following continuation tokens
+     * @param bucketName Name of bucket to inspect
+     * @param delimiter Delimiter that separates prefix levels
+     * @return Common prefixes in listing order
+     */
+    public List<String> discoverPrefixes(String bucketName, String delimiter) {
+        List<String> prefixes = new ArrayList<>();
+        String continuationToken = null;
+
+        do {
+            ListObjectsV2Request.Builder request = ListObjectsV2Request.builder()
+                .bucket(bucketName)
+                .delimiter(delimiter);
+            if (continuationToken != null) {
+                request.continuationToken(continuationToken);
+            }
+
+            ListObjectsV2Response page = s3AsyncClient.listObjectsV2(request.build()).join();
+            for (CommonPrefix commonPrefix : page.commonPrefixes()) {
+                prefixes.add(commonPrefix.prefix());
+            }
+            continuationToken = Boolean.TRUE.equals(page.isTruncated()) ? page.nextContinuationToken() : null;
+        } while (continuationToken != null);
+
+        return prefixes;
+    }
+
+    /**
+     * Splits the keyspace into ranges between consecutive boundary characters.
+     * Ranges are (previous, boundary], so the first range is open below and the
+     * last range is open above, and no key can fall outside all of them.
+     * @param boundaries Ascending boundary characters
+     * @return Key range partitions
+     */
+    public static List<Partition> keyRangePartitions(String boundaries) {
+        List<Partition> partitions = new ArrayList<>();
+        String previous = null;
+        for (int i = 0; i < boundaries.length(); i++) {
+            String boundary = String.valueOf(boundaries.charAt(i));
+            partitions.add(Partition.keyRange(previous, boundary));
+            previous = boundary;
+        }
+        partitions.add(Partition.keyRange(previous, null));
+        return partitions;
+    }
+
+    /**
+     * Lists every partition concurrently
+     * @param bucketName Name of bucket to scan
+     * @param partitions Partitions to list, e.g. from {@link #planPartitions}
+     * @return Statistics and throughput for the whole scan
+     */
+    public ScanResult scan(String bucketName, List<Partition> partitions) {
+        long startNanos = System.nanoTime();
+
+        BucketStatistics statistics = new BucketStatistics(System.currentTimeMillis());
+        ConcurrentLinkedQueue<Integer> pending = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < partitions.size(); i++) {
+            pending.add(i);
+        }
+
+        // A fixed number of workers pull partitions off the queue, which bounds in-flight requests
+        int workerCount = Math.min(maxConcurrency, partitions.size());
+        CompletableFuture<?>[] workers = new CompletableFuture<?>[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = drainPartitions(bucketName, partitions, statistics, pending);
+        }
+        CompletableFuture.allOf(workers).join();
+
+        return new ScanResult(statistics, partitions.size(), System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Takes the next pending partition, lists it, and repeats until the queue is empty
+     */
+    private CompletableFuture<Void> drainPartitions(String bucketName, List<Partition> partitions,
+                                                    BucketStatistics statistics,
+                                                    ConcurrentLinkedQueue<Integer> pending) {
+        Integer next = pending.poll();
+        if (next == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return listPartition(bucketName, partitions.get(next), statistics, null)
+            .thenCompose(done -> drainPartitions(bucketName, partitions, statistics, pending));
+    }
+
+    /**
+     * Lists one page of a partition and chains the next page until the partition is exhausted
+     */
+    private CompletableFuture<Void> listPartition(String bucketName, Partition partition,
+                                                  BucketStatistics statistics, String continuationToken) {
+        ListObjectsV2Request.Builder request = ListObjectsV2Request.builder()
+            .bucket(bucketName)
+            .prefix(partition.prefix)
+            .delimiter(partition.delimiter);
+        if (continuationToken != null) {
+            request.continuationToken(continuationToken);
+        } else if (partition.startAfter != null) {
+            request.startAfter(partition.startAfter);
+        }
+
+        return s3AsyncClient.listObjectsV2(request.build()).thenCompose(page -> {
+            for (S3Object object : page.contents()) {
+                if (partition.lastKey != null && object.key().compareTo(partition.lastKey) > 0) {
+                    // Keys are returned in order, so the rest of the listing belongs to the next range
+                    return CompletableFuture.completedFuture(null);
+                }
+                statistics.record(object);
+            }
+
+            if (Boolean.TRUE.equals(page.isTruncated())) {
+                return listPartition(bucketName, partition, statistics, page.nextContinuationToken());
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * One independently listable slice of the bucket keyspace
+     */
+    public static final class Partition {
+        private final String prefix;
+        private final String delimiter;
+        private final String startAfter;
+        private final String lastKey;
+
+        private Partition(String prefix, String delimiter, String startAfter, String lastKey) {
+            this.prefix = prefix;
+            this.delimiter = delimiter;
+            this.startAfter = startAfter;
+            this.lastKey = lastKey;
+        }
+
+        /**
+         * @param prefix Key prefix covered by this partition
+         */
+        public static Partition prefix(String prefix) {
+            return new Partition(prefix, null, null, null);
+        }
+
+        /**
+         * @param delimiter Delimiter whose root-level objects this partition covers
+         */
+        public static Partition rootLevel(String delimiter) {
+            return new Partition(null, delimiter, null, null);
+        }
+
+        /**
+         * @param startAfter Exclusive lower bound, or null for the start of the keyspace
+         * @param lastKey Inclusive upper bound, or null for the end of the keyspace
+         */
+        public static Partition keyRange(String startAfter, String lastKey) {
+            return new Partition(null, null, startAfter, lastKey);
+        }
+
+        @Override
+        public String toString() {
+            if (prefix != null) {
+                return "prefix=" + prefix;
+            }
+            if (delimiter != null) {
+                return "root-level(" + delimiter + ")";
+            }
+            return "range(" + startAfter + ", " + lastKey + "]";
+        }
+    }
+
+    /**
+     * Outcome of a parallel scan
+     */
+    public static final class ScanResult {
+        private final BucketStatistics statistics;
+        private final int partitionCount;
+        private final long elapsedNanos;
+
+        ScanResult(BucketStatistics statistics, int partitionCount, long elapsedNanos) {
+            this.statistics = statistics;
+            this.partitionCount = partitionCount;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public BucketStatistics statistics() {
+            return statistics;
+        }
+
+        public long totalKeys() {
+            return statistics.getTotalCount();
+        }
+
+        public int partitionCount() {
+            return partitionCount;
+        }
+
+        public double elapsedSeconds() {
+            return elapsedNanos / 1_000_000_000.0;
+        }
+
+        public double keysPerSecond() {
+            double seconds = elapsedSeconds();
+            return seconds > 0 ? totalKeys() / seconds : 0;
+        }
+
+        /**
+         * @return Counters keyed by display category, in report order
+         */
+        public Map<String, Integer> toCounterMap() {
+            return statistics.toCounterMap();
+        }
+    }
+}
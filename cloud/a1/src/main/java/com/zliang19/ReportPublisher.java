@@ -0,0 +1,143 @@
+package com.zliang19;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Publishes the generated report page content-addressed: the page is stored gzip-encoded
+ * with a SHA-256 of the rendered HTML in its metadata, and a run whose page hashes the
+ * same as the stored object skips the upload. The object then keeps its ETag and
+ * Last-Modified, so browsers and CDNs revalidating an unchanged report get a 304
+ * instead of the page, and no object-created notification is sent for it.
+ *
+ * Java's gzip output carries no timestamp, so identical HTML always compresses to
+ * identical bytes; an object whose hash metadata was lost is still recognised by its
+ * ETag, the MD5 of those bytes for a single-part upload.
+ */
+public class ReportPublisher {
+
+    // User metadata holding the hex SHA-256 of the uncompressed page
+    static final String HASH_METADATA = "content-sha256";
+
+    private static final String CONTENT_TYPE = "text/html; charset=utf-8";
+    private static final String CONTENT_ENCODING = "gzip";
+
+    private final S3Client s3Client;
+    private final String cacheControl;
+
+    /**
+     * @param s3Client Initialized S3 client
+     * @param cacheControl Cache-Control header stored with the page
+     */
+    public ReportPublisher(S3Client s3Client, String cacheControl) {
+        this.s3Client = s3Client;
+        this.cacheControl = cacheControl;
+    }
+
+    /**
+     * Uploads the page unless the stored object already holds the same content and headers
+     * @param bucketName Target bucket name
+     * @param key Key of the page
+     * @param htmlContent Rendered page
+     * @return true if the page was uploaded, false if the stored page was left as it is
+     */
+    public boolean publish(String bucketName, String key, String htmlContent) {
+        // Step 1: Hash the rendered page and compress it
+        byte[] html = htmlContent.getBytes(StandardCharsets.UTF_8);
+        String contentHash = hex(digest("SHA-256", html));
+        byte[] body = gzip(html);
+        byte[] bodyMd5 = digest("MD5", body);
+
+        // Step 2: Compare with the stored object
+        HeadObjectResponse stored = headObject(bucketName, key);
+        if (stored != null && isSameReport(stored, contentHash, hex(bodyMd5))) {
+            System.out.println("Report unchanged (sha256 " + contentHash.substring(0, 12) + "); upload skipped.");
+            return false;
+        }
+
+        // Step 3: Upload the compressed page; S3 verifies the body against Content-MD5
+        PutObjectRequest uploadRequest = PutObjectRequest.builder()
+            .bucket(bucketName)
+            .key(key)
+            .contentType(CONTENT_TYPE)
+            .contentEncoding(CONTENT_ENCODING)
+            .cacheControl(cacheControl)
+            .contentMD5(Base64.getEncoder().encodeToString(bodyMd5))
+            .metadata(Collections.singletonMap(HASH_METADATA, contentHash))
+            .build();
+        s3Client.putObject(uploadRequest, RequestBody.fromBytes(body));
+        System.out.printf("Report uploaded (%d bytes, %d gzip-encoded).%n", html.length, body.length);
+        return true;
+    }
+
+    /**
+     * @return true if the stored object serves the same page with the same headers
+     */
+    private boolean isSameReport(HeadObjectResponse stored, String contentHash, String bodyMd5) {
+        if (!CONTENT_ENCODING.equals(stored.contentEncoding()) || !cacheControl.equals(stored.cacheControl())) {
+            return false;
+        }
+        String storedHash = stored.metadata().get(HASH_METADATA);
+        if (storedHash != null) {
+            return storedHash.equals(contentHash);
+        }
+        String eTag = stored.eTag();
+        return eTag != null && eTag.replace("\"", "").equalsIgnoreCase(bodyMd5);
+    }
+
+    /**
+     * @return Metadata of the stored page, or null if there is none or it cannot be read
+     */
+    private HeadObjectResponse headObject(String bucketName, String key) {
+        try {
+            return s3Client.headObject(HeadObjectRequest.builder().bucket(bucketName).key(key).build());
+        } catch (S3Exception headError) {
+            if (headError.statusCode() != 404) {
+                // Publishing still works without the comparison; it just cannot skip the upload
+                System.err.println("Could not read stored report metadata: " + headError.getMessage());
+            }
+            return null;
+        }
+    }
+
+    private static byte[] gzip(byte[] content) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] digest(String algorithm, byte[] content) {
+        try {
+            return MessageDigest.getInstance(algorithm).digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide MD5 and SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,70 @@
+package com.zliang19;
+
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fills a bucket with empty synthetic objects so scans can be measured against
+ * a local S3 stand-in (MinIO, LocalStack) without real data.
+ * Keys are spread over 256 hex prefixes and cycle through every known extension.
+ */
+public class SyntheticKeySeeder {
+
+    private static final String[] EXTENSIONS = {"html", "txt", "jpg", "xlsx", "pdf", "csv"};
+
+    private SyntheticKeySeeder() {
+    }
+
+    /**
+     * Uploads the requested number of empty objects
+     * @param s3AsyncClient Initialized async S3 client
+     * @param bucketName Target bucket name
+     * @param keyCount Number of objects to create
+     * @param maxConcurrency Maximum number of uploads in flight
+     * @return Number of objects that failed to upload
+     */
+    public static long seed(S3AsyncClient s3AsyncClient, String bucketName, long keyCount, int maxConcurrency)
+            throws InterruptedException {
+        Semaphore permits = new Semaphore(maxConcurrency);
+        AtomicLong failures = new AtomicLong();
+
+        for (long i = 0; i < keyCount; i++) {
+            permits.acquire();
+
+            PutObjectRequest request = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(syntheticKey(i))
+                .build();
+
+            CompletableFuture<?> upload = s3AsyncClient.putObject(request, AsyncRequestBody.empty());
+            upload.whenComplete((response, error) -> {
+                if (error != null) {
+                    failures.incrementAndGet();
+                }
+                permits.release();
+            });
+
+            if ((i + 1) % 100_000 == 0) {
+                System.out.println("Seeded " + (i + 1) + " keys...");
+            }
+        }
+
+        // Wait for the last uploads to drain
+        permits.acquire(maxConcurrency);
+        return failures.get();
+    }
+
+    /**
+     * @param index Sequence number of the object
+     * @return Key of the form "3f/object-0000001234.txt"
+     */
+    static String syntheticKey(long index) {
+        return String.format("%02x/object-%010d.%s",
+            (index * 31) & 0xff, index, EXTENSIONS[(int) (index % EXTENSIONS.length)]);
+    }
+}
@@ -0,0 +1,107 @@
+package com.zliang19;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Histogram and age bucketing of BucketStatistics, and its totals under concurrent recording
+ */
+public class BucketStatisticsTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long DAY = 86_400_000L;
+
+    @Test
+    public void sizesFallIntoPowerOfTwoBuckets() {
+        assertEquals(0, BucketStatistics.sizeBucket(0));
+        assertEquals(1, BucketStatistics.sizeBucket(1));
+        assertEquals(2, BucketStatistics.sizeBucket(2));
+        assertEquals(2, BucketStatistics.sizeBucket(3));
+        assertEquals(11, BucketStatistics.sizeBucket(1024));
+        assertEquals(10, BucketStatistics.sizeBucket(1023));
+        assertEquals(BucketStatistics.SIZE_BUCKETS - 1, BucketStatistics.sizeBucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void agesFallIntoDayBuckets() {
+        assertEquals(0, BucketStatistics.ageBucket(0));
+        // Clock skew can date an object in the future; it counts as new
+        assertEquals(0, BucketStatistics.ageBucket(-DAY));
+        assertEquals(1, BucketStatistics.ageBucket(DAY));
+        assertEquals(1, BucketStatistics.ageBucket(7 * DAY - 1));
+        assertEquals(2, BucketStatistics.ageBucket(7 * DAY));
+        assertEquals(4, BucketStatistics.ageBucket(364 * DAY));
+        assertEquals(5, BucketStatistics.ageBucket(3650 * DAY));
+    }
+
+    @Test
+    public void objectsAreCountedPerCategoryWithTheirBytes() {
+        BucketStatistics statistics = new BucketStatistics(NOW);
+        statistics.record(object("index.html", 100L, NOW - 2 * DAY));
+        statistics.record(object("notes.txt", 2000L, NOW - 40 * DAY));
+        statistics.record(object("photo.JPG", 3_000_000L, NOW - 400 * DAY));
+        statistics.record(object("data.xlsx", 0L, NOW));
+        // An inventory report may lack the size and date columns
+        statistics.record(App.categoryIndex("archive.zip"), BucketStatistics.UNKNOWN_SIZE,
+            BucketStatistics.UNKNOWN_TIME);
+        statistics.record(object("readme", null, null));
+
+        Map<String, Integer> counters = statistics.toCounterMap();
+        assertEquals(Integer.valueOf(1), counters.get("Web"));
+        assertEquals(Integer.valueOf(1), counters.get("Text"));
+        assertEquals(Integer.valueOf(1), counters.get("Image"));
+        assertEquals(Integer.valueOf(1), counters.get("Excel"));
+        assertEquals(Integer.valueOf(2), counters.get("Other"));
+        assertEquals(6, statistics.getTotalCount());
+        assertEquals(3_002_100L, statistics.getTotalBytes());
+        assertEquals(3_000_000L, statistics.getBytes(App.categoryIndex("photo.jpg")));
+
+        assertEquals(4, statistics.getSizedCount());
+        assertEquals(1, statistics.getSizeBucketCount(0));
+        assertEquals(1, statistics.getSizeBucketCount(BucketStatistics.sizeBucket(100)));
+        assertEquals(4, statistics.getDatedCount());
+        assertEquals(1, statistics.getAgeBucketCount(0));
+        assertEquals(1, statistics.getAgeBucketCount(1));
+        assertEquals(1, statistics.getAgeBucketCount(3));
+        assertEquals(1, statistics.getAgeBucketCount(5));
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        BucketStatistics statistics = new BucketStatistics(NOW);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    statistics.record(i % App.CATEGORIES.length, 10, NOW);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(80_000, statistics.getTotalCount());
+        assertEquals(800_000, statistics.getTotalBytes());
+        assertEquals(80_000 / App.CATEGORIES.length, statistics.getCount(0));
+        assertEquals(80_000, statistics.getSizeBucketCount(BucketStatistics.sizeBucket(10)));
+        assertEquals(80_000, statistics.getAgeBucketCount(0));
+    }
+
+    private static S3Object object(String key, Long size, Long lastModifiedMillis) {
+        return S3Object.builder()
+            .key(key)
+            .size(size)
+            .lastModified(lastModifiedMillis != null ? Instant.ofEpochMilli(lastModifiedMillis) : null)
+            .build();
+    }
+}
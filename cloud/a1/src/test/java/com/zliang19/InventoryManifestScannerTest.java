@@ -0,0 +1,133 @@
+package com.zliang19;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Counting of a local S3 Inventory report laid out as S3 writes it: the manifest in a dated
+ * folder and the gzip data files in a data folder next to it
+ */
+public class InventoryManifestScannerTest {
+
+    private static final String SCHEMA = "Bucket, Key, VersionId, IsLatest, IsDeleteMarker, Size, LastModifiedDate";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path manifestDir;
+    private Path dataDir;
+
+    @Before
+    public void createReportFolders() throws IOException {
+        Path config = folder.newFolder("reviews-inventory").toPath();
+        manifestDir = Files.createDirectory(config.resolve("2024-05-01T01-00Z"));
+        dataDir = Files.createDirectory(config.resolve("data"));
+    }
+
+    @Test
+    public void currentVersionsAreCountedAcrossDataFiles() throws IOException {
+        String recent = Instant.now().minus(1, ChronoUnit.HOURS).toString();
+        gzip(dataDir.resolve("part-1.csv.gz"),
+            "\"reviews\",\"site/index.html\",\"v1\",\"true\",\"false\",\"100\",\"" + recent + "\"\n"
+            // Older version and delete marker of the same key; neither is a current object
+            + "\"reviews\",\"site/index.html\",\"v0\",\"false\",\"false\",\"90\",\"2020-01-01T00:00:00.000Z\"\n"
+            + "\"reviews\",\"old/notes.txt\",\"v2\",\"true\",\"true\",\"\",\"2024-04-01T00:00:00.000Z\"\n"
+            // Quoted comma inside a key, and a URL-encoded key
+            + "\"reviews\",\"a,b.txt\",\"v3\",\"true\",\"false\",\"2000\",\"2000-01-01T00:00:00Z\"\r\n"
+            + "\"reviews\",\"Q1%20summary.xlsx\",\"v4\",\"true\",\"false\",\"3000\",\"" + recent + "\"\n");
+        // A data file may also have been gunzipped beside the manifest
+        write(manifestDir.resolve("part-2.csv"),
+            "\"reviews\",\"photos/cat.JPG\",\"v5\",\"true\",\"false\",\"4000\",\"\"\n"
+            + "\"reviews\",\"README\",\"v6\",\"true\",\"false\",\"not-a-size\",\"" + recent + "\"");
+        Path manifest = manifest(SCHEMA, "reviews-inventory/data/part-1.csv.gz",
+            "reviews-inventory/data/part-2.csv.gz");
+
+        ParallelBucketScanner.ScanResult result = new InventoryManifestScanner(null, 2).scan(manifest.toString());
+
+        assertEquals(2, result.partitionCount());
+        Map<String, Integer> counters = result.toCounterMap();
+        assertEquals(Integer.valueOf(1), counters.get("Web"));
+        assertEquals(Integer.valueOf(1), counters.get("Text"));
+        assertEquals(Integer.valueOf(1), counters.get("Image"));
+        assertEquals(Integer.valueOf(1), counters.get("Excel"));
+        assertEquals(Integer.valueOf(1), counters.get("Other"));
+
+        BucketStatistics statistics = result.statistics();
+        assertEquals(5, statistics.getTotalCount());
+        assertEquals(9_100, statistics.getTotalBytes());
+        // README's size is malformed and cat.JPG has no date, so each is left out of one breakdown
+        assertEquals(4, statistics.getSizedCount());
+        assertEquals(4, statistics.getDatedCount());
+        assertEquals(3, statistics.getAgeBucketCount(0));
+        assertEquals(1, statistics.getAgeBucketCount(BucketStatistics.AGE_BUCKET_LABELS.length - 1));
+    }
+
+    @Test
+    public void reportWithoutVersionColumnsCountsEveryRecord() throws IOException {
+        gzip(dataDir.resolve("part-1.csv.gz"), "reviews,a.html\nreviews,b.html\n\nreviews,c.txt\n");
+        Path manifest = manifest("Bucket, Key", "reviews-inventory/data/part-1.csv.gz");
+
+        ParallelBucketScanner.ScanResult result = new InventoryManifestScanner(null, 1).scan(manifest.toString());
+
+        assertEquals(3, result.totalKeys());
+        assertEquals(Integer.valueOf(2), result.toCounterMap().get("Web"));
+        assertEquals(0, result.statistics().getSizedCount());
+    }
+
+    @Test
+    public void unsupportedReportsAreRefused() throws IOException {
+        Path parquet = manifestDir.resolve("manifest.json");
+        write(parquet, "{\"fileFormat\":\"Parquet\",\"fileSchema\":\"Key\",\"files\":[]}");
+        try {
+            new InventoryManifestScanner(null, 1).scan(parquet.toString());
+            fail("Expected a Parquet report to be refused");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Parquet"));
+        }
+
+        Path noKey = manifest("Bucket, Size");
+        try {
+            new InventoryManifestScanner(null, 1).scan(noKey.toString());
+            fail("Expected a report without keys to be refused");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Key"));
+        }
+    }
+
+    private Path manifest(String schema, String... fileKeys) throws IOException {
+        StringBuilder files = new StringBuilder();
+        for (String fileKey : fileKeys) {
+            files.append(files.length() > 0 ? "," : "").append("{\"key\":\"").append(fileKey).append("\"}");
+        }
+        Path manifest = manifestDir.resolve("manifest.json");
+        write(manifest, "{\"destinationBucket\":\"arn:aws:s3:::inventory\",\"fileFormat\":\"CSV\","
+            + "\"fileSchema\":\"" + schema + "\",\"files\":[" + files + "]}");
+        return manifest;
+    }
+
+    private static void gzip(Path file, String content) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,173 @@
+package com.zliang19;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Event application and persistence of the delta mode's inventory snapshot
+ */
+public class InventorySnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sequencersComparePaddedAndCaseInsensitive() {
+        assertEquals(0, InventorySnapshot.compareSequencers("0055AED6DCD90281E5", "0055aed6dcd90281e5"));
+        assertEquals(0, InventorySnapshot.compareSequencers("0055AE", "0055AE0000"));
+        assertTrue(InventorySnapshot.compareSequencers("0055AE", "0055AE01") < 0);
+        assertTrue(InventorySnapshot.compareSequencers("0056", "0055FFFF") > 0);
+        // A listed key's empty sequencer sorts before any sequencer S3 sends
+        assertTrue(InventorySnapshot.compareSequencers("", "01") < 0);
+    }
+
+    @Test
+    public void duplicateAndStaleEventsAreSkipped() {
+        InventorySnapshot snapshot = snapshot(0);
+
+        assertTrue(snapshot.applyEvent("a.txt", true, "0010"));
+        assertFalse(snapshot.applyEvent("a.txt", true, "0010"));
+        // The removal was sequenced before the creation, so it arrives late and changes nothing
+        assertFalse(snapshot.applyEvent("a.txt", false, "000F"));
+        assertEquals(Integer.valueOf(1), snapshot.toCounterMap().get("Text"));
+
+        assertTrue(snapshot.applyEvent("a.txt", false, "0011"));
+        assertTrue(snapshot.applyEvent("a.txt", false, "0012"));
+        assertEquals(Integer.valueOf(0), snapshot.toCounterMap().get("Text"));
+    }
+
+    @Test
+    public void overwritesCountOnceAndUnseenRemovalsDecrement() {
+        InventorySnapshot snapshot = snapshot(3);
+
+        snapshot.applyEvent("b.html", true, "0001");
+        snapshot.applyEvent("b.html", true, "0002");
+        assertEquals(Integer.valueOf(4), snapshot.toCounterMap().get("Web"));
+
+        // A key the scan listed but no event has mentioned is assumed to exist
+        snapshot.applyEvent("old.html", false, "0003");
+        assertEquals(Integer.valueOf(3), snapshot.toCounterMap().get("Web"));
+    }
+
+    @Test
+    public void keysCreatedDuringScanAreNotCountedAgain() {
+        Map<String, Integer> counts = counts(1);
+        InventorySnapshot snapshot = InventorySnapshot.fromFullScan(counts, 0, Collections.singletonList("new.html"));
+
+        snapshot.applyEvent("new.html", true, "0001");
+
+        assertEquals(Integer.valueOf(1), snapshot.toCounterMap().get("Web"));
+    }
+
+    @Test
+    public void journalIsReplayedOverTheSnapshot() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("inventory.properties");
+        assertNull(InventorySnapshot.load(path));
+        InventorySnapshot snapshot = snapshot(2);
+        snapshot.save(path);
+        String saved = new String(Files.readAllBytes(path), StandardCharsets.ISO_8859_1);
+
+        snapshot.applyEvent("a.html", true, "0001");
+        snapshot.appendChanges(path);
+        snapshot.applyEvent("a.html", false, "0002");
+        snapshot.applyEvent("b.html", true, "0003");
+        snapshot.appendChanges(path);
+        // Appending with nothing changed writes nothing
+        snapshot.appendChanges(path);
+
+        assertEquals(saved, new String(Files.readAllBytes(path), StandardCharsets.ISO_8859_1));
+        InventorySnapshot loaded = InventorySnapshot.load(path);
+        assertEquals(Integer.valueOf(3), loaded.toCounterMap().get("Web"));
+        assertFalse(loaded.applyEvent("a.html", false, "0002"));
+        assertFalse(loaded.applyEvent("b.html", true, "0003"));
+    }
+
+    @Test
+    public void tornBlockIsIgnored() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("inventory.properties");
+        InventorySnapshot snapshot = snapshot(0);
+        snapshot.save(path);
+        snapshot.applyEvent("a.html", true, "0001");
+        snapshot.appendChanges(path);
+
+        // A crash part way through the next append leaves a block without its end marker
+        Files.write(journal(path), "Web=7\nobject.b.html=1\\:0002\n".getBytes(StandardCharsets.ISO_8859_1),
+            StandardOpenOption.APPEND);
+
+        InventorySnapshot loaded = InventorySnapshot.load(path);
+        assertEquals(Integer.valueOf(1), loaded.toCounterMap().get("Web"));
+        assertTrue(loaded.applyEvent("b.html", true, "0002"));
+    }
+
+    @Test
+    public void saveCompactsTheJournal() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("inventory.properties");
+        InventorySnapshot snapshot = snapshot(0);
+        snapshot.save(path);
+        for (int i = 0; i < 20; i++) {
+            snapshot.applyEvent("file" + i + ".jpg", true, "0001");
+            snapshot.appendChanges(path);
+        }
+        assertTrue(InventorySnapshot.isJournalLargerThanSnapshot(path));
+
+        snapshot.save(path);
+
+        assertFalse(Files.exists(journal(path)));
+        assertFalse(InventorySnapshot.isJournalLargerThanSnapshot(path));
+        InventorySnapshot loaded = InventorySnapshot.load(path);
+        assertEquals(Integer.valueOf(20), loaded.toCounterMap().get("Image"));
+        assertFalse(loaded.applyEvent("file7.jpg", true, "0001"));
+    }
+
+    @Test
+    public void journalOfAnEarlierScanIsIgnored() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("inventory.properties");
+        Path staleJournal = folder.getRoot().toPath().resolve("stale.journal");
+        InventorySnapshot earlier = snapshot(0);
+        earlier.save(path);
+        earlier.applyEvent("a.html", true, "0001");
+        earlier.appendChanges(path);
+        Files.copy(journal(path), staleJournal);
+
+        // A crash after the reconciliation's rewrite but before its journal delete
+        InventorySnapshot.fromFullScan(counts(5), 1000, Collections.<String>emptyList()).save(path);
+        Files.copy(staleJournal, journal(path));
+
+        InventorySnapshot loaded = InventorySnapshot.load(path);
+        assertEquals(Integer.valueOf(5), loaded.toCounterMap().get("Web"));
+        assertEquals(1000, loaded.getReconciledAtMillis());
+    }
+
+    private static InventorySnapshot snapshot(int webCount) {
+        return InventorySnapshot.fromFullScan(counts(webCount), 0, Collections.<String>emptyList());
+    }
+
+    private static Map<String, Integer> counts(int webCount) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String category : Arrays.asList(App.CATEGORIES)) {
+            counts.put(category, 0);
+        }
+        counts.put("Web", webCount);
+        return counts;
+    }
+
+    private static Path journal(Path path) {
+        return path.resolveSibling(path.getFileName() + ".journal");
+    }
+}
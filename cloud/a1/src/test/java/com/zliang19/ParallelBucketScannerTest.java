@@ -0,0 +1,201 @@
+package com.zliang19;
+
+import org.junit.After;
+import org.junit.Test;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Partition planning and concurrent listing of ParallelBucketScanner against an in-memory bucket
+ * that pages its listings the way ListObjectsV2 does
+ */
+public class ParallelBucketScannerTest {
+
+    private static final String BUCKET = "reviews";
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void prefixPartitionsCoverEveryKeyOnce() {
+        ListingClient s3 = new ListingClient(2, Arrays.asList(
+            "index.html", "notes.txt",
+            "2023/a.html", "2023/b.txt", "2023/deep/c.jpg",
+            "2024/d.html", "2024/e.xlsx",
+            "2025/f.txt"));
+        ParallelBucketScanner scanner = new ParallelBucketScanner(s3, 2);
+
+        // Three prefixes over two pages
+        assertEquals(Arrays.asList("2023/", "2024/", "2025/"), scanner.discoverPrefixes(BUCKET, "/"));
+        List<ParallelBucketScanner.Partition> partitions = scanner.planPartitions(BUCKET, "/");
+        assertEquals(4, partitions.size());
+        assertEquals("root-level(/)", partitions.get(0).toString());
+
+        ParallelBucketScanner.ScanResult result = scanner.scan(BUCKET, partitions);
+
+        assertEquals(8, result.totalKeys());
+        assertEquals(4, result.partitionCount());
+        Map<String, Integer> counters = result.toCounterMap();
+        assertEquals(Integer.valueOf(3), counters.get("Web"));
+        assertEquals(Integer.valueOf(3), counters.get("Text"));
+        assertEquals(Integer.valueOf(1), counters.get("Image"));
+        assertEquals(Integer.valueOf(1), counters.get("Excel"));
+    }
+
+    @Test
+    public void flatBucketIsSplitIntoKeyRanges() {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            keys.add(Integer.toString(i * 7919, 36) + ".txt");
+        }
+        // Keys below the first boundary, above the last one, and equal to a boundary
+        keys.addAll(Arrays.asList("!first.txt", "~last.txt", "Über.txt", "a", "Z", "0"));
+        ListingClient s3 = new ListingClient(7, keys);
+        ParallelBucketScanner scanner = new ParallelBucketScanner(s3, 4);
+
+        List<ParallelBucketScanner.Partition> partitions = scanner.planPartitions(BUCKET, "/");
+        assertEquals(63, partitions.size());
+
+        ParallelBucketScanner.ScanResult result = scanner.scan(BUCKET, partitions);
+
+        assertEquals(keys.size(), result.totalKeys());
+        assertEquals(Integer.valueOf(503), result.toCounterMap().get("Text"));
+    }
+
+    @Test
+    public void keyRangesAreHalfOpenAndUnbounded() {
+        List<ParallelBucketScanner.Partition> partitions = ParallelBucketScanner.keyRangePartitions("gm");
+
+        assertEquals(3, partitions.size());
+        assertEquals("range(null, g]", partitions.get(0).toString());
+        assertEquals("range(g, m]", partitions.get(1).toString());
+        assertEquals("range(m, null]", partitions.get(2).toString());
+    }
+
+    @Test
+    public void inFlightListingsAreBounded() {
+        List<String> keys = new ArrayList<>();
+        for (int prefix = 0; prefix < 20; prefix++) {
+            for (int i = 0; i < 10; i++) {
+                keys.add("p" + prefix + "/" + i + ".html");
+            }
+        }
+        ListingClient s3 = new ListingClient(3, keys);
+        ParallelBucketScanner scanner = new ParallelBucketScanner(s3, 3);
+
+        ParallelBucketScanner.ScanResult result = scanner.scan(BUCKET, scanner.planPartitions(BUCKET, "/"));
+
+        assertEquals(200, result.totalKeys());
+        assertTrue("max in flight " + s3.maxInFlight.get(), s3.maxInFlight.get() <= 3);
+
+        try {
+            new ParallelBucketScanner(s3, 0);
+            fail("Expected a concurrency of zero to be refused");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("maxConcurrency"));
+        }
+    }
+
+    /**
+     * Sorted in-memory bucket. Pages hold at most pageSize keys and prefixes, and the continuation
+     * token is the last key or prefix returned.
+     */
+    private final class ListingClient implements S3AsyncClient {
+
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        private final int pageSize;
+        private final TreeSet<String> keys;
+
+        ListingClient(int pageSize, List<String> keys) {
+            this.pageSize = pageSize;
+            this.keys = new TreeSet<>(keys);
+        }
+
+        @Override
+        public CompletableFuture<ListObjectsV2Response> listObjectsV2(ListObjectsV2Request request) {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                ListObjectsV2Response page = list(request);
+                inFlight.decrementAndGet();
+                return page;
+            }, executor);
+        }
+
+        private ListObjectsV2Response list(ListObjectsV2Request request) {
+            String prefix = request.prefix() != null ? request.prefix() : "";
+            String after = request.continuationToken() != null ? request.continuationToken() : request.startAfter();
+            List<S3Object> contents = new ArrayList<>();
+            List<CommonPrefix> commonPrefixes = new ArrayList<>();
+            String last = null;
+            boolean truncated = false;
+
+            for (String key : after != null ? keys.tailSet(after, false) : keys) {
+                if (!key.startsWith(prefix)) {
+                    continue;
+                }
+                String entry = key;
+                int delimiterAt = request.delimiter() != null
+                    ? key.indexOf(request.delimiter(), prefix.length()) : -1;
+                if (delimiterAt >= 0) {
+                    entry = key.substring(0, delimiterAt + request.delimiter().length());
+                    if (entry.equals(last) || (after != null && entry.compareTo(after) <= 0)) {
+                        continue;
+                    }
+                }
+                if (contents.size() + commonPrefixes.size() == pageSize) {
+                    truncated = true;
+                    break;
+                }
+                if (delimiterAt >= 0) {
+                    commonPrefixes.add(CommonPrefix.builder().prefix(entry).build());
+                } else {
+                    contents.add(S3Object.builder().key(key).size(100L).build());
+                }
+                last = entry;
+            }
+
+            return ListObjectsV2Response.builder()
+                .contents(contents)
+                .commonPrefixes(commonPrefixes)
+                .isTruncated(truncated)
+                .nextContinuationToken(truncated ? last : null)
+                .build();
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.zliang19;
+
+import org.junit.Test;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.utils.IoUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Conditional upload of the report page against a one-object S3 stand-in
+ */
+public class ReportPublisherTest {
+
+    private static final String BUCKET = "reports";
+    private static final String KEY = "home.html";
+    private static final String CACHE_CONTROL = "max-age=60";
+    private static final String PAGE = "<html><body><h1>Bucket report</h1></body></html>";
+
+    private final StoredPageClient s3 = new StoredPageClient();
+    private final ReportPublisher publisher = new ReportPublisher(s3, CACHE_CONTROL);
+
+    @Test
+    public void pageIsStoredGzipEncodedWithItsHash() throws IOException {
+        assertTrue(publisher.publish(BUCKET, KEY, PAGE));
+
+        PutObjectRequest stored = s3.request;
+        assertEquals("gzip", stored.contentEncoding());
+        assertEquals("text/html; charset=utf-8", stored.contentType());
+        assertEquals(CACHE_CONTROL, stored.cacheControl());
+        assertEquals(Base64.getEncoder().encodeToString(digest("MD5", s3.body)), stored.contentMD5());
+        assertEquals(64, stored.metadata().get(ReportPublisher.HASH_METADATA).length());
+        try (InputStream page = new GZIPInputStream(new ByteArrayInputStream(s3.body))) {
+            assertArrayEquals(PAGE.getBytes(StandardCharsets.UTF_8), IoUtils.toByteArray(page));
+        }
+    }
+
+    @Test
+    public void unchangedPageIsNotUploadedAgain() {
+        assertTrue(publisher.publish(BUCKET, KEY, PAGE));
+        byte[] firstBody = s3.body;
+
+        assertFalse(publisher.publish(BUCKET, KEY, PAGE));
+        assertEquals(1, s3.puts);
+
+        // Compression is deterministic, so the same page is always stored as the same bytes and ETag
+        assertTrue(publisher.publish(BUCKET, KEY, PAGE + " "));
+        assertTrue(publisher.publish(BUCKET, KEY, PAGE));
+        assertArrayEquals(firstBody, s3.body);
+        assertEquals(3, s3.puts);
+    }
+
+    @Test
+    public void changedHeadersAreUploaded() {
+        assertTrue(publisher.publish(BUCKET, KEY, PAGE));
+
+        assertTrue(new ReportPublisher(s3, "no-cache").publish(BUCKET, KEY, PAGE));
+        assertEquals(2, s3.puts);
+    }
+
+    @Test
+    public void pageWithoutHashMetadataIsRecognisedByItsETag() {
+        assertTrue(publisher.publish(BUCKET, KEY, PAGE));
+        s3.request = s3.request.toBuilder().metadata(Collections.<String, String>emptyMap()).build();
+
+        assertFalse(publisher.publish(BUCKET, KEY, PAGE));
+        assertTrue(publisher.publish(BUCKET, KEY, PAGE + " "));
+    }
+
+    @Test
+    public void unreadableMetadataStillUploads() {
+        assertTrue(publisher.publish(BUCKET, KEY, PAGE));
+        s3.headStatus = 403;
+
+        assertTrue(publisher.publish(BUCKET, KEY, PAGE));
+        assertEquals(2, s3.puts);
+    }
+
+    private static byte[] digest(String algorithm, byte[] content) {
+        try {
+            return MessageDigest.getInstance(algorithm).digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Holds the last page put, and answers HEAD from it with an ETag as S3 computes it for a single-part upload
+     */
+    private static final class StoredPageClient implements S3Client {
+
+        PutObjectRequest request;
+        byte[] body;
+        int puts;
+        int headStatus;
+
+        @Override
+        public PutObjectResponse putObject(PutObjectRequest putObjectRequest, RequestBody requestBody) {
+            try (InputStream content = requestBody.contentStreamProvider().newStream()) {
+                body = IoUtils.toByteArray(content);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            request = putObjectRequest;
+            puts++;
+            return PutObjectResponse.builder().build();
+        }
+
+        @Override
+        public HeadObjectResponse headObject(HeadObjectRequest headObjectRequest) {
+            if (request == null || headStatus != 0) {
+                throw (S3Exception) S3Exception.builder().statusCode(request == null ? 404 : headStatus).build();
+            }
+            Map<String, String> metadata = request.metadata();
+            StringBuilder eTag = new StringBuilder("\"");
+            for (byte b : digest("MD5", body)) {
+                eTag.append(String.format("%02x", b));
+            }
+            return HeadObjectResponse.builder()
+                .contentEncoding(request.contentEncoding())
+                .cacheControl(request.cacheControl())
+                .metadata(metadata)
+                .eTag(eTag.append('"').toString())
+                .build();
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
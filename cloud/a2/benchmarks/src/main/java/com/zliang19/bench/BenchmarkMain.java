@@ -0,0 +1,26 @@
+package com.zliang19.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar. Accepts the usual JMH command line and always attaches
+ * the GC profiler, so every result reports allocation rate and GC counts and time
+ * next to throughput.
+ *
+ *   java -jar target/benchmarks.jar                          # everything
+ *   java -jar target/benchmarks.jar Parsing -p size=1MB      # one group, one size
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
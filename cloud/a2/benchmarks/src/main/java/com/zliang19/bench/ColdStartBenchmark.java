@@ -0,0 +1,65 @@
+package com.zliang19.bench;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.zliang19.LambdaHandler;
+import com.zliang19.model.ProductReview;
+import com.zliang19.model.ProductReviewSchema;
+import com.zliang19.service.ParsingService;
+
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+
+/**
+ * Measures the local time-to-first-record of a fresh JVM: handler initialization
+ * (clients, schema, priming) followed by parsing and marshalling the first review
+ * of a sample file. Run it in a new JVM per measurement, for example:
+ *
+ *   java -cp target/benchmarks.jar com.zliang19.bench.ColdStartBenchmark ../sample-data.json
+ *   LIGHTWEIGHT_HTTP_CLIENT=false java -cp ... com.zliang19.bench.ColdStartBenchmark ../sample-data.json --bean-schema
+ *
+ * No AWS requests are made unless PRIME_CLIENTS=true.
+ */
+public class ColdStartBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long mainEntered = System.currentTimeMillis();
+        long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+        String sampleFile = args.length > 0 ? args[0] : "sample-data.json";
+        boolean beanSchema = args.length > 1 && "--bean-schema".equals(args[1]);
+
+        // Step 1: Initialize the handler exactly as Lambda would
+        long initStart = System.nanoTime();
+        LambdaHandler handler = new LambdaHandler();
+        long initNanos = System.nanoTime() - initStart;
+
+        // Step 2: Parse until the first review arrives, then marshal it to its item form
+        long firstRecordStart = System.nanoTime();
+        AtomicReference<Long> firstRecordNanos = new AtomicReference<>();
+        TableSchema<ProductReview> schema = beanSchema
+                ? TableSchema.fromBean(ProductReview.class)
+                : ProductReviewSchema.TABLE_SCHEMA;
+        try (InputStream input = Files.newInputStream(Paths.get(sampleFile))) {
+            new ParsingService().parseContent(input, sampleFile, review -> {
+                if (firstRecordNanos.get() == null) {
+                    schema.itemToMap(review, true);
+                    firstRecordNanos.set(System.nanoTime() - firstRecordStart);
+                }
+            });
+        }
+
+        long total = System.currentTimeMillis() - jvmStart;
+        System.out.println("JVM start to main:       " + (mainEntered - jvmStart) + " ms");
+        System.out.println("Handler initialization:  " + initNanos / 1_000_000 + " ms");
+        System.out.println("First record parsed:     "
+                + (firstRecordNanos.get() != null ? firstRecordNanos.get() / 1_000_000 + " ms" : "no records"));
+        System.out.println("JVM start to completion: " + total + " ms"
+                + (beanSchema ? " (bean schema)" : " (static schema)"));
+
+        handler.cleanup();
+    }
+}
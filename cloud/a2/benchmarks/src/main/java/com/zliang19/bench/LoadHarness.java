@@ -0,0 +1,458 @@
+package com.zliang19.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.events.S3Event;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
+import com.github.luben.zstd.Zstd;
+import com.zliang19.LambdaHandler;
+import com.zliang19.service.ClientFactory;
+import com.zliang19.service.DynamoDbService;
+import com.zliang19.service.IngestResult;
+import com.zliang19.service.ProductSummaryStore;
+import com.zliang19.service.RecordResult;
+import com.zliang19.service.RecordsFailedException;
+import com.zliang19.service.S3Service;
+import com.zliang19.testing.InMemoryDynamoDbClient;
+import com.zliang19.testing.InMemoryS3Client;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+/**
+ * Drives LambdaHandler.handleRequest with synthetic S3Event batches and reports throughput,
+ * per-stage latency percentiles and the heap high-water mark. Runs against in-memory
+ * stand-ins by default, or against local endpoints (MinIO, DynamoDB Local) configured
+ * through S3_ENDPOINT_URL and DYNAMODB_ENDPOINT with --backend local.
+ *
+ *   java -cp target/benchmarks.jar com.zliang19.bench.LoadHarness --events 200 --records-per-event 4 --size 1MB
+ *
+ * Other options: --format json|jsonl|txt, --compression none|gzip|zstd, --encoding-header,
+ * --objects, --warmup-events, --s3-latency-ms, --dynamodb-latency-ms, --throttle-rate,
+ * --retain-items and --verbose. Compressed objects get a .gz or .zst key suffix, or keep
+ * the plain key and carry a Content-Encoding with --encoding-header (memory backend only);
+ * sizes and MB/s then refer to the compressed bytes.
+ *
+ * With --min-reviews-per-sec the process exits with status 1 when throughput falls below
+ * the threshold or any record fails, so the harness can gate a build.
+ */
+public class LoadHarness {
+
+    private static final String REVIEW_TABLE = "ProductReview";
+    private static final String DEFAULT_IDEMPOTENCY_TABLE = "ProductReviewIngestLedger";
+    private static final String DEFAULT_SUMMARY_TABLE = "ProductReviewSummary";
+    private static final long HEAP_SAMPLE_MILLIS = 5;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        String backend = options.getOrDefault("backend", "memory");
+        String format = options.getOrDefault("format", "json");
+        String compression = options.getOrDefault("compression", "none");
+        boolean encodingHeader = options.containsKey("encoding-header");
+        String size = options.getOrDefault("size", "64KB");
+        String bucketName = options.getOrDefault("bucket", "load-harness");
+        int events = Integer.parseInt(options.getOrDefault("events", "100"));
+        int warmupEvents = Integer.parseInt(options.getOrDefault("warmup-events", "10"));
+        int recordsPerEvent = Integer.parseInt(options.getOrDefault("records-per-event", "4"));
+        int objectCount = Integer.parseInt(options.getOrDefault("objects", "16"));
+        long s3LatencyMillis = Long.parseLong(options.getOrDefault("s3-latency-ms", "0"));
+        long dynamoDbLatencyMillis = Long.parseLong(options.getOrDefault("dynamodb-latency-ms", "0"));
+        double throttleRate = Double.parseDouble(options.getOrDefault("throttle-rate", "0"));
+        double minReviewsPerSecond = Double.parseDouble(options.getOrDefault("min-reviews-per-sec", "0"));
+        boolean verbose = options.containsKey("verbose");
+
+        // Step 1: Generate the dataset and publish it under several keys
+        byte[] content = compress(Files.readAllBytes(SyntheticDataset.file(format, size)), compression);
+        String contentEncoding = null;
+        String keySuffix = "";
+        if (!"none".equals(compression)) {
+            if (encodingHeader) {
+                contentEncoding = "gzip".equals(compression) ? "gzip" : "zstd";
+            } else {
+                keySuffix = "gzip".equals(compression) ? ".gz" : ".zst";
+            }
+        }
+        List<String> objectKeys = new ArrayList<>();
+        for (int i = 0; i < objectCount; i++) {
+            objectKeys.add(String.format("uploads/reviews-%05d.%s%s", i, format, keySuffix));
+        }
+
+        S3Client s3Client;
+        InMemoryDynamoDbClient inMemoryDynamoDb = null;
+        DynamoDbService dynamoDbService;
+        if ("memory".equals(backend)) {
+            InMemoryS3Client inMemoryS3 = new InMemoryS3Client(s3LatencyMillis);
+            for (String objectKey : objectKeys) {
+                inMemoryS3.putObject(bucketName, objectKey, content, contentEncoding);
+            }
+            s3Client = inMemoryS3;
+
+            String idempotencyTable = System.getenv("IDEMPOTENCY_TABLE");
+            String summaryTable = System.getenv("PRODUCT_SUMMARY_TABLE");
+            inMemoryDynamoDb = new InMemoryDynamoDbClient(dynamoDbLatencyMillis, throttleRate,
+                    options.containsKey("retain-items"))
+                    .createTable(REVIEW_TABLE, "Identifier")
+                    .createTable(idempotencyTable != null && !idempotencyTable.isEmpty()
+                            ? idempotencyTable : DEFAULT_IDEMPOTENCY_TABLE, "ObjectId")
+                    .createTable(summaryTable != null && !summaryTable.isEmpty() ? summaryTable : DEFAULT_SUMMARY_TABLE,
+                            ProductSummaryStore.KEY_ATTRIBUTE);
+            dynamoDbService = new DynamoDbService(inMemoryDynamoDb);
+        } else if ("local".equals(backend)) {
+            s3Client = ClientFactory.s3Client();
+            for (String objectKey : objectKeys) {
+                s3Client.putObject(PutObjectRequest.builder().bucket(bucketName).key(objectKey).build(),
+                        RequestBody.fromBytes(content));
+            }
+            dynamoDbService = new DynamoDbService();
+        } else {
+            throw new IllegalArgumentException("Unknown backend: " + backend + " (expected memory or local)");
+        }
+
+        // Step 2: Build the handler over the chosen backends; handler output is muted unless --verbose
+        PrintStream report = System.out;
+        if (!verbose) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        LambdaHandler handler = new LambdaHandler(new S3Service(s3Client), dynamoDbService);
+        Context context = new HarnessContext(verbose);
+
+        // Step 3: Warm up, then run the measured events while sampling the heap
+        int[] keyCursor = {0};
+        for (int i = 0; i < warmupEvents; i++) {
+            invoke(handler, nextEvent(bucketName, objectKeys, keyCursor, recordsPerEvent, content.length), context);
+        }
+
+        Stats stats = new Stats();
+        handler.setRecordListener(stats::record);
+        HeapSampler heapSampler = new HeapSampler();
+        heapSampler.start();
+
+        long started = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            S3Event event = nextEvent(bucketName, objectKeys, keyCursor, recordsPerEvent, content.length);
+            long invocationStart = System.nanoTime();
+            invoke(handler, event, context);
+            stats.invocationNanos.add(System.nanoTime() - invocationStart);
+        }
+        double elapsedSeconds = (System.nanoTime() - started) / 1e9;
+
+        heapSampler.stop();
+        handler.setRecordListener(null);
+        System.setOut(report);
+
+        // Step 4: Report
+        long reviews = stats.writtenReviews.get();
+        double reviewsPerSecond = reviews / elapsedSeconds;
+        report.println(String.format(Locale.ROOT, "Backend %s, %s %s objects (%s, %,d bytes), %d events x %d records",
+                backend, size, format, compression, content.length, events, recordsPerEvent));
+        report.println(String.format(Locale.ROOT, "Records: %d processed, %d skipped, %d failed in %.2f s",
+                stats.processed.get(), stats.skipped.get(), stats.failed.get(), elapsedSeconds));
+        report.println(String.format(Locale.ROOT, "Throughput: %.1f records/s, %,.0f reviews/s, %.1f MB/s",
+                (stats.processed.get() + stats.failed.get()) / elapsedSeconds, reviewsPerSecond,
+                stats.processed.get() * (double) content.length / elapsedSeconds / (1 << 20)));
+        report.println(String.format(Locale.ROOT, "%-12s %10s %10s %10s %10s", "Latency ms", "p50", "p90", "p99", "max"));
+        report.println(stats.invocationNanos.format("invocation"));
+        report.println(stats.downloadNanos.format("download"));
+        report.println(stats.parseNanos.format("parse"));
+        report.println(stats.writeNanos.format("write"));
+        report.println(String.format(Locale.ROOT, "Heap high-water: %.1f MB (max %.1f MB)",
+                heapSampler.highWaterBytes() / 1048576.0,
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax() / 1048576.0));
+        if (inMemoryDynamoDb != null) {
+            report.println("Items written: " + inMemoryDynamoDb.batchWriteCount(REVIEW_TABLE));
+            String summaryTable = System.getenv("PRODUCT_SUMMARY_TABLE");
+            List<Map<String, AttributeValue>> summaries = inMemoryDynamoDb.items(
+                    summaryTable != null && !summaryTable.isEmpty() ? summaryTable : DEFAULT_SUMMARY_TABLE);
+            long summarizedReviews = 0;
+            for (Map<String, AttributeValue> summary : summaries) {
+                summarizedReviews += Long.parseLong(summary.get(ProductSummaryStore.COUNT_ATTRIBUTE).n());
+            }
+            report.println("Products summarized: " + summaries.size() + " (" + summarizedReviews + " reviews)");
+        }
+
+        handler.cleanup();
+
+        // Step 5: Gate on throughput and failures when a threshold is given
+        if (minReviewsPerSecond > 0) {
+            if (stats.failed.get() > 0 || reviewsPerSecond < minReviewsPerSecond) {
+                report.println(String.format(Locale.ROOT, "FAILED: %,.0f reviews/s (minimum %,.0f), %d failed records",
+                        reviewsPerSecond, minReviewsPerSecond, stats.failed.get()));
+                System.exit(1);
+            }
+            report.println("PASSED");
+        }
+    }
+
+    /**
+     * Sends one event through the handler. Failed records are counted by the record listener,
+     * so the exception the handler throws for them is not a harness error.
+     */
+    private static void invoke(LambdaHandler handler, S3Event event, Context context) {
+        try {
+            handler.handleRequest(event, context);
+        } catch (RecordsFailedException e) {
+            // Counted per record
+        }
+    }
+
+    /**
+     * Builds one ObjectCreated event over the next keys in round-robin order. The events
+     * carry no ETag, so the handler's duplicate check lets every replay of a key through.
+     */
+    private static S3Event nextEvent(String bucketName, List<String> objectKeys, int[] keyCursor,
+                                     int recordsPerEvent, long objectSize) {
+        List<S3EventNotification.S3EventNotificationRecord> records = new ArrayList<>();
+        for (int i = 0; i < recordsPerEvent; i++) {
+            String objectKey = objectKeys.get(keyCursor[0]++ % objectKeys.size());
+            records.add(new S3EventNotification.S3EventNotificationRecord(
+                    "us-east-1", "ObjectCreated:Put", "aws:s3", "1970-01-01T00:00:00.000Z", "2.1",
+                    null, null,
+                    new S3EventNotification.S3Entity("load-harness",
+                            new S3EventNotification.S3BucketEntity(bucketName, null, "arn:aws:s3:::" + bucketName),
+                            new S3EventNotification.S3ObjectEntity(objectKey, objectSize, null, null, null),
+                            "1.0"),
+                    null));
+        }
+        return new S3Event(records);
+    }
+
+    /**
+     * @param compression "none", "gzip" or "zstd"
+     * @return The content compressed in that format
+     */
+    private static byte[] compress(byte[] content, String compression) throws IOException {
+        if ("gzip".equals(compression)) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, 1 << 16)) {
+                gzip.write(content);
+            }
+            return compressed.toByteArray();
+        } else if ("zstd".equals(compression)) {
+            return Zstd.compress(content);
+        } else if (!"none".equals(compression)) {
+            throw new IllegalArgumentException("Unsupported compression: " + compression);
+        }
+        return content;
+    }
+
+    /**
+     * Parses "--name value" pairs; a flag without a value maps to "true"
+     */
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "true");
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Per-record outcomes collected from the handler's record listener
+     */
+    private static final class Stats {
+        final AtomicInteger processed = new AtomicInteger();
+        final AtomicInteger skipped = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicLong writtenReviews = new AtomicLong();
+        final LatencySamples invocationNanos = new LatencySamples();
+        final LatencySamples downloadNanos = new LatencySamples();
+        final LatencySamples parseNanos = new LatencySamples();
+        final LatencySamples writeNanos = new LatencySamples();
+
+        void record(RecordResult result) {
+            switch (result.getStatus()) {
+                case PROCESSED:
+                    processed.incrementAndGet();
+                    break;
+                case SKIPPED:
+                    skipped.incrementAndGet();
+                    break;
+                default:
+                    failed.incrementAndGet();
+            }
+            IngestResult ingest = result.getIngestResult();
+            if (ingest != null) {
+                writtenReviews.addAndGet(ingest.getWrittenCount());
+                downloadNanos.add(ingest.getDownloadNanos());
+                parseNanos.add(ingest.getParseNanos());
+                writeNanos.add(ingest.getWriteNanos());
+            }
+        }
+    }
+
+    /**
+     * Growable list of durations with nearest-rank percentiles
+     */
+    static final class LatencySamples {
+        private long[] values = new long[1024];
+        private int count;
+
+        synchronized void add(long nanos) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = nanos;
+        }
+
+        synchronized String format(String label) {
+            long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            return String.format(Locale.ROOT, "%-12s %10.2f %10.2f %10.2f %10.2f", label,
+                    percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+                    sorted.length > 0 ? sorted[sorted.length - 1] / 1e6 : 0.0);
+        }
+
+        private static double percentile(long[] sorted, double percent) {
+            if (sorted.length == 0) {
+                return 0.0;
+            }
+            int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)] / 1e6;
+        }
+    }
+
+    /**
+     * Samples used heap on a daemon thread and keeps the maximum
+     */
+    private static final class HeapSampler implements Runnable {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final Thread thread = new Thread(this, "heap-sampler");
+        private volatile boolean running = true;
+        private volatile long highWater;
+
+        void start() {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            thread.join();
+        }
+
+        long highWaterBytes() {
+            return highWater;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                highWater = Math.max(highWater, memory.getHeapMemoryUsage().getUsed());
+                try {
+                    Thread.sleep(HEAP_SAMPLE_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Minimal Lambda context whose logger is silent unless verbose
+     */
+    private static final class HarnessContext implements Context {
+        private final LambdaLogger logger;
+
+        HarnessContext(boolean verbose) {
+            this.logger = new LambdaLogger() {
+                @Override
+                public void log(String message) {
+                    if (verbose) {
+                        System.err.println(message);
+                    }
+                }
+
+                @Override
+                public void log(byte[] message) {
+                    if (verbose) {
+                        System.err.println(new String(message));
+                    }
+                }
+            };
+        }
+
+        @Override
+        public String getAwsRequestId() {
+            return "load-harness";
+        }
+
+        @Override
+        public String getLogGroupName() {
+            return "load-harness";
+        }
+
+        @Override
+        public String getLogStreamName() {
+            return "load-harness";
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "load-harness";
+        }
+
+        @Override
+        public String getFunctionVersion() {
+            return "$LATEST";
+        }
+
+        @Override
+        public String getInvokedFunctionArn() {
+            return "arn:aws:lambda:us-east-1:000000000000:function:load-harness";
+        }
+
+        @Override
+        public CognitoIdentity getIdentity() {
+            return null;
+        }
+
+        @Override
+        public ClientContext getClientContext() {
+            return null;
+        }
+
+        @Override
+        public int getRemainingTimeInMillis() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public int getMemoryLimitInMB() {
+            return (int) (Runtime.getRuntime().maxMemory() >> 20);
+        }
+
+        @Override
+        public LambdaLogger getLogger() {
+            return logger;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.zliang19.bench;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import com.zliang19.service.ParsingService;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Streaming ParsingService.parseContent over synthetic .json, .jsonl and .txt files from 1 KB to 1 GB,
+ * both as one ProductReview bean per record and as columnar ReviewBatches. Besides ops/s, the bytes
+ * and records counters report parse throughput per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class ParsingBenchmark {
+
+    @Param({"json", "jsonl", "txt"})
+    public String format;
+
+    @Param({"1KB", "1MB", "64MB", "1GB"})
+    public String size;
+
+    private Path dataset;
+    private String fileName;
+    private long datasetBytes;
+    private ParsingService parsingService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataset = SyntheticDataset.file(format, size);
+        fileName = dataset.getFileName().toString();
+        datasetBytes = Files.size(dataset);
+        parsingService = new ParsingService();
+    }
+
+    @Benchmark
+    public int parseStream(Throughput throughput, Blackhole blackhole) throws IOException {
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(dataset), 1 << 16)) {
+            int records = parsingService.parseContent(input, fileName, blackhole::consume).getParsedCount();
+            throughput.bytes += datasetBytes;
+            throughput.records += records;
+            return records;
+        }
+    }
+
+    @Benchmark
+    public int parseBatches(Throughput throughput, Blackhole blackhole) throws IOException {
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(dataset), 1 << 16)) {
+            int records = parsingService.parseBatches(input, fileName, null, blackhole::consume).getParsedCount();
+            throughput.bytes += datasetBytes;
+            throughput.records += records;
+            return records;
+        }
+    }
+
+    /**
+     * Per-iteration counters that JMH reports as rates next to the primary result
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public long bytes;
+        public long records;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            records = 0;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.zliang19.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.zliang19.model.ProductReview;
+import com.zliang19.service.ParsingService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ParsingService.parseContent(String, String), the whole-file path that builds a result list.
+ * Capped at 64 MB because the file, its String and every parsed review are live at once.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class ParsingStringBenchmark {
+
+    @Param({"json", "txt"})
+    public String format;
+
+    @Param({"1KB", "1MB", "64MB"})
+    public String size;
+
+    private String content;
+    private String fileName;
+    private ParsingService parsingService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path dataset = SyntheticDataset.file(format, size);
+        content = new String(Files.readAllBytes(dataset), StandardCharsets.UTF_8);
+        fileName = dataset.getFileName().toString();
+        parsingService = new ParsingService();
+    }
+
+    @Benchmark
+    public List<ProductReview> parseString() throws IOException {
+        return parsingService.parseContent(content, fileName);
+    }
+}
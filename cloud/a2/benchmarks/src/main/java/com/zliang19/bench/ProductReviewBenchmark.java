@@ -0,0 +1,58 @@
+package com.zliang19.bench;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.zliang19.model.ProductReview;
+import com.zliang19.model.ProductReviewSchema;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * Cost of creating one ProductReview and marshalling it to a DynamoDB item with the
+ * hand-written static schema and with the reflective bean schema.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductReviewBenchmark {
+
+    private TableSchema<ProductReview> beanSchema;
+    private long sequence;
+
+    @Setup
+    public void setUp() {
+        beanSchema = TableSchema.fromBean(ProductReview.class);
+    }
+
+    @Benchmark
+    public ProductReview construct() {
+        return new ProductReview(Long.toString(sequence++), "Sony TV", 12000.0,
+                "I loved this product and have been using for 5 years and no issue", 4.85);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> constructAndMarshalStaticSchema() {
+        return ProductReviewSchema.TABLE_SCHEMA.itemToMap(construct(), true);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> constructAndMarshalBeanSchema() {
+        return beanSchema.itemToMap(construct(), true);
+    }
+}
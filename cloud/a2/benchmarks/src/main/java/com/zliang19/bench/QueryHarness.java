@@ -0,0 +1,235 @@
+package com.zliang19.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.zliang19.model.ProductAggregate;
+import com.zliang19.model.ReviewBatch;
+import com.zliang19.service.ClientFactory;
+import com.zliang19.service.DynamoDbService;
+import com.zliang19.service.IdempotencyStore;
+import com.zliang19.service.ProductAggregator;
+import com.zliang19.service.ProductSummaryStore;
+import com.zliang19.service.QueryCache;
+import com.zliang19.service.ReviewQueryService;
+import com.zliang19.testing.InMemoryDynamoDbClient;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+
+/**
+ * Reads reviews through ReviewQueryService the way a storefront would: several threads
+ * looking up a skewed mix of products, an occasional top-rated lookup, and small ingests
+ * landing in between. The harness writes and reads in one process, so it invalidates the
+ * products it writes, as a storefront serving its own writes would. Reports lookups/s, lookup
+ * latency percentiles, cache hits and coalesced misses, then checks that every product
+ * returns all of its reviews and that the ranking holds them all. Runs against an in-memory
+ * DynamoDB by default, or against DynamoDB Local configured through DYNAMODB_ENDPOINT with
+ * --backend local; the tables, the ProductName index and the ranking index must exist there.
+ *
+ *   java -cp target/benchmarks.jar com.zliang19.bench.QueryHarness --threads 8 --lookups 100000
+ *
+ * Other options: --products, --reviews-per-product, --hot-products, --hot-share,
+ * --ingest-every and --dynamodb-latency-ms (memory backend only). Cache size and TTL come
+ * from REVIEW_QUERY_CACHE_SIZE and REVIEW_QUERY_CACHE_TTL_SECONDS as in the storefront function.
+ */
+public class QueryHarness {
+
+    private static final String REVIEW_TABLE = "ProductReview";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        String backend = options.getOrDefault("backend", "memory");
+        int productCount = Integer.parseInt(options.getOrDefault("products", "200"));
+        int reviewsPerProduct = Integer.parseInt(options.getOrDefault("reviews-per-product", "20"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        int lookups = Integer.parseInt(options.getOrDefault("lookups", "20000"));
+        int hotProducts = Integer.parseInt(options.getOrDefault("hot-products", "5"));
+        double hotShare = Double.parseDouble(options.getOrDefault("hot-share", "0.8"));
+        int ingestEvery = Integer.parseInt(options.getOrDefault("ingest-every", "500"));
+        long dynamoDbLatencyMillis = Long.parseLong(options.getOrDefault("dynamodb-latency-ms", "5"));
+
+        // Step 1: Set up the backend; in-memory tables retain items so the index can be queried
+        InMemoryDynamoDbClient inMemoryDynamoDb = null;
+        DynamoDbService dynamoDbService;
+        DynamoDbClient readClient;
+        if ("memory".equals(backend)) {
+            String summaryTable = env(ProductSummaryStore.TABLE_ENV, ProductSummaryStore.DEFAULT_TABLE_NAME);
+            inMemoryDynamoDb = new InMemoryDynamoDbClient(dynamoDbLatencyMillis, 0, true)
+                    .createTable(REVIEW_TABLE, "Identifier")
+                    .createIndex(REVIEW_TABLE, env("PRODUCT_NAME_INDEX", ReviewQueryService.DEFAULT_INDEX_NAME),
+                            "ProductName")
+                    .createTable(env("IDEMPOTENCY_TABLE", "ProductReviewIngestLedger"), "ObjectId")
+                    .createTable(summaryTable, ProductSummaryStore.KEY_ATTRIBUTE)
+                    .createIndex(summaryTable,
+                            env("PRODUCT_RANKING_INDEX", ReviewQueryService.DEFAULT_RANKING_INDEX_NAME),
+                            ProductSummaryStore.RANK_SHARD_ATTRIBUTE, ProductSummaryStore.AVERAGE_RATING_ATTRIBUTE);
+            dynamoDbService = new DynamoDbService(inMemoryDynamoDb);
+            readClient = inMemoryDynamoDb;
+        } else if ("local".equals(backend)) {
+            dynamoDbService = new DynamoDbService();
+            readClient = ClientFactory.dynamoDbClient();
+        } else {
+            throw new IllegalArgumentException("Unknown backend: " + backend + " (expected memory or local)");
+        }
+        // Built on its own, as the function serving lookups does
+        ReviewQueryService queries = ReviewQueryService.fromEnvironment(readClient);
+
+        // Step 2: Seed the products; names are unique per run so a shared DynamoDB Local stays checkable
+        String prefix = "QueryHarness-" + Long.toString(System.currentTimeMillis(), 36) + "-";
+        String[] productNames = new String[productCount];
+        AtomicIntegerArray expectedReviews = new AtomicIntegerArray(productCount);
+        Random seedRandom = new Random(42);
+        List<ReviewBatch> seed = new ArrayList<>();
+        ReviewBatch batch = null;
+        for (int product = 0; product < productCount; product++) {
+            productNames[product] = prefix + product;
+            for (int review = 0; review < reviewsPerProduct; review++) {
+                if (batch == null || batch.isFull()) {
+                    batch = new ReviewBatch(100);
+                    seed.add(batch);
+                }
+                batch.add(productNames[product], 10 + seedRandom.nextInt(90), "Seeded review " + review,
+                        1 + seedRandom.nextInt(5));
+            }
+            expectedReviews.set(product, reviewsPerProduct);
+        }
+        ingest(dynamoDbService, queries, seed);
+
+        // Step 3: Look up products from several threads while small ingests land
+        AtomicInteger issued = new AtomicInteger();
+        AtomicLong shortResults = new AtomicLong();
+        LoadHarness.LatencySamples lookupNanos = new LoadHarness.LatencySamples();
+        List<Thread> workers = new ArrayList<>();
+        long started = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            Thread worker = new Thread(() -> {
+                for (int n = issued.getAndIncrement(); n < lookups; n = issued.getAndIncrement()) {
+                    int product = random.nextDouble() < hotShare
+                            ? random.nextInt(Math.min(hotProducts, productCount))
+                            : random.nextInt(productCount);
+                    if (ingestEvery > 0 && n % ingestEvery == ingestEvery - 1) {
+                        ReviewBatch landed = new ReviewBatch(1);
+                        landed.add(productNames[product], 50, "Review landed during the run", 4);
+                        ingest(dynamoDbService, queries, Collections.singletonList(landed));
+                        expectedReviews.incrementAndGet(product);
+                    }
+
+                    long lookupStart = System.nanoTime();
+                    if (n % 100 == 0) {
+                        queries.getTopRatedProducts(10, 1);
+                    } else if (queries.getReviewsForProduct(productNames[product]).size() < reviewsPerProduct) {
+                        shortResults.incrementAndGet();
+                    }
+                    lookupNanos.add(System.nanoTime() - lookupStart);
+                }
+            }, "query-worker-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double elapsedSeconds = (System.nanoTime() - started) / 1e9;
+
+        // Step 4: Check every product after a final invalidation, then report
+        List<String> allProducts = new ArrayList<>();
+        for (String productName : productNames) {
+            allProducts.add(productName);
+        }
+        queries.invalidateProducts(allProducts);
+        queries.invalidateRanking();
+        int mismatched = 0;
+        for (int product = 0; product < productCount; product++) {
+            if (queries.getReviewsForProduct(productNames[product]).size() != expectedReviews.get(product)) {
+                mismatched++;
+            }
+        }
+        long summarized = 0;
+        for (ProductAggregate aggregate : queries.getTopRatedProducts(Integer.MAX_VALUE, 0)) {
+            if (aggregate.getProductName().startsWith(prefix)) {
+                summarized += aggregate.getReviewCount();
+            }
+        }
+        long expectedTotal = 0;
+        for (int product = 0; product < productCount; product++) {
+            expectedTotal += expectedReviews.get(product);
+        }
+
+        QueryCache<String, ?> cache = queries.getReviewCache();
+        System.out.println(String.format(Locale.ROOT, "Backend %s, %d products x %d reviews, %d threads, %d lookups",
+                backend, productCount, reviewsPerProduct, threads, lookups));
+        System.out.println(String.format(Locale.ROOT, "Throughput: %,.0f lookups/s in %.2f s",
+                lookups / elapsedSeconds, elapsedSeconds));
+        System.out.println(String.format(Locale.ROOT, "%-12s %10s %10s %10s %10s", "Latency ms", "p50", "p90", "p99", "max"));
+        System.out.println(lookupNanos.format("lookup"));
+        System.out.println(String.format(Locale.ROOT, "Review cache: %d hits, %d misses, %d coalesced",
+                cache.getHitCount(), cache.getMissCount(), cache.getCoalescedCount()));
+        if (inMemoryDynamoDb != null) {
+            System.out.println("DynamoDB requests: " + inMemoryDynamoDb.queryCount() + " queries, "
+                    + inMemoryDynamoDb.scanCount() + " scans");
+        }
+        System.out.println("Lookups with fewer reviews than seeded: " + shortResults.get());
+        System.out.println("Products with a wrong review count after the run: " + mismatched);
+        System.out.println("Reviews in the summary table: " + summarized + " of " + expectedTotal);
+
+        dynamoDbService.close();
+        readClient.close();
+        if (mismatched > 0 || summarized != expectedTotal) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Writes reviews the way the handler does: identifiers, batch writes, then the product summary.
+     * Each call stands for an upload without an object ID, so its identifiers get a random prefix.
+     * The written products' cached reviews are dropped afterwards.
+     */
+    private static void ingest(DynamoDbService dynamoDbService, ReviewQueryService queries,
+                               List<ReviewBatch> batches) {
+        ProductAggregator aggregator = new ProductAggregator();
+        String identifierPrefix = IdempotencyStore.identifierPrefix(null);
+        long position = 0;
+        for (ReviewBatch batch : batches) {
+            batch.setFirstIdentifier(identifierPrefix, position);
+            position += batch.getValidCount();
+            aggregator.add(batch);
+        }
+        dynamoDbService.saveReviewBatches(batches);
+        dynamoDbService.applyProductAggregates(aggregator.getAggregates(), null);
+        List<String> productNames = new ArrayList<>();
+        for (ProductAggregate aggregate : aggregator.getAggregates()) {
+            productNames.add(aggregate.getProductName());
+        }
+        queries.invalidateProducts(productNames);
+    }
+
+    private static String env(String name, String defaultValue) {
+        String configured = System.getenv(name);
+        return configured != null && !configured.isEmpty() ? configured : defaultValue;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "true");
+            }
+        }
+        return options;
+    }
+}
@@ -0,0 +1,123 @@
+package com.zliang19.bench;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.zliang19.service.RangedObjectInputStream;
+import com.zliang19.testing.InMemoryS3Client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+
+/**
+ * Turning an object body into characters the way S3Service has done it over time:
+ * line-by-line into a StringBuilder (the original readObjectContent), readAllBytes into
+ * one String (the current readObjectContent), chunked decoding as the streaming parsers
+ * see it, and the same chunked decoding over RangedObjectInputStream served from memory.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class StreamDecodingBenchmark {
+
+    private static final int RANGE_PART_SIZE = 8 * 1024 * 1024;
+    private static final int RANGE_WINDOW = 4;
+
+    @Param({"1KB", "1MB", "64MB"})
+    public String size;
+
+    private byte[] payload;
+    private S3Client inMemoryS3;
+    private String eTag;
+    private ExecutorService rangeExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        payload = Files.readAllBytes(SyntheticDataset.file("txt", size));
+        InMemoryS3Client client = new InMemoryS3Client(0);
+        client.putObject("bench", "reviews.txt", payload);
+        inMemoryS3 = client;
+        eTag = client.headObject(HeadObjectRequest.builder().bucket("bench").key("reviews.txt").build()).eTag();
+        rangeExecutor = Executors.newFixedThreadPool(RANGE_WINDOW);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        rangeExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public String lineReaderStringBuilder() throws IOException {
+        StringBuilder content = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(payload), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                content.append(line).append("\n");
+            }
+        }
+        return content.toString().trim();
+    }
+
+    @Benchmark
+    public String readAllBytesString() throws IOException {
+        try (InputStream input = new ByteArrayInputStream(payload)) {
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8).trim();
+        }
+    }
+
+    @Benchmark
+    public long chunkedDecode() throws IOException {
+        return decode(new ByteArrayInputStream(payload));
+    }
+
+    @Benchmark
+    public long rangedChunkedDecode() throws IOException {
+        return decode(new RangedObjectInputStream(inMemoryS3, rangeExecutor, "bench", "reviews.txt",
+                eTag, payload.length, RANGE_PART_SIZE, RANGE_WINDOW));
+    }
+
+    /**
+     * Decodes the stream in 8 KB chunks, the buffer size TextReviewScanner reads with
+     * @return Sum of the decoded characters, so the work cannot be eliminated
+     */
+    private static long decode(InputStream input) throws IOException {
+        long checksum = 0;
+        char[] buffer = new char[8192];
+        try (Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8)) {
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    checksum += buffer[i];
+                }
+            }
+        }
+        return checksum;
+    }
+}
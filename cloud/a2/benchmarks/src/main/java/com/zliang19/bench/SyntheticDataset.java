@@ -0,0 +1,138 @@
+package com.zliang19.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates review files with the shape of sample-data.json and sample-data.txt, or JSON Lines
+ * with the same records, at a target size.
+ * Files are cached under java.io.tmpdir so repeated forks and runs reuse them.
+ */
+public final class SyntheticDataset {
+
+    private static final String[] PRODUCT_NAMES = {
+        "Sony TV", "Bravia Microwave", "Lenovo Thinpad", "Samsung Galaxy S21", "Apple MacBook Pro"
+    };
+    private static final String[] REVIEWS = {
+        "I loved this product and have been using for 5 years and no issue",
+        "Good value and does the job",
+        "Not happy with it and had to return",
+        "Excellent phone with great camera quality",
+        "Perfect for development work fast and reliable"
+    };
+    private static final int[] PRICES = {12000, 350, 2400, 899, 3200};
+
+    private static final Path CACHE_DIR = Paths.get(System.getProperty("java.io.tmpdir"), "zliang19-bench");
+
+    private SyntheticDataset() {
+    }
+
+    /**
+     * @param size Size such as "1KB", "1MB", "64MB" or "1GB"
+     * @return Size in bytes
+     */
+    public static long parseSize(String size) {
+        String upper = size.trim().toUpperCase(Locale.ROOT);
+        if (upper.endsWith("GB")) {
+            return Long.parseLong(upper.substring(0, upper.length() - 2)) << 30;
+        } else if (upper.endsWith("MB")) {
+            return Long.parseLong(upper.substring(0, upper.length() - 2)) << 20;
+        } else if (upper.endsWith("KB")) {
+            return Long.parseLong(upper.substring(0, upper.length() - 2)) << 10;
+        }
+        return Long.parseLong(upper);
+    }
+
+    /**
+     * Returns a cached dataset file, generating it on first use
+     * @param format "json", "jsonl" or "txt"
+     * @param size Target size such as "64MB"; the file ends at the first record past it
+     * @return Path of the dataset file, whose name ends in the format extension
+     * @throws IOException If the file cannot be written
+     */
+    public static Path file(String format, String size) throws IOException {
+        Path path = CACHE_DIR.resolve("reviews-" + size + "." + format);
+        if (Files.exists(path)) {
+            return path;
+        }
+
+        Files.createDirectories(CACHE_DIR);
+        Path temp = Files.createTempFile(CACHE_DIR, "reviews", ".tmp");
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(temp, StandardCharsets.UTF_8), 1 << 16)) {
+            if ("json".equals(format)) {
+                writeJson(writer, parseSize(size));
+            } else if ("jsonl".equals(format)) {
+                writeJsonLines(writer, parseSize(size));
+            } else if ("txt".equals(format)) {
+                writeText(writer, parseSize(size));
+            } else {
+                throw new IllegalArgumentException("Unsupported format: " + format);
+            }
+        }
+        Files.move(temp, path);
+        return path;
+    }
+
+    private static void writeJson(Writer writer, long targetBytes) throws IOException {
+        Random random = new Random(42);
+        long written = 1;
+        writer.write("[");
+        for (int i = 0; written < targetBytes; i++) {
+            int product = random.nextInt(PRODUCT_NAMES.length);
+            String record = (i > 0 ? ",\n" : "\n")
+                    + "    {\n"
+                    + "        \"ProductName\": \"" + PRODUCT_NAMES[product] + "\",\n"
+                    + "        \"Price\": " + PRICES[product] + ",\n"
+                    + "        \"Review\": \"" + REVIEWS[random.nextInt(REVIEWS.length)] + "\",\n"
+                    + "        \"Rating\": " + rating(random) + "\n"
+                    + "    }";
+            writer.write(record);
+            written += record.length();
+        }
+        writer.write("\n]");
+    }
+
+    private static void writeJsonLines(Writer writer, long targetBytes) throws IOException {
+        Random random = new Random(42);
+        long written = 0;
+        while (written < targetBytes) {
+            int product = random.nextInt(PRODUCT_NAMES.length);
+            String record = "{\"ProductName\": \"" + PRODUCT_NAMES[product] + "\", "
+                    + "\"Price\": " + PRICES[product] + ", "
+                    + "\"Review\": \"" + REVIEWS[random.nextInt(REVIEWS.length)] + "\", "
+                    + "\"Rating\": " + rating(random) + "}\n";
+            writer.write(record);
+            written += record.length();
+        }
+    }
+
+    private static void writeText(Writer writer, long targetBytes) throws IOException {
+        Random random = new Random(42);
+        long written = 0;
+        for (int i = 0; written < targetBytes; i++) {
+            int product = random.nextInt(PRODUCT_NAMES.length);
+            String record = (i > 0 ? "; " : "")
+                    + "ProductName: " + PRODUCT_NAMES[product]
+                    + ", Price: " + PRICES[product]
+                    + ", Review: " + REVIEWS[random.nextInt(REVIEWS.length)]
+                    + ", Rating: " + rating(random);
+            writer.write(record);
+            written += record.length();
+        }
+    }
+
+    /**
+     * Two-decimal rating between 1.00 and 5.00, like the samples
+     */
+    private static String rating(Random random) {
+        int hundredths = 100 + random.nextInt(401);
+        return (hundredths / 100) + "." + String.format("%02d", hundredths % 100);
+    }
+}
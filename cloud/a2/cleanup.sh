@@ -7,6 +7,8 @@
 BUCKET_NAME="zliang19a2bucket"
 LAMBDA_FUNCTION_NAME="zliang19a2app"
 TABLE_NAME="ProductReview"
+IDEMPOTENCY_TABLE_NAME="ProductReviewIngestLedger"
+SUMMARY_TABLE_NAME="ProductReviewSummary"
 ROLE_NAME="lambda-s3-dynamodb-role"
 REGION="us-east-1"
 
@@ -27,6 +29,8 @@ aws lambda delete-function --function-name $LAMBDA_FUNCTION_NAME --region $REGIO
 # Step 4: Delete DynamoDB table
 echo "Deleting DynamoDB table: $TABLE_NAME"
 aws dynamodb delete-table --table-name $TABLE_NAME --region $REGION
+aws dynamodb delete-table --table-name $IDEMPOTENCY_TABLE_NAME --region $REGION
+aws dynamodb delete-table --table-name $SUMMARY_TABLE_NAME --region $REGION
 
 # Step 5: Skip IAM cleanup in AWS Academy (restricted permissions)
 echo "Skipping IAM role cleanup (AWS Academy environment)"
@@ -37,6 +41,8 @@ echo "Cleanup completed!"
 echo ""
 echo "Resources cleaned up:"
 echo "- DynamoDB Table: $TABLE_NAME (deleted)"
+echo "- DynamoDB Table: $IDEMPOTENCY_TABLE_NAME (deleted)"
+echo "- DynamoDB Table: $SUMMARY_TABLE_NAME (deleted)"
 echo "- S3 Bucket: $BUCKET_NAME (deleted)"
 echo "- Lambda Function: $LAMBDA_FUNCTION_NAME (deleted)"
 echo "- IAM Role: $ROLE_NAME (will be cleaned up when lab session ends)"
@@ -7,6 +7,8 @@
 BUCKET_NAME="zliang19a2bucket"
 LAMBDA_FUNCTION_NAME="zliang19a2app"
 TABLE_NAME="ProductReview"
+IDEMPOTENCY_TABLE_NAME="ProductReviewIngestLedger"
+SUMMARY_TABLE_NAME="ProductReviewSummary"
 REGION="us-east-1"
 
 echo "Starting AWS Academy compatible deployment of zliang19a2app..."
@@ -15,21 +17,58 @@ echo "Starting AWS Academy compatible deployment of zliang19a2app..."
 ACCOUNT_ID=$(aws sts get-caller-identity --query Account --output text)
 echo "AWS Account ID: $ACCOUNT_ID"
 
-# Step 1: Create DynamoDB table
+# Step 1: Create DynamoDB table, with an index for reviews by product name
 echo "Creating DynamoDB table: $TABLE_NAME"
 aws dynamodb create-table \
     --table-name $TABLE_NAME \
     --attribute-definitions \
         AttributeName=Identifier,AttributeType=S \
+        AttributeName=ProductName,AttributeType=S \
     --key-schema \
         AttributeName=Identifier,KeyType=HASH \
     --provisioned-throughput \
         ReadCapacityUnits=5,WriteCapacityUnits=5 \
+    --global-secondary-indexes \
+        "IndexName=ProductName-index,KeySchema=[{AttributeName=ProductName,KeyType=HASH}],Projection={ProjectionType=ALL},ProvisionedThroughput={ReadCapacityUnits=5,WriteCapacityUnits=5}" \
     --region $REGION
 
 echo "Waiting for DynamoDB table to be active..."
 aws dynamodb wait table-exists --table-name $TABLE_NAME --region $REGION
 
+# Step 1c: Create the idempotency ledger (object versions already ingested)
+echo "Creating DynamoDB table: $IDEMPOTENCY_TABLE_NAME"
+aws dynamodb create-table \
+    --table-name $IDEMPOTENCY_TABLE_NAME \
+    --attribute-definitions \
+        AttributeName=ObjectId,AttributeType=S \
+    --key-schema \
+        AttributeName=ObjectId,KeyType=HASH \
+    --billing-mode PAY_PER_REQUEST \
+    --region $REGION
+
+aws dynamodb wait table-exists --table-name $IDEMPOTENCY_TABLE_NAME --region $REGION
+aws dynamodb update-time-to-live \
+    --table-name $IDEMPOTENCY_TABLE_NAME \
+    --time-to-live-specification Enabled=true,AttributeName=ExpiresAt \
+    --region $REGION
+
+# Step 1d: Create the per-product summary table (counts, rating sums and ranges), ranked by average rating
+echo "Creating DynamoDB table: $SUMMARY_TABLE_NAME"
+aws dynamodb create-table \
+    --table-name $SUMMARY_TABLE_NAME \
+    --attribute-definitions \
+        AttributeName=ProductName,AttributeType=S \
+        AttributeName=RankShard,AttributeType=S \
+        AttributeName=AverageRating,AttributeType=N \
+    --key-schema \
+        AttributeName=ProductName,KeyType=HASH \
+    --global-secondary-indexes \
+        "IndexName=AverageRating-index,KeySchema=[{AttributeName=RankShard,KeyType=HASH},{AttributeName=AverageRating,KeyType=RANGE}],Projection={ProjectionType=ALL}" \
+    --billing-mode PAY_PER_REQUEST \
+    --region $REGION
+
+aws dynamodb wait table-exists --table-name $SUMMARY_TABLE_NAME --region $REGION
+
 # Step 2: Create S3 bucket
 echo "Creating S3 bucket: $BUCKET_NAME"
 aws s3 mb s3://$BUCKET_NAME --region $REGION
@@ -92,14 +131,14 @@ aws lambda create-function \
     --runtime java11 \
     --role $ROLE_ARN \
     --handler com.zliang19.LambdaHandler::handleRequest \
-    --zip-file fileb://target/zliang19a2app-1.0.0.jar \
+    --zip-file fileb://target/zliang19a2app-1.0.0-lambda.jar \
     --timeout 60 \
     --memory-size 512 \
     --region $REGION
 
 if [ $? -ne 0 ]; then
     echo "ERROR: Failed to create Lambda function. Check that:"
-    echo "1. The JAR file exists: target/zliang19a2app-1.0.0.jar"
+    echo "1. The JAR file exists: target/zliang19a2app-1.0.0-lambda.jar"
     echo "2. The IAM role has the correct permissions"
     echo "3. You have Lambda creation permissions in AWS Academy"
     exit 1
@@ -154,6 +193,66 @@ aws s3api put-bucket-notification-configuration \
                         ]
                     }
                 }
+            },
+            {
+                \"Id\": \"ProcessJSONLUpload\",
+                \"LambdaFunctionArn\": \"$LAMBDA_ARN\",
+                \"Events\": [\"s3:ObjectCreated:*\"],
+                \"Filter\": {
+                    \"Key\": {
+                        \"FilterRules\": [
+                            {
+                                \"Name\": \"suffix\",
+                                \"Value\": \".jsonl\"
+                            }
+                        ]
+                    }
+                }
+            },
+            {
+                \"Id\": \"ProcessNDJSONUpload\",
+                \"LambdaFunctionArn\": \"$LAMBDA_ARN\",
+                \"Events\": [\"s3:ObjectCreated:*\"],
+                \"Filter\": {
+                    \"Key\": {
+                        \"FilterRules\": [
+                            {
+                                \"Name\": \"suffix\",
+                                \"Value\": \".ndjson\"
+                            }
+                        ]
+                    }
+                }
+            },
+            {
+                \"Id\": \"ProcessGzipUpload\",
+                \"LambdaFunctionArn\": \"$LAMBDA_ARN\",
+                \"Events\": [\"s3:ObjectCreated:*\"],
+                \"Filter\": {
+                    \"Key\": {
+                        \"FilterRules\": [
+                            {
+                                \"Name\": \"suffix\",
+                                \"Value\": \".gz\"
+                            }
+                        ]
+                    }
+                }
+            },
+            {
+                \"Id\": \"ProcessZstdUpload\",
+                \"LambdaFunctionArn\": \"$LAMBDA_ARN\",
+                \"Events\": [\"s3:ObjectCreated:*\"],
+                \"Filter\": {
+                    \"Key\": {
+                        \"FilterRules\": [
+                            {
+                                \"Name\": \"suffix\",
+                                \"Value\": \".zst\"
+                            }
+                        ]
+                    }
+                }
             }
         ]
     }"
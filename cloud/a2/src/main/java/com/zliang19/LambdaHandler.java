@@ -1,154 +1,443 @@
 package com.zliang19;
 
-import java.io.File;
-import java.io.FileWriter;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.S3Event;
 import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
+import org.crac.Core;
+import org.crac.Resource;
 import com.zliang19.model.ProductReview;
+import com.zliang19.model.ReviewBatch;
+import com.zliang19.service.BatchWriteResult;
+import com.zliang19.service.Compression;
+import com.zliang19.service.IdempotencyStore;
+import com.zliang19.service.IngestFailedException;
+import com.zliang19.service.IngestMetrics;
+import com.zliang19.service.IngestPipeline;
+import com.zliang19.service.IngestResult;
 import com.zliang19.service.DynamoDbService;
+import com.zliang19.service.EnvConfig;
+import com.zliang19.service.ParseResult;
 import com.zliang19.service.ParsingService;
+import com.zliang19.service.ProductAggregator;
+import com.zliang19.service.RecordLog;
+import com.zliang19.service.RecordResult;
+import com.zliang19.service.RecordsFailedException;
+import com.zliang19.service.S3ObjectStream;
 import com.zliang19.service.S3Service;
+import com.zliang19.service.SummaryUpdateResult;
+import com.zliang19.service.UploadJournal;
 
 /**
  * AWS Lambda function handler for processing S3 upload events
  * This handler processes JSON and TXT files uploaded to S3 bucket,
  * parses product review data, and stores it in DynamoDB
  */
-public class LambdaHandler implements RequestHandler<S3Event, String> {
+public class LambdaHandler implements RequestHandler<S3Event, String>, Resource {
     
     private final S3Service s3Service;
     private final DynamoDbService dynamoDbService;
     private final ParsingService parsingService;
-    private final String logFilePath;
+    private final IngestPipeline ingestPipeline;
+    private final boolean pipelineEnabled;
+    private final ExecutorService recordExecutor;
+    private final UploadJournal uploadJournal;
+    private final boolean metricsEnabled;
+    private final String metricsNamespace;
+    private volatile Consumer<RecordResult> recordListener;
+    
+    // Records of one event processed at the same time; RECORD_CONCURRENCY overrides the default
+    private static final int DEFAULT_RECORD_CONCURRENCY = 4;
+    private static final String DEFAULT_METRICS_NAMESPACE = "ProductReviewIngest";
+    
+    // Upload journal in the Lambda temp directory, rotated at 8 MB with 3 older files kept
+    private static final String UPLOAD_JOURNAL_PATH = "/tmp/s3_upload_log.txt";
+    private static final long DEFAULT_JOURNAL_MAX_BYTES = 8L * 1024 * 1024;
+    private static final int DEFAULT_JOURNAL_FILES = 3;
+    
+    // Tiny inputs run through every parse and marshal path during init
+    private static final String PRIMING_JSON =
+            "[{\"ProductName\": \"Prime\", \"Price\": 1, \"Review\": \"init\", \"Rating\": 5}]";
+    private static final String PRIMING_JSON_LINES =
+            "{\"ProductName\": \"Prime\", \"Price\": 1, \"Review\": \"init\", \"Rating\": 5}\n";
+    private static final String PRIMING_TEXT = "ProductName: Prime, Price: 1, Review: init, Rating: 5";
     
     public LambdaHandler() {
-        this.s3Service = new S3Service();
-        this.dynamoDbService = new DynamoDbService();
+        this(new S3Service(), new DynamoDbService());
+    }
+    
+    /**
+     * Creates a handler over the given storage backends, for example services built on
+     * local endpoints or in-memory clients when measuring throughput outside Lambda
+     * @param s3Service Service the uploaded objects are read from
+     * @param dynamoDbService Service the reviews are written to
+     */
+    public LambdaHandler(S3Service s3Service, DynamoDbService dynamoDbService) {
+        this.s3Service = s3Service;
+        this.dynamoDbService = dynamoDbService;
         this.parsingService = new ParsingService();
-        this.logFilePath = "/tmp/s3_upload_log.txt"; // Lambda temp directory
+        this.ingestPipeline = new IngestPipeline(s3Service, parsingService, dynamoDbService);
+        // Overlapping download, parse and write is the default; INGEST_PIPELINE=false runs them one after another
+        this.pipelineEnabled = !"false".equalsIgnoreCase(System.getenv("INGEST_PIPELINE"));
+        AtomicInteger workerCount = new AtomicInteger();
+        this.recordExecutor = Executors.newFixedThreadPool(recordConcurrency(), runnable -> {
+            Thread thread = new Thread(runnable, "s3-record-worker-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.uploadJournal = new UploadJournal(Paths.get(UPLOAD_JOURNAL_PATH),
+                EnvConfig.envLong("UPLOAD_JOURNAL_MAX_BYTES", DEFAULT_JOURNAL_MAX_BYTES),
+                (int) EnvConfig.envLong("UPLOAD_JOURNAL_FILES", DEFAULT_JOURNAL_FILES));
+        // One EMF metrics line per invocation; METRICS_ENABLED=false turns it off
+        this.metricsEnabled = !"false".equalsIgnoreCase(System.getenv("METRICS_ENABLED"));
+        String namespace = System.getenv("METRICS_NAMESPACE");
+        this.metricsNamespace = namespace != null && !namespace.isEmpty() ? namespace : DEFAULT_METRICS_NAMESPACE;
+        
+        // Warm Jackson, the text scanner and the table schema now rather than on the first record;
+        // PRIME_CLIENTS=true also opens the HTTP connections during init
+        primeColdStartPaths("true".equalsIgnoreCase(System.getenv("PRIME_CLIENTS")));
+        Core.getGlobalContext().register(this);
+    }
+    
+    /**
+     * Primes everything before a SnapStart/CRaC checkpoint so restored environments start warm
+     */
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        primeColdStartPaths(true);
+        uploadJournal.flush();
     }
     
+    /**
+     * Nothing to reset: review identifiers come from the object version, not from state a
+     * snapshot could hand to several environments
+     */
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+    }
+    
+    /**
+     * @param recordListener Called with the outcome of every record once it finishes, or null for none
+     */
+    public void setRecordListener(Consumer<RecordResult> recordListener) {
+        this.recordListener = recordListener;
+    }
+    
+    /**
+     * Processes the records of an S3 event
+     * @param s3Event The S3 event
+     * @param context Lambda context for logging
+     * @return Counts of processed and skipped records
+     * @throws RecordsFailedException If any record failed, so Lambda retries the event
+     */
     @Override
     public String handleRequest(S3Event s3Event, Context context) {
-        String result = "Processing completed";
+        String result = null;
+        RuntimeException failure = null;
+        long invocationStart = System.nanoTime();
+        IngestMetrics metrics = new IngestMetrics();
         
         try {
-            // Process each S3 event record
+            // Process the event's records concurrently, bounded by the record pool size
+            List<Future<RecordResult>> pending = new ArrayList<>();
             for (S3EventNotification.S3EventNotificationRecord record : s3Event.getRecords()) {
-                
-                // Extract bucket and object information
-                String bucketName = record.getS3().getBucket().getName();
-                String objectKey = record.getS3().getObject().getKey();
-                String eventName = record.getEventName();
-                
-                context.getLogger().log("Processing S3 event: " + eventName + " for object: " + objectKey);
-                
-                // Log the upload event
-                logUploadEvent(bucketName, objectKey);
-                
-                // Only process object creation events
-                if (eventName.startsWith("ObjectCreated")) {
-                    processUploadedFile(bucketName, objectKey, context);
+                pending.add(recordExecutor.submit(() -> processRecord(record, context)));
+            }
+            
+            int processed = 0;
+            int skipped = 0;
+            List<RecordResult> failures = new ArrayList<>();
+            for (Future<RecordResult> future : pending) {
+                RecordResult recordResult = future.get();
+                metrics.recordFile(recordResult);
+                Consumer<RecordResult> listener = recordListener;
+                if (listener != null) {
+                    listener.accept(recordResult);
+                }
+                switch (recordResult.getStatus()) {
+                    case PROCESSED:
+                        processed++;
+                        break;
+                    case SKIPPED:
+                        skipped++;
+                        break;
+                    default:
+                        failures.add(recordResult);
+                        context.getLogger().log("Failed record: " + recordResult);
                 }
             }
             
-        } catch (Exception e) {
-            context.getLogger().log("Error processing S3 event: " + e.getMessage());
-            e.printStackTrace();
-            result = "Error: " + e.getMessage();
+            // A returned result tells Lambda the event succeeded, so failed records must fail the invocation
+            if (failures.isEmpty()) {
+                result = "Processing completed: " + processed + " processed, " + skipped + " skipped";
+            } else {
+                failure = new RecordsFailedException(failures, pending.size());
+            }
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = new IllegalStateException("Interrupted while processing S3 event", e);
+        } catch (ExecutionException e) {
+            context.getLogger().log("Error processing S3 event: " + e.getCause().getMessage());
+            e.getCause().printStackTrace();
+            failure = new IllegalStateException("Error processing S3 event: " + e.getCause().getMessage(), e.getCause());
         }
         
+        if (metricsEnabled) {
+            metrics.recordInvocation(System.nanoTime() - invocationStart);
+            System.out.println(metrics.toEmfJson(metricsNamespace, context.getFunctionName(), System.currentTimeMillis()));
+        }
+        if (failure != null) {
+            throw failure;
+        }
         return result;
     }
     
+    /**
+     * Handles a single S3 event record
+     * @param record The S3 event record
+     * @param context Lambda context for logging
+     * @return Outcome of the record
+     */
+    private RecordResult processRecord(S3EventNotification.S3EventNotificationRecord record, Context context) {
+        // Extract bucket and object information
+        String bucketName = record.getS3().getBucket().getName();
+        String objectKey = record.getS3().getObject().getKey();
+        Long objectSize = record.getS3().getObject().getSizeAsLong();
+        String objectId = IdempotencyStore.objectId(bucketName, objectKey,
+                record.getS3().getObject().geteTag(), record.getS3().getObject().getVersionId());
+        String eventName = record.getEventName();
+        
+        if (RecordLog.sampled()) {
+            context.getLogger().log("Processing S3 event: " + eventName + " for object: " + objectKey);
+        }
+        
+        // Record the upload event; only buffers it, the file write happens in the background
+        uploadJournal.append(bucketName, objectKey);
+        
+        // Only process object creation events
+        if (!eventName.startsWith("ObjectCreated")) {
+            return RecordResult.skipped(objectKey, "Event " + eventName + " is not an object creation");
+        }
+        return processUploadedFile(bucketName, objectKey, objectSize != null ? objectSize : -1, objectId, context);
+    }
+    
     /**
      * Processes an uploaded file from S3
      * @param bucketName The S3 bucket name
      * @param objectKey The S3 object key
+     * @param objectSize The object size from the event, or -1 if unknown
+     * @param objectId Object version identifier for duplicate detection, or null if the event has no ETag
      * @param context Lambda context for logging
+     * @return Outcome of the file
      */
-    private void processUploadedFile(String bucketName, String objectKey, Context context) {
+    private RecordResult processUploadedFile(String bucketName, String objectKey, long objectSize,
+                                             String objectId, Context context) {
+        boolean claimed = false;
         try {
-            context.getLogger().log("Processing uploaded file: " + objectKey);
+            if (RecordLog.sampled()) {
+                context.getLogger().log("Processing uploaded file: " + objectKey);
+            }
             
             // Check if file type is supported
             if (!isValidFileType(objectKey)) {
-                context.getLogger().log("Skipping unsupported file type: " + objectKey);
-                return;
+                if (RecordLog.sampled()) {
+                    context.getLogger().log("Skipping unsupported file type: " + objectKey);
+                }
+                return RecordResult.skipped(objectKey, "Unsupported file type");
             }
             
-            // Read file content from S3
-            String fileContent = s3Service.readObjectContent(bucketName, objectKey);
+            // Skip deliveries of an object version that was already ingested, before downloading anything
+            if (objectId != null) {
+                IdempotencyStore.Claim claim = dynamoDbService.claimObject(objectId);
+                if (claim == IdempotencyStore.Claim.COMPLETED) {
+                    return RecordResult.skipped(objectKey, "Already ingested");
+                } else if (claim == IdempotencyStore.Claim.IN_PROGRESS) {
+                    // The other invocation may still fail and release its claim, so this delivery must be retried
+                    return RecordResult.failed(objectKey, null, "Being ingested by another invocation; retry later");
+                }
+                claimed = true;
+            }
             
-            // Parse content based on file type
-            List<ProductReview> reviews = parsingService.parseContent(fileContent, objectKey);
+            // Reviews are keyed by the version and their position in it, so a retry overwrites them
+            String identifierPrefix = IdempotencyStore.identifierPrefix(objectId);
+            IngestResult result = pipelineEnabled
+                    ? ingestPipeline.run(bucketName, objectKey, objectSize, identifierPrefix)
+                    : ingestSequentially(bucketName, objectKey, objectSize, identifierPrefix);
             
-            // Store each review in DynamoDB
-            for (ProductReview review : reviews) {
-                // Generate identifier for the review
-                String identifier = dynamoDbService.generateNextIdentifier();
-                review.setIdentifier(identifier);
-                
-                // Save to DynamoDB
-                dynamoDbService.saveProductReview(review);
-                
-                context.getLogger().log("Saved review with ID: " + identifier + " for product: " + review.getProductName());
+            for (BatchWriteResult batch : result.getBatchResults()) {
+                if (!batch.isSuccessful()) {
+                    context.getLogger().log("Batch write incomplete for file " + objectKey + ": " + batch);
+                }
             }
             
-            context.getLogger().log("Successfully processed " + reviews.size() + " reviews from file: " + objectKey);
+            if (RecordLog.sampled()) {
+                context.getLogger().log("Successfully processed " + result.getWrittenCount() + " of "
+                        + result.getParsedCount() + " reviews from file: " + objectKey);
+            }
+            
+            if (!result.isComplete()) {
+                if (claimed) {
+                    dynamoDbService.releaseObject(objectId);
+                }
+                return RecordResult.failed(objectKey, result, (result.getParsedCount() - result.getWrittenCount())
+                        + " reviews were not written" + firstBatchError(result));
+            }
+            // Fold the file into the per-product summary; products already added for this object version are skipped
+            SummaryUpdateResult summary = dynamoDbService.applyProductAggregates(result.getProductAggregates(), objectId);
+            result = result.withSummaryResult(summary);
+            if (summary.getSkippedCount() > 0) {
+                // No retry could store them, so they do not fail the file
+                context.getLogger().log("Product summary skipped " + summary.getSkippedCount()
+                        + " products of file " + objectKey + " whose names are too long for a DynamoDB key");
+            }
+            if (summary.getFailedCount() > 0) {
+                // Leave the file retryable: the reviews are rewritten under the same IDs and only the missing products are added
+                if (claimed) {
+                    dynamoDbService.releaseObject(objectId);
+                }
+                context.getLogger().log("Product summary not updated for " + summary.getFailedCount()
+                        + " products of file " + objectKey);
+                return RecordResult.failed(objectKey, result,
+                        "Product summary not updated for " + summary.getFailedCount() + " products");
+            }
+            if (claimed) {
+                dynamoDbService.markObjectIngested(objectId, result.getWrittenCount());
+            }
+            return RecordResult.processed(objectKey, result);
             
+        } catch (IngestFailedException e) {
+            if (claimed) {
+                dynamoDbService.releaseObject(objectId);
+            }
+            IngestResult partial = e.getPartialResult();
+            context.getLogger().log("Error processing file " + objectKey + " after writing "
+                    + partial.getWrittenCount() + " reviews: " + e.getMessage());
+            return RecordResult.failed(objectKey, partial, e.getMessage());
         } catch (Exception e) {
+            if (claimed) {
+                dynamoDbService.releaseObject(objectId);
+            }
             context.getLogger().log("Error processing file " + objectKey + ": " + e.getMessage());
             e.printStackTrace();
+            return RecordResult.failed(objectKey, null, e.getMessage());
+        }
+    }
+    
+    /**
+     * Downloads and parses the whole file, then writes all of its reviews
+     * @param bucketName The S3 bucket name
+     * @param objectKey The S3 object key
+     * @param objectSize The object size from the event, or -1 if unknown
+     * @param identifierPrefix Prefix from {@link IdempotencyStore#identifierPrefix}
+     * @return Parsed count and per-batch write results
+     * @throws IOException If the download or parse fails
+     */
+    private IngestResult ingestSequentially(String bucketName, String objectKey, long objectSize,
+                                            String identifierPrefix) throws IOException {
+        // Stream file content from S3 straight into the parser; reads are timed separately from parsing
+        long readStart = System.nanoTime();
+        List<ReviewBatch> batches = new ArrayList<>();
+        ParseResult parseResult;
+        long bytesRead;
+        long downloadNanos;
+        try (S3ObjectStream object = s3Service.openObjectStream(bucketName, objectKey, objectSize);
+             TimedInputStream content = new TimedInputStream(object)) {
+            content.readNanos += System.nanoTime() - readStart;
+            parseResult = parsingService.parseBatches(content, objectKey, object.getContentEncoding(), batches::add);
+            bytesRead = content.bytesRead;
+            downloadNanos = content.readNanos;
+        }
+        long parseNanos = System.nanoTime() - readStart - downloadNanos;
+        
+        // Number the reviews by position in the file, then store them in DynamoDB in batches
+        long writeStart = System.nanoTime();
+        long position = 0;
+        for (ReviewBatch batch : batches) {
+            batch.setFirstIdentifier(identifierPrefix, position);
+            position += batch.getValidCount();
+        }
+        List<BatchWriteResult> batchResults = dynamoDbService.saveReviewBatches(batches);
+        long writeNanos = System.nanoTime() - writeStart;
+        
+        ProductAggregator aggregator = new ProductAggregator();
+        for (ReviewBatch batch : batches) {
+            aggregator.add(batch);
         }
+        return new IngestResult(parseResult, batchResults, bytesRead, downloadNanos, parseNanos, writeNanos,
+                aggregator.getAggregates());
     }
     
     /**
-     * Checks if the file type is supported (JSON or TXT)
+     * Checks if the file type is supported (JSON, JSON Lines or TXT, optionally gzip or zstd compressed)
      * @param fileName The file name
      * @return true if supported, false otherwise
      */
     private boolean isValidFileType(String fileName) {
-        String lowerCaseFileName = fileName.toLowerCase();
-        return lowerCaseFileName.endsWith(".json") || lowerCaseFileName.endsWith(".txt");
+        return ParsingService.isSupportedFileType(Compression.stripExtension(fileName));
     }
     
     /**
-     * Logs upload events to a log file
-     * @param bucketName The S3 bucket name
-     * @param objectKey The S3 object key
+     * Runs the parsers and marshallers once on tiny inputs so their classes are loaded and initialized
+     * @param network Whether to also send one cheap request through each AWS client
      */
-    private void logUploadEvent(String bucketName, String objectKey) {
+    private void primeColdStartPaths(boolean network) {
         try {
-            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
-            String logEntry = String.format("[%s] File uploaded to bucket: %s, object: %s%n", 
-                    timestamp, bucketName, objectKey);
+            List<ProductReview> sample = parsingService.parseContent(PRIMING_JSON, "priming.json");
+            parsingService.parseContent(PRIMING_JSON_LINES, "priming.jsonl");
+            parsingService.parseContent(PRIMING_TEXT, "priming.txt");
+            dynamoDbService.prime(sample.get(0), network);
             
-            // Write to log file
-            File logFile = new File(logFilePath);
-            try (FileWriter writer = new FileWriter(logFile, true)) {
-                writer.write(logEntry);
-                writer.flush();
+            String primingBucket = System.getenv("PRIME_BUCKET");
+            if (network && primingBucket != null && !primingBucket.isEmpty()) {
+                s3Service.prime(primingBucket);
+            }
+        } catch (Exception e) {
+            System.err.println("Cold start priming failed: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * The batch writers only log sampled lines, so the failed record carries the first cause
+     * @return ": " and the error of the first failed batch, or an empty string if none failed with an error
+     */
+    private static String firstBatchError(IngestResult result) {
+        for (BatchWriteResult batch : result.getBatchResults()) {
+            if (batch.getErrorMessage() != null) {
+                return ": " + batch.getErrorMessage();
             }
-            
-            System.out.println("Logged upload event: " + logEntry.trim());
-            
-        } catch (IOException e) {
-            System.err.println("Error writing to log file: " + e.getMessage());
         }
+        return "";
+    }
+    
+    /**
+     * @return Size of the record pool, from RECORD_CONCURRENCY or the default
+     */
+    private static int recordConcurrency() {
+        return (int) Math.max(1, EnvConfig.envLong("RECORD_CONCURRENCY", DEFAULT_RECORD_CONCURRENCY));
     }
     
     /**
      * Clean up resources (called when Lambda execution environment is recycled)
      */
     public void cleanup() {
+        recordExecutor.shutdownNow();
+        ingestPipeline.close();
+        parsingService.close();
+        uploadJournal.close();
         if (s3Service != null) {
             s3Service.close();
         }
@@ -156,4 +445,38 @@ public class LambdaHandler implements RequestHandler<S3Event, String> {
             dynamoDbService.close();
         }
     }
+    
+    /**
+     * Input stream that adds up the time spent inside its reads and the bytes they return
+     */
+    private static final class TimedInputStream extends FilterInputStream {
+        private long readNanos;
+        private long bytesRead;
+        
+        TimedInputStream(InputStream in) {
+            super(in);
+        }
+        
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int value = super.read();
+            readNanos += System.nanoTime() - start;
+            if (value >= 0) {
+                bytesRead++;
+            }
+            return value;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int count = super.read(b, off, len);
+            readNanos += System.nanoTime() - start;
+            if (count > 0) {
+                bytesRead += count;
+            }
+            return count;
+        }
+    }
 }
@@ -0,0 +1,82 @@
+package com.zliang19.model;
+
+/**
+ * Running review statistics for one product: count, rating sum and range, and price range.
+ * Partial aggregates of separate files combine by adding counts and sums and by taking
+ * the extremes, which is how they are folded into the ProductReviewSummary table.
+ */
+public class ProductAggregate {
+
+    private final String productName;
+    private long reviewCount;
+    private double ratingSum;
+    private double ratingMin = Double.POSITIVE_INFINITY;
+    private double ratingMax = Double.NEGATIVE_INFINITY;
+    private double priceMin = Double.POSITIVE_INFINITY;
+    private double priceMax = Double.NEGATIVE_INFINITY;
+
+    public ProductAggregate(String productName) {
+        this.productName = productName;
+    }
+
+    /**
+     * Restores an aggregate from stored values, e.g. an item of the summary table
+     */
+    public ProductAggregate(String productName, long reviewCount, double ratingSum, double ratingMin,
+                            double ratingMax, double priceMin, double priceMax) {
+        this.productName = productName;
+        this.reviewCount = reviewCount;
+        this.ratingSum = ratingSum;
+        this.ratingMin = ratingMin;
+        this.ratingMax = ratingMax;
+        this.priceMin = priceMin;
+        this.priceMax = priceMax;
+    }
+
+    /**
+     * Adds one review
+     */
+    public void add(double price, double rating) {
+        reviewCount++;
+        ratingSum += rating;
+        ratingMin = Math.min(ratingMin, rating);
+        ratingMax = Math.max(ratingMax, rating);
+        priceMin = Math.min(priceMin, price);
+        priceMax = Math.max(priceMax, price);
+    }
+
+    public String getProductName() {
+        return productName;
+    }
+
+    public long getReviewCount() {
+        return reviewCount;
+    }
+
+    public double getRatingSum() {
+        return ratingSum;
+    }
+
+    public double getRatingMin() {
+        return ratingMin;
+    }
+
+    public double getRatingMax() {
+        return ratingMax;
+    }
+
+    public double getPriceMin() {
+        return priceMin;
+    }
+
+    public double getPriceMax() {
+        return priceMax;
+    }
+
+    /**
+     * @return Mean rating, or NaN if there are no reviews
+     */
+    public double getAverageRating() {
+        return reviewCount > 0 ? ratingSum / reviewCount : Double.NaN;
+    }
+}
@@ -0,0 +1,168 @@
+package com.zliang19.model;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded dictionary of product names. Each distinct name gets a small integer code and
+ * one shared String, so a name repeated across thousands of reviews is stored once, and
+ * downstream stages can group by product on an int. Lookups hash the name's characters
+ * in place, so encoding a name that is already known allocates nothing.
+ *
+ * Codes are never reassigned: once the dictionary is full it stops admitting names and
+ * callers keep those names as text. An owner that parses many files replaces a full
+ * dictionary with a new one between files rather than clearing it, so batches encoded
+ * with the old one still decode. Reads are lock-free; admissions take a lock.
+ */
+public class ProductNameDictionary {
+
+    /**
+     * Returned by the encode methods for a name the dictionary does not hold
+     */
+    public static final int NO_CODE = -1;
+
+    private static final class Entry {
+        final String name;
+        final int hash;
+        final int code;
+
+        Entry(String name, int hash, int code) {
+            this.name = name;
+            this.hash = hash;
+            this.code = code;
+        }
+    }
+
+    private final int maxEntries;
+    private final int maxNameLength;
+    private final AtomicReferenceArray<Entry> table;
+    private final AtomicReferenceArray<String> names;
+    private final int mask;
+    private volatile int size;
+    private boolean fullReported;
+
+    /**
+     * @param maxEntries Maximum number of distinct names
+     * @param maxNameLength Longer names are never admitted, so odd values cannot fill the dictionary
+     */
+    public ProductNameDictionary(int maxEntries, int maxNameLength) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        this.maxEntries = maxEntries;
+        this.maxNameLength = maxNameLength;
+        // Keep the open-addressing table at most half full
+        int capacity = Integer.highestOneBit(maxEntries * 2 - 1) << 1;
+        this.table = new AtomicReferenceArray<>(capacity);
+        this.names = new AtomicReferenceArray<>(maxEntries);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Looks up or admits the name held in a character range
+     * @return Code of the name, or NO_CODE if it is too long or the dictionary is full
+     */
+    public int encode(char[] buffer, int offset, int length) {
+        if (length > maxNameLength) {
+            return NO_CODE;
+        }
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        int code = find(hash, buffer, offset, length, null);
+        if (code != NO_CODE) {
+            return code;
+        }
+        return admit(hash, new String(buffer, offset, length));
+    }
+
+    /**
+     * Looks up or admits a name
+     * @return Code of the name, or NO_CODE if it is too long or the dictionary is full
+     */
+    public int encode(String name) {
+        if (name.length() > maxNameLength) {
+            return NO_CODE;
+        }
+        int hash = name.hashCode();
+        int code = find(hash, null, 0, name.length(), name);
+        return code != NO_CODE ? code : admit(hash, name);
+    }
+
+    /**
+     * @param code Code returned by an encode method
+     * @return The shared instance of the name
+     */
+    public String decode(int code) {
+        return names.get(code);
+    }
+
+    /**
+     * @return Number of names held
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true once the dictionary holds maxEntries names and admits no more
+     */
+    public boolean isFull() {
+        return size == maxEntries;
+    }
+
+    /**
+     * Probes for a name given either as a character range or as a String
+     */
+    private int find(int hash, char[] buffer, int offset, int length, String name) {
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            Entry entry = table.get(slot);
+            if (entry == null) {
+                return NO_CODE;
+            }
+            if (entry.hash == hash && entry.name.length() == length
+                    && (name != null ? entry.name.equals(name) : matches(entry.name, buffer, offset))) {
+                return entry.code;
+            }
+        }
+    }
+
+    private synchronized int admit(int hash, String name) {
+        // Another thread may have admitted the name since the lock-free probe
+        int slot = spread(hash) & mask;
+        for (Entry entry = table.get(slot); entry != null; entry = table.get(slot)) {
+            if (entry.hash == hash && entry.name.equals(name)) {
+                return entry.code;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == maxEntries) {
+            if (!fullReported) {
+                fullReported = true;
+                System.err.println("Product name dictionary is full (" + maxEntries
+                        + " names); further names are stored per batch until it is replaced");
+            }
+            return NO_CODE;
+        }
+
+        int code = size;
+        // Publish the name before the entry, so any thread that finds the code can decode it
+        names.set(code, name);
+        table.set(slot, new Entry(name, hash, code));
+        size = code + 1;
+        return code;
+    }
+
+    private static boolean matches(String name, char[] buffer, int offset) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != buffer[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
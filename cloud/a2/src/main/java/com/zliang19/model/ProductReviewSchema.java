@@ -0,0 +1,73 @@
+package com.zliang19.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.StaticAttributeTags;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.StaticTableSchema;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * Hand-written table schema for ProductReview.
+ * Equivalent to TableSchema.fromBean(ProductReview.class) but built from method
+ * references, so it needs no bean introspection or generated lambdas at cold start.
+ * Rows of a ReviewBatch are converted to the same item layout without going through a bean.
+ */
+public final class ProductReviewSchema {
+
+    public static final String IDENTIFIER = "Identifier";
+    public static final String PRODUCT_NAME = "ProductName";
+    public static final String PRICE = "Price";
+    public static final String REVIEW_COMMENT = "ReviewComment";
+    public static final String RATING = "Rating";
+
+    public static final TableSchema<ProductReview> TABLE_SCHEMA =
+            StaticTableSchema.builder(ProductReview.class)
+                    .newItemSupplier(ProductReview::new)
+                    .addAttribute(String.class, a -> a.name(IDENTIFIER)
+                            .getter(ProductReview::getIdentifier)
+                            .setter(ProductReview::setIdentifier)
+                            .tags(StaticAttributeTags.primaryPartitionKey()))
+                    .addAttribute(String.class, a -> a.name(PRODUCT_NAME)
+                            .getter(ProductReview::getProductName)
+                            .setter(ProductReview::setProductName))
+                    .addAttribute(Double.class, a -> a.name(PRICE)
+                            .getter(ProductReview::getPrice)
+                            .setter(ProductReview::setPrice))
+                    .addAttribute(String.class, a -> a.name(REVIEW_COMMENT)
+                            .getter(ProductReview::getReviewComment)
+                            .setter(ProductReview::setReviewComment))
+                    .addAttribute(Double.class, a -> a.name(RATING)
+                            .getter(ProductReview::getRating)
+                            .setter(ProductReview::setRating))
+                    .build();
+
+    /**
+     * Builds the item for one valid batch row, as TABLE_SCHEMA.itemToMap would for the equivalent bean
+     * @param batch Batch holding the row
+     * @param row Index of a valid row
+     * @param identifier Identifier assigned to the row
+     * @return Attribute map for a PutRequest
+     * @throws IllegalArgumentException If the price or rating is not finite, which DynamoDB cannot store
+     */
+    public static Map<String, AttributeValue> toItem(ReviewBatch batch, int row, String identifier) {
+        Map<String, AttributeValue> item = new HashMap<>(8);
+        item.put(IDENTIFIER, AttributeValue.builder().s(identifier).build());
+        item.put(PRODUCT_NAME, AttributeValue.builder().s(batch.getProductName(row)).build());
+        item.put(PRICE, number(batch.getPrice(row)));
+        item.put(REVIEW_COMMENT, AttributeValue.builder().s(batch.getReviewComment(row)).build());
+        item.put(RATING, number(batch.getRating(row)));
+        return item;
+    }
+
+    private static AttributeValue number(double value) {
+        if (!Double.isFinite(value)) {
+            throw new IllegalArgumentException("Infinite or NaN values are not supported: " + value);
+        }
+        return AttributeValue.builder().n(Double.toString(value)).build();
+    }
+
+    private ProductReviewSchema() {
+    }
+}
@@ -0,0 +1,299 @@
+package com.zliang19.model;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Columnar batch of parsed reviews, carried from the parsers to the writer without a
+ * ProductReview bean per record. Prices and ratings are primitive columns; product names
+ * are codes in a shared ProductNameDictionary where possible; comments, and names the
+ * dictionary does not hold, are offset/length pairs into one shared char buffer; a
+ * validity bitmap marks rows that hold a complete review. A record the parser rejects still takes a row,
+ * so rows keep the records' order in the file, but its text is discarded.
+ *
+ * Rows are appended by one thread; once handed on, a batch is only read.
+ */
+public class ReviewBatch {
+
+    private static final int INITIAL_CHARS_PER_ROW = 64;
+
+    private final int capacity;
+    private final ProductNameDictionary productNames;
+    private final int[] nameCodes;
+    private final double[] prices;
+    private final double[] ratings;
+    private final int[] nameOffsets;
+    private final int[] nameLengths;
+    private final int[] commentOffsets;
+    private final int[] commentLengths;
+    private final long[] validity;
+
+    private char[] text;
+    private int textLength;
+    private int size;
+    private int validCount;
+
+    // Number of the first valid row, or -1 before identifiers are assigned
+    private long firstIdentifier = -1;
+
+    // Prepended to the numbers of the valid rows to form their identifiers
+    private String identifierPrefix;
+
+    /**
+     * @param capacity Maximum number of rows
+     */
+    public ReviewBatch(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * @param capacity Maximum number of rows
+     * @param productNames Dictionary to encode product names with, or null to keep every name as text
+     */
+    public ReviewBatch(int capacity, ProductNameDictionary productNames) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        this.productNames = productNames;
+        this.nameCodes = new int[capacity];
+        this.prices = new double[capacity];
+        this.ratings = new double[capacity];
+        this.nameOffsets = new int[capacity];
+        this.nameLengths = new int[capacity];
+        this.commentOffsets = new int[capacity];
+        this.commentLengths = new int[capacity];
+        this.validity = new long[(capacity + 63) / 64];
+        this.text = new char[capacity * INITIAL_CHARS_PER_ROW];
+    }
+
+    /**
+     * @return Whether no more rows fit
+     */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Copies characters into the shared text buffer
+     * @return Offset of the copied characters, for {@link #addRow}
+     */
+    public int appendText(char[] source, int offset, int length) {
+        ensureTextCapacity(length);
+        System.arraycopy(source, offset, text, textLength, length);
+        int start = textLength;
+        textLength += length;
+        return start;
+    }
+
+    /**
+     * Copies a string into the shared text buffer
+     * @return Offset of the copied characters, for {@link #addRow}
+     */
+    public int appendText(String value) {
+        ensureTextCapacity(value.length());
+        value.getChars(0, value.length(), text, textLength);
+        int start = textLength;
+        textLength += value.length();
+        return start;
+    }
+
+    /**
+     * Encodes a product name with the dictionary, or copies it into the text buffer if the
+     * dictionary does not hold it; take {@link #textMark()} first to know where the text went
+     * @return Code of the name, or ProductNameDictionary.NO_CODE if it was copied as text
+     */
+    public int appendProductName(char[] source, int offset, int length) {
+        int code = productNames != null ? productNames.encode(source, offset, length) : ProductNameDictionary.NO_CODE;
+        if (code == ProductNameDictionary.NO_CODE) {
+            appendText(source, offset, length);
+        }
+        return code;
+    }
+
+    /**
+     * Encodes a product name like {@link #appendProductName(char[], int, int)}
+     * @return Code of the name, or ProductNameDictionary.NO_CODE if it was copied as text
+     */
+    public int appendProductName(String name) {
+        int code = productNames != null ? productNames.encode(name) : ProductNameDictionary.NO_CODE;
+        if (code == ProductNameDictionary.NO_CODE) {
+            appendText(name);
+        }
+        return code;
+    }
+
+    /**
+     * @return Current end of the text buffer; pass to {@link #addRejectedRow} to drop text appended since
+     */
+    public int textMark() {
+        return textLength;
+    }
+
+    /**
+     * Adds a valid row whose name was stored with {@link #appendProductName} and comment with {@link #appendText}
+     * @param nameCode Dictionary code of the name, or ProductNameDictionary.NO_CODE if it is held as text
+     * @param nameOffset Offset of the name text; ignored when the name has a code
+     * @param nameLength Length of the name text; ignored when the name has a code
+     */
+    public void addRow(int nameCode, int nameOffset, int nameLength, double price, int commentOffset,
+                       int commentLength, double rating) {
+        checkCapacity();
+        int row = size++;
+        nameCodes[row] = nameCode;
+        nameOffsets[row] = nameOffset;
+        nameLengths[row] = nameLength;
+        prices[row] = price;
+        commentOffsets[row] = commentOffset;
+        commentLengths[row] = commentLength;
+        ratings[row] = rating;
+        validity[row >>> 6] |= 1L << row;
+        validCount++;
+    }
+
+    /**
+     * Adds a valid row from strings
+     */
+    public void add(String productName, double price, String reviewComment, double rating) {
+        int nameOffset = textMark();
+        int nameCode = appendProductName(productName);
+        int commentOffset = appendText(reviewComment);
+        addRow(nameCode, nameOffset, productName.length(), price, commentOffset, reviewComment.length(), rating);
+    }
+
+    /**
+     * Adds an invalid row for a rejected record and discards any text appended for it
+     * @param textMark Value of {@link #textMark()} taken before the record's text was appended
+     */
+    public void addRejectedRow(int textMark) {
+        checkCapacity();
+        textLength = textMark;
+        size++;
+    }
+
+    /**
+     * @return Number of rows, valid or not
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Number of rows holding a complete review
+     */
+    public int getValidCount() {
+        return validCount;
+    }
+
+    /**
+     * @return Number of rows for rejected records
+     */
+    public int getRejectedCount() {
+        return size - validCount;
+    }
+
+    public boolean isValid(int row) {
+        return (validity[row >>> 6] & (1L << row)) != 0;
+    }
+
+    public double getPrice(int row) {
+        return prices[row];
+    }
+
+    public double getRating(int row) {
+        return ratings[row];
+    }
+
+    /**
+     * @return Product name of the row: the dictionary's shared instance, or a new String if it is held as text
+     */
+    public String getProductName(int row) {
+        int code = nameCodes[row];
+        if (code != ProductNameDictionary.NO_CODE) {
+            return productNames.decode(code);
+        }
+        return new String(text, nameOffsets[row], nameLengths[row]);
+    }
+
+    /**
+     * @return Dictionary code of the row's product name, or ProductNameDictionary.NO_CODE if it is held as text
+     */
+    public int getProductNameCode(int row) {
+        return nameCodes[row];
+    }
+
+    /**
+     * @return Dictionary the product name codes belong to, or null if every name is held as text
+     */
+    public ProductNameDictionary getProductNameDictionary() {
+        return productNames;
+    }
+
+    /**
+     * @return Review comment of the row as a new String
+     */
+    public String getReviewComment(int row) {
+        return new String(text, commentOffsets[row], commentLengths[row]);
+    }
+
+    /**
+     * Records identifiers made of a prefix and consecutive numbers, one prefix per object
+     * version and each valid row's position in the file; valid rows take them in row order
+     * @param identifierPrefix Prepended to every identifier
+     * @param firstIdentifier Number of the first valid row
+     */
+    public void setFirstIdentifier(String identifierPrefix, long firstIdentifier) {
+        if (identifierPrefix == null) {
+            throw new IllegalArgumentException("identifierPrefix must not be null");
+        }
+        this.identifierPrefix = identifierPrefix;
+        this.firstIdentifier = firstIdentifier;
+    }
+
+    /**
+     * @return Number of the first valid row, or -1 if no identifiers have been assigned
+     */
+    public long getFirstIdentifier() {
+        return firstIdentifier;
+    }
+
+    /**
+     * @param validIndex Position of a valid row among the valid rows of this batch
+     * @return Identifier of that row, as stored in the table
+     */
+    public String getIdentifier(int validIndex) {
+        if (firstIdentifier < 0) {
+            throw new IllegalStateException("ReviewBatch has no identifiers assigned");
+        }
+        long number = firstIdentifier + validIndex;
+        return identifierPrefix + number;
+    }
+
+    /**
+     * Expands the valid rows into ProductReview beans, for callers that need the bean form.
+     * Identifiers are set if they have been assigned.
+     * @param consumer Receives one bean per valid row, in row order
+     */
+    public void forEachReview(Consumer<ProductReview> consumer) {
+        int validIndex = 0;
+        for (int row = 0; row < size; row++) {
+            if (!isValid(row)) {
+                continue;
+            }
+            consumer.accept(new ProductReview(firstIdentifier >= 0 ? getIdentifier(validIndex++) : null,
+                    getProductName(row), prices[row], getReviewComment(row), ratings[row]));
+        }
+    }
+
+    private void checkCapacity() {
+        if (size == capacity) {
+            throw new IllegalStateException("ReviewBatch is full");
+        }
+    }
+
+    private void ensureTextCapacity(int additional) {
+        if (textLength + additional > text.length) {
+            text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + additional));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.zliang19.service;
+
+/**
+ * Outcome of writing one BatchWriteItem group of up to 25 reviews
+ */
+public class BatchWriteResult {
+
+    private final int batchIndex;
+    private final int itemCount;
+    private final int unprocessedCount;
+    private final int attempts;
+    private final int throttledCount;
+    private final long latencyNanos;
+    private final String errorMessage;
+
+    public BatchWriteResult(int batchIndex, int itemCount, int unprocessedCount, int attempts,
+                            int throttledCount, long latencyNanos, String errorMessage) {
+        this.batchIndex = batchIndex;
+        this.itemCount = itemCount;
+        this.unprocessedCount = unprocessedCount;
+        this.attempts = attempts;
+        this.throttledCount = throttledCount;
+        this.latencyNanos = latencyNanos;
+        this.errorMessage = errorMessage;
+    }
+
+    public int getBatchIndex() {
+        return batchIndex;
+    }
+
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    public int getWrittenCount() {
+        return itemCount - unprocessedCount;
+    }
+
+    /**
+     * @return Items still unwritten after the last retry
+     */
+    public int getUnprocessedCount() {
+        return unprocessedCount;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return Requests that came back with unprocessed items, which DynamoDB does when throttling
+     */
+    public int getThrottledCount() {
+        return throttledCount;
+    }
+
+    /**
+     * @return Time from the first request to the end of the last retry, backoff included
+     */
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    /**
+     * @return Error that aborted the batch, or null if it was not aborted
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public boolean isSuccessful() {
+        return unprocessedCount == 0 && errorMessage == null;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchWriteResult{" +
+                "batchIndex=" + batchIndex +
+                ", itemCount=" + itemCount +
+                ", unprocessedCount=" + unprocessedCount +
+                ", attempts=" + attempts +
+                ", throttledCount=" + throttledCount +
+                ", errorMessage='" + errorMessage + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,92 @@
+package com.zliang19.service;
+
+import java.net.URI;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.ContainerCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClientBuilder;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+
+/**
+ * Builds the AWS clients used by the handler with cold-start friendly settings.
+ * By default clients use the JDK URLConnection HTTP client, which loads far fewer
+ * classes than the Apache client. Credentials come from the container endpoint when
+ * AWS_CONTAINER_CREDENTIALS_FULL_URI is set, as it is for Lambda SnapStart functions, and
+ * from the default provider chain otherwise, which finds the environment keys Lambda sets.
+ */
+public final class ClientFactory {
+
+    // LIGHTWEIGHT_HTTP_CLIENT=false switches back to the Apache HTTP client
+    private static final String LIGHTWEIGHT_HTTP_ENV = "LIGHTWEIGHT_HTTP_CLIENT";
+    private static final String S3_ENDPOINT_ENV = "S3_ENDPOINT_URL";
+    private static final String DYNAMODB_ENDPOINT_ENV = "DYNAMODB_ENDPOINT";
+
+    private ClientFactory() {
+    }
+
+    /**
+     * @return S3 client for the configured region and endpoint
+     */
+    public static S3Client s3Client() {
+        S3ClientBuilder builder = S3Client.builder()
+                .region(region())
+                .credentialsProvider(credentialsProvider())
+                .httpClient(httpClient());
+        String endpoint = System.getenv(S3_ENDPOINT_ENV);
+        if (endpoint != null && !endpoint.isEmpty()) {
+            builder.endpointOverride(URI.create(endpoint))
+                    .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return DynamoDB client for the configured region and endpoint
+     */
+    public static DynamoDbClient dynamoDbClient() {
+        DynamoDbClientBuilder builder = DynamoDbClient.builder()
+                .region(region())
+                .credentialsProvider(credentialsProvider())
+                .httpClient(httpClient());
+        String endpoint = System.getenv(DYNAMODB_ENDPOINT_ENV);
+        if (endpoint != null && !endpoint.isEmpty()) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Region from AWS_REGION, which Lambda always sets, falling back to us-east-1
+     */
+    private static Region region() {
+        String region = System.getenv("AWS_REGION");
+        return region != null && !region.isEmpty() ? Region.of(region) : Region.US_EAST_1;
+    }
+
+    /**
+     * The container provider fetches and refreshes credentials itself, so a restored snapshot
+     * does not keep using the keys of the environment it was taken in
+     */
+    private static AwsCredentialsProvider credentialsProvider() {
+        String containerUri = System.getenv("AWS_CONTAINER_CREDENTIALS_FULL_URI");
+        if (containerUri != null && !containerUri.isEmpty()) {
+            return ContainerCredentialsProvider.builder().build();
+        }
+        return DefaultCredentialsProvider.create();
+    }
+
+    private static SdkHttpClient httpClient() {
+        if ("false".equalsIgnoreCase(System.getenv(LIGHTWEIGHT_HTTP_ENV))) {
+            return ApacheHttpClient.builder().build();
+        }
+        return UrlConnectionHttpClient.builder().build();
+    }
+}
@@ -0,0 +1,85 @@
+package com.zliang19.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+/**
+ * Compression formats accepted for uploaded review files. The format comes from the
+ * object key's extension (".json.gz", ".txt.zst", ...) or, failing that, from the
+ * object's Content-Encoding. Content is always decompressed as a stream, so the
+ * decompressed file is never held in memory.
+ */
+public enum Compression {
+    NONE,
+    GZIP,
+    ZSTD;
+
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * @param objectKey The S3 object key
+     * @param contentEncoding Content-Encoding of the object, or null if unknown
+     * @return Compression of the object's content
+     */
+    public static Compression forObject(String objectKey, String contentEncoding) {
+        Compression byExtension = forExtension(objectKey);
+        if (byExtension != NONE || contentEncoding == null) {
+            return byExtension;
+        }
+        // Content-Encoding may list several codings; the last one applied is decoded first
+        String[] codings = contentEncoding.toLowerCase(Locale.ROOT).split(",");
+        String coding = codings[codings.length - 1].trim();
+        if ("gzip".equals(coding) || "x-gzip".equals(coding)) {
+            return GZIP;
+        } else if ("zstd".equals(coding)) {
+            return ZSTD;
+        }
+        return NONE;
+    }
+
+    /**
+     * Removes a compression extension, so "reviews.json.gz" dispatches like "reviews.json"
+     * @param objectKey The S3 object key
+     * @return The key without its compression extension
+     */
+    public static String stripExtension(String objectKey) {
+        String lower = objectKey.toLowerCase(Locale.ROOT);
+        for (String extension : new String[] {".gz", ".gzip", ".zst", ".zstd"}) {
+            if (lower.endsWith(extension)) {
+                return objectKey.substring(0, objectKey.length() - extension.length());
+            }
+        }
+        return objectKey;
+    }
+
+    /**
+     * Wraps a stream of compressed content in a decompressing stream
+     * @param input Content in this format; closed when the returned stream is closed
+     * @return Stream over the decompressed content
+     * @throws IOException If the content does not start with a valid header
+     */
+    public InputStream decode(InputStream input) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPInputStream(input, GZIP_BUFFER_SIZE);
+            case ZSTD:
+                return new ZstdInputStream(input);
+            default:
+                return input;
+        }
+    }
+
+    private static Compression forExtension(String objectKey) {
+        String lower = objectKey.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".gz") || lower.endsWith(".gzip")) {
+            return GZIP;
+        } else if (lower.endsWith(".zst") || lower.endsWith(".zstd")) {
+            return ZSTD;
+        }
+        return NONE;
+    }
+}
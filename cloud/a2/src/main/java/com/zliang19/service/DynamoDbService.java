@@ -1,14 +1,30 @@
 package com.zliang19.service;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.zliang19.model.ProductAggregate;
 import com.zliang19.model.ProductReview;
+import com.zliang19.model.ProductReviewSchema;
+import com.zliang19.model.ReviewBatch;
 
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
-import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
-import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
-import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DescribeTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 
 /**
  * Service class for DynamoDB operations related to ProductReview
@@ -18,18 +34,59 @@ public class DynamoDbService {
     private final DynamoDbEnhancedClient enhancedClient;
     private final DynamoDbTable<ProductReview> productReviewTable;
     private final DynamoDbClient dynamoDbClient;
+    private final ExecutorService batchExecutor;
+    private final IdempotencyStore idempotencyStore;
+    private final ProductSummaryStore productSummaryStore;
     private static final String TABLE_NAME = "ProductReview";
     
+    // Ledger of ingested object versions; claims outlive the longest possible invocation
+    private static final String IDEMPOTENCY_TABLE_ENV = "IDEMPOTENCY_TABLE";
+    private static final String DEFAULT_IDEMPOTENCY_TABLE = "ProductReviewIngestLedger";
+    private static final int IDEMPOTENCY_CACHE_SIZE = 10000;
+    private static final long CLAIM_TIMEOUT_SECONDS = 15 * 60;
+    private static final long LEDGER_RETENTION_SECONDS = 30L * 24 * 60 * 60;
+    
+    // BatchWriteItem accepts at most 25 put requests per call
+    private static final int MAX_BATCH_SIZE = 25;
+    private static final int BATCHES_IN_FLIGHT = 4;
+    private static final int MAX_BATCH_ATTEMPTS = 8;
+    private static final long BACKOFF_BASE_MILLIS = 50;
+    private static final long BACKOFF_CAP_MILLIS = 2000;
+    
     public DynamoDbService() {
-        this.dynamoDbClient = DynamoDbClient.builder()
-                .region(Region.US_EAST_1)
-                .build();
+        this(ClientFactory.dynamoDbClient());
+    }
+    
+    /**
+     * @param dynamoDbClient DynamoDB client to write with; closed by {@link #close()}
+     */
+    public DynamoDbService(DynamoDbClient dynamoDbClient) {
+        this.dynamoDbClient = dynamoDbClient;
         
         this.enhancedClient = DynamoDbEnhancedClient.builder()
                 .dynamoDbClient(dynamoDbClient)
                 .build();
         
-        this.productReviewTable = enhancedClient.table(TABLE_NAME, TableSchema.fromBean(ProductReview.class));
+        this.productReviewTable = enhancedClient.table(TABLE_NAME, ProductReviewSchema.TABLE_SCHEMA);
+        
+        String idempotencyTable = System.getenv(IDEMPOTENCY_TABLE_ENV);
+        this.idempotencyStore = new IdempotencyStore(dynamoDbClient,
+                idempotencyTable != null && !idempotencyTable.isEmpty() ? idempotencyTable : DEFAULT_IDEMPOTENCY_TABLE,
+                IDEMPOTENCY_CACHE_SIZE, CLAIM_TIMEOUT_SECONDS, LEDGER_RETENTION_SECONDS);
+        
+        this.batchExecutor = Executors.newFixedThreadPool(BATCHES_IN_FLIGHT, runnable -> {
+            Thread thread = new Thread(runnable, "dynamodb-batch-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        // Per-product review counts, rating sums and ranges, kept up to date by every ingest
+        String summaryTable = System.getenv(ProductSummaryStore.TABLE_ENV);
+        if (summaryTable == null || summaryTable.isEmpty()) {
+            summaryTable = ProductSummaryStore.DEFAULT_TABLE_NAME;
+        }
+        this.productSummaryStore = new ProductSummaryStore(dynamoDbClient, summaryTable, idempotencyStore,
+                batchExecutor);
     }
     
     /**
@@ -39,44 +96,201 @@ public class DynamoDbService {
     public void saveProductReview(ProductReview productReview) {
         try {
             productReviewTable.putItem(productReview);
-            System.out.println("Successfully saved product review: " + productReview.getIdentifier());
+            if (RecordLog.sampled()) {
+                System.out.println("Successfully saved product review: " + productReview.getIdentifier());
+            }
         } catch (Exception e) {
-            System.err.println("Error saving product review: " + e.getMessage());
+            if (RecordLog.sampled()) {
+                System.err.println("Error saving product review: " + e.getMessage());
+            }
             throw e;
         }
     }
     
     /**
-     * Generates the next identifier by counting existing items and adding 1
-     * @return Next available identifier as a string
+     * Saves the valid rows of ReviewBatches with BatchWriteItem, 25 items per request and several
+     * requests in flight. Items are built straight from the batch columns, one request at a time,
+     * and at most BATCHES_IN_FLIGHT built requests exist at once, so memory does not grow with the
+     * number of rows. Items DynamoDB returns as unprocessed are retried with jittered exponential backoff.
+     * @param reviewBatches Batches whose identifiers have been set with {@link ReviewBatch#setFirstIdentifier}
+     * @return One result per BatchWriteItem request, in request order
+     */
+    public List<BatchWriteResult> saveReviewBatches(List<ReviewBatch> reviewBatches) {
+        for (ReviewBatch reviewBatch : reviewBatches) {
+            if (reviewBatch.getFirstIdentifier() < 0 && reviewBatch.getValidCount() > 0) {
+                throw new IllegalArgumentException("ReviewBatch has no identifiers assigned");
+            }
+        }
+        
+        Deque<Future<BatchWriteResult>> pending = new ArrayDeque<>(BATCHES_IN_FLIGHT);
+        List<BatchWriteResult> results = new ArrayList<>();
+        List<WriteRequest> chunk = new ArrayList<>(MAX_BATCH_SIZE);
+        int batchIndex = 0;
+        for (ReviewBatch reviewBatch : reviewBatches) {
+            int validIndex = 0;
+            for (int row = 0; row < reviewBatch.size(); row++) {
+                if (!reviewBatch.isValid(row)) {
+                    continue;
+                }
+                chunk.add(WriteRequest.builder()
+                        .putRequest(PutRequest.builder()
+                                .item(ProductReviewSchema.toItem(reviewBatch, row, reviewBatch.getIdentifier(validIndex++)))
+                                .build())
+                        .build());
+                if (chunk.size() == MAX_BATCH_SIZE) {
+                    submitBatch(pending, results, batchIndex++, chunk);
+                    chunk = new ArrayList<>(MAX_BATCH_SIZE);
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            submitBatch(pending, results, batchIndex, chunk);
+        }
+        
+        while (!pending.isEmpty()) {
+            results.add(awaitBatch(pending.poll()));
+        }
+        return results;
+    }
+    
+    /**
+     * Submits one request, first waiting for the oldest one if BATCHES_IN_FLIGHT are already pending
+     */
+    private void submitBatch(Deque<Future<BatchWriteResult>> pending, List<BatchWriteResult> results,
+            int batchIndex, List<WriteRequest> batch) {
+        if (pending.size() == BATCHES_IN_FLIGHT) {
+            results.add(awaitBatch(pending.poll()));
+        }
+        pending.add(batchExecutor.submit(() -> writeBatch(batchIndex, batch)));
+    }
+    
+    private static BatchWriteResult awaitBatch(Future<BatchWriteResult> batch) {
+        try {
+            return batch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while saving product reviews", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Batch write failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+    
+    /**
+     * Writes one batch, resubmitting unprocessed items until they are all written or attempts run out
+     * @param batchIndex Position of the batch within the current save call
+     * @param writeRequests Up to 25 put requests
+     * @return Outcome of the batch
      */
-    public String generateNextIdentifier() {
+    private BatchWriteResult writeBatch(int batchIndex, List<WriteRequest> writeRequests) {
+        Map<String, List<WriteRequest>> remaining = Collections.singletonMap(TABLE_NAME, writeRequests);
+        int attempts = 0;
+        int throttled = 0;
+        long started = System.nanoTime();
+        
         try {
-            // Scan to count existing items
-            ScanRequest scanRequest = ScanRequest.builder()
-                    .tableName(TABLE_NAME)
-                    .select("COUNT")
-                    .build();
-            
-            ScanResponse scanResponse = dynamoDbClient.scan(scanRequest);
-            long count = scanResponse.count();
-            
-            // Generate next identifier (count + 1)
-            String nextId = String.valueOf(count + 1);
-            System.out.println("Generated next identifier: " + nextId);
-            return nextId;
-            
+            while (!remaining.isEmpty() && attempts < MAX_BATCH_ATTEMPTS) {
+                if (attempts > 0) {
+                    Thread.sleep(backoffMillis(attempts));
+                }
+                attempts++;
+                
+                BatchWriteItemResponse response = dynamoDbClient.batchWriteItem(BatchWriteItemRequest.builder()
+                        .requestItems(remaining)
+                        .build());
+                remaining = response.hasUnprocessedItems() ? response.unprocessedItems() : Collections.emptyMap();
+                if (!remaining.isEmpty()) {
+                    throttled++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new BatchWriteResult(batchIndex, writeRequests.size(), unprocessedCount(remaining), attempts,
+                    throttled, System.nanoTime() - started, "Interrupted");
         } catch (Exception e) {
-            System.err.println("Error generating identifier: " + e.getMessage());
-            // Fallback to timestamp-based identifier
-            return String.valueOf(System.currentTimeMillis());
+            if (RecordLog.sampled()) {
+                System.err.println("Error writing batch " + batchIndex + ": " + e.getMessage());
+            }
+            return new BatchWriteResult(batchIndex, writeRequests.size(), unprocessedCount(remaining), attempts,
+                    throttled, System.nanoTime() - started, e.getMessage());
         }
+        
+        return new BatchWriteResult(batchIndex, writeRequests.size(), unprocessedCount(remaining), attempts,
+                throttled, System.nanoTime() - started, null);
+    }
+    
+    /**
+     * Full-jitter backoff: a random delay up to an exponentially growing, capped ceiling
+     */
+    private static long backoffMillis(int attempt) {
+        long ceiling = Math.min(BACKOFF_CAP_MILLIS, BACKOFF_BASE_MILLIS << Math.min(attempt, 16));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+    
+    private static int unprocessedCount(Map<String, List<WriteRequest>> remaining) {
+        List<WriteRequest> items = remaining.get(TABLE_NAME);
+        return items != null ? items.size() : 0;
+    }
+    
+    /**
+     * Converts a review to its item form and makes one cheap request, so the schema,
+     * marshallers and HTTP connection pool are initialized before the first real write
+     * @param sample Review to marshal
+     * @param network Whether to also send a DescribeTable request
+     */
+    public void prime(ProductReview sample, boolean network) {
+        productReviewTable.tableSchema().itemToMap(sample, true);
+        if (!network) {
+            return;
+        }
+        try {
+            dynamoDbClient.describeTable(DescribeTableRequest.builder().tableName(TABLE_NAME).build());
+        } catch (Exception e) {
+            System.err.println("DynamoDB priming request failed: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Claims one version of an object for ingest; see {@link IdempotencyStore#claim}
+     * @param objectId Identifier from {@link IdempotencyStore#objectId}
+     * @return Whether the object should be ingested, was already ingested, or is being ingested elsewhere
+     */
+    public IdempotencyStore.Claim claimObject(String objectId) {
+        return idempotencyStore.claim(objectId);
+    }
+    
+    /**
+     * Records that a claimed object was fully ingested, so later deliveries are skipped
+     * @param objectId Identifier passed to {@link #claimObject}
+     * @param reviewCount Number of reviews written from the object
+     */
+    public void markObjectIngested(String objectId, int reviewCount) {
+        idempotencyStore.markCompleted(objectId, reviewCount);
+    }
+    
+    /**
+     * Releases a claimed object after a failed ingest, so a redelivery can retry it
+     * @param objectId Identifier passed to {@link #claimObject}
+     */
+    public void releaseObject(String objectId) {
+        idempotencyStore.release(objectId);
+    }
+    
+    /**
+     * Adds one file's per-product aggregates to the summary table, see {@link ProductSummaryStore#apply}
+     * @param aggregates Aggregates of a fully ingested file
+     * @param objectId Identifier passed to {@link #claimObject}, so a retried file adds each product once;
+     *                 null if the file has none
+     * @return Number of products whose update failed and number left out
+     */
+    public SummaryUpdateResult applyProductAggregates(List<ProductAggregate> aggregates, String objectId) {
+        return productSummaryStore.apply(aggregates, objectId);
     }
     
     /**
      * Close the DynamoDB client
      */
     public void close() {
+        batchExecutor.shutdownNow();
         if (dynamoDbClient != null) {
             dynamoDbClient.close();
         }
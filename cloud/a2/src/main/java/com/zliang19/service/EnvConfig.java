@@ -0,0 +1,30 @@
+package com.zliang19.service;
+
+/**
+ * Reads numeric settings from environment variables, shared by the handler and the services
+ * so every setting is parsed the same way. An invalid value is reported and the default used,
+ * so a typo in the function configuration does not stop the container from starting.
+ */
+public final class EnvConfig {
+
+    private EnvConfig() {
+    }
+
+    /**
+     * @param name Environment variable
+     * @param defaultValue Value used when the variable is unset, empty or not a number
+     * @return Numeric environment variable, or the default
+     */
+    public static long envLong(String name, long defaultValue) {
+        String configured = System.getenv(name);
+        if (configured == null || configured.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(configured.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid " + name + ": " + configured);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.zliang19.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.Put;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
+
+/**
+ * Remembers which object versions have already been ingested, so duplicate S3 deliveries
+ * are skipped before anything is downloaded. An object version is identified by bucket,
+ * key, ETag and version ID. Completed versions are kept in a per-container LRU in front
+ * of a ledger table; the ledger is consulted on a miss and is what makes the check hold
+ * across containers.
+ *
+ * An ingest first claims its object with a conditional put. The claim expires after
+ * {@code claimTimeoutSeconds}, so a crashed invocation does not block redeliveries for
+ * good, and it is released on failure so the next delivery can retry at once. Ledger
+ * items carry an ExpiresAt attribute for DynamoDB TTL.
+ *
+ * A retry after a partial write, or a redelivery after the completion record was lost,
+ * ingests the object again. That is harmless because the reviews of an object version
+ * are keyed by {@link #identifierPrefix} and their position in the file, so the second
+ * ingest overwrites the items of the first instead of adding copies. The product summary
+ * cannot be overwritten that way, so the ledger also holds a marker per product and object
+ * version that {@link ProductSummaryStore} writes in the same transaction as its update.
+ */
+public class IdempotencyStore {
+
+    /**
+     * Outcome of {@link #claim(String)}
+     */
+    public enum Claim {
+        /** The caller owns the object and should ingest it */
+        ACQUIRED,
+        /** The object version was already ingested */
+        COMPLETED,
+        /** Another invocation holds an unexpired claim on the object */
+        IN_PROGRESS
+    }
+
+    private static final String KEY_ATTRIBUTE = "ObjectId";
+    private static final String STATUS_ATTRIBUTE = "Status";
+    private static final String TOKEN_ATTRIBUTE = "ClaimToken";
+    private static final String EXPIRES_ATTRIBUTE = "ExpiresAt";
+    private static final String REVIEWS_ATTRIBUTE = "ReviewCount";
+    private static final String STATUS_IN_PROGRESS = "IN_PROGRESS";
+    private static final String STATUS_COMPLETED = "COMPLETED";
+    private static final String STATUS_SUMMARIZED = "SUMMARIZED";
+    private static final String SUMMARY_MARKER_PREFIX = "summary#";
+
+    // Bytes a summary marker key adds to the product name: the prefix and an identifier prefix
+    static final int SUMMARY_MARKER_KEY_OVERHEAD = SUMMARY_MARKER_PREFIX.length() + 33;
+
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final long claimTimeoutSeconds;
+    private final long retentionSeconds;
+
+    // Completed object IDs, least recently used first; guarded by itself
+    private final LinkedHashMap<String, Boolean> completed;
+
+    // Claim token per object this container currently owns; guarded by itself
+    private final Map<String, String> ownedClaims = new HashMap<>();
+
+    // Cleared the first time the ledger table turns out not to exist; the LRU keeps working
+    private volatile boolean ledgerAvailable = true;
+
+    /**
+     * @param dynamoDbClient DynamoDB client
+     * @param tableName Ledger table, keyed by ObjectId
+     * @param cacheSize Number of completed object IDs remembered in memory
+     * @param claimTimeoutSeconds How long a claim blocks other deliveries of the same object
+     * @param retentionSeconds How long completed ledger items are kept before TTL removes them
+     */
+    public IdempotencyStore(DynamoDbClient dynamoDbClient, String tableName, int cacheSize,
+                            long claimTimeoutSeconds, long retentionSeconds) {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("cacheSize must be at least 1");
+        }
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.claimTimeoutSeconds = claimTimeoutSeconds;
+        this.retentionSeconds = retentionSeconds;
+        this.completed = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Builds the identifier of one version of an object
+     * @param bucketName The S3 bucket name
+     * @param objectKey The S3 object key
+     * @param eTag ETag from the event
+     * @param versionId Version ID from the event, or null if the bucket is not versioned
+     * @return Object ID, or null if the event carries no ETag and the object cannot be identified
+     */
+    public static String objectId(String bucketName, String objectKey, String eTag, String versionId) {
+        if (eTag == null || eTag.isEmpty()) {
+            return null;
+        }
+        return bucketName + "/" + objectKey + "#" + eTag + "#" + (versionId != null ? versionId : "");
+    }
+
+    /**
+     * Builds the identifier prefix of the reviews of one object version: 32 hex digits of the
+     * SHA-256 of the object ID, so identifiers stay short whatever the key length. An upload
+     * without an object ID cannot be recognised when it is delivered again, so it gets 32 random
+     * hex digits instead and its reviews are stored under fresh identifiers of the same form.
+     * @param objectId Identifier from {@link #objectId}, or null
+     * @return Prefix ending in '-'
+     */
+    public static String identifierPrefix(String objectId) {
+        if (objectId == null) {
+            return UUID.randomUUID().toString().replace("-", "") + "-";
+        }
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(objectId.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+        StringBuilder prefix = new StringBuilder(33);
+        for (int i = 0; i < 16; i++) {
+            prefix.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+        }
+        return prefix.append('-').toString();
+    }
+
+    /**
+     * Claims an object for ingest unless it was already ingested or is being ingested elsewhere.
+     * A repeat of a version this container ingested costs no request; one ingested by another
+     * container costs a single GetItem.
+     * @param objectId Identifier from {@link #objectId}
+     * @return Whether the caller should ingest the object
+     */
+    public Claim claim(String objectId) {
+        synchronized (completed) {
+            if (completed.containsKey(objectId)) {
+                return Claim.COMPLETED;
+            }
+        }
+        if (!ledgerAvailable) {
+            return Claim.ACQUIRED;
+        }
+
+        try {
+            // Step 1: Look the object up, so a duplicate is settled with one read
+            Map<String, AttributeValue> existing = dynamoDbClient.getItem(GetItemRequest.builder()
+                    .tableName(tableName)
+                    .key(key(objectId))
+                    .consistentRead(true)
+                    .build()).item();
+            long now = System.currentTimeMillis() / 1000;
+            if (existing != null && !existing.isEmpty()) {
+                Claim current = classify(existing, now);
+                if (current == Claim.COMPLETED) {
+                    remember(objectId);
+                }
+                if (current != null) {
+                    return current;
+                }
+            }
+
+            // Step 2: Claim it; fails if another invocation claimed it in the meantime
+            String token = UUID.randomUUID().toString();
+            Map<String, AttributeValue> item = new HashMap<>(key(objectId));
+            item.put(STATUS_ATTRIBUTE, string(STATUS_IN_PROGRESS));
+            item.put(TOKEN_ATTRIBUTE, string(token));
+            item.put(EXPIRES_ATTRIBUTE, number(now + claimTimeoutSeconds));
+
+            Map<String, String> names = new HashMap<>();
+            names.put("#expires", EXPIRES_ATTRIBUTE);
+            dynamoDbClient.putItem(PutItemRequest.builder()
+                    .tableName(tableName)
+                    .item(item)
+                    .conditionExpression("attribute_not_exists(" + KEY_ATTRIBUTE + ") OR #expires < :now")
+                    .expressionAttributeNames(names)
+                    .expressionAttributeValues(singleValue(":now", number(now)))
+                    .build());
+            synchronized (ownedClaims) {
+                ownedClaims.put(objectId, token);
+            }
+            return Claim.ACQUIRED;
+
+        } catch (ConditionalCheckFailedException e) {
+            return Claim.IN_PROGRESS;
+        } catch (ResourceNotFoundException e) {
+            ledgerAvailable = false;
+            System.err.println("Idempotency table " + tableName + " not found; duplicates are only detected per container");
+            return Claim.ACQUIRED;
+        }
+    }
+
+    /**
+     * Records that an object claimed by this container was fully ingested
+     * @param objectId Identifier passed to {@link #claim}
+     * @param reviewCount Number of reviews written from the object
+     */
+    public void markCompleted(String objectId, int reviewCount) {
+        remember(objectId);
+        String token = takeClaim(objectId);
+        if (token == null) {
+            return;
+        }
+
+        Map<String, AttributeValue> item = new HashMap<>(key(objectId));
+        item.put(STATUS_ATTRIBUTE, string(STATUS_COMPLETED));
+        item.put(REVIEWS_ATTRIBUTE, number(reviewCount));
+        item.put(EXPIRES_ATTRIBUTE, number(System.currentTimeMillis() / 1000 + retentionSeconds));
+        try {
+            dynamoDbClient.putItem(PutItemRequest.builder()
+                    .tableName(tableName)
+                    .item(item)
+                    .build());
+        } catch (Exception e) {
+            // The reviews are stored; a later redelivery is still caught by the LRU or the expired claim
+            if (RecordLog.sampled()) {
+                System.err.println("Failed to record ingest of " + objectId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Gives up a claim after a failed ingest so the next delivery of the object can retry it
+     * @param objectId Identifier passed to {@link #claim}
+     */
+    public void release(String objectId) {
+        String token = takeClaim(objectId);
+        if (token == null) {
+            return;
+        }
+
+        Map<String, String> names = new HashMap<>();
+        names.put("#token", TOKEN_ATTRIBUTE);
+        try {
+            dynamoDbClient.deleteItem(DeleteItemRequest.builder()
+                    .tableName(tableName)
+                    .key(key(objectId))
+                    .conditionExpression("#token = :token")
+                    .expressionAttributeNames(names)
+                    .expressionAttributeValues(singleValue(":token", string(token)))
+                    .build());
+        } catch (ConditionalCheckFailedException e) {
+            // The claim expired and another invocation took the object over
+        } catch (Exception e) {
+            if (RecordLog.sampled()) {
+                System.err.println("Failed to release claim on " + objectId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Builds the ledger item recording that one product of an object version was added to the
+     * product summary. The put fails if the marker exists, so written in one transaction with
+     * the summary update it lets each version add to a product at most once.
+     * @param objectId Identifier from {@link #objectId}
+     * @param productName Product the version's reviews were added to
+     * @return Conditional put of the marker, or null if the ledger table is not available
+     */
+    public Put summaryMarker(String objectId, String productName) {
+        if (!ledgerAvailable) {
+            return null;
+        }
+        // Hashing the object ID keeps the marker key within DynamoDB's key size limit
+        Map<String, AttributeValue> item = key(SUMMARY_MARKER_PREFIX + identifierPrefix(objectId) + productName);
+        item.put(STATUS_ATTRIBUTE, string(STATUS_SUMMARIZED));
+        item.put(EXPIRES_ATTRIBUTE, number(System.currentTimeMillis() / 1000 + retentionSeconds));
+        return Put.builder()
+                .tableName(tableName)
+                .item(item)
+                .conditionExpression("attribute_not_exists(" + KEY_ATTRIBUTE + ")")
+                .build();
+    }
+
+    /**
+     * @return The state a ledger item stands for, or null if it is an expired claim
+     */
+    private static Claim classify(Map<String, AttributeValue> item, long now) {
+        AttributeValue status = item.get(STATUS_ATTRIBUTE);
+        if (status != null && STATUS_COMPLETED.equals(status.s())) {
+            return Claim.COMPLETED;
+        }
+        AttributeValue expires = item.get(EXPIRES_ATTRIBUTE);
+        if (expires != null && Long.parseLong(expires.n()) >= now) {
+            return Claim.IN_PROGRESS;
+        }
+        return null;
+    }
+
+    private void remember(String objectId) {
+        synchronized (completed) {
+            completed.put(objectId, Boolean.TRUE);
+        }
+    }
+
+    private String takeClaim(String objectId) {
+        synchronized (ownedClaims) {
+            return ownedClaims.remove(objectId);
+        }
+    }
+
+    private static Map<String, AttributeValue> key(String objectId) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put(KEY_ATTRIBUTE, string(objectId));
+        return key;
+    }
+
+    private static Map<String, AttributeValue> singleValue(String name, AttributeValue value) {
+        Map<String, AttributeValue> values = new HashMap<>();
+        values.put(name, value);
+        return values;
+    }
+
+    private static AttributeValue string(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+
+    private static AttributeValue number(long value) {
+        return AttributeValue.builder().n(Long.toString(value)).build();
+    }
+}
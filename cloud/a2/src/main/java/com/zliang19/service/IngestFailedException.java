@@ -0,0 +1,31 @@
+package com.zliang19.service;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an ingest stops part way. Batches written before the failure stay in the
+ * table, so the exception carries the outcome of what was stored up to that point.
+ */
+public class IngestFailedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient IngestResult partialResult;
+
+    /**
+     * @param message Description of the failure
+     * @param cause Failure of the stage that stopped
+     * @param partialResult Reviews handed to the writer and the batches written before the stages stopped
+     */
+    public IngestFailedException(String message, Throwable cause, IngestResult partialResult) {
+        super(message, cause);
+        this.partialResult = partialResult;
+    }
+
+    /**
+     * @return Outcome of the batches written before the failure
+     */
+    public IngestResult getPartialResult() {
+        return partialResult;
+    }
+}
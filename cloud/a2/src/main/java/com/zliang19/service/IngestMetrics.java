@@ -0,0 +1,151 @@
+package com.zliang19.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Counters and latency histograms for one handler invocation, emitted as a single
+ * CloudWatch Embedded Metric Format (EMF) log line. CloudWatch turns the line into
+ * metrics without any API calls, so instrumentation costs one log write per invocation
+ * instead of several per record. Not thread-safe: the handler records every record
+ * outcome from its own thread after the record has finished.
+ */
+public class IngestMetrics {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private long s3BytesRead;
+    private long recordsParsed;
+    private long recordsRejected;
+    private long reviewsWritten;
+    private long writeRetries;
+    private long writeThrottles;
+    private long summaryUpdatesFailed;
+    private long summaryProductsSkipped;
+    private long filesProcessed;
+    private long filesSkipped;
+    private long filesFailed;
+    private long invocationNanos;
+
+    private final LatencyHistogram downloadTime = new LatencyHistogram();
+    private final LatencyHistogram parseTime = new LatencyHistogram();
+    private final LatencyHistogram writeTime = new LatencyHistogram();
+    private final LatencyHistogram batchWriteLatency = new LatencyHistogram();
+
+    /**
+     * Adds the outcome of one S3 event record
+     * @param result Outcome of the record
+     */
+    public void recordFile(RecordResult result) {
+        switch (result.getStatus()) {
+            case PROCESSED:
+                filesProcessed++;
+                break;
+            case SKIPPED:
+                filesSkipped++;
+                break;
+            default:
+                filesFailed++;
+        }
+
+        IngestResult ingest = result.getIngestResult();
+        if (ingest == null) {
+            return;
+        }
+        s3BytesRead += ingest.getBytesRead();
+        recordsParsed += ingest.getParsedCount();
+        recordsRejected += ingest.getRejectedCount();
+        reviewsWritten += ingest.getWrittenCount();
+        summaryUpdatesFailed += ingest.getSummaryFailures();
+        summaryProductsSkipped += ingest.getSummarySkipped();
+        downloadTime.recordNanos(ingest.getDownloadNanos());
+        parseTime.recordNanos(ingest.getParseNanos());
+        writeTime.recordNanos(ingest.getWriteNanos());
+        for (BatchWriteResult batch : ingest.getBatchResults()) {
+            batchWriteLatency.recordNanos(batch.getLatencyNanos());
+            writeRetries += Math.max(0, batch.getAttempts() - 1);
+            writeThrottles += batch.getThrottledCount();
+        }
+    }
+
+    /**
+     * @param nanos Wall time of the whole invocation
+     */
+    public void recordInvocation(long nanos) {
+        invocationNanos = nanos;
+    }
+
+    /**
+     * Renders the metrics as one EMF document
+     * @param namespace CloudWatch namespace
+     * @param functionName Value of the FunctionName dimension
+     * @param timestampMillis Epoch time the metrics belong to
+     * @return Single-line JSON document
+     */
+    public String toEmfJson(String namespace, String functionName, long timestampMillis) {
+        ObjectNode root = OBJECT_MAPPER.createObjectNode();
+        ObjectNode directive = OBJECT_MAPPER.createObjectNode();
+        directive.put("Namespace", namespace);
+        directive.putArray("Dimensions").addArray().add("FunctionName");
+        ArrayNode definitions = directive.putArray("Metrics");
+
+        ObjectNode aws = root.putObject("_aws");
+        aws.put("Timestamp", timestampMillis);
+        aws.putArray("CloudWatchMetrics").add(directive);
+        root.put("FunctionName", functionName);
+
+        putMetric(root, definitions, "S3BytesRead", "Bytes", s3BytesRead);
+        putMetric(root, definitions, "RecordsParsed", "Count", recordsParsed);
+        putMetric(root, definitions, "RecordsRejected", "Count", recordsRejected);
+        putMetric(root, definitions, "ReviewsWritten", "Count", reviewsWritten);
+        putMetric(root, definitions, "WriteRetries", "Count", writeRetries);
+        putMetric(root, definitions, "WriteThrottles", "Count", writeThrottles);
+        putMetric(root, definitions, "SummaryUpdatesFailed", "Count", summaryUpdatesFailed);
+        putMetric(root, definitions, "SummaryProductsSkipped", "Count", summaryProductsSkipped);
+        putMetric(root, definitions, "FilesProcessed", "Count", filesProcessed);
+        putMetric(root, definitions, "FilesSkipped", "Count", filesSkipped);
+        putMetric(root, definitions, "FilesFailed", "Count", filesFailed);
+        putMetric(root, definitions, "InvocationTime", "Milliseconds", invocationNanos / 1e6);
+
+        putHistogram(root, definitions, "DownloadTime", downloadTime);
+        putHistogram(root, definitions, "ParseTime", parseTime);
+        putHistogram(root, definitions, "WriteTime", writeTime);
+        putHistogram(root, definitions, "BatchWriteLatency", batchWriteLatency);
+
+        return root.toString();
+    }
+
+    private static void putMetric(ObjectNode root, ArrayNode definitions, String name, String unit, long value) {
+        definitions.addObject().put("Name", name).put("Unit", unit);
+        root.put(name, value);
+    }
+
+    private static void putMetric(ObjectNode root, ArrayNode definitions, String name, String unit, double value) {
+        definitions.addObject().put("Name", name).put("Unit", unit);
+        root.put(name, value);
+    }
+
+    /**
+     * Publishes p50, p99 and max as metrics and the full bucket counts as a plain
+     * property, which stays queryable in Logs Insights without becoming a metric
+     */
+    private static void putHistogram(ObjectNode root, ArrayNode definitions, String name, LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        putMetric(root, definitions, name + "P50", "Milliseconds", histogram.percentileMillis(50));
+        putMetric(root, definitions, name + "P99", "Milliseconds", histogram.percentileMillis(99));
+        putMetric(root, definitions, name + "Max", "Milliseconds", histogram.getMaxMillis());
+
+        ObjectNode buckets = root.putObject(name + "Histogram");
+        buckets.put("Count", histogram.getCount());
+        buckets.put("SumMillis", histogram.getSumMillis());
+        ArrayNode bounds = buckets.putArray("UpperBoundMillis");
+        ArrayNode counts = buckets.putArray("Counts");
+        histogram.forEachBucket((upperBoundMillis, count) -> {
+            bounds.add(upperBoundMillis);
+            counts.add(count);
+        });
+    }
+}
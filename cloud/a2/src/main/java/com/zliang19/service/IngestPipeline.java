@@ -0,0 +1,385 @@
+package com.zliang19.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import com.zliang19.model.ReviewBatch;
+
+/**
+ * Runs download, parse and write as overlapping stages connected by bounded queues.
+ * The downloader pushes raw chunks while the parser is still decoding earlier ones,
+ * and the writer stores parsed review batches while the parser moves on, so the time per
+ * file approaches the slowest stage instead of the sum of all three. A full queue
+ * blocks the stage feeding it, which keeps memory bounded whatever the file size.
+ *
+ * A run returns only once both stage threads have finished, also when it fails, so no
+ * batch of the file is written after the caller has seen the outcome.
+ */
+public class IngestPipeline {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int CHUNK_QUEUE_CAPACITY = 64;
+    private static final int WRITE_QUEUE_CAPACITY = 8;
+    private static final long POLL_MILLIS = 100;
+
+    // Sentinels marking the end of a queue
+    private static final byte[] END_OF_CHUNKS = new byte[0];
+    private static final ReviewBatch END_OF_BATCHES = new ReviewBatch(1);
+
+    private final S3Service s3Service;
+    private final ParsingService parsingService;
+    private final DynamoDbService dynamoDbService;
+    private final ExecutorService stageExecutor;
+
+    public IngestPipeline(S3Service s3Service, ParsingService parsingService, DynamoDbService dynamoDbService) {
+        this.s3Service = s3Service;
+        this.parsingService = parsingService;
+        this.dynamoDbService = dynamoDbService;
+        this.stageExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ingest-pipeline-stage");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Ingests one object. Parsing runs on the calling thread; download and write run on stage threads.
+     * @param bucketName The S3 bucket name
+     * @param objectKey The S3 object key
+     * @param objectSize The object size from the event, or -1 if unknown
+     * @param identifierPrefix Prefix from {@link IdempotencyStore#identifierPrefix}
+     * @return Parsed count and per-batch write results
+     * @throws IngestFailedException If a stage fails; carries the batches written before the stages stopped
+     * @throws IOException If interrupted while waiting for the stages
+     */
+    public IngestResult run(String bucketName, String objectKey, long objectSize, String identifierPrefix)
+            throws IOException {
+        BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CHUNK_QUEUE_CAPACITY);
+        BlockingQueue<ReviewBatch> writeBatches = new ArrayBlockingQueue<>(WRITE_QUEUE_CAPACITY);
+        ChunkQueueInputStream parserInput = new ChunkQueueInputStream(chunks);
+        AtomicLong bytesRead = new AtomicLong();
+        AtomicLong downloadNanos = new AtomicLong();
+        AtomicLong writeNanos = new AtomicLong();
+        AtomicBoolean parseFailed = new AtomicBoolean();
+        AtomicReference<RuntimeException> writeFailure = new AtomicReference<>();
+
+        Future<?> download = stageExecutor.submit(() -> {
+            download(bucketName, objectKey, objectSize, chunks, parserInput, bytesRead, downloadNanos);
+            return null;
+        });
+        ProductAggregator aggregator = new ProductAggregator();
+        Future<List<BatchWriteResult>> write = stageExecutor.submit(
+                () -> write(writeBatches, identifierPrefix, aggregator, parseFailed, writeFailure, writeNanos));
+
+        WriteBatchCollector collector = new WriteBatchCollector(writeBatches);
+        ParseResult parseResult = null;
+        Exception parseFailure = null;
+        long parseStart = System.nanoTime();
+        try {
+            // The Content-Encoding is known once the download stage has opened the object
+            parseResult = parsingService.parseBatches(parserInput, objectKey, parserInput.awaitContentEncoding(),
+                    collector);
+        } catch (IOException | RuntimeException e) {
+            // Batches still queued are dropped rather than written after the file has failed
+            parseFailed.set(true);
+            parseFailure = e;
+        } finally {
+            // Always release the writer and the downloader, even if parsing failed part way
+            collector.finish();
+            parserInput.close();
+        }
+        // Time blocked on either queue belongs to the neighbouring stages
+        long parseNanos = System.nanoTime() - parseStart - parserInput.getWaitNanos() - collector.getWaitNanos();
+
+        // Wait for both stages, so nothing is written once the caller has the outcome
+        IOException downloadFailure = null;
+        try {
+            await(download);
+        } catch (IOException e) {
+            downloadFailure = e;
+        }
+        List<BatchWriteResult> batchResults = await(write);
+
+        IngestResult result = new IngestResult(
+                parseResult != null ? parseResult : new ParseResult(collector.getRowCount(), 0),
+                batchResults, bytesRead.get(), downloadNanos.get(), parseNanos, writeNanos.get(),
+                aggregator.getAggregates());
+        Exception failure = parseFailure != null ? parseFailure
+                : writeFailure.get() != null ? writeFailure.get() : downloadFailure;
+        if (failure != null) {
+            throw new IngestFailedException("Ingest stage failed: " + failure.getMessage(), failure, result);
+        }
+        return result;
+    }
+
+    /**
+     * Stops the stage threads
+     */
+    public void close() {
+        stageExecutor.shutdownNow();
+    }
+
+    /**
+     * Download stage: copies the S3 stream into fixed-size chunks until the end or until the parser stops
+     * @param bytesRead Receives the number of bytes read
+     * @param busyNanos Receives the time spent opening and reading the object
+     */
+    private void download(String bucketName, String objectKey, long objectSize, BlockingQueue<byte[]> chunks,
+                          ChunkQueueInputStream parserInput, AtomicLong bytesRead, AtomicLong busyNanos)
+            throws Exception {
+        long started = System.nanoTime();
+        try (S3ObjectStream content = s3Service.openObjectStream(bucketName, objectKey, objectSize)) {
+            busyNanos.addAndGet(System.nanoTime() - started);
+            parserInput.setContentEncoding(content.getContentEncoding());
+            while (true) {
+                long readStart = System.nanoTime();
+                byte[] chunk = content.readNBytes(CHUNK_SIZE);
+                busyNanos.addAndGet(System.nanoTime() - readStart);
+                bytesRead.addAndGet(chunk.length);
+                if (chunk.length == 0) {
+                    break;
+                }
+                if (!offerUntilClosed(chunks, chunk, parserInput)) {
+                    return;
+                }
+                if (chunk.length < CHUNK_SIZE) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            parserInput.fail(e);
+            throw e;
+        } finally {
+            offerUntilClosed(chunks, END_OF_CHUNKS, parserInput);
+        }
+    }
+
+    /**
+     * Write stage: numbers each batch by position in the file, stores it and folds it into the product
+     * aggregates, until the end sentinel arrives. After a write failure, or once parsing has
+     * failed, the stage keeps draining the queue without writing so the parser is never left blocked.
+     * @param identifierPrefix Prefix the identifiers share, followed by the position in the file
+     * @param aggregator Receives every written batch, in file order
+     * @param parseFailed Set when parsing fails; batches still queued are not written
+     * @param failure Receives the first write failure
+     * @param busyNanos Receives the time spent assigning identifiers and writing
+     * @return Results of the batches written, including those written before a failure
+     */
+    private List<BatchWriteResult> write(BlockingQueue<ReviewBatch> writeBatches, String identifierPrefix,
+                                         ProductAggregator aggregator,
+                                         AtomicBoolean parseFailed, AtomicReference<RuntimeException> failure,
+                                         AtomicLong busyNanos) throws InterruptedException {
+        List<BatchWriteResult> results = new ArrayList<>();
+        long position = 0;
+        while (true) {
+            ReviewBatch batch = writeBatches.take();
+            if (batch == END_OF_BATCHES) {
+                break;
+            }
+            if (failure.get() != null || parseFailed.get() || batch.getValidCount() == 0) {
+                continue;
+            }
+
+            long writeStart = System.nanoTime();
+            try {
+                batch.setFirstIdentifier(identifierPrefix, position);
+                position += batch.getValidCount();
+                results.addAll(dynamoDbService.saveReviewBatches(Collections.singletonList(batch)));
+                aggregator.add(batch);
+            } catch (RuntimeException e) {
+                failure.set(e);
+            } finally {
+                busyNanos.addAndGet(System.nanoTime() - writeStart);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Waits with a timeout so a parser that has stopped reading cannot block the downloader forever
+     * @return false if the parser closed its input before the item could be queued
+     */
+    private static boolean offerUntilClosed(BlockingQueue<byte[]> queue, byte[] item, ChunkQueueInputStream reader)
+            throws InterruptedException {
+        while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (reader.isClosed()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static <T> T await(Future<T> stage) throws IOException {
+        try {
+            return stage.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for ingest stage", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Ingest stage failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Hands parsed batches to the write stage
+     */
+    private static final class WriteBatchCollector implements Consumer<ReviewBatch> {
+        private final BlockingQueue<ReviewBatch> writeBatches;
+        private long waitNanos;
+        private int rowCount;
+
+        WriteBatchCollector(BlockingQueue<ReviewBatch> writeBatches) {
+            this.writeBatches = writeBatches;
+        }
+
+        @Override
+        public void accept(ReviewBatch batch) {
+            put(batch);
+            rowCount += batch.getValidCount();
+        }
+
+        void finish() {
+            put(END_OF_BATCHES);
+        }
+
+        /**
+         * @return Number of valid reviews handed to the write stage
+         */
+        int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * @return Time the parser spent blocked on a full write queue
+         */
+        long getWaitNanos() {
+            return waitNanos;
+        }
+
+        private void put(ReviewBatch item) {
+            long putStart = System.nanoTime();
+            try {
+                writeBatches.put(item);
+                waitNanos += System.nanoTime() - putStart;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while queueing reviews for writing", e);
+            }
+        }
+    }
+
+    /**
+     * Input stream that reads the chunks queued by the download stage
+     */
+    private static final class ChunkQueueInputStream extends InputStream {
+        private final BlockingQueue<byte[]> chunks;
+        private volatile boolean closed;
+        private volatile Exception failure;
+        private volatile String contentEncoding;
+        private byte[] current = new byte[0];
+        private int position;
+        private boolean finished;
+        private long waitNanos;
+
+        ChunkQueueInputStream(BlockingQueue<byte[]> chunks) {
+            this.chunks = chunks;
+        }
+
+        void fail(Exception cause) {
+            this.failure = cause;
+        }
+
+        /**
+         * Set by the download stage before it queues the first chunk
+         */
+        void setContentEncoding(String contentEncoding) {
+            this.contentEncoding = contentEncoding;
+        }
+
+        /**
+         * Blocks until the first chunk arrives, so the download stage has opened the object
+         * @return Content-Encoding of the object, or null if it has none
+         */
+        String awaitContentEncoding() throws IOException {
+            ensureData();
+            return contentEncoding;
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * @return Time the parser spent blocked waiting for the next chunk
+         */
+        long getWaitNanos() {
+            return waitNanos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!ensureData()) {
+                return -1;
+            }
+            return current[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureData()) {
+                return -1;
+            }
+            int count = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        private boolean ensureData() throws IOException {
+            while (position >= current.length) {
+                if (finished) {
+                    return false;
+                }
+                long takeStart = System.nanoTime();
+                try {
+                    current = chunks.take();
+                    waitNanos += System.nanoTime() - takeStart;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for S3 data", e);
+                }
+                position = 0;
+                if (current == END_OF_CHUNKS) {
+                    finished = true;
+                    if (failure != null) {
+                        // A truncated download must not look like a complete file
+                        throw new IOException("Download failed: " + failure.getMessage(), failure);
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
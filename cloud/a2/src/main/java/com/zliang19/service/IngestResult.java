@@ -0,0 +1,144 @@
+package com.zliang19.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.zliang19.model.ProductAggregate;
+
+/**
+ * Outcome of ingesting one uploaded file, with the busy time of each stage.
+ * Busy time excludes waiting on the queues between stages, so in the pipelined
+ * path the three stages overlap and their sum can exceed the file's wall time.
+ */
+public class IngestResult {
+
+    private final int parsedCount;
+    private final int rejectedCount;
+    private final List<BatchWriteResult> batchResults;
+    private final long bytesRead;
+    private final long downloadNanos;
+    private final long parseNanos;
+    private final long writeNanos;
+    private final List<ProductAggregate> productAggregates;
+    private final int summaryFailures;
+    private final int summarySkipped;
+
+    public IngestResult(ParseResult parseResult, List<BatchWriteResult> batchResults, long bytesRead,
+                        long downloadNanos, long parseNanos, long writeNanos,
+                        List<ProductAggregate> productAggregates) {
+        this.parsedCount = parseResult.getParsedCount();
+        this.rejectedCount = parseResult.getRejectedCount();
+        this.batchResults = Collections.unmodifiableList(new ArrayList<>(batchResults));
+        this.bytesRead = bytesRead;
+        this.downloadNanos = downloadNanos;
+        this.parseNanos = parseNanos;
+        this.writeNanos = writeNanos;
+        this.productAggregates = productAggregates;
+        this.summaryFailures = 0;
+        this.summarySkipped = 0;
+    }
+
+    private IngestResult(IngestResult result, SummaryUpdateResult summary) {
+        this.parsedCount = result.parsedCount;
+        this.rejectedCount = result.rejectedCount;
+        this.batchResults = result.batchResults;
+        this.bytesRead = result.bytesRead;
+        this.downloadNanos = result.downloadNanos;
+        this.parseNanos = result.parseNanos;
+        this.writeNanos = result.writeNanos;
+        this.productAggregates = result.productAggregates;
+        this.summaryFailures = summary.getFailedCount();
+        this.summarySkipped = summary.getSkippedCount();
+    }
+
+    /**
+     * @param summary Outcome of folding the file into the product summary
+     * @return Copy of this result with the failed and skipped summary updates recorded
+     */
+    public IngestResult withSummaryResult(SummaryUpdateResult summary) {
+        return new IngestResult(this, summary);
+    }
+
+    /**
+     * @return Number of reviews parsed from the file
+     */
+    public int getParsedCount() {
+        return parsedCount;
+    }
+
+    /**
+     * @return Number of records skipped by the parser for missing or malformed fields
+     */
+    public int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public List<BatchWriteResult> getBatchResults() {
+        return batchResults;
+    }
+
+    /**
+     * @return Number of reviews stored in DynamoDB
+     */
+    public int getWrittenCount() {
+        int written = 0;
+        for (BatchWriteResult batch : batchResults) {
+            written += batch.getWrittenCount();
+        }
+        return written;
+    }
+
+    public boolean isComplete() {
+        return getWrittenCount() == parsedCount;
+    }
+
+    /**
+     * @return Bytes read from the S3 object
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return Time spent opening and reading the S3 object
+     */
+    public long getDownloadNanos() {
+        return downloadNanos;
+    }
+
+    /**
+     * @return Time spent decoding and parsing the content
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * @return Time spent assigning identifiers and writing batches to DynamoDB
+     */
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    /**
+     * @return Per-product aggregates of the parsed reviews
+     */
+    public List<ProductAggregate> getProductAggregates() {
+        return productAggregates;
+    }
+
+    /**
+     * @return Number of products whose summary update failed after the reviews were written
+     */
+    public int getSummaryFailures() {
+        return summaryFailures;
+    }
+
+    /**
+     * @return Number of products left out of the summary because their name cannot be a DynamoDB key
+     */
+    public int getSummarySkipped() {
+        return summarySkipped;
+    }
+}
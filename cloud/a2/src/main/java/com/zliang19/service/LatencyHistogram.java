@@ -0,0 +1,98 @@
+package com.zliang19.service;
+
+/**
+ * Fixed-size log-linear histogram of durations in microseconds. Each power of two is
+ * split into 8 buckets, so any recorded value is known to within 12.5%, and recording
+ * is an array increment with no allocation. Not thread-safe.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long maxMicros;
+    private long sumMicros;
+
+    /**
+     * @param nanos Duration to record; negative values count as zero
+     */
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts[bucketIndex(micros)]++;
+        totalCount++;
+        sumMicros += micros;
+        maxMicros = Math.max(maxMicros, micros);
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    public double getMaxMillis() {
+        return maxMicros / 1000.0;
+    }
+
+    public double getSumMillis() {
+        return sumMicros / 1000.0;
+    }
+
+    /**
+     * @param percent Percentile between 0 and 100
+     * @return Upper bound of the bucket holding that percentile, in milliseconds, or 0 if empty
+     */
+    public double percentileMillis(double percent) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percent / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), maxMicros) / 1000.0;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * Visits the non-empty buckets in ascending order
+     * @param visitor Receives each bucket's upper bound in milliseconds and its count
+     */
+    public void forEachBucket(BucketVisitor visitor) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                visitor.visit(Math.min(bucketUpperBound(i), maxMicros) / 1000.0, counts[i]);
+            }
+        }
+    }
+
+    public interface BucketVisitor {
+        void visit(double upperBoundMillis, long count);
+    }
+
+    /**
+     * Values below 8 get their own bucket; larger values are indexed by their highest
+     * set bit plus the next three bits
+     */
+    private static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,214 @@
+package com.zliang19.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+import com.zliang19.model.ProductNameDictionary;
+import com.zliang19.model.ReviewBatch;
+
+/**
+ * Parses a stream of delimiter-separated records on several cores. The stream is read
+ * in chunks that are cut back to the last delimiter, each chunk is parsed as a task on
+ * a fork-join pool into its own ReviewBatches, and the batches are handed to the consumer
+ * on the calling thread in source order. Only a few chunks per worker are buffered at a time, so memory stays
+ * bounded however large the stream is. Rejected records are counted in the result; with
+ * RECORD_LOG_SAMPLE_RATE set, a sample of the chunks that reject records is also logged with
+ * its byte range and rejection count (see {@link RecordLog}).
+ *
+ * Cutting at a delimiter byte is safe for UTF-8 input, since ASCII bytes never occur
+ * inside a multi-byte sequence.
+ */
+public class ParallelChunkParser {
+
+    /**
+     * Parses one chunk of whole records
+     */
+    public interface ChunkParser {
+        /**
+         * @param data Buffer holding the chunk
+         * @param offset Start of the chunk
+         * @param length Length of the chunk; it ends just after a delimiter or at the end of the stream
+         * @param out Receives a row per record, in order
+         */
+        void parse(byte[] data, int offset, int length, ReviewBatchBuilder out);
+    }
+
+    /**
+     * Outcome of one chunk, in source order
+     */
+    private static final class ChunkResult {
+        final int index;
+        final long startOffset;
+        final int length;
+        final List<ReviewBatch> batches;
+        final ParseResult counts;
+
+        ChunkResult(int index, long startOffset, int length, List<ReviewBatch> batches, ParseResult counts) {
+            this.index = index;
+            this.startOffset = startOffset;
+            this.length = length;
+            this.batches = batches;
+            this.counts = counts;
+        }
+    }
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final int batchSize;
+    private final int maxChunksInFlight;
+
+    /**
+     * @param parallelism Number of worker threads
+     * @param chunkSize Bytes read per chunk before it is cut back to the last delimiter
+     * @param batchSize Rows per ReviewBatch; the last batch of a chunk may be shorter
+     */
+    public ParallelChunkParser(int parallelism, int chunkSize, int batchSize) {
+        if (parallelism < 1 || chunkSize < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("parallelism, chunkSize and batchSize must be at least 1");
+        }
+        this.pool = new ForkJoinPool(parallelism);
+        this.chunkSize = chunkSize;
+        this.batchSize = batchSize;
+        this.maxChunksInFlight = parallelism * 2;
+    }
+
+    /**
+     * Parses the whole stream. A stream that fits in one chunk is parsed on the calling
+     * thread, since handing it to the pool would only add latency.
+     * @param input Stream of records; not closed by this method
+     * @param delimiter Byte that ends a record
+     * @param chunkParser Parser for one chunk
+     * @param productNames Dictionary the batches encode product names with, or null; shared by all workers
+     * @param consumer Receives each batch of parsed records, in source order
+     * @return Number of valid reviews handed to the consumer and of records rejected
+     * @throws IOException If reading the stream or parsing a chunk fails
+     */
+    public ParseResult parse(InputStream input, byte delimiter, ChunkParser chunkParser,
+                             ProductNameDictionary productNames, Consumer<ReviewBatch> consumer)
+            throws IOException {
+        Deque<ForkJoinTask<ChunkResult>> inFlight = new ArrayDeque<>();
+        int[] totals = new int[2];
+        byte[] carry = EMPTY;
+        long chunkStart = 0;
+        int chunkIndex = 0;
+        try {
+            while (true) {
+                // Step 1: Read the next chunk behind whatever the previous cut left over
+                byte[] buffer = Arrays.copyOf(carry, carry.length + chunkSize);
+                int length = carry.length + input.readNBytes(buffer, carry.length, chunkSize);
+                boolean endOfStream = length < buffer.length;
+
+                // Step 2: Cut after the last delimiter. The carry holds none, so only new bytes are searched;
+                // a record longer than the buffer doubles it, so a long record is copied O(log n) times
+                int searched = carry.length;
+                int end = endOfStream ? length : lastIndexOf(buffer, searched, length, delimiter) + 1;
+                while (end == 0 && !endOfStream) {
+                    searched = length;
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    length += input.readNBytes(buffer, length, buffer.length - length);
+                    endOfStream = length < buffer.length;
+                    end = endOfStream ? length : lastIndexOf(buffer, searched, length, delimiter) + 1;
+                }
+                carry = Arrays.copyOfRange(buffer, end, length);
+                byte[] chunk = buffer;
+                int chunkLength = end;
+                int index = chunkIndex++;
+                long startOffset = chunkStart;
+                chunkStart += chunkLength;
+
+                // Step 3: Parse inline if this is the whole stream, otherwise hand it to the pool
+                if (endOfStream && inFlight.isEmpty()) {
+                    emit(parseChunk(chunkParser, productNames, index, startOffset, chunk, chunkLength),
+                            consumer, totals);
+                    break;
+                }
+                inFlight.addLast(pool.submit(
+                        () -> parseChunk(chunkParser, productNames, index, startOffset, chunk, chunkLength)));
+
+                // Step 4: Deliver finished chunks in order once enough are queued
+                while (inFlight.size() >= maxChunksInFlight || (endOfStream && !inFlight.isEmpty())) {
+                    emit(join(inFlight.removeFirst()), consumer, totals);
+                }
+                if (endOfStream) {
+                    break;
+                }
+            }
+        } finally {
+            for (ForkJoinTask<ChunkResult> task : inFlight) {
+                task.cancel(false);
+            }
+        }
+        return new ParseResult(totals[0], totals[1]);
+    }
+
+    /**
+     * @return Number of worker threads
+     */
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Stops the worker threads
+     */
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private ChunkResult parseChunk(ChunkParser chunkParser, ProductNameDictionary productNames, int index,
+                                   long startOffset, byte[] data, int length) {
+        List<ReviewBatch> batches = new ArrayList<>();
+        ReviewBatchBuilder out = new ReviewBatchBuilder(batchSize, productNames, batches::add);
+        chunkParser.parse(data, 0, length, out);
+        return new ChunkResult(index, startOffset, length, batches, out.finish());
+    }
+
+    private static void emit(ChunkResult result, Consumer<ReviewBatch> consumer, int[] totals) {
+        int parsed = result.counts.getParsedCount();
+        int rejected = result.counts.getRejectedCount();
+        // Rejections are counted in the parse result; which chunk held them is only worth a sampled line
+        if (rejected > 0 && RecordLog.sampled()) {
+            System.err.println("Rejected " + rejected + " of " + (parsed + rejected)
+                    + " records in chunk " + result.index + " (bytes " + result.startOffset + "-"
+                    + (result.startOffset + result.length) + ")");
+        }
+        for (ReviewBatch batch : result.batches) {
+            consumer.accept(batch);
+        }
+        totals[0] += parsed;
+        totals[1] += rejected;
+    }
+
+    private static ChunkResult join(ForkJoinTask<ChunkResult> task) throws IOException {
+        try {
+            return task.join();
+        } catch (CancellationException e) {
+            throw new IOException("Chunk parsing was cancelled", e);
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to parse chunk: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return Index of the last delimiter in data[from, length), or -1 if there is none
+     */
+    private static int lastIndexOf(byte[] data, int from, int length, byte delimiter) {
+        for (int i = length - 1; i >= from; i--) {
+            if (data[i] == delimiter) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,29 @@
+package com.zliang19.service;
+
+/**
+ * Outcome of parsing one file: reviews handed on and records rejected as invalid
+ */
+public class ParseResult {
+
+    private final int parsedCount;
+    private final int rejectedCount;
+
+    public ParseResult(int parsedCount, int rejectedCount) {
+        this.parsedCount = parsedCount;
+        this.rejectedCount = rejectedCount;
+    }
+
+    /**
+     * @return Number of reviews handed to the consumer
+     */
+    public int getParsedCount() {
+        return parsedCount;
+    }
+
+    /**
+     * @return Number of records skipped for missing or malformed fields
+     */
+    public int getRejectedCount() {
+        return rejectedCount;
+    }
+}
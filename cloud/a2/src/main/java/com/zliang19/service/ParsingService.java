@@ -1,24 +1,60 @@
 package com.zliang19.service;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.NumberInput;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zliang19.model.ProductNameDictionary;
 import com.zliang19.model.ProductReview;
+import com.zliang19.model.ReviewBatch;
 
 /**
- * Service class for parsing JSON and text content into ProductReview objects
+ * Service class for parsing JSON and text content into ReviewBatches, or ProductReview
+ * objects for callers that need the bean form
  */
 public class ParsingService {
     
     private final ObjectMapper objectMapper;
+    private final AtomicReference<ProductNameDictionary> productNames;
+    private final int dictionarySize;
+    private final ParallelChunkParser chunkParser;
+    
+    // JSON Lines and text files are cut into chunks of about this size and parsed on PARSE_PARALLELISM threads
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    
+    // Rows per ReviewBatch: four BatchWriteItem requests
+    private static final int BATCH_SIZE = 100;
+    
+    // Product names are shared across the files this container parses, up to PRODUCT_NAME_DICTIONARY_SIZE names;
+    // a file that starts once the dictionary is full gets a new, empty one
+    private static final int DEFAULT_DICTIONARY_SIZE = 16384;
+    private static final int MAX_DICTIONARY_NAME_LENGTH = 256;
     
     public ParsingService() {
+        this(dictionarySize());
+    }
+    
+    /**
+     * @param dictionarySize Maximum distinct product names per dictionary
+     */
+    ParsingService(int dictionarySize) {
         this.objectMapper = new ObjectMapper();
+        this.dictionarySize = dictionarySize;
+        this.productNames = new AtomicReference<>(new ProductNameDictionary(dictionarySize, MAX_DICTIONARY_NAME_LENGTH));
+        this.chunkParser = new ParallelChunkParser(parseParallelism(), CHUNK_SIZE, BATCH_SIZE);
     }
     
     /**
@@ -29,168 +65,439 @@ public class ParsingService {
      * @throws IOException If parsing fails
      */
     public List<ProductReview> parseContent(String content, String fileName) throws IOException {
-        if (fileName.toLowerCase().endsWith(".json")) {
-            return parseJsonContent(content);
-        } else if (fileName.toLowerCase().endsWith(".txt")) {
-            return parseTextContent(content);
-        } else {
+        if (!isSupportedFileType(fileName)) {
             throw new IllegalArgumentException("Unsupported file type: " + fileName);
         }
+        List<ProductReview> reviews = new ArrayList<>();
+        parseByFormat(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), fileName,
+                batch -> batch.forEachReview(reviews::add));
+        return reviews;
     }
     
     /**
-     * Parses JSON content into ProductReview objects
-     * @param jsonContent The JSON content as string
-     * @return List of ProductReview objects
+     * Parses a stream based on file extension, handing each review to the consumer as soon as it is read
+     * @param input The file content as a byte stream; not closed by this method
+     * @param fileName The file name to determine parsing method
+     * @param consumer Receives each successfully parsed review
+     * @return Number of reviews handed to the consumer and of records rejected
+     * @throws IOException If parsing fails
+     */
+    public ParseResult parseContent(InputStream input, String fileName, Consumer<ProductReview> consumer) throws IOException {
+        return parseContent(input, fileName, null, consumer);
+    }
+    
+    /**
+     * Parses a stream that may be gzip or zstd compressed, decompressing it on the fly.
+     * The format is taken from a compression extension on the file name or else from the
+     * Content-Encoding, and the parser from the extension underneath (".json.gz" parses as JSON).
+     * @param input The file content as stored; not closed by this method
+     * @param fileName The file name to determine compression and parsing method
+     * @param contentEncoding Content-Encoding of the object, or null if unknown
+     * @param consumer Receives each successfully parsed review
+     * @return Number of reviews handed to the consumer and of records rejected
+     * @throws IOException If decompression or parsing fails
+     */
+    public ParseResult parseContent(InputStream input, String fileName, String contentEncoding,
+                                    Consumer<ProductReview> consumer) throws IOException {
+        return parseBatches(input, fileName, contentEncoding, batch -> batch.forEachReview(consumer));
+    }
+    
+    /**
+     * Parses a stream like {@link #parseContent(InputStream, String, String, Consumer)}, but hands
+     * the records on as columnar batches, so no ProductReview bean is created per record
+     * @param input The file content as stored; not closed by this method
+     * @param fileName The file name to determine compression and parsing method
+     * @param contentEncoding Content-Encoding of the object, or null if unknown
+     * @param consumer Receives each batch of parsed records, in file order
+     * @return Number of valid reviews in the batches and of records rejected
+     * @throws IOException If decompression or parsing fails
+     */
+    public ParseResult parseBatches(InputStream input, String fileName, String contentEncoding,
+                                    Consumer<ReviewBatch> consumer) throws IOException {
+        String baseName = Compression.stripExtension(fileName);
+        if (!isSupportedFileType(baseName)) {
+            throw new IllegalArgumentException("Unsupported file type: " + fileName);
+        }
+        
+        Compression compression = Compression.forObject(fileName, contentEncoding);
+        if (compression == Compression.NONE) {
+            return parseByFormat(input, baseName, consumer);
+        }
+        
+        // Closing the decompressor frees its buffers (native ones for zstd) but must leave the input open
+        try (InputStream decoded = compression.decode(new FilterInputStream(input) {
+                @Override
+                public void close() {
+                }
+            })) {
+            return parseByFormat(decoded, baseName, consumer);
+        }
+    }
+    
+    /**
+     * @param fileName File name without any compression extension
+     * @return Whether the name has one of the parsed extensions: .json, .jsonl, .ndjson or .txt
+     */
+    public static boolean isSupportedFileType(String fileName) {
+        String lower = fileName.toLowerCase();
+        return lower.endsWith(".json") || lower.endsWith(".txt") || isJsonLines(lower);
+    }
+    
+    private static boolean isJsonLines(String fileName) {
+        String lower = fileName.toLowerCase();
+        return lower.endsWith(".jsonl") || lower.endsWith(".ndjson");
+    }
+    
+    private ParseResult parseByFormat(InputStream input, String baseName, Consumer<ReviewBatch> consumer)
+            throws IOException {
+        if (isJsonLines(baseName)) {
+            return parseJsonLinesStream(input, consumer);
+        } else if (baseName.toLowerCase().endsWith(".json")) {
+            return parseJsonStream(input, consumer);
+        }
+        return parseTextStream(input, consumer);
+    }
+    
+    /**
+     * Parses a JSON stream token by token, copying field values straight into batches
+     * @param input The JSON content as a byte stream; not closed by this method
+     * @param consumer Receives each batch of parsed records
+     * @return Number of valid reviews in the batches and of records rejected
      * @throws IOException If JSON parsing fails
      */
-    private List<ProductReview> parseJsonContent(String jsonContent) throws IOException {
-        List<ProductReview> reviews = new ArrayList<>();
+    public ParseResult parseJsonStream(InputStream input, Consumer<ReviewBatch> consumer) throws IOException {
+        ParseResult result;
+        
+        try (JsonParser parser = objectMapper.getFactory().createParser(input)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            ReviewBatchBuilder out = new ReviewBatchBuilder(BATCH_SIZE, getProductNameDictionary(), consumer);
+            parseJsonReviews(parser, out);
+            result = out.finish();
+        } catch (Exception e) {
+            if (RecordLog.sampled()) {
+                System.err.println("Error parsing JSON content: " + e.getMessage());
+            }
+            throw new IOException("Failed to parse JSON content: " + e.getMessage(), e);
+        }
+        
+        if (RecordLog.sampled()) {
+            System.out.println("Successfully parsed " + result.getParsedCount() + " reviews from JSON stream");
+        }
+        return result;
+    }
+    
+    /**
+     * Parses JSON Lines (one review object per line) on several cores. The stream is cut into
+     * chunks at line boundaries, chunks are parsed in parallel, and batches reach the consumer
+     * in file order on the calling thread. A malformed line rejects only that record.
+     * @param input The UTF-8 JSON Lines content as a byte stream; not closed by this method
+     * @param consumer Receives each batch of parsed records
+     * @return Number of valid reviews in the batches and of records rejected
+     * @throws IOException If reading the stream fails
+     */
+    public ParseResult parseJsonLinesStream(InputStream input, Consumer<ReviewBatch> consumer) throws IOException {
+        ParseResult result;
         
         try {
-            // Parse JSON array
-            JsonNode rootNode = objectMapper.readTree(jsonContent);
-            
-            if (rootNode.isArray()) {
-                for (JsonNode reviewNode : rootNode) {
-                    ProductReview review = parseJsonReview(reviewNode);
-                    if (review != null) {
-                        reviews.add(review);
+            result = chunkParser.parse(input, (byte) '\n', this::parseJsonLines, getProductNameDictionary(), consumer);
+        } catch (Exception e) {
+            if (RecordLog.sampled()) {
+                System.err.println("Error parsing JSON Lines content: " + e.getMessage());
+            }
+            throw new IOException("Failed to parse JSON Lines content: " + e.getMessage(), e);
+        }
+        
+        if (RecordLog.sampled()) {
+            System.out.println("Successfully parsed " + result.getParsedCount() + " reviews from JSON Lines stream");
+        }
+        return result;
+    }
+    
+    /**
+     * Parses the lines of one chunk; runs on a parse worker thread. Blank lines add no row.
+     */
+    private void parseJsonLines(byte[] data, int offset, int length, ReviewBatchBuilder out) {
+        int end = offset + length;
+        int lineStart = offset;
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && data[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            if (!isBlank(data, lineStart, lineEnd)) {
+                ReviewBatch batch = out.batch();
+                int mark = batch.textMark();
+                try (JsonParser parser = objectMapper.getFactory().createParser(data, lineStart, lineEnd - lineStart)) {
+                    parser.nextToken();
+                    appendJsonReview(parser, batch);
+                } catch (IOException e) {
+                    // The line broke off part way through the object, so no row was added for it yet
+                    batch.addRejectedRow(mark);
+                    if (RecordLog.sampled()) {
+                        System.err.println("Error parsing JSON line: " + e.getMessage());
                     }
                 }
-            } else {
-                // Single object
-                ProductReview review = parseJsonReview(rootNode);
-                if (review != null) {
-                    reviews.add(review);
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+    
+    private static boolean isBlank(byte[] data, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data[i] != ' ' && data[i] != '\t' && data[i] != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Walks a top-level array of reviews or a single review object, one row per element
+     * @param parser Parser positioned before the first token
+     * @param out Receives a row per element
+     * @throws IOException If the JSON is malformed
+     */
+    private void parseJsonReviews(JsonParser parser, ReviewBatchBuilder out) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == null) {
+            // Empty document
+            return;
+        }
+        
+        if (token == JsonToken.START_ARRAY) {
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == null) {
+                    throw new IOException("Unexpected end of JSON array");
                 }
+                appendJsonReview(parser, out.batch());
             }
-            
-            System.out.println("Successfully parsed " + reviews.size() + " reviews from JSON content");
-            return reviews;
-            
-        } catch (Exception e) {
-            System.err.println("Error parsing JSON content: " + e.getMessage());
-            throw new IOException("Failed to parse JSON content: " + e.getMessage(), e);
+        } else {
+            // Single object
+            appendJsonReview(parser, out.batch());
         }
     }
     
     /**
-     * Parses a single JSON review node
-     * @param reviewNode The JSON node representing a review
-     * @return ProductReview object or null if parsing fails
+     * Reads one review object field by field and adds it to the batch as a valid or rejected row.
+     * Values convert as JsonNode.asText() and asDouble() would; a missing or null field, or a price or
+     * rating that is not a finite number, rejects the review.
+     * @param parser Parser positioned on the first token of the value
+     * @param batch Batch with room for the row
+     * @throws IOException If the JSON is malformed; no row has been added in that case
      */
-    private ProductReview parseJsonReview(JsonNode reviewNode) {
-        try {
-            String productName = getJsonString(reviewNode, "ProductName");
-            Double price = getJsonDouble(reviewNode, "Price");
-            String reviewComment = getJsonString(reviewNode, "Review");
-            Double rating = getJsonDouble(reviewNode, "Rating");
-            
-            if (productName != null && price != null && reviewComment != null && rating != null) {
-                return new ProductReview(null, productName, price, reviewComment, rating);
-            } else {
-                System.err.println("Missing required fields in JSON review: " + reviewNode.toString());
-                return null;
+    private void appendJsonReview(JsonParser parser, ReviewBatch batch) throws IOException {
+        int mark = batch.textMark();
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            batch.addRejectedRow(mark);
+            if (RecordLog.sampled()) {
+                System.err.println("JSON review is not an object at " + parser.getTokenLocation());
             }
-        } catch (Exception e) {
-            System.err.println("Error parsing JSON review: " + e.getMessage());
-            return null;
+            return;
+        }
+        
+        boolean hasName = false;
+        int nameCode = ProductNameDictionary.NO_CODE;
+        int nameOffset = 0;
+        int nameLength = 0;
+        int commentOffset = -1;
+        int commentLength = 0;
+        double price = Double.NaN;
+        double rating = Double.NaN;
+        boolean hasPrice = false;
+        boolean hasRating = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            boolean isNull = value == JsonToken.VALUE_NULL;
+            switch (field) {
+                case "ProductName":
+                    hasName = !isNull;
+                    if (hasName) {
+                        nameOffset = batch.textMark();
+                        nameCode = appendJsonName(parser, batch);
+                        nameLength = batch.textMark() - nameOffset;
+                    }
+                    break;
+                case "Review":
+                    commentOffset = -1;
+                    if (!isNull) {
+                        commentOffset = appendJsonText(parser, batch);
+                        commentLength = batch.textMark() - commentOffset;
+                    }
+                    break;
+                case "Price":
+                    hasPrice = !isNull;
+                    price = jsonDouble(parser);
+                    break;
+                case "Rating":
+                    hasRating = !isNull;
+                    rating = jsonDouble(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        
+        if (!hasName || !hasPrice || commentOffset < 0 || !hasRating) {
+            batch.addRejectedRow(mark);
+            if (RecordLog.sampled()) {
+                System.err.println("Missing required fields in JSON review ending at " + parser.getTokenLocation());
+            }
+        } else if (!Double.isFinite(price) || !Double.isFinite(rating)) {
+            // "NaN", "Infinity" or an overflowing number such as 1e999; DynamoDB cannot store them
+            batch.addRejectedRow(mark);
+            if (RecordLog.sampled()) {
+                System.err.println("Non-finite price or rating in JSON review ending at " + parser.getTokenLocation());
+            }
+        } else {
+            batch.addRow(nameCode, nameOffset, nameLength, price, commentOffset, commentLength, rating);
+        }
+    }
+    
+    /**
+     * Copies a field value into the batch's text buffer, straight from the parser's buffer for strings
+     * @return Offset of the copied text
+     */
+    private static int appendJsonText(JsonParser parser, ReviewBatch batch) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_STRING:
+                return batch.appendText(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+            case START_OBJECT:
+            case START_ARRAY:
+                // A container has no text value
+                parser.skipChildren();
+                return batch.textMark();
+            default:
+                return batch.appendText(parser.getText());
         }
     }
     
     /**
-     * Helper method to safely get string value from JSON node
+     * Stores a ProductName value in the batch, as a dictionary code where possible
+     * @return Code of the name, or ProductNameDictionary.NO_CODE if it was copied as text
      */
-    private String getJsonString(JsonNode node, String fieldName) {
-        JsonNode fieldNode = node.get(fieldName);
-        return fieldNode != null && !fieldNode.isNull() ? fieldNode.asText() : null;
+    private static int appendJsonName(JsonParser parser, ReviewBatch batch) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_STRING:
+                return batch.appendProductName(parser.getTextCharacters(), parser.getTextOffset(),
+                        parser.getTextLength());
+            case START_OBJECT:
+            case START_ARRAY:
+                parser.skipChildren();
+                return batch.appendProductName("");
+            default:
+                return batch.appendProductName(parser.getText());
+        }
     }
     
     /**
-     * Helper method to safely get double value from JSON node
+     * @return Numeric value of the current field value; strings are parsed and anything unparseable is 0
      */
-    private Double getJsonDouble(JsonNode node, String fieldName) {
-        JsonNode fieldNode = node.get(fieldName);
-        return fieldNode != null && !fieldNode.isNull() ? fieldNode.asDouble() : null;
+    private static double jsonDouble(JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_STRING:
+                return NumberInput.parseAsDouble(parser.getText(), 0.0);
+            case VALUE_TRUE:
+                return 1.0;
+            case START_OBJECT:
+            case START_ARRAY:
+                parser.skipChildren();
+                return 0.0;
+            default:
+                return 0.0;
+        }
     }
     
     /**
-     * Parses text content into ProductReview objects
+     * Parses semicolon-delimited text on several cores. The stream is cut into chunks at record
+     * boundaries, chunks are parsed in parallel, and batches reach the consumer in file order on
+     * the calling thread. With a parallelism of one the stream goes through a single scanner.
      * Expected format: ProductName: Sony TV, Price: 12000, Review: I loved this product..., Rating: 4.85;
-     * @param textContent The text content as string
-     * @return List of ProductReview objects
+     * @param input The UTF-8 text content as a byte stream; not closed by this method
+     * @param consumer Receives each batch of parsed records
+     * @return Number of valid reviews in the batches and of records rejected
      * @throws IOException If text parsing fails
      */
-    private List<ProductReview> parseTextContent(String textContent) throws IOException {
-        List<ProductReview> reviews = new ArrayList<>();
+    public ParseResult parseTextStream(InputStream input, Consumer<ReviewBatch> consumer) throws IOException {
+        ParseResult result;
         
         try {
-            // Split by semicolon to get individual reviews
-            String[] reviewStrings = textContent.split(";");
-            
-            for (String reviewString : reviewStrings) {
-                reviewString = reviewString.trim();
-                if (!reviewString.isEmpty()) {
-                    ProductReview review = parseTextReview(reviewString);
-                    if (review != null) {
-                        reviews.add(review);
-                    }
-                }
+            ProductNameDictionary names = getProductNameDictionary();
+            if (chunkParser.getParallelism() > 1) {
+                result = chunkParser.parse(input, (byte) ';', this::parseTextChunk, names, consumer);
+            } else {
+                // On a single core, chunking only adds copies; stream through one scanner instead
+                ReviewBatchBuilder out = new ReviewBatchBuilder(BATCH_SIZE, names, consumer);
+                new TextReviewScanner().scan(new InputStreamReader(input, StandardCharsets.UTF_8), out);
+                result = out.finish();
             }
-            
-            System.out.println("Successfully parsed " + reviews.size() + " reviews from text content");
-            return reviews;
-            
         } catch (Exception e) {
-            System.err.println("Error parsing text content: " + e.getMessage());
+            if (RecordLog.sampled()) {
+                System.err.println("Error parsing text content: " + e.getMessage());
+            }
             throw new IOException("Failed to parse text content: " + e.getMessage(), e);
         }
+        
+        if (RecordLog.sampled()) {
+            System.out.println("Successfully parsed " + result.getParsedCount() + " reviews from text stream");
+        }
+        return result;
     }
     
     /**
-     * Parses a single text review string
-     * @param reviewString The text string representing a review
-     * @return ProductReview object or null if parsing fails
+     * Decodes one chunk of whole records and scans it in place; runs on a parse worker thread
      */
-    private ProductReview parseTextReview(String reviewString) {
-        try {
-            // Regular expressions to extract field values
-            String productName = extractField(reviewString, "ProductName");
-            String priceStr = extractField(reviewString, "Price");
-            String reviewComment = extractField(reviewString, "Review");
-            String ratingStr = extractField(reviewString, "Rating");
-            
-            if (productName != null && priceStr != null && reviewComment != null && ratingStr != null) {
-                Double price = Double.parseDouble(priceStr);
-                Double rating = Double.parseDouble(ratingStr);
-                
-                return new ProductReview(null, productName, price, reviewComment, rating);
-            } else {
-                System.err.println("Missing required fields in text review: " + reviewString);
-                return null;
-            }
-        } catch (Exception e) {
-            System.err.println("Error parsing text review: " + e.getMessage());
-            return null;
-        }
+    private void parseTextChunk(byte[] data, int offset, int length, ReviewBatchBuilder out) {
+        CharBuffer chars = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(data, offset, length));
+        new TextReviewScanner().scan(chars.array(), chars.arrayOffset() + chars.position(),
+                chars.arrayOffset() + chars.limit(), out);
     }
     
     /**
-     * Extracts field value from text using regex
-     * @param text The text to search in
-     * @param fieldName The field name to extract
-     * @return The field value or null if not found
+     * Returns the dictionary a file about to be parsed encodes its product names with. Once the
+     * current dictionary is full it is replaced by an empty one, so names first seen late in the
+     * container's life get codes too. Codes are never reassigned: batches keep the dictionary they
+     * were encoded with, so batches still in flight from earlier files decode as before, and every
+     * batch of one file shares one dictionary.
+     * @return Current dictionary
      */
-    private String extractField(String text, String fieldName) {
-        // Pattern to match "FieldName: value" where value can contain commas but stops at the next field or end
-        String pattern = fieldName + ":\\s*([^,]+?)(?=\\s*,\\s*\\w+:|$)";
-        Pattern regex = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE);
-        Matcher matcher = regex.matcher(text);
-        
-        if (matcher.find()) {
-            return matcher.group(1).trim();
+    public ProductNameDictionary getProductNameDictionary() {
+        ProductNameDictionary current = productNames.get();
+        if (!current.isFull()) {
+            return current;
         }
-        return null;
+        ProductNameDictionary next = new ProductNameDictionary(dictionarySize, MAX_DICTIONARY_NAME_LENGTH);
+        if (productNames.compareAndSet(current, next)) {
+            System.out.println("Product name dictionary is full; starting a new one for the following files");
+            return next;
+        }
+        // Another file replaced it first
+        return productNames.get();
+    }
+    
+    /**
+     * Stops the chunk parse workers
+     */
+    public void close() {
+        chunkParser.close();
+    }
+    
+    /**
+     * @return Worker threads for chunked parsing: PARSE_PARALLELISM, or one per available core
+     */
+    private static int parseParallelism() {
+        return (int) Math.max(1, EnvConfig.envLong("PARSE_PARALLELISM", Runtime.getRuntime().availableProcessors()));
+    }
+    
+    /**
+     * @return Maximum distinct product names: PRODUCT_NAME_DICTIONARY_SIZE, or 16384
+     */
+    private static int dictionarySize() {
+        return (int) Math.max(1, EnvConfig.envLong("PRODUCT_NAME_DICTIONARY_SIZE", DEFAULT_DICTIONARY_SIZE));
     }
 }
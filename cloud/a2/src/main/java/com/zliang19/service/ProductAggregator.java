@@ -0,0 +1,77 @@
+package com.zliang19.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.zliang19.model.ProductAggregate;
+import com.zliang19.model.ProductNameDictionary;
+import com.zliang19.model.ReviewBatch;
+
+/**
+ * Folds the reviews of one file into per-product aggregates. Rows whose product name has
+ * a dictionary code are grouped through an array indexed by the code, so a name is only
+ * hashed the first time the file mentions it. Codes only mean something within one
+ * dictionary, so a batch encoded with another one starts a new code index. Not
+ * thread-safe; one ingest folds its batches in order from a single thread.
+ */
+public class ProductAggregator {
+
+    private final Map<String, ProductAggregate> byName = new HashMap<>();
+    private final List<ProductAggregate> aggregates = new ArrayList<>();
+    private ProductAggregate[] byCode = new ProductAggregate[64];
+    private ProductNameDictionary codes;
+
+    /**
+     * Adds the valid rows of a batch
+     */
+    public void add(ReviewBatch batch) {
+        if (batch.getProductNameDictionary() != codes && batch.getProductNameDictionary() != null) {
+            codes = batch.getProductNameDictionary();
+            Arrays.fill(byCode, null);
+        }
+        for (int row = 0; row < batch.size(); row++) {
+            if (!batch.isValid(row)) {
+                continue;
+            }
+            aggregateFor(batch, row).add(batch.getPrice(row), batch.getRating(row));
+        }
+    }
+
+    /**
+     * @return One aggregate per product, in the order the products first appeared
+     */
+    public List<ProductAggregate> getAggregates() {
+        return Collections.unmodifiableList(aggregates);
+    }
+
+    private ProductAggregate aggregateFor(ReviewBatch batch, int row) {
+        int code = batch.getProductNameCode(row);
+        if (code == ProductNameDictionary.NO_CODE) {
+            return byName(batch.getProductName(row));
+        }
+        if (code >= byCode.length) {
+            byCode = Arrays.copyOf(byCode, Math.max(byCode.length * 2, code + 1));
+        }
+        ProductAggregate aggregate = byCode[code];
+        if (aggregate == null) {
+            // Same name, same aggregate, whether a row carries the name as a code or as text
+            aggregate = byName(batch.getProductName(row));
+            byCode[code] = aggregate;
+        }
+        return aggregate;
+    }
+
+    private ProductAggregate byName(String productName) {
+        ProductAggregate aggregate = byName.get(productName);
+        if (aggregate == null) {
+            aggregate = new ProductAggregate(productName);
+            byName.put(productName, aggregate);
+            aggregates.add(aggregate);
+        }
+        return aggregate;
+    }
+}
@@ -0,0 +1,368 @@
+package com.zliang19.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.zliang19.model.ProductAggregate;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.Put;
+import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValuesOnConditionCheckFailure;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.Update;
+
+/**
+ * Folds per-file product aggregates into a summary table keyed by ProductName, so
+ * per-product counts, average ratings and price ranges are one GetItem instead of a scan.
+ *
+ * The products of a file are written in groups, one TransactWriteItems per group. Each
+ * product is one update that ADDs the file's review count and rating sum and SETs the
+ * resulting extremes and average rating, on condition that the stored review count is still
+ * the one the update was computed from. For an identified object version each update is
+ * paired with a marker item in the ingest ledger ({@link IdempotencyStore#summaryMarker})
+ * that fails if the marker exists, so retrying a file after a partial failure, or after its
+ * completion record was lost, adds each product at most once.
+ *
+ * The stored items are not read up front. The first attempt assumes every product is new;
+ * the products for which that is wrong cancel the transaction and come back with their
+ * current item, and the retry is computed from it. Products whose marker already exists are
+ * dropped from the retry. A group of products seen before therefore costs two transactions
+ * and new products one; a product another invocation updated in between costs one more.
+ *
+ * Because every update knows the product's new totals, it also keeps the product in the
+ * ranking index: AverageRating is that index's sort key, and RankShard, one of
+ * {@link #RANKING_SHARDS} values derived from the name, its partition key, so the index's
+ * writes spread over several partitions. {@link ReviewQueryService} reads the best products
+ * from the top of each shard. The index is sparse: summary items that have not been updated
+ * since the attributes were introduced are not in it.
+ */
+public class ProductSummaryStore {
+
+    // Shared by the ingest and the read side, which are configured separately
+    public static final String TABLE_ENV = "PRODUCT_SUMMARY_TABLE";
+    public static final String DEFAULT_TABLE_NAME = "ProductReviewSummary";
+
+    public static final String KEY_ATTRIBUTE = "ProductName";
+    public static final String COUNT_ATTRIBUTE = "ReviewCount";
+    public static final String RATING_SUM_ATTRIBUTE = "RatingSum";
+    public static final String RATING_MIN_ATTRIBUTE = "RatingMin";
+    public static final String RATING_MAX_ATTRIBUTE = "RatingMax";
+    public static final String PRICE_MIN_ATTRIBUTE = "PriceMin";
+    public static final String PRICE_MAX_ATTRIBUTE = "PriceMax";
+    public static final String AVERAGE_RATING_ATTRIBUTE = "AverageRating";
+    public static final String RANK_SHARD_ATTRIBUTE = "RankShard";
+
+    // Partitions of the ranking index; each is read from its top when ranking products
+    public static final int RANKING_SHARDS = 8;
+
+    // DynamoDB partition keys hold at most 2048 bytes, and a ledger marker key is the name behind a prefix
+    static final int MAX_PRODUCT_NAME_BYTES = 2048 - IdempotencyStore.SUMMARY_MARKER_KEY_OVERHEAD;
+
+    // A transaction holds at most 100 items: a marker and an update per product, or just the update
+    private static final int MAX_TRANSACTION_ITEMS = 100;
+
+    // Besides cancellations that reveal the stored item, transactions on a hot product conflict
+    // with each other; those are retried with jittered backoff
+    private static final int MAX_TRANSACTION_ATTEMPTS = 6;
+    private static final long BACKOFF_BASE_MILLIS = 20;
+    private static final long BACKOFF_CAP_MILLIS = 1000;
+    private static final String CONDITION_FAILED = "ConditionalCheckFailed";
+    private static final String NO_FAILURE = "None";
+
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final IdempotencyStore ledger;
+    private final ExecutorService executor;
+
+    // Cleared the first time the summary table turns out not to exist
+    private volatile boolean tableAvailable = true;
+
+    /**
+     * @param dynamoDbClient DynamoDB client
+     * @param tableName Summary table, keyed by ProductName
+     * @param ledger Ingest ledger holding the per-product markers
+     * @param executor Runs the transactions of one file concurrently
+     */
+    public ProductSummaryStore(DynamoDbClient dynamoDbClient, String tableName, IdempotencyStore ledger,
+                               ExecutorService executor) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.ledger = ledger;
+        this.executor = executor;
+    }
+
+    /**
+     * Applies the aggregates of one file, in transactions of up to 50 products with several in flight.
+     * Products already added for the same object version are skipped, so the whole file can be
+     * applied again after some of its products failed. Products whose name is longer than a
+     * DynamoDB key may be are left out and counted, since no retry could ever store them.
+     * @param aggregates Per-product aggregates of the file
+     * @param objectId Identifier from {@link IdempotencyStore#objectId}, or null if the file has none;
+     *                 without it, or without the ledger table, a repeated apply adds the file again
+     * @return Number of products whose update failed and number left out
+     */
+    public SummaryUpdateResult apply(List<ProductAggregate> aggregates, String objectId) {
+        if (!tableAvailable || aggregates.isEmpty()) {
+            return SummaryUpdateResult.NONE;
+        }
+
+        // Step 1: Pair each product with its ledger marker, leaving out names that cannot be keys
+        List<ProductUpdate> updates = new ArrayList<>(aggregates.size());
+        boolean marked = false;
+        int skipped = 0;
+        for (ProductAggregate aggregate : aggregates) {
+            String productName = aggregate.getProductName();
+            // DynamoDB keys cannot be empty strings
+            if (productName.isEmpty()) {
+                continue;
+            }
+            if (!fitsKey(productName)) {
+                skipped++;
+                continue;
+            }
+            Put marker = objectId != null ? ledger.summaryMarker(objectId, productName) : null;
+            marked |= marker != null;
+            updates.add(new ProductUpdate(aggregate, marker));
+        }
+        if (updates.isEmpty()) {
+            return new SummaryUpdateResult(0, skipped);
+        }
+
+        // Step 2: Write the products in groups that fit one transaction
+        int perTransaction = marked ? MAX_TRANSACTION_ITEMS / 2 : MAX_TRANSACTION_ITEMS;
+        List<List<ProductUpdate>> groups = new ArrayList<>();
+        List<Future<?>> pending = new ArrayList<>();
+        for (int from = 0; from < updates.size(); from += perTransaction) {
+            List<ProductUpdate> group = updates.subList(from, Math.min(from + perTransaction, updates.size()));
+            groups.add(group);
+            pending.add(executor.submit(() -> {
+                applyGroup(group);
+                return null;
+            }));
+        }
+
+        // Every group is waited for, so the count covers the whole file even when the table disappears part way
+        int failed = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            try {
+                pending.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while updating product summaries", e);
+            } catch (ExecutionException e) {
+                failed += groups.get(i).size();
+                if (e.getCause() instanceof ResourceNotFoundException) {
+                    if (tableAvailable) {
+                        // Later files skip the summary; this one still reports the products it missed
+                        tableAvailable = false;
+                        System.err.println("Product summary table " + tableName + " not found; aggregates are not kept");
+                    }
+                } else if (RecordLog.sampled()) {
+                    // The count reaches the result and the SummaryUpdatesFailed metric; the cause is sampled
+                    System.err.println("Failed to update product summary: " + e.getCause().getMessage());
+                }
+            }
+        }
+        return new SummaryUpdateResult(failed, skipped);
+    }
+
+    /**
+     * Writes one group of products in a transaction, retried until it commits. A product whose
+     * marker exists was already added by an earlier delivery and is dropped; one whose stored
+     * count was not the expected one is retried with the item the cancellation returned.
+     */
+    private void applyGroup(List<ProductUpdate> group) throws InterruptedException {
+        List<ProductUpdate> remaining = group;
+        for (int attempt = 1; ; attempt++) {
+            List<TransactWriteItem> items = new ArrayList<>(remaining.size() * 2);
+            for (ProductUpdate update : remaining) {
+                if (update.marker != null) {
+                    items.add(TransactWriteItem.builder().put(update.marker).build());
+                }
+                items.add(TransactWriteItem.builder().update(update.toUpdate(tableName)).build());
+            }
+
+            TransactionCanceledException cancelled;
+            try {
+                dynamoDbClient.transactWriteItems(TransactWriteItemsRequest.builder().transactItems(items).build());
+                return;
+            } catch (TransactionCanceledException e) {
+                cancelled = e;
+            }
+
+            // Step 1: Read the outcome of each product from the reasons, which follow the item order
+            List<CancellationReason> reasons = cancelled.hasCancellationReasons()
+                    ? cancelled.cancellationReasons() : Collections.emptyList();
+            boolean conflicted = reasons.size() != items.size();
+            List<ProductUpdate> retry = new ArrayList<>(remaining.size());
+            int index = 0;
+            for (ProductUpdate update : remaining) {
+                CancellationReason markerReason = null;
+                if (update.marker != null) {
+                    markerReason = index < reasons.size() ? reasons.get(index) : null;
+                    index++;
+                }
+                CancellationReason updateReason = index < reasons.size() ? reasons.get(index) : null;
+                index++;
+                if (markerReason != null && CONDITION_FAILED.equals(markerReason.code())) {
+                    continue;
+                }
+                if (updateReason != null && CONDITION_FAILED.equals(updateReason.code())) {
+                    // Known items only fail when another invocation updated them in between
+                    conflicted |= update.stored != null;
+                    update.stored = updateReason.hasItem() && !updateReason.item().isEmpty()
+                            ? updateReason.item() : null;
+                } else if (isFailure(markerReason) || isFailure(updateReason)) {
+                    conflicted = true;
+                }
+                retry.add(update);
+            }
+            if (retry.isEmpty()) {
+                return;
+            }
+
+            // Step 2: Retry the rest, at once if only first attempts missed the stored items
+            if (attempt == MAX_TRANSACTION_ATTEMPTS) {
+                throw cancelled;
+            }
+            if (conflicted) {
+                long ceiling = Math.min(BACKOFF_CAP_MILLIS, BACKOFF_BASE_MILLIS << attempt);
+                Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+            }
+            remaining = retry;
+        }
+    }
+
+    private static boolean isFailure(CancellationReason reason) {
+        return reason != null && reason.code() != null && !NO_FAILURE.equals(reason.code());
+    }
+
+    /**
+     * @return Whether the name fits a summary key and a ledger marker key
+     */
+    static boolean fitsKey(String productName) {
+        // Three bytes per char is the most UTF-8 needs, since supplementary characters take two chars
+        if (productName.length() * 3 <= MAX_PRODUCT_NAME_BYTES) {
+            return true;
+        }
+        return productName.getBytes(StandardCharsets.UTF_8).length <= MAX_PRODUCT_NAME_BYTES;
+    }
+
+    /**
+     * @param productName Product name
+     * @return Partition of the ranking index the product is kept in
+     */
+    public static String rankingShard(String productName) {
+        return Integer.toString(Math.floorMod(productName.hashCode(), RANKING_SHARDS));
+    }
+
+    /**
+     * One product of a file, with its ledger marker and what its last cancellation showed of the stored item
+     */
+    private static final class ProductUpdate {
+        private final ProductAggregate aggregate;
+        private final Put marker;
+        // Null until a cancellation returns the stored item; the first attempt assumes the product is new
+        private Map<String, AttributeValue> stored;
+
+        ProductUpdate(ProductAggregate aggregate, Put marker) {
+            this.aggregate = aggregate;
+            this.marker = marker;
+        }
+
+        /**
+         * Builds the update that adds the file's count and rating sum and sets the totals derived from
+         * them, valid only while the stored count is the one they were computed from
+         */
+        Update toUpdate(String tableName) {
+            String productName = aggregate.getProductName();
+            ProductAggregate before = stored != null ? toAggregate(stored) : new ProductAggregate(productName);
+            long reviewCount = before.getReviewCount() + aggregate.getReviewCount();
+            double ratingSum = before.getRatingSum() + aggregate.getRatingSum();
+
+            Map<String, AttributeValue> key = new HashMap<>();
+            key.put(KEY_ATTRIBUTE, string(productName));
+            Map<String, String> names = new HashMap<>();
+            names.put("#count", COUNT_ATTRIBUTE);
+            names.put("#ratingSum", RATING_SUM_ATTRIBUTE);
+            names.put("#ratingMin", RATING_MIN_ATTRIBUTE);
+            names.put("#ratingMax", RATING_MAX_ATTRIBUTE);
+            names.put("#priceMin", PRICE_MIN_ATTRIBUTE);
+            names.put("#priceMax", PRICE_MAX_ATTRIBUTE);
+            names.put("#average", AVERAGE_RATING_ATTRIBUTE);
+            names.put("#shard", RANK_SHARD_ATTRIBUTE);
+            Map<String, AttributeValue> values = new HashMap<>();
+            values.put(":count", AttributeValue.builder().n(Long.toString(aggregate.getReviewCount())).build());
+            values.put(":ratingSum", number(aggregate.getRatingSum()));
+            values.put(":ratingMin", number(Math.min(before.getRatingMin(), aggregate.getRatingMin())));
+            values.put(":ratingMax", number(Math.max(before.getRatingMax(), aggregate.getRatingMax())));
+            values.put(":priceMin", number(Math.min(before.getPriceMin(), aggregate.getPriceMin())));
+            values.put(":priceMax", number(Math.max(before.getPriceMax(), aggregate.getPriceMax())));
+            values.put(":average", number(ratingSum / reviewCount));
+            values.put(":shard", string(rankingShard(productName)));
+
+            // The stored count is compared as stored, so its number format cannot make the condition fail
+            AttributeValue storedCount = stored != null ? stored.get(COUNT_ATTRIBUTE) : null;
+            String condition;
+            if (storedCount != null) {
+                values.put(":storedCount", storedCount);
+                condition = "#count = :storedCount";
+            } else {
+                condition = "attribute_not_exists(#count)";
+            }
+
+            return Update.builder()
+                    .tableName(tableName)
+                    .key(key)
+                    .updateExpression("ADD #count :count, #ratingSum :ratingSum SET #ratingMin = :ratingMin, "
+                            + "#ratingMax = :ratingMax, #priceMin = :priceMin, #priceMax = :priceMax, "
+                            + "#average = :average, #shard = :shard")
+                    .conditionExpression(condition)
+                    .expressionAttributeNames(names)
+                    .expressionAttributeValues(values)
+                    .returnValuesOnConditionCheckFailure(ReturnValuesOnConditionCheckFailure.ALL_OLD)
+                    .build();
+        }
+    }
+
+    /**
+     * Reads a summary item back into an aggregate; extremes not yet set read as infinite
+     * @param item Item of the summary table
+     * @return Aggregate of everything ingested for the product so far
+     */
+    public static ProductAggregate toAggregate(Map<String, AttributeValue> item) {
+        return new ProductAggregate(item.get(KEY_ATTRIBUTE).s(),
+                (long) numberOr(item, COUNT_ATTRIBUTE, 0),
+                numberOr(item, RATING_SUM_ATTRIBUTE, 0),
+                numberOr(item, RATING_MIN_ATTRIBUTE, Double.POSITIVE_INFINITY),
+                numberOr(item, RATING_MAX_ATTRIBUTE, Double.NEGATIVE_INFINITY),
+                numberOr(item, PRICE_MIN_ATTRIBUTE, Double.POSITIVE_INFINITY),
+                numberOr(item, PRICE_MAX_ATTRIBUTE, Double.NEGATIVE_INFINITY));
+    }
+
+    private static double numberOr(Map<String, AttributeValue> item, String attribute, double missing) {
+        AttributeValue value = item.get(attribute);
+        return value != null ? Double.parseDouble(value.n()) : missing;
+    }
+
+    private static AttributeValue string(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+
+    private static AttributeValue number(double value) {
+        return AttributeValue.builder().n(Double.toString(value)).build();
+    }
+}
@@ -0,0 +1,170 @@
+package com.zliang19.service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * In-process read cache bounded by entry count and time to live, least recently used
+ * entries evicted first. Concurrent misses on the same key are coalesced: one caller
+ * runs the loader and the others wait for its result, so a hot key that expires costs
+ * one backend request rather than one per waiting caller.
+ *
+ * Invalidating a key drops its entry and detaches any load in flight, so a load that
+ * started before the invalidation never puts its possibly stale result in the cache.
+ *
+ * @param <K> Key type
+ * @param <V> Value type; values are shared between callers and should not be modified
+ */
+public class QueryCache<K, V> {
+
+    private static final class CachedValue<V> {
+        final V value;
+        final long expiresAt;
+
+        CachedValue(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final long ttlNanos;
+
+    // Cached values, least recently used first; guarded by this
+    private final LinkedHashMap<K, CachedValue<V>> entries;
+
+    // Loads in flight per key; guarded by this
+    private final Map<K, CompletableFuture<V>> loads = new HashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * @param maxEntries Number of keys kept
+     * @param ttlMillis How long a loaded value is served; 0 disables caching but keeps coalescing
+     */
+    public QueryCache(int maxEntries, long ttlMillis) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.entries = new LinkedHashMap<K, CachedValue<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CachedValue<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value of a key, loading it on a miss or after it expired
+     * @param key Key to look up
+     * @param loader Loads the value; runs on the calling thread, without any lock held
+     * @return Cached or freshly loaded value
+     * @throws RuntimeException Whatever the loader threw, rethrown to every caller waiting on that load
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        // Step 1: Serve a fresh entry, or join or start the load of the key
+        CompletableFuture<V> load;
+        boolean owner = false;
+        synchronized (this) {
+            CachedValue<V> entry = entries.get(key);
+            if (entry != null) {
+                if (System.nanoTime() - entry.expiresAt < 0) {
+                    hits.increment();
+                    return entry.value;
+                }
+                entries.remove(key);
+            }
+            load = loads.get(key);
+            if (load == null) {
+                load = new CompletableFuture<>();
+                loads.put(key, load);
+                owner = true;
+                misses.increment();
+            } else {
+                coalesced.increment();
+            }
+        }
+
+        if (!owner) {
+            return await(load);
+        }
+
+        // Step 2: Load, and cache the value unless the key was invalidated in the meantime
+        V value;
+        try {
+            value = loader.apply(key);
+        } catch (RuntimeException | Error e) {
+            synchronized (this) {
+                loads.remove(key, load);
+            }
+            load.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (this) {
+            if (loads.remove(key, load) && ttlNanos > 0) {
+                entries.put(key, new CachedValue<>(value, System.nanoTime() + ttlNanos));
+            }
+        }
+        load.complete(value);
+        return value;
+    }
+
+    /**
+     * Drops a key, so the next lookup loads it again
+     */
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+        loads.remove(key);
+    }
+
+    /**
+     * Drops every key
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        loads.clear();
+    }
+
+    /**
+     * @return Lookups served from the cache
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Lookups that ran the loader
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Lookups that waited on another caller's load instead of running the loader
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    private static <V> V await(CompletableFuture<V> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.zliang19.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+
+/**
+ * Input stream over an S3 object that downloads fixed-size byte ranges concurrently
+ * and hands them out in order. At most {@code window} ranges are buffered at once,
+ * so memory stays at window * partSize regardless of object size.
+ */
+public class RangedObjectInputStream extends InputStream {
+
+    private final S3Client s3Client;
+    private final ExecutorService executor;
+    private final String bucketName;
+    private final String objectKey;
+    private final String eTag;
+    private final long objectLength;
+    private final int partSize;
+    private final Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+
+    private long nextRangeStart;
+    private byte[] current = new byte[0];
+    private int position;
+    private boolean closed;
+
+    /**
+     * @param s3Client S3 client used for the ranged GET requests
+     * @param executor Executor the range downloads run on
+     * @param bucketName The name of the S3 bucket
+     * @param objectKey The key of the S3 object
+     * @param eTag ETag every range must match, so a concurrent overwrite fails instead of mixing versions
+     * @param objectLength Total object size in bytes
+     * @param partSize Size of each ranged request in bytes
+     * @param window Maximum number of ranges downloading or buffered at once
+     */
+    public RangedObjectInputStream(S3Client s3Client, ExecutorService executor, String bucketName,
+                                   String objectKey, String eTag, long objectLength, int partSize, int window) {
+        this.s3Client = s3Client;
+        this.executor = executor;
+        this.bucketName = bucketName;
+        this.objectKey = objectKey;
+        this.eTag = eTag;
+        this.objectLength = objectLength;
+        this.partSize = partSize;
+
+        while (inFlight.size() < window && nextRangeStart < objectLength) {
+            scheduleNextRange();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int count = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return current.length - position;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Future<byte[]> pending : inFlight) {
+            pending.cancel(true);
+        }
+        inFlight.clear();
+        current = new byte[0];
+        position = 0;
+    }
+
+    /**
+     * Moves to the next downloaded range when the current one is used up
+     * @return false at the end of the object
+     */
+    private boolean ensureData() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (position >= current.length) {
+            Future<byte[]> next = inFlight.pollFirst();
+            if (next == null) {
+                return false;
+            }
+            try {
+                current = next.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while downloading s3://" + bucketName + "/" + objectKey, e);
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to download range of s3://" + bucketName + "/" + objectKey
+                        + ": " + e.getCause().getMessage(), e.getCause());
+            }
+            position = 0;
+
+            // Keep the window full now that a slot has been released
+            if (nextRangeStart < objectLength) {
+                scheduleNextRange();
+            }
+        }
+        return true;
+    }
+
+    private void scheduleNextRange() {
+        long start = nextRangeStart;
+        long end = Math.min(start + partSize, objectLength) - 1;
+        nextRangeStart = end + 1;
+
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(objectKey)
+                .range("bytes=" + start + "-" + end)
+                .ifMatch(eTag)
+                .build();
+
+        inFlight.addLast(executor.submit(() -> s3Client.getObjectAsBytes(request).asByteArrayUnsafe()));
+    }
+}
@@ -0,0 +1,37 @@
+package com.zliang19.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Gate for log lines written per record or per review. They are off by default, since
+ * at high volume log I/O becomes a real share of billed duration; RECORD_LOG_SAMPLE_RATE
+ * turns them on for a fraction of calls (1 logs everything, 0.01 logs about one in a hundred).
+ * Errors that fail a record are always logged, once, by the handler with the object key;
+ * services that rethrow such an error, or report it in their result, only add a sampled line.
+ */
+public final class RecordLog {
+
+    private static final double SAMPLE_RATE = parseRate(System.getenv("RECORD_LOG_SAMPLE_RATE"));
+
+    private RecordLog() {
+    }
+
+    /**
+     * @return Whether the caller should write its per-record log line this time
+     */
+    public static boolean sampled() {
+        return SAMPLE_RATE >= 1.0 || (SAMPLE_RATE > 0 && ThreadLocalRandom.current().nextDouble() < SAMPLE_RATE);
+    }
+
+    private static double parseRate(String configured) {
+        if (configured == null || configured.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Math.min(1, Double.parseDouble(configured.trim())));
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid RECORD_LOG_SAMPLE_RATE: " + configured);
+            return 0;
+        }
+    }
+}
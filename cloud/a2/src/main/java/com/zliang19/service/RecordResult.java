@@ -0,0 +1,69 @@
+package com.zliang19.service;
+
+/**
+ * Outcome of handling one record of an S3 event
+ */
+public class RecordResult {
+
+    public enum Status {
+        PROCESSED,
+        SKIPPED,
+        FAILED
+    }
+
+    private final String objectKey;
+    private final Status status;
+    private final IngestResult ingestResult;
+    private final String message;
+
+    private RecordResult(String objectKey, Status status, IngestResult ingestResult, String message) {
+        this.objectKey = objectKey;
+        this.status = status;
+        this.ingestResult = ingestResult;
+        this.message = message;
+    }
+
+    public static RecordResult processed(String objectKey, IngestResult ingestResult) {
+        return new RecordResult(objectKey, Status.PROCESSED, ingestResult, null);
+    }
+
+    public static RecordResult skipped(String objectKey, String reason) {
+        return new RecordResult(objectKey, Status.SKIPPED, null, reason);
+    }
+
+    public static RecordResult failed(String objectKey, IngestResult ingestResult, String error) {
+        return new RecordResult(objectKey, Status.FAILED, ingestResult, error);
+    }
+
+    public String getObjectKey() {
+        return objectKey;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return Ingest outcome, or null if the file was skipped or failed before writing
+     */
+    public IngestResult getIngestResult() {
+        return ingestResult;
+    }
+
+    /**
+     * @return Skip reason or error description, or null for processed records
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordResult{" +
+                "objectKey='" + objectKey + '\'' +
+                ", status=" + status +
+                (ingestResult != null ? ", written=" + ingestResult.getWrittenCount() + "/" + ingestResult.getParsedCount() : "") +
+                (message != null ? ", message='" + message + '\'' : "") +
+                '}';
+    }
+}
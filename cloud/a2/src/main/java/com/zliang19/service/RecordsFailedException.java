@@ -0,0 +1,36 @@
+package com.zliang19.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by the handler when records of an event failed. Failing the invocation makes Lambda
+ * retry the asynchronous event; records that were already ingested are skipped on the retry.
+ */
+public class RecordsFailedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> failedObjectKeys;
+
+    /**
+     * @param failures Outcomes of the failed records
+     * @param recordCount Number of records in the event
+     */
+    public RecordsFailedException(List<RecordResult> failures, int recordCount) {
+        super(failures.size() + " of " + recordCount + " records failed: " + failures);
+        List<String> keys = new ArrayList<>();
+        for (RecordResult failure : failures) {
+            keys.add(failure.getObjectKey());
+        }
+        this.failedObjectKeys = Collections.unmodifiableList(keys);
+    }
+
+    /**
+     * @return Keys of the objects whose records failed, in event order
+     */
+    public List<String> getFailedObjectKeys() {
+        return failedObjectKeys;
+    }
+}
@@ -0,0 +1,63 @@
+package com.zliang19.service;
+
+import java.util.function.Consumer;
+
+import com.zliang19.model.ProductNameDictionary;
+import com.zliang19.model.ReviewBatch;
+
+/**
+ * Fills fixed-size ReviewBatches for a parser and hands each one on as soon as it is full
+ */
+public class ReviewBatchBuilder {
+
+    private final int batchSize;
+    private final ProductNameDictionary productNames;
+    private final Consumer<ReviewBatch> consumer;
+    private ReviewBatch current;
+    private int parsedCount;
+    private int rejectedCount;
+
+    /**
+     * @param batchSize Rows per batch
+     * @param productNames Dictionary the batches encode product names with, or null
+     * @param consumer Receives each batch once it is full, and the last one from {@link #finish()}
+     */
+    public ReviewBatchBuilder(int batchSize, ProductNameDictionary productNames, Consumer<ReviewBatch> consumer) {
+        this.batchSize = batchSize;
+        this.productNames = productNames;
+        this.consumer = consumer;
+    }
+
+    /**
+     * @return Batch with room for at least one more row
+     */
+    public ReviewBatch batch() {
+        if (current != null && current.isFull()) {
+            emit();
+        }
+        if (current == null) {
+            current = new ReviewBatch(batchSize, productNames);
+        }
+        return current;
+    }
+
+    /**
+     * Hands on the partly filled last batch
+     * @return Number of valid and rejected rows in all batches handed on
+     */
+    public ParseResult finish() {
+        if (current != null && current.size() > 0) {
+            emit();
+        }
+        current = null;
+        return new ParseResult(parsedCount, rejectedCount);
+    }
+
+    private void emit() {
+        parsedCount += current.getValidCount();
+        rejectedCount += current.getRejectedCount();
+        ReviewBatch full = current;
+        current = null;
+        consumer.accept(full);
+    }
+}
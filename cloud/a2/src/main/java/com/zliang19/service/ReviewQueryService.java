@@ -0,0 +1,235 @@
+package com.zliang19.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.zliang19.model.ProductAggregate;
+import com.zliang19.model.ProductReview;
+import com.zliang19.model.ProductReviewSchema;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+
+/**
+ * Read side of the ProductReview table, for the functions that serve lookups; the ingest
+ * Lambda never builds one. Reviews of a product are fetched with a Query on a global
+ * secondary index keyed by ProductName, so a lookup reads only that product's items instead
+ * of scanning the table. Product rankings come from the ranking index of the per-product
+ * summary table, which {@link ProductSummaryStore} keeps sorted by average rating in
+ * {@link ProductSummaryStore#RANKING_SHARDS} partitions: a ranking reads the top of each
+ * partition, down to the requested number of products, rather than every product.
+ *
+ * Results are kept in {@link QueryCache}s, bounded by entry count and time to live, and
+ * concurrent misses on a hot product share one request. Ingests run elsewhere, so cached
+ * results are refreshed by expiry; a caller that writes reviews itself can drop the products
+ * it wrote with {@link #invalidateProducts}. Index reads are eventually consistent: reviews
+ * written moments before a reload may only show up after the next expiry or invalidation.
+ */
+public class ReviewQueryService {
+
+    public static final String DEFAULT_INDEX_NAME = "ProductName-index";
+    public static final String DEFAULT_RANKING_INDEX_NAME = "AverageRating-index";
+
+    // Tables and indexes, and the caches in front of them, as configured for the reading function
+    private static final String REVIEW_TABLE_ENV = "REVIEW_TABLE";
+    private static final String DEFAULT_REVIEW_TABLE = "ProductReview";
+    private static final String PRODUCT_NAME_INDEX_ENV = "PRODUCT_NAME_INDEX";
+    private static final String RANKING_INDEX_ENV = "PRODUCT_RANKING_INDEX";
+    private static final String QUERY_CACHE_SIZE_ENV = "REVIEW_QUERY_CACHE_SIZE";
+    private static final String QUERY_CACHE_TTL_ENV = "REVIEW_QUERY_CACHE_TTL_SECONDS";
+    private static final String QUERY_MAX_REVIEWS_ENV = "REVIEW_QUERY_MAX_REVIEWS";
+    private static final long DEFAULT_QUERY_CACHE_SIZE = 1024;
+    private static final long DEFAULT_QUERY_CACHE_TTL_SECONDS = 60;
+    private static final long DEFAULT_QUERY_MAX_REVIEWS = 1000;
+
+    // Rankings are cached per limit and minimum review count; few distinct ones are asked for
+    private static final int RANKING_CACHE_SIZE = 64;
+    private static final int MAX_RANKING_PAGE_SIZE = 100;
+
+    private static final Comparator<ProductAggregate> BY_AVERAGE_RATING =
+            Comparator.comparingDouble(ProductAggregate::getAverageRating).reversed()
+                    .thenComparing(Comparator.comparingLong(ProductAggregate::getReviewCount).reversed())
+                    .thenComparing(ProductAggregate::getProductName);
+
+    private final DynamoDbClient dynamoDbClient;
+    private final String reviewTable;
+    private final String indexName;
+    private final String summaryTable;
+    private final String rankingIndexName;
+    private final int maxReviewsPerProduct;
+    private final QueryCache<String, List<ProductReview>> reviewsByProduct;
+    private final QueryCache<String, List<ProductAggregate>> ranking;
+
+    /**
+     * @param dynamoDbClient DynamoDB client
+     * @param reviewTable Review table
+     * @param indexName Global secondary index of the review table with ProductName as partition key
+     * @param summaryTable Per-product summary table maintained by {@link ProductSummaryStore}
+     * @param rankingIndexName Global secondary index of the summary table with RankShard as partition key
+     *                         and AverageRating as sort key
+     * @param cacheSize Number of products whose reviews are cached
+     * @param ttlMillis How long cached results are served
+     * @param maxReviewsPerProduct Most reviews returned, and cached, for one product
+     */
+    public ReviewQueryService(DynamoDbClient dynamoDbClient, String reviewTable, String indexName,
+                              String summaryTable, String rankingIndexName, int cacheSize, long ttlMillis,
+                              int maxReviewsPerProduct) {
+        if (maxReviewsPerProduct < 1) {
+            throw new IllegalArgumentException("maxReviewsPerProduct must be at least 1");
+        }
+        this.dynamoDbClient = dynamoDbClient;
+        this.reviewTable = reviewTable;
+        this.indexName = indexName;
+        this.summaryTable = summaryTable;
+        this.rankingIndexName = rankingIndexName;
+        this.maxReviewsPerProduct = maxReviewsPerProduct;
+        this.reviewsByProduct = new QueryCache<>(cacheSize, ttlMillis);
+        this.ranking = new QueryCache<>(RANKING_CACHE_SIZE, ttlMillis);
+    }
+
+    /**
+     * Creates the service from the reading function's environment: REVIEW_TABLE, PRODUCT_NAME_INDEX,
+     * PRODUCT_SUMMARY_TABLE, PRODUCT_RANKING_INDEX and the REVIEW_QUERY_* cache settings
+     * @param dynamoDbClient DynamoDB client; owned by the caller
+     * @return Service over the configured tables
+     */
+    public static ReviewQueryService fromEnvironment(DynamoDbClient dynamoDbClient) {
+        return new ReviewQueryService(dynamoDbClient,
+                envString(REVIEW_TABLE_ENV, DEFAULT_REVIEW_TABLE),
+                envString(PRODUCT_NAME_INDEX_ENV, DEFAULT_INDEX_NAME),
+                envString(ProductSummaryStore.TABLE_ENV, ProductSummaryStore.DEFAULT_TABLE_NAME),
+                envString(RANKING_INDEX_ENV, DEFAULT_RANKING_INDEX_NAME),
+                (int) EnvConfig.envLong(QUERY_CACHE_SIZE_ENV, DEFAULT_QUERY_CACHE_SIZE),
+                EnvConfig.envLong(QUERY_CACHE_TTL_ENV, DEFAULT_QUERY_CACHE_TTL_SECONDS) * 1000,
+                (int) EnvConfig.envLong(QUERY_MAX_REVIEWS_ENV, DEFAULT_QUERY_MAX_REVIEWS));
+    }
+
+    /**
+     * @param productName Product to look up
+     * @return Up to maxReviewsPerProduct reviews of the product, in index order; shared, do not modify
+     */
+    public List<ProductReview> getReviewsForProduct(String productName) {
+        return reviewsByProduct.get(productName, this::queryReviews);
+    }
+
+    /**
+     * @param limit Most products returned
+     * @param minReviews Products with fewer reviews are left out, so one five-star review does not top the list
+     * @return Products by descending average rating, then by review count; shared, do not modify
+     */
+    public List<ProductAggregate> getTopRatedProducts(int limit, long minReviews) {
+        return ranking.get(limit + "/" + minReviews, key -> rankProducts(limit, minReviews));
+    }
+
+    /**
+     * Drops cached results that new reviews of these products make stale. Rankings are left
+     * to expire, since nearly any ingest changes them.
+     * @param productNames Products that received reviews
+     */
+    public void invalidateProducts(Collection<String> productNames) {
+        for (String productName : productNames) {
+            reviewsByProduct.invalidate(productName);
+        }
+    }
+
+    /**
+     * Drops the cached rankings, so the next lookups read the ranking index again
+     */
+    public void invalidateRanking() {
+        ranking.invalidateAll();
+    }
+
+    /**
+     * @return Cache of per-product review lists, for its hit and coalescing counters
+     */
+    public QueryCache<String, List<ProductReview>> getReviewCache() {
+        return reviewsByProduct;
+    }
+
+    private List<ProductReview> queryReviews(String productName) {
+        List<ProductReview> reviews = new ArrayList<>();
+        Map<String, AttributeValue> startKey = null;
+        do {
+            QueryResponse response = dynamoDbClient.query(QueryRequest.builder()
+                    .tableName(reviewTable)
+                    .indexName(indexName)
+                    .keyConditionExpression("#name = :name")
+                    .expressionAttributeNames(Collections.singletonMap("#name", ProductReviewSchema.PRODUCT_NAME))
+                    .expressionAttributeValues(Collections.singletonMap(":name",
+                            AttributeValue.builder().s(productName).build()))
+                    .limit(maxReviewsPerProduct - reviews.size())
+                    .exclusiveStartKey(startKey)
+                    .build());
+            for (Map<String, AttributeValue> item : response.items()) {
+                reviews.add(ProductReviewSchema.TABLE_SCHEMA.mapToItem(item));
+            }
+            startKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty()
+                    ? response.lastEvaluatedKey() : null;
+        } while (startKey != null && reviews.size() < maxReviewsPerProduct);
+        return Collections.unmodifiableList(reviews);
+    }
+
+    /**
+     * Reads each ranking shard from its best product down, until it has yielded limit qualifying
+     * products and the next one rates lower than the last of them, then merges the shards
+     */
+    private List<ProductAggregate> rankProducts(int limit, long minReviews) {
+        List<ProductAggregate> products = new ArrayList<>();
+        for (int shard = 0; shard < ProductSummaryStore.RANKING_SHARDS; shard++) {
+            readShard(Integer.toString(shard), limit, minReviews, products);
+        }
+        products.sort(BY_AVERAGE_RATING);
+        return Collections.unmodifiableList(products.size() > limit
+                ? new ArrayList<>(products.subList(0, limit)) : products);
+    }
+
+    private void readShard(String shard, int limit, long minReviews, List<ProductAggregate> products) {
+        Map<String, String> names = new HashMap<>();
+        names.put("#shard", ProductSummaryStore.RANK_SHARD_ATTRIBUTE);
+        // One more than the limit shows whether the next product ties with the last one taken
+        int pageSize = (int) Math.min((long) limit + 1, MAX_RANKING_PAGE_SIZE);
+        int taken = 0;
+        double lowest = Double.NaN;
+        Map<String, AttributeValue> startKey = null;
+        do {
+            QueryResponse response = dynamoDbClient.query(QueryRequest.builder()
+                    .tableName(summaryTable)
+                    .indexName(rankingIndexName)
+                    .keyConditionExpression("#shard = :shard")
+                    .expressionAttributeNames(names)
+                    .expressionAttributeValues(Collections.singletonMap(":shard",
+                            AttributeValue.builder().s(shard).build()))
+                    .scanIndexForward(false)
+                    .limit(pageSize)
+                    .exclusiveStartKey(startKey)
+                    .build());
+            for (Map<String, AttributeValue> item : response.items()) {
+                double average = Double.parseDouble(item.get(ProductSummaryStore.AVERAGE_RATING_ATTRIBUTE).n());
+                // Products tied with the last one taken are read too, so the merge can order ties by count
+                if (taken >= limit && average < lowest) {
+                    return;
+                }
+                ProductAggregate product = ProductSummaryStore.toAggregate(item);
+                if (product.getReviewCount() >= minReviews && product.getReviewCount() > 0) {
+                    products.add(product);
+                    taken++;
+                    lowest = average;
+                }
+            }
+            startKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty()
+                    ? response.lastEvaluatedKey() : null;
+        } while (startKey != null);
+    }
+
+    private static String envString(String name, String defaultValue) {
+        String configured = System.getenv(name);
+        return configured != null && !configured.isEmpty() ? configured : defaultValue;
+    }
+}
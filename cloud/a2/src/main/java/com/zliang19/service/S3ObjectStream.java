@@ -0,0 +1,28 @@
+package com.zliang19.service;
+
+import java.io.FilterInputStream;
+import java.io.InputStream;
+
+/**
+ * Raw content of an S3 object together with the object's Content-Encoding
+ */
+public class S3ObjectStream extends FilterInputStream {
+
+    private final String contentEncoding;
+
+    /**
+     * @param content Object content; closed when this stream is closed
+     * @param contentEncoding Content-Encoding of the object, or null if it has none
+     */
+    public S3ObjectStream(InputStream content, String contentEncoding) {
+        super(content);
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * @return Content-Encoding of the object, or null if it has none
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+}
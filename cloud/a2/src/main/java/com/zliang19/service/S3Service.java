@@ -1,27 +1,47 @@
 package com.zliang19.service;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import software.amazon.awssdk.core.ResponseInputStream;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 
 /**
  * Service class for S3 operations
  */
 public class S3Service {
     
+    // Objects at least this large are downloaded as concurrent byte ranges
+    private static final long RANGED_READ_THRESHOLD = 64L * 1024 * 1024;
+    private static final int RANGE_PART_SIZE = 8 * 1024 * 1024;
+    private static final int RANGE_PARALLELISM = 4;
+    
     private final S3Client s3Client;
+    private final ExecutorService rangeExecutor;
     
     public S3Service() {
-        this.s3Client = S3Client.builder()
-                .region(Region.US_EAST_1)
-                .build();
+        this(ClientFactory.s3Client());
+    }
+    
+    /**
+     * @param s3Client S3 client to read objects with; closed by {@link #close()}
+     */
+    public S3Service(S3Client s3Client) {
+        this.s3Client = s3Client;
+        
+        this.rangeExecutor = Executors.newFixedThreadPool(RANGE_PARALLELISM, runnable -> {
+            Thread thread = new Thread(runnable, "s3-range-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
     
     /**
@@ -32,39 +52,84 @@ public class S3Service {
      * @throws IOException If there's an error reading the object
      */
     public String readObjectContent(String bucketName, String objectKey) throws IOException {
+        try (InputStream content = openObjectStream(bucketName, objectKey, -1)) {
+            String result = new String(content.readAllBytes(), StandardCharsets.UTF_8).trim();
+            if (RecordLog.sampled()) {
+                System.out.println("Successfully read object content from s3://" + bucketName + "/" + objectKey);
+            }
+            return result;
+        }
+    }
+    
+    /**
+     * Opens an S3 object as a byte stream so parsers can consume it without buffering the whole file.
+     * Objects of at least 64 MB are fetched as concurrent byte ranges and reassembled in order.
+     * @param bucketName The name of the S3 bucket
+     * @param objectKey The key of the S3 object
+     * @param objectSize Size from the S3 event, or -1 if unknown; only decides the download mode
+     * @return Stream over the object content as stored, still compressed if it is; the caller must close it
+     * @throws IOException If the object cannot be opened
+     */
+    public S3ObjectStream openObjectStream(String bucketName, String objectKey, long objectSize) throws IOException {
         try {
+            if (objectSize >= RANGED_READ_THRESHOLD) {
+                return openRangedStream(bucketName, objectKey);
+            }
+            
             GetObjectRequest getObjectRequest = GetObjectRequest.builder()
                     .bucket(bucketName)
                     .key(objectKey)
                     .build();
             
             ResponseInputStream<GetObjectResponse> s3Object = s3Client.getObject(getObjectRequest);
-            
-            StringBuilder content = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(s3Object, StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    content.append(line).append("\n");
-                }
-            }
-            
-            String result = content.toString().trim();
-            System.out.println("Successfully read object content from s3://" + bucketName + "/" + objectKey);
-            System.out.println("Content preview: " + result.substring(0, Math.min(100, result.length())) + "...");
-            
-            return result;
+            return new S3ObjectStream(s3Object, s3Object.response().contentEncoding());
             
         } catch (Exception e) {
-            System.err.println("Error reading S3 object: " + e.getMessage());
+            if (RecordLog.sampled()) {
+                System.err.println("Error reading S3 object: " + e.getMessage());
+            }
             throw new IOException("Failed to read S3 object: " + e.getMessage(), e);
         }
     }
     
+    /**
+     * Opens an S3 object as concurrent ranged reads pinned to its current ETag
+     * @param bucketName The name of the S3 bucket
+     * @param objectKey The key of the S3 object
+     * @return Stream over the object content; the caller must close it
+     */
+    private S3ObjectStream openRangedStream(String bucketName, String objectKey) {
+        HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder()
+                .bucket(bucketName)
+                .key(objectKey)
+                .build());
+        
+        if (RecordLog.sampled()) {
+            System.out.println("Reading s3://" + bucketName + "/" + objectKey + " (" + head.contentLength()
+                    + " bytes) as " + RANGE_PARALLELISM + " concurrent ranges");
+        }
+        
+        return new S3ObjectStream(new RangedObjectInputStream(s3Client, rangeExecutor, bucketName, objectKey,
+                head.eTag(), head.contentLength(), RANGE_PART_SIZE, RANGE_PARALLELISM), head.contentEncoding());
+    }
+    
+    /**
+     * Makes one cheap request so the HTTP connection pool and signer are initialized
+     * @param bucketName Bucket to probe
+     */
+    public void prime(String bucketName) {
+        try {
+            s3Client.headBucket(HeadBucketRequest.builder().bucket(bucketName).build());
+        } catch (Exception e) {
+            System.err.println("S3 priming request failed: " + e.getMessage());
+        }
+    }
+    
     /**
      * Close the S3 client
      */
     public void close() {
+        rangeExecutor.shutdownNow();
         if (s3Client != null) {
             s3Client.close();
         }
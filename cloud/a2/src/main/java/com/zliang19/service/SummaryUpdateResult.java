@@ -0,0 +1,43 @@
+package com.zliang19.service;
+
+/**
+ * Outcome of folding one file's product aggregates into the summary table
+ */
+public class SummaryUpdateResult {
+
+    public static final SummaryUpdateResult NONE = new SummaryUpdateResult(0, 0);
+
+    private final int failedCount;
+    private final int skippedCount;
+
+    /**
+     * @param failedCount Number of products whose update failed
+     * @param skippedCount Number of products left out because their name cannot be a DynamoDB key
+     */
+    public SummaryUpdateResult(int failedCount, int skippedCount) {
+        this.failedCount = failedCount;
+        this.skippedCount = skippedCount;
+    }
+
+    /**
+     * @return Number of products whose update failed; applying the file again retries them
+     */
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * @return Number of products never summarized because their name is longer than a key may be
+     */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "SummaryUpdateResult{" +
+                "failed=" + failedCount +
+                ", skipped=" + skippedCount +
+                '}';
+    }
+}
@@ -0,0 +1,370 @@
+package com.zliang19.service;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import com.zliang19.model.ProductReview;
+import com.zliang19.model.ReviewBatch;
+
+/**
+ * Single-pass scanner for the semicolon-delimited review text format:
+ * ProductName: Sony TV, Price: 12000, Review: I loved this product..., Rating: 4.85;
+ *
+ * A comma starts a new field only when it is followed by a "Label:" token, so values
+ * are found in one left-to-right walk over the record without regular expressions,
+ * and numbers are parsed directly from the character buffer.
+ */
+public class TextReviewScanner {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    // Field slots, in the order the text format lists them
+    private static final String[] FIELD_NAMES = {"ProductName", "Price", "Review", "Rating"};
+    private static final int PRODUCT_NAME = 0;
+    private static final int PRICE = 1;
+    private static final int REVIEW = 2;
+    private static final int RATING = 3;
+
+    // Outcomes of matching one record
+    private static final int BLANK = 0;
+    private static final int VALID = 1;
+    private static final int REJECTED = 2;
+
+    // Powers of ten that are exact doubles, used by the fast number path
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Largest digit count whose value is always exact in a double mantissa
+    private static final int MAX_FAST_PATH_DIGITS = 15;
+
+    private final int[] valueStarts = new int[FIELD_NAMES.length];
+    private final int[] valueEnds = new int[FIELD_NAMES.length];
+    private double matchedPrice;
+    private double matchedRating;
+
+    private char[] pending = new char[256];
+    private int pendingLength;
+    private int rejectedCount;
+
+    /**
+     * Reads records until the end of the stream, appending each one to the current batch.
+     * Records that lie entirely within one read buffer are parsed in place; only records
+     * that straddle a buffer boundary are copied.
+     * @param reader Source of the text content; not closed by this method
+     * @param out Receives a row per record, valid or rejected
+     * @return Number of valid reviews appended
+     * @throws IOException If reading fails
+     */
+    public int scan(Reader reader, ReviewBatchBuilder out) throws IOException {
+        char[] chunk = new char[READ_BUFFER_SIZE];
+        int count = 0;
+        int read;
+        pendingLength = 0;
+
+        while ((read = reader.read(chunk)) != -1) {
+            int recordStart = 0;
+            for (int i = 0; i < read; i++) {
+                if (chunk[i] != ';') {
+                    continue;
+                }
+                if (pendingLength == 0) {
+                    count += appendRecord(chunk, recordStart, i, out);
+                } else {
+                    appendPending(chunk, recordStart, i);
+                    count += appendRecord(pending, 0, pendingLength, out);
+                    pendingLength = 0;
+                }
+                recordStart = i + 1;
+            }
+            appendPending(chunk, recordStart, read);
+        }
+
+        // The last record has no terminating semicolon
+        count += appendRecord(pending, 0, pendingLength, out);
+        pendingLength = 0;
+        return count;
+    }
+
+    /**
+     * Parses every record in an in-memory buffer; the text after the last semicolon is the final record
+     * @param buffer Buffer holding whole records
+     * @param start Index of the first character
+     * @param end Index just past the last character
+     * @param out Receives a row per record, valid or rejected
+     * @return Number of valid reviews appended
+     */
+    public int scan(char[] buffer, int start, int end, ReviewBatchBuilder out) {
+        int count = 0;
+        int recordStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i < end && buffer[i] != ';') {
+                continue;
+            }
+            count += appendRecord(buffer, recordStart, i, out);
+            recordStart = i + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Parses one record, i.e. the characters between two semicolons
+     * @param buffer Buffer holding the record
+     * @param start Index of the first character of the record
+     * @param end Index just past the last character of the record
+     * @return ProductReview object, or null if the record is blank or invalid
+     */
+    public ProductReview parseRecord(char[] buffer, int start, int end) {
+        if (match(buffer, start, end) != VALID) {
+            return null;
+        }
+        return new ProductReview(null, value(buffer, PRODUCT_NAME), matchedPrice, value(buffer, REVIEW),
+                matchedRating);
+    }
+
+    /**
+     * Parses one record into the current batch, encoding the name and copying the comment characters.
+     * A blank record adds no row; an invalid one adds a rejected row.
+     * @return 1 if a valid row was added, otherwise 0
+     */
+    private int appendRecord(char[] buffer, int start, int end, ReviewBatchBuilder out) {
+        int outcome = match(buffer, start, end);
+        if (outcome == BLANK) {
+            return 0;
+        }
+        ReviewBatch batch = out.batch();
+        if (outcome == REJECTED) {
+            batch.addRejectedRow(batch.textMark());
+            return 0;
+        }
+        int nameLength = valueEnds[PRODUCT_NAME] - valueStarts[PRODUCT_NAME];
+        int commentLength = valueEnds[REVIEW] - valueStarts[REVIEW];
+        int nameOffset = batch.textMark();
+        int nameCode = batch.appendProductName(buffer, valueStarts[PRODUCT_NAME], nameLength);
+        int commentOffset = batch.appendText(buffer, valueStarts[REVIEW], commentLength);
+        batch.addRow(nameCode, nameOffset, nameLength, matchedPrice, commentOffset, commentLength, matchedRating);
+        return 1;
+    }
+
+    /**
+     * Finds the field values of one record and parses its numbers into matchedPrice and matchedRating
+     * @return BLANK, VALID or REJECTED
+     */
+    private int match(char[] buffer, int start, int end) {
+        // Trim the record the same way String.trim() does
+        while (start < end && buffer[start] <= ' ') {
+            start++;
+        }
+        while (end > start && buffer[end - 1] <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return BLANK;
+        }
+
+        for (int f = 0; f < FIELD_NAMES.length; f++) {
+            valueStarts[f] = -1;
+        }
+
+        int segmentStart = start;
+        while (segmentStart < end) {
+            int segmentEnd = findFieldEnd(buffer, segmentStart, end);
+            captureField(buffer, segmentStart, segmentEnd);
+            segmentStart = segmentEnd + 1;
+        }
+
+        if (valueStarts[PRODUCT_NAME] < 0 || valueStarts[PRICE] < 0
+                || valueStarts[REVIEW] < 0 || valueStarts[RATING] < 0) {
+            rejectedCount++;
+            if (RecordLog.sampled()) {
+                System.err.println("Missing required fields in text review: " + new String(buffer, start, end - start));
+            }
+            return REJECTED;
+        }
+
+        try {
+            matchedPrice = parseNumber(buffer, valueStarts[PRICE], valueEnds[PRICE]);
+            matchedRating = parseNumber(buffer, valueStarts[RATING], valueEnds[RATING]);
+            return VALID;
+        } catch (NumberFormatException e) {
+            rejectedCount++;
+            if (RecordLog.sampled()) {
+                System.err.println("Error parsing text review: " + e.getMessage());
+            }
+            return REJECTED;
+        }
+    }
+
+    private String value(char[] buffer, int field) {
+        return new String(buffer, valueStarts[field], valueEnds[field] - valueStarts[field]);
+    }
+
+    /**
+     * @return Number of records rejected since this scanner was created
+     */
+    public int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Finds the comma that ends the field starting at the given index
+     * @return Index of the field-separating comma, or end if this is the last field
+     */
+    private int findFieldEnd(char[] buffer, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (buffer[i] == ',' && startsLabel(buffer, i + 1, end)) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return true if optional whitespace followed by a word and a colon starts at the index
+     */
+    private static boolean startsLabel(char[] buffer, int i, int end) {
+        while (i < end && isWhitespace(buffer[i])) {
+            i++;
+        }
+        int wordStart = i;
+        while (i < end && isWordChar(buffer[i])) {
+            i++;
+        }
+        return i > wordStart && i < end && buffer[i] == ':';
+    }
+
+    /**
+     * Records the value bounds of a "Label: value" field if the label is a known field
+     * that has not been seen yet in this record
+     */
+    private void captureField(char[] buffer, int start, int end) {
+        while (start < end && isWhitespace(buffer[start])) {
+            start++;
+        }
+        int labelStart = start;
+        while (start < end && isWordChar(buffer[start])) {
+            start++;
+        }
+        if (start == labelStart || start == end || buffer[start] != ':') {
+            return;
+        }
+
+        int field = fieldIndex(buffer, labelStart, start);
+        if (field < 0 || valueStarts[field] >= 0) {
+            return;
+        }
+
+        int valueStart = start + 1;
+        int valueEnd = end;
+        if (valueStart == valueEnd) {
+            return;
+        }
+        for (int i = valueStart; i < valueEnd; i++) {
+            if (buffer[i] == ',') {
+                // A comma that does not start a new field makes the value ambiguous
+                return;
+            }
+        }
+
+        while (valueStart < valueEnd && buffer[valueStart] <= ' ') {
+            valueStart++;
+        }
+        while (valueEnd > valueStart && buffer[valueEnd - 1] <= ' ') {
+            valueEnd--;
+        }
+        valueStarts[field] = valueStart;
+        valueEnds[field] = valueEnd;
+    }
+
+    /**
+     * @return Index into FIELD_NAMES of the label, compared case-insensitively, or -1
+     */
+    private static int fieldIndex(char[] buffer, int start, int end) {
+        int length = end - start;
+        for (int f = 0; f < FIELD_NAMES.length; f++) {
+            String name = FIELD_NAMES[f];
+            if (name.length() != length) {
+                continue;
+            }
+            int i = 0;
+            while (i < length && Character.toLowerCase(buffer[start + i]) == Character.toLowerCase(name.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                return f;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a plain decimal such as 12000 or 4.85 in place. The value is exact because
+     * both the digit mantissa and the power of ten are exact doubles and a single
+     * division rounds correctly; anything else falls back to Double.parseDouble.
+     * @throws NumberFormatException If the value is not a finite number; DynamoDB cannot store
+     *         NaN or Infinity, nor a decimal such as 1e999 that overflows to it
+     */
+    static double parseNumber(char[] buffer, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean inFraction = false;
+        for (; i < end; i++) {
+            char c = buffer[i];
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (inFraction) {
+                    fractionDigits++;
+                }
+            } else if (c == '.' && !inFraction) {
+                inFraction = true;
+            } else {
+                break;
+            }
+        }
+
+        if (i != end || digits == 0 || digits > MAX_FAST_PATH_DIGITS) {
+            String text = new String(buffer, start, end - start);
+            double parsed = Double.parseDouble(text);
+            if (!Double.isFinite(parsed)) {
+                throw new NumberFormatException("Not a finite number: " + text);
+            }
+            return parsed;
+        }
+
+        double value = (double) mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    private void appendPending(char[] source, int from, int to) {
+        int length = to - from;
+        if (length <= 0) {
+            return;
+        }
+        if (pendingLength + length > pending.length) {
+            char[] grown = new char[Math.max(pending.length * 2, pendingLength + length)];
+            System.arraycopy(pending, 0, grown, 0, pendingLength);
+            pending = grown;
+        }
+        System.arraycopy(source, from, pending, pendingLength, length);
+        pendingLength += length;
+    }
+
+    // Same character classes as the regex \s and \w used by the original field pattern
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+}
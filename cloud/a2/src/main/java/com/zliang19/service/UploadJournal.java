@@ -0,0 +1,428 @@
+package com.zliang19.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only journal of upload events with the same line format as the original
+ * upload log:
+ *
+ *   [2024-05-01T10:15:30.123] File uploaded to bucket: my-bucket, object: reviews.json
+ *
+ * Callers only encode the line into an in-memory buffer. A background thread swaps
+ * that buffer for an empty one and writes the full one to the file in a single call,
+ * so handler threads never touch the file system. The file is rotated once it
+ * reaches its size limit, keeping a fixed number of older files (name.1 is the newest).
+ *
+ * Entries still buffered when Lambda freezes the environment are written after the
+ * next thaw or at shutdown, so a recycled environment can lose at most the last
+ * flush interval of entries.
+ */
+public class UploadJournal {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long FLUSH_INTERVAL_MILLIS = 200;
+    private static final DateTimeFormatter SECOND_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+    private static final byte[] BUCKET_LABEL = "] File uploaded to bucket: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] OBJECT_LABEL = ", object: ".getBytes(StandardCharsets.US_ASCII);
+
+    private final Path path;
+    private final long maxFileBytes;
+    private final int maxRotatedFiles;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushWanted = lock.newCondition();
+    private final Condition spaceFreed = lock.newCondition();
+    private final Thread flusher;
+    private ByteBuffer active = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer standby = ByteBuffer.allocate(BUFFER_SIZE);
+    private boolean closed;
+
+    // Timestamp prefix is formatted once per second and reused until the second changes
+    private long cachedSecond = Long.MIN_VALUE;
+    private final byte[] cachedPrefix = new byte[19];
+
+    // Only touched by whichever thread holds writeLock
+    private final Object writeLock = new Object();
+    private long fileSize = -1;
+
+    /**
+     * @param path File entries are appended to
+     * @param maxFileBytes Size at which the file is rotated
+     * @param maxRotatedFiles Number of rotated files kept besides the current one
+     */
+    public UploadJournal(Path path, long maxFileBytes, int maxRotatedFiles) {
+        this.path = path;
+        this.maxFileBytes = maxFileBytes;
+        this.maxRotatedFiles = maxRotatedFiles;
+
+        this.flusher = new Thread(this::flushLoop, "upload-journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "upload-journal-shutdown"));
+    }
+
+    /**
+     * Records one upload event. Only copies the entry into memory; blocks only in the
+     * unlikely case that a full buffer is still waiting to be written.
+     * @param bucketName The S3 bucket name
+     * @param objectKey The S3 object key
+     */
+    public void append(String bucketName, String objectKey) {
+        long now = System.currentTimeMillis();
+        byte[] bucket = bucketName.getBytes(StandardCharsets.UTF_8);
+        byte[] key = objectKey.getBytes(StandardCharsets.UTF_8);
+        // [ + timestamp + .mmm + labels + values + newline
+        int length = 1 + cachedPrefix.length + 4 + BUCKET_LABEL.length + bucket.length
+                + OBJECT_LABEL.length + key.length + 1;
+
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            while (active.remaining() < length) {
+                if (active.position() == 0) {
+                    // Larger than a whole buffer; write it directly once earlier entries are on disk
+                    awaitStandby();
+                    writeOversized(now, bucket, key, length);
+                    return;
+                }
+                flushWanted.signal();
+                spaceFreed.awaitUninterruptibly();
+            }
+            encode(active, now, bucket, key);
+            if (active.position() > BUFFER_SIZE / 2) {
+                flushWanted.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes everything appended so far to the file before returning
+     */
+    public void flush() {
+        lock.lock();
+        ByteBuffer full;
+        try {
+            // Wait for a write already in progress so entries reach the file in order
+            awaitStandby();
+            full = swapBuffers();
+        } finally {
+            lock.unlock();
+        }
+        write(full);
+        releaseBuffer(full);
+    }
+
+    /**
+     * Flushes pending entries and stops the background writer
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            flushWanted.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Reads journal entries back, oldest first, across the rotated files and the current one.
+     * Pending entries are flushed first so the result includes everything appended so far.
+     * @param bucketName Only entries for this bucket, or null for all buckets
+     * @param keyPrefix Only entries whose key starts with this prefix, or null for all keys
+     * @param from Only entries at or after this time, or null for no lower bound
+     * @param to Only entries before this time, or null for no upper bound
+     * @return Matching entries in the order they were written
+     * @throws IOException If a journal file cannot be read
+     */
+    public List<Entry> query(String bucketName, String keyPrefix, Instant from, Instant to) throws IOException {
+        flush();
+        List<Path> files = new ArrayList<>();
+        for (int i = 1; Files.exists(rotatedPath(i)); i++) {
+            files.add(0, rotatedPath(i));
+        }
+        if (Files.exists(path)) {
+            files.add(path);
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        for (Path file : files) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Entry entry = Entry.parse(line, zone);
+                    if (entry != null && entry.matches(bucketName, keyPrefix, from, to)) {
+                        entries.add(entry);
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Background loop: writes the buffer every flush interval, or sooner when it is half full
+     */
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer full;
+            lock.lock();
+            try {
+                if (!closed && active.position() <= BUFFER_SIZE / 2) {
+                    flushWanted.await(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (closed) {
+                    return;
+                }
+                full = swapBuffers();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            write(full);
+            releaseBuffer(full);
+        }
+    }
+
+    /**
+     * Waits until the spare buffer is back from the writer. Caller holds the lock.
+     */
+    private void awaitStandby() {
+        while (standby == null) {
+            spaceFreed.awaitUninterruptibly();
+        }
+    }
+
+    /**
+     * Hands out the filled buffer and makes the empty one active. Caller holds the lock.
+     * @return Buffer to write, or null if nothing was appended or the spare is still being written
+     */
+    private ByteBuffer swapBuffers() {
+        if (active.position() == 0 || standby == null) {
+            return null;
+        }
+        ByteBuffer full = active;
+        active = standby;
+        standby = null;
+        return full;
+    }
+
+    /**
+     * Returns a written buffer for reuse and wakes appenders waiting for space
+     */
+    private void releaseBuffer(ByteBuffer written) {
+        if (written == null) {
+            return;
+        }
+        written.clear();
+        lock.lock();
+        try {
+            standby = written;
+            spaceFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(ByteBuffer full) {
+        if (full == null) {
+            return;
+        }
+        full.flip();
+        writeToFile(full);
+    }
+
+    private void writeOversized(long now, byte[] bucket, byte[] key, int length) {
+        ByteBuffer single = ByteBuffer.allocate(length);
+        encode(single, now, bucket, key);
+        single.flip();
+        writeToFile(single);
+    }
+
+    /**
+     * Appends the bytes to the journal file, rotating first if they would push it past its limit
+     */
+    private void writeToFile(ByteBuffer bytes) {
+        synchronized (writeLock) {
+            try {
+                if (fileSize < 0) {
+                    fileSize = Files.exists(path) ? Files.size(path) : 0;
+                }
+                if (fileSize > 0 && fileSize + bytes.remaining() > maxFileBytes) {
+                    rotate();
+                }
+                try (FileChannel channel = FileChannel.open(path,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    while (bytes.hasRemaining()) {
+                        fileSize += channel.write(bytes);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error writing upload journal " + path + ": " + e.getMessage());
+                fileSize = -1;
+            }
+        }
+    }
+
+    /**
+     * Shifts name.N-1 to name.N down to the current file becoming name.1; the oldest file is dropped
+     */
+    private void rotate() throws IOException {
+        if (maxRotatedFiles <= 0) {
+            Files.deleteIfExists(path);
+        } else {
+            Files.deleteIfExists(rotatedPath(maxRotatedFiles));
+            for (int i = maxRotatedFiles - 1; i >= 1; i--) {
+                Path source = rotatedPath(i);
+                if (Files.exists(source)) {
+                    Files.move(source, rotatedPath(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(path, rotatedPath(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        fileSize = 0;
+    }
+
+    private Path rotatedPath(int index) {
+        return path.resolveSibling(path.getFileName() + "." + index);
+    }
+
+    /**
+     * Writes one entry; the caller has checked that it fits
+     */
+    private void encode(ByteBuffer buffer, long epochMillis, byte[] bucket, byte[] key) {
+        long second = Math.floorDiv(epochMillis, 1000);
+        if (second != cachedSecond) {
+            String formatted = LocalDateTime.ofInstant(Instant.ofEpochSecond(second), zone).format(SECOND_FORMAT);
+            System.arraycopy(formatted.getBytes(StandardCharsets.US_ASCII), 0, cachedPrefix, 0, cachedPrefix.length);
+            cachedSecond = second;
+        }
+        int millis = Math.floorMod(epochMillis, 1000);
+
+        buffer.put((byte) '[');
+        buffer.put(cachedPrefix);
+        buffer.put((byte) '.');
+        buffer.put((byte) ('0' + millis / 100));
+        buffer.put((byte) ('0' + millis / 10 % 10));
+        buffer.put((byte) ('0' + millis % 10));
+        buffer.put(BUCKET_LABEL);
+        buffer.put(bucket);
+        buffer.put(OBJECT_LABEL);
+        buffer.put(key);
+        buffer.put((byte) '\n');
+    }
+
+    /**
+     * One upload event read back from the journal
+     */
+    public static class Entry {
+        private static final String BUCKET_MARKER = "] File uploaded to bucket: ";
+        private static final String OBJECT_MARKER = ", object: ";
+
+        private final Instant timestamp;
+        private final String bucketName;
+        private final String objectKey;
+
+        public Entry(Instant timestamp, String bucketName, String objectKey) {
+            this.timestamp = timestamp;
+            this.bucketName = bucketName;
+            this.objectKey = objectKey;
+        }
+
+        /**
+         * @return Parsed entry, or null if the line is not a journal entry
+         */
+        static Entry parse(String line, ZoneId zone) {
+            int bucketStart = line.indexOf(BUCKET_MARKER);
+            if (!line.startsWith("[") || bucketStart < 0) {
+                return null;
+            }
+            int objectStart = line.indexOf(OBJECT_MARKER, bucketStart + BUCKET_MARKER.length());
+            if (objectStart < 0) {
+                return null;
+            }
+            try {
+                Instant timestamp = LocalDateTime.parse(line.substring(1, bucketStart)).atZone(zone).toInstant();
+                return new Entry(timestamp,
+                        line.substring(bucketStart + BUCKET_MARKER.length(), objectStart),
+                        line.substring(objectStart + OBJECT_MARKER.length()));
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+
+        boolean matches(String bucketName, String keyPrefix, Instant from, Instant to) {
+            return (bucketName == null || bucketName.equals(this.bucketName))
+                    && (keyPrefix == null || objectKey.startsWith(keyPrefix))
+                    && (from == null || !timestamp.isBefore(from))
+                    && (to == null || timestamp.isBefore(to));
+        }
+
+        public Instant getTimestamp() {
+            return timestamp;
+        }
+
+        public String getBucketName() {
+            return bucketName;
+        }
+
+        public String getObjectKey() {
+            return objectKey;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + timestamp + "] " + bucketName + "/" + objectKey;
+        }
+    }
+
+    /**
+     * Prints matching entries of a journal file, for example one copied out of /tmp:
+     *
+     *   java -cp target/zliang19a2app-1.0.0.jar com.zliang19.service.UploadJournal s3_upload_log.txt [bucket] [keyPrefix]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: UploadJournal <journal file> [bucket] [keyPrefix]");
+            System.exit(1);
+        }
+        UploadJournal journal = new UploadJournal(Paths.get(args[0]), Long.MAX_VALUE, 0);
+        List<Entry> entries = journal.query(args.length > 1 ? args[1] : null, args.length > 2 ? args[2] : null,
+                null, null);
+        for (Entry entry : entries) {
+            System.out.println(entry);
+        }
+        System.out.println(entries.size() + " entries");
+    }
+}
@@ -0,0 +1,173 @@
+package com.zliang19;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.S3Event;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
+import com.zliang19.model.ProductReviewSchema;
+import com.zliang19.service.DynamoDbService;
+import com.zliang19.service.IdempotencyStore;
+import com.zliang19.service.ProductSummaryStore;
+import com.zliang19.service.RecordResult;
+import com.zliang19.service.RecordsFailedException;
+import com.zliang19.service.S3Service;
+import com.zliang19.testing.InMemoryDynamoDbClient;
+import com.zliang19.testing.InMemoryS3Client;
+import com.zliang19.testing.TestLambdaContext;
+
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+
+/**
+ * Invocation outcome of LambdaHandler over in-memory S3 and DynamoDB
+ */
+public class LambdaHandlerTest {
+
+    private static final String BUCKET = "reviews";
+    private static final String LEDGER_TABLE = "ProductReviewIngestLedger";
+    private static final byte[] REVIEWS = ("ProductName: Sony TV, Price: 12000, Review: Great, Rating: 4.85; "
+            + "ProductName: Bravia Microwave, Price: 350, Review: Good value, Rating: 4.12").getBytes(StandardCharsets.UTF_8);
+
+    private InMemoryS3Client s3;
+    private ThreadRecordingClient dynamoDb;
+    private LambdaHandler handler;
+    private final List<RecordResult> records = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void createHandler() {
+        s3 = new InMemoryS3Client(0);
+        dynamoDb = new ThreadRecordingClient();
+        dynamoDb.createTable("ProductReview", ProductReviewSchema.IDENTIFIER)
+                .createTable(LEDGER_TABLE, "ObjectId")
+                .createTable("ProductReviewSummary", ProductSummaryStore.KEY_ATTRIBUTE);
+        handler = new LambdaHandler(new S3Service(s3), new DynamoDbService(dynamoDb));
+        handler.setRecordListener(records::add);
+    }
+
+    @After
+    public void closeHandler() {
+        handler.cleanup();
+    }
+
+    @Test
+    public void processedAndSkippedRecordsCompleteTheInvocation() {
+        s3.putObject(BUCKET, "a.txt", REVIEWS);
+        s3.putObject(BUCKET, "b.txt", REVIEWS);
+
+        String result = handler.handleRequest(event("a.txt", "b.txt", "c.csv"), new TestLambdaContext());
+
+        assertEquals("Processing completed: 2 processed, 1 skipped", result);
+        assertEquals(4, dynamoDb.items("ProductReview").size());
+    }
+
+    @Test
+    public void failedRecordFailsTheInvocation() {
+        s3.putObject(BUCKET, "a.txt", REVIEWS);
+        s3.putObject(BUCKET, "c.txt", REVIEWS);
+        TestLambdaContext context = new TestLambdaContext();
+
+        try {
+            handler.handleRequest(event("a.txt", "missing.txt", "c.txt"), context);
+            fail("Expected the invocation to fail");
+        } catch (RecordsFailedException e) {
+            assertEquals(Collections.singletonList("missing.txt"), e.getFailedObjectKeys());
+            assertTrue(e.getMessage(), e.getMessage().startsWith("1 of 3 records failed"));
+        }
+        // The other records were still ingested, and the metrics line was still written
+        assertEquals(4, dynamoDb.items("ProductReview").size());
+        assertEquals(3, records.size());
+
+        // The retry skips what was ingested and completes once the object is there
+        s3.putObject(BUCKET, "missing.txt", REVIEWS);
+        String result = handler.handleRequest(event("a.txt", "missing.txt", "c.txt"), context);
+        assertEquals("Processing completed: 1 processed, 2 skipped", result);
+        assertEquals(6, dynamoDb.items("ProductReview").size());
+    }
+
+    @Test
+    public void objectClaimedElsewhereFailsTheInvocation() {
+        s3.putObject(BUCKET, "a.txt", REVIEWS);
+        IdempotencyStore otherContainer = new IdempotencyStore(dynamoDb, LEDGER_TABLE, 16, 900, 3600);
+        String objectId = IdempotencyStore.objectId(BUCKET, "a.txt", "etag-a.txt", null);
+        assertEquals(IdempotencyStore.Claim.ACQUIRED, otherContainer.claim(objectId));
+
+        try {
+            handler.handleRequest(event("a.txt"), new TestLambdaContext());
+            fail("Expected the invocation to fail");
+        } catch (RecordsFailedException e) {
+            assertEquals(Collections.singletonList("a.txt"), e.getFailedObjectKeys());
+        }
+        assertEquals(0, dynamoDb.items("ProductReview").size());
+
+        // Once the other ingest gives up, the redelivery ingests the object
+        otherContainer.release(objectId);
+        assertEquals("Processing completed: 1 processed, 0 skipped",
+                handler.handleRequest(event("a.txt"), new TestLambdaContext()));
+    }
+
+    @Test
+    public void recordWorkersAreNumbered() {
+        for (String key : Arrays.asList("a.txt", "b.txt", "c.txt", "d.txt")) {
+            s3.putObject(BUCKET, key, REVIEWS);
+        }
+
+        handler.handleRequest(event("a.txt", "b.txt", "c.txt", "d.txt"), new TestLambdaContext());
+
+        // Each record claims its object on the record worker that handles it
+        assertEquals(new HashSet<>(Arrays.asList("s3-record-worker-1", "s3-record-worker-2",
+                "s3-record-worker-3", "s3-record-worker-4")), dynamoDb.ledgerReaders);
+    }
+
+    /**
+     * Builds an ObjectCreated event with one record per key; every key gets its own ETag
+     */
+    private static S3Event event(String... objectKeys) {
+        List<S3EventNotification.S3EventNotificationRecord> records = new ArrayList<>();
+        for (String objectKey : objectKeys) {
+            records.add(new S3EventNotification.S3EventNotificationRecord(
+                    "us-east-1", "ObjectCreated:Put", "aws:s3", "1970-01-01T00:00:00.000Z", "2.1",
+                    null, null,
+                    new S3EventNotification.S3Entity("test",
+                            new S3EventNotification.S3BucketEntity(BUCKET, null, "arn:aws:s3:::" + BUCKET),
+                            new S3EventNotification.S3ObjectEntity(objectKey, (long) REVIEWS.length,
+                                    "etag-" + objectKey, null, null),
+                            "1.0"),
+                    null));
+        }
+        return new S3Event(records);
+    }
+
+    /**
+     * Keeps the names of the threads that read the ingest ledger
+     */
+    private static final class ThreadRecordingClient extends InMemoryDynamoDbClient {
+
+        final Set<String> ledgerReaders = Collections.synchronizedSet(new HashSet<>());
+
+        ThreadRecordingClient() {
+            super(0, 0, true);
+        }
+
+        @Override
+        public GetItemResponse getItem(GetItemRequest request) {
+            if (LEDGER_TABLE.equals(request.tableName())) {
+                ledgerReaders.add(Thread.currentThread().getName());
+            }
+            return super.getItem(request);
+        }
+    }
+}
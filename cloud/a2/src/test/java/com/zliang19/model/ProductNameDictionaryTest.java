@@ -0,0 +1,80 @@
+package com.zliang19.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Codes of ProductNameDictionary, from character ranges and Strings alike
+ */
+public class ProductNameDictionaryTest {
+
+    @Test
+    public void namesKeepTheirCodes() {
+        ProductNameDictionary dictionary = new ProductNameDictionary(16, 64);
+        int laptop = dictionary.encode("Laptop");
+        int phone = dictionary.encode("Phone");
+
+        char[] buffer = "xxLaptopPhone".toCharArray();
+        assertEquals(laptop, dictionary.encode(buffer, 2, 6));
+        assertEquals(phone, dictionary.encode(buffer, 8, 5));
+        assertEquals(laptop, dictionary.encode(new String("Laptop")));
+        assertEquals(2, dictionary.size());
+
+        String decoded = dictionary.decode(laptop);
+        assertEquals("Laptop", decoded);
+        assertSame(decoded, dictionary.decode(dictionary.encode(buffer, 2, 6)));
+    }
+
+    @Test
+    public void longNamesAreNotAdmitted() {
+        ProductNameDictionary dictionary = new ProductNameDictionary(16, 4);
+
+        assertEquals(ProductNameDictionary.NO_CODE, dictionary.encode("Laptop"));
+        assertEquals(ProductNameDictionary.NO_CODE, dictionary.encode("Laptop".toCharArray(), 0, 6));
+        assertEquals(0, dictionary.size());
+    }
+
+    @Test
+    public void fullDictionaryKeepsItsNames() {
+        ProductNameDictionary dictionary = new ProductNameDictionary(2, 64);
+        int laptop = dictionary.encode("Laptop");
+        dictionary.encode("Phone");
+        assertTrue(dictionary.isFull());
+
+        assertEquals(ProductNameDictionary.NO_CODE, dictionary.encode("Tablet"));
+        assertEquals(laptop, dictionary.encode("Laptop"));
+        assertEquals("Laptop", dictionary.decode(laptop));
+    }
+
+    @Test
+    public void namesAdmittedConcurrentlyGetOneCodeEach() throws InterruptedException {
+        ProductNameDictionary dictionary = new ProductNameDictionary(1000, 64);
+        int[][] codes = new int[4][100];
+        Thread[] threads = new Thread[codes.length];
+        for (int t = 0; t < threads.length; t++) {
+            int[] mine = codes[t];
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < mine.length; i++) {
+                    mine[i] = dictionary.encode("Product " + i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(100, dictionary.size());
+        assertFalse(dictionary.isFull());
+        for (int i = 0; i < 100; i++) {
+            for (int[] mine : codes) {
+                assertEquals(codes[0][i], mine[i]);
+            }
+            assertEquals("Product " + i, dictionary.decode(codes[0][i]));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.zliang19.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import com.github.luben.zstd.ZstdOutputStream;
+
+public class CompressionTest {
+
+    private static final byte[] CONTENT =
+            "ProductName: Laptop, Price: 999.99, Review: Fast, Rating: 5;".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void extensionSelectsTheFormat() {
+        assertEquals(Compression.GZIP, Compression.forObject("reviews.json.gz", null));
+        assertEquals(Compression.GZIP, Compression.forObject("reviews.txt.gzip", null));
+        assertEquals(Compression.ZSTD, Compression.forObject("reviews.json.zst", null));
+        assertEquals(Compression.ZSTD, Compression.forObject("reviews.txt.zstd", null));
+        assertEquals(Compression.NONE, Compression.forObject("reviews.json", null));
+    }
+
+    @Test
+    public void extensionIsCaseInsensitive() {
+        assertEquals(Compression.GZIP, Compression.forObject("REVIEWS.JSON.GZ", null));
+        assertEquals(Compression.ZSTD, Compression.forObject("Reviews.Txt.Zst", null));
+    }
+
+    @Test
+    public void contentEncodingIsUsedWithoutAnExtension() {
+        assertEquals(Compression.GZIP, Compression.forObject("reviews.json", "gzip"));
+        assertEquals(Compression.GZIP, Compression.forObject("reviews.json", "X-GZIP"));
+        assertEquals(Compression.ZSTD, Compression.forObject("reviews.json", "zstd"));
+        assertEquals(Compression.NONE, Compression.forObject("reviews.json", "identity"));
+        assertEquals(Compression.NONE, Compression.forObject("reviews.json", "br"));
+    }
+
+    @Test
+    public void lastContentCodingWins() {
+        assertEquals(Compression.ZSTD, Compression.forObject("reviews.json", "gzip, zstd"));
+        assertEquals(Compression.GZIP, Compression.forObject("reviews.json", "zstd,gzip"));
+    }
+
+    @Test
+    public void extensionTakesPrecedenceOverContentEncoding() {
+        assertEquals(Compression.GZIP, Compression.forObject("reviews.json.gz", "zstd"));
+        assertEquals(Compression.ZSTD, Compression.forObject("reviews.json.zst", "gzip"));
+    }
+
+    @Test
+    public void stripExtensionKeepsTheInnerExtension() {
+        assertEquals("reviews.json", Compression.stripExtension("reviews.json.gz"));
+        assertEquals("reviews.txt", Compression.stripExtension("reviews.txt.GZIP"));
+        assertEquals("reviews.json", Compression.stripExtension("reviews.json.zst"));
+        assertEquals("reviews.txt", Compression.stripExtension("reviews.txt.zstd"));
+        assertEquals("reviews.json", Compression.stripExtension("reviews.json"));
+    }
+
+    @Test
+    public void decodesGzip() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(CONTENT);
+        }
+        assertArrayEquals(CONTENT, decode(Compression.GZIP, compressed.toByteArray()));
+    }
+
+    @Test
+    public void decodesZstd() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new ZstdOutputStream(compressed)) {
+            out.write(CONTENT);
+        }
+        assertArrayEquals(CONTENT, decode(Compression.ZSTD, compressed.toByteArray()));
+    }
+
+    @Test
+    public void noneLeavesContentUnchanged() throws IOException {
+        assertArrayEquals(CONTENT, decode(Compression.NONE, CONTENT));
+    }
+
+    @Test(expected = IOException.class)
+    public void gzipRejectsUncompressedContent() throws IOException {
+        decode(Compression.GZIP, CONTENT);
+    }
+
+    private static byte[] decode(Compression compression, byte[] content) throws IOException {
+        try (InputStream in = compression.decode(new ByteArrayInputStream(content))) {
+            return in.readAllBytes();
+        }
+    }
+}
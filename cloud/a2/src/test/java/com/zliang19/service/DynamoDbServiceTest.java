@@ -0,0 +1,257 @@
+package com.zliang19.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zliang19.model.ProductReviewSchema;
+import com.zliang19.model.ReviewBatch;
+import com.zliang19.testing.TestDynamoDb;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+/**
+ * Batched writes of DynamoDbService, on DynamoDB Local when configured (see {@link TestDynamoDb})
+ */
+public class DynamoDbServiceTest {
+
+    private static final String TABLE_NAME = "ProductReview";
+    private static final String PREFIX = "0123456789abcdef0123456789abcdef-";
+
+    private TestDynamoDb tables;
+
+    @Before
+    public void createTable() {
+        tables = new TestDynamoDb().createTable(TABLE_NAME, ProductReviewSchema.IDENTIFIER);
+    }
+
+    @After
+    public void dropTable() {
+        tables.close();
+    }
+
+    @Test
+    public void validRowsAreWrittenInGroupsOf25() {
+        DynamoDbService service = new DynamoDbService(tables.client());
+        try {
+            // 2 batches of 40 rows with every tenth row rejected: 72 reviews, so 25 + 25 + 22
+            List<BatchWriteResult> results = service.saveReviewBatches(batches(2, 40));
+
+            assertEquals(3, results.size());
+            int[] expectedCounts = {25, 25, 22};
+            for (int i = 0; i < results.size(); i++) {
+                BatchWriteResult result = results.get(i);
+                assertEquals(i, result.getBatchIndex());
+                assertEquals(expectedCounts[i], result.getItemCount());
+                assertEquals(expectedCounts[i], result.getWrittenCount());
+                assertEquals(1, result.getAttempts());
+                assertTrue(result.isSuccessful());
+            }
+
+            for (int position = 0; position < 72; position++) {
+                Map<String, AttributeValue> item = getReview(PREFIX + position);
+                assertNotNull("review " + position, item);
+                assertEquals("Product " + (position % 3), item.get(ProductReviewSchema.PRODUCT_NAME).s());
+            }
+            assertEquals(null, getReview(PREFIX + 72));
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void unprocessedItemsAreRetried() {
+        // Two reviews in the first request and one in the second come back unprocessed twice
+        UnprocessedItemsClient client = new UnprocessedItemsClient(tables.client(), 2,
+                PREFIX + 3, PREFIX + 17, PREFIX + 30);
+        DynamoDbService service = new DynamoDbService(client);
+        try {
+            List<BatchWriteResult> results = service.saveReviewBatches(batches(2, 40));
+
+            assertEquals(3, results.get(0).getAttempts());
+            assertEquals(2, results.get(0).getThrottledCount());
+            assertEquals(3, results.get(1).getAttempts());
+            assertEquals(1, results.get(2).getAttempts());
+            assertEquals(0, results.get(2).getThrottledCount());
+            for (BatchWriteResult result : results) {
+                assertTrue(result.toString(), result.isSuccessful());
+            }
+            assertNotNull(getReview(PREFIX + 3));
+            assertNotNull(getReview(PREFIX + 17));
+            assertNotNull(getReview(PREFIX + 30));
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void itemsLeftAfterTheLastAttemptAreReported() {
+        UnprocessedItemsClient client = new UnprocessedItemsClient(tables.client(), Integer.MAX_VALUE, PREFIX + 5);
+        DynamoDbService service = new DynamoDbService(client);
+        try {
+            List<BatchWriteResult> results = service.saveReviewBatches(batches(1, 30));
+
+            BatchWriteResult first = results.get(0);
+            assertFalse(first.isSuccessful());
+            assertEquals(1, first.getUnprocessedCount());
+            assertEquals(24, first.getWrittenCount());
+            assertEquals(8, first.getAttempts());
+            assertEquals(null, first.getErrorMessage());
+            assertTrue(results.get(1).isSuccessful());
+            assertEquals(null, getReview(PREFIX + 5));
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void failedRequestIsReportedWithItsError() {
+        UnprocessedItemsClient client = new UnprocessedItemsClient(tables.client(), 0);
+        client.failRequestsWith = PREFIX + 30;
+        DynamoDbService service = new DynamoDbService(client);
+        try {
+            List<BatchWriteResult> results = service.saveReviewBatches(batches(2, 40));
+
+            assertTrue(results.get(0).isSuccessful());
+            BatchWriteResult failed = results.get(1);
+            assertFalse(failed.isSuccessful());
+            assertEquals(0, failed.getWrittenCount());
+            assertEquals("Connection reset", failed.getErrorMessage());
+            assertTrue(results.get(2).isSuccessful());
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void batchWithoutIdentifiersIsRefused() {
+        ReviewBatch batch = new ReviewBatch(4);
+        batch.add("Laptop", 999.99, "Fast", 5);
+        DynamoDbService service = new DynamoDbService(tables.client());
+        try {
+            service.saveReviewBatches(Collections.singletonList(batch));
+        } finally {
+            service.close();
+        }
+    }
+
+    /**
+     * Builds batches whose valid rows are numbered from 0 across the batches; every tenth row is rejected
+     */
+    private static List<ReviewBatch> batches(int count, int rowsPerBatch) {
+        List<ReviewBatch> batches = new ArrayList<>();
+        long position = 0;
+        for (int b = 0; b < count; b++) {
+            ReviewBatch batch = new ReviewBatch(rowsPerBatch);
+            for (int row = 0; row < rowsPerBatch; row++) {
+                if (row % 10 == 9) {
+                    batch.addRejectedRow(batch.textMark());
+                } else {
+                    long review = position + batch.getValidCount();
+                    batch.add("Product " + (review % 3), 10 + review, "Review " + review, 1 + review % 5);
+                }
+            }
+            batch.setFirstIdentifier(PREFIX, position);
+            position += batch.getValidCount();
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private Map<String, AttributeValue> getReview(String identifier) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put(ProductReviewSchema.IDENTIFIER, AttributeValue.builder().s(identifier).build());
+        Map<String, AttributeValue> item = tables.client().getItem(GetItemRequest.builder()
+                .tableName(TABLE_NAME)
+                .key(key)
+                .consistentRead(true)
+                .build()).item();
+        return item != null && !item.isEmpty() ? item : null;
+    }
+
+    /**
+     * Passes BatchWriteItem on to a real client, but first takes out chosen reviews and returns
+     * them as unprocessed, the way DynamoDB does when throttling, a set number of times each
+     */
+    private static final class UnprocessedItemsClient implements DynamoDbClient {
+
+        private final DynamoDbClient delegate;
+        private final int holdBackTimes;
+        private final Set<String> heldBack;
+        private final Map<String, Integer> timesHeldBack = new HashMap<>();
+        volatile String failRequestsWith;
+
+        UnprocessedItemsClient(DynamoDbClient delegate, int holdBackTimes, String... identifiers) {
+            this.delegate = delegate;
+            this.holdBackTimes = holdBackTimes;
+            this.heldBack = new HashSet<>(Arrays.asList(identifiers));
+        }
+
+        @Override
+        public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+            List<WriteRequest> forwarded = new ArrayList<>();
+            List<WriteRequest> unprocessed = new ArrayList<>();
+            for (WriteRequest write : request.requestItems().get(TABLE_NAME)) {
+                String identifier = write.putRequest().item().get(ProductReviewSchema.IDENTIFIER).s();
+                if (identifier.equals(failRequestsWith)) {
+                    throw SdkClientException.create("Connection reset");
+                }
+                if (holdBack(identifier)) {
+                    unprocessed.add(write);
+                } else {
+                    forwarded.add(write);
+                }
+            }
+            if (!forwarded.isEmpty()) {
+                BatchWriteItemResponse response = delegate.batchWriteItem(BatchWriteItemRequest.builder()
+                        .requestItems(Collections.singletonMap(TABLE_NAME, forwarded))
+                        .build());
+                if (response.hasUnprocessedItems() && response.unprocessedItems().containsKey(TABLE_NAME)) {
+                    unprocessed.addAll(response.unprocessedItems().get(TABLE_NAME));
+                }
+            }
+            return BatchWriteItemResponse.builder()
+                    .unprocessedItems(unprocessed.isEmpty()
+                            ? Collections.emptyMap()
+                            : Collections.singletonMap(TABLE_NAME, unprocessed))
+                    .build();
+        }
+
+        private synchronized boolean holdBack(String identifier) {
+            if (!heldBack.contains(identifier)) {
+                return false;
+            }
+            int times = timesHeldBack.merge(identifier, 1, Integer::sum);
+            return times <= holdBackTimes;
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.zliang19.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zliang19.testing.TestDynamoDb;
+
+import software.amazon.awssdk.services.dynamodb.model.Put;
+
+/**
+ * Claims on the ingest ledger, on DynamoDB Local when configured (see {@link TestDynamoDb}).
+ * Each store stands for one container, with its own in-memory LRU.
+ */
+public class IdempotencyStoreTest {
+
+    private static final String TABLE_NAME = "ProductReviewIngestLedger";
+    private static final String OBJECT_ID = IdempotencyStore.objectId("reviews", "uploads/a.json", "\"etag\"", null);
+
+    private TestDynamoDb tables;
+
+    @Before
+    public void createTable() {
+        tables = new TestDynamoDb().createTable(TABLE_NAME, "ObjectId");
+    }
+
+    @After
+    public void dropTable() {
+        tables.close();
+    }
+
+    @Test
+    public void completedObjectIsSkippedByEveryContainer() {
+        IdempotencyStore first = store(900);
+        assertEquals(IdempotencyStore.Claim.ACQUIRED, first.claim(OBJECT_ID));
+        first.markCompleted(OBJECT_ID, 12);
+
+        assertEquals(IdempotencyStore.Claim.COMPLETED, first.claim(OBJECT_ID));
+        assertEquals(IdempotencyStore.Claim.COMPLETED, store(900).claim(OBJECT_ID));
+    }
+
+    @Test
+    public void claimedObjectIsInProgressElsewhere() {
+        IdempotencyStore first = store(900);
+        IdempotencyStore second = store(900);
+        assertEquals(IdempotencyStore.Claim.ACQUIRED, first.claim(OBJECT_ID));
+
+        assertEquals(IdempotencyStore.Claim.IN_PROGRESS, second.claim(OBJECT_ID));
+        // Other versions of the object are independent
+        assertEquals(IdempotencyStore.Claim.ACQUIRED,
+                second.claim(IdempotencyStore.objectId("reviews", "uploads/a.json", "\"etag\"", "v2")));
+    }
+
+    @Test
+    public void releasedClaimCanBeRetried() {
+        IdempotencyStore first = store(900);
+        IdempotencyStore second = store(900);
+        assertEquals(IdempotencyStore.Claim.ACQUIRED, first.claim(OBJECT_ID));
+        first.release(OBJECT_ID);
+
+        assertEquals(IdempotencyStore.Claim.ACQUIRED, second.claim(OBJECT_ID));
+    }
+
+    @Test
+    public void expiredClaimIsTakenOverAndNotReleasedByItsFormerOwner() {
+        // A negative timeout makes the claim lapse as soon as it is written
+        IdempotencyStore crashed = store(-1);
+        IdempotencyStore second = store(900);
+        assertEquals(IdempotencyStore.Claim.ACQUIRED, crashed.claim(OBJECT_ID));
+        assertEquals(IdempotencyStore.Claim.ACQUIRED, second.claim(OBJECT_ID));
+
+        // The late release must not delete the claim that replaced it
+        crashed.release(OBJECT_ID);
+        assertEquals(IdempotencyStore.Claim.IN_PROGRESS, store(900).claim(OBJECT_ID));
+    }
+
+    @Test
+    public void missingLedgerFallsBackToTheContainer() {
+        IdempotencyStore store = new IdempotencyStore(tables.client(), "MissingLedger", 16, 900, 3600);
+        assertEquals(IdempotencyStore.Claim.ACQUIRED, store.claim(OBJECT_ID));
+        store.markCompleted(OBJECT_ID, 1);
+
+        assertEquals(IdempotencyStore.Claim.COMPLETED, store.claim(OBJECT_ID));
+        assertNull(store.summaryMarker(OBJECT_ID, "Laptop"));
+    }
+
+    @Test
+    public void summaryMarkerIsConditionalOnAbsence() {
+        Put marker = store(900).summaryMarker(OBJECT_ID, "Laptop");
+        assertNotNull(marker);
+        assertEquals(TABLE_NAME, marker.tableName());
+        assertTrue(marker.conditionExpression().startsWith("attribute_not_exists"));
+    }
+
+    @Test
+    public void identifierPrefixIsStablePerVersion() {
+        String prefix = IdempotencyStore.identifierPrefix(OBJECT_ID);
+        assertEquals(33, prefix.length());
+        assertTrue(prefix.matches("[0-9a-f]{32}-"));
+        assertEquals(prefix, IdempotencyStore.identifierPrefix(OBJECT_ID));
+        assertNotEquals(prefix, IdempotencyStore.identifierPrefix(OBJECT_ID + "v2"));
+
+        // Without an object ID every upload gets a fresh random prefix of the same form
+        String random = IdempotencyStore.identifierPrefix(null);
+        assertTrue(random.matches("[0-9a-f]{32}-"));
+        assertNotEquals(random, IdempotencyStore.identifierPrefix(null));
+        assertNull(IdempotencyStore.objectId("reviews", "uploads/a.json", null, null));
+    }
+
+    private IdempotencyStore store(long claimTimeoutSeconds) {
+        return new IdempotencyStore(tables.client(), TABLE_NAME, 16, claimTimeoutSeconds, 3600);
+    }
+}
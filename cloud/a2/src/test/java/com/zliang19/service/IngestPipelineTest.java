@@ -0,0 +1,193 @@
+package com.zliang19.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zliang19.model.ProductAggregate;
+import com.zliang19.model.ProductReviewSchema;
+import com.zliang19.model.ReviewBatch;
+import com.zliang19.testing.InMemoryDynamoDbClient;
+import com.zliang19.testing.InMemoryS3Client;
+
+/**
+ * Stage hand-off of IngestPipeline over in-memory S3 and DynamoDB. Files span many download
+ * chunks and more batches than the write queue holds, so a stage that stopped draining its
+ * queue would block the run; the timeouts turn that into a failure.
+ */
+public class IngestPipelineTest {
+
+    private static final String BUCKET = "reviews";
+    private static final String REVIEW_TABLE = "ProductReview";
+    private static final int REVIEWS = 10_000;
+
+    private InMemoryS3Client s3;
+    private InMemoryDynamoDbClient dynamoDb;
+    private ParsingService parsingService;
+    private CountingDynamoDbService writer;
+
+    @Before
+    public void createServices() {
+        s3 = new InMemoryS3Client(0);
+        dynamoDb = new InMemoryDynamoDbClient(0, 0, true).createTable(REVIEW_TABLE, ProductReviewSchema.IDENTIFIER);
+        parsingService = new ParsingService();
+        writer = new CountingDynamoDbService(dynamoDb, Integer.MAX_VALUE);
+    }
+
+    @After
+    public void closeServices() {
+        parsingService.close();
+    }
+
+    @Test(timeout = 30_000)
+    public void everyReviewIsWrittenOnce() throws IOException {
+        byte[] content = textReviews(REVIEWS);
+        s3.putObject(BUCKET, "reviews.txt", content);
+        IngestPipeline pipeline = new IngestPipeline(new S3Service(s3), parsingService, writer);
+
+        try {
+            IngestResult result = pipeline.run(BUCKET, "reviews.txt", content.length, "prefix-");
+
+            assertEquals(REVIEWS, result.getParsedCount());
+            assertEquals(REVIEWS, result.getWrittenCount());
+            assertTrue(result.isComplete());
+            assertEquals(content.length, result.getBytesRead());
+            assertEquals(REVIEWS, dynamoDb.items(REVIEW_TABLE).size());
+            List<ProductAggregate> products = result.getProductAggregates();
+            assertEquals(10, products.size());
+            for (ProductAggregate product : products) {
+                assertEquals(REVIEWS / 10, product.getReviewCount());
+            }
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void parseFailureStopsWritesBeforeTheRunReturns() throws Exception {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < REVIEWS; i++) {
+            json.append("{\"ProductName\":\"Product ").append(i % 10)
+                    .append("\",\"Price\":10,\"Review\":\"Fine\",\"Rating\":4},");
+        }
+        s3.putObject(BUCKET, "broken.json", json.append("{\"ProductName\":").toString()
+                .getBytes(StandardCharsets.UTF_8));
+        IngestPipeline pipeline = new IngestPipeline(new S3Service(s3), parsingService, writer);
+
+        try {
+            pipeline.run(BUCKET, "broken.json", -1, "prefix-");
+            fail("Expected the truncated JSON to fail the run");
+        } catch (IngestFailedException e) {
+            IngestResult partial = e.getPartialResult();
+            assertFalse(partial.isComplete());
+            // Every item in the table is accounted for in the partial result, and no write follows it
+            assertEquals(partial.getWrittenCount(), dynamoDb.items(REVIEW_TABLE).size());
+            int saves = writer.saves.get();
+            Thread.sleep(200);
+            assertEquals(saves, writer.saves.get());
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void writeFailureKeepsTheParserDraining() throws IOException {
+        byte[] content = textReviews(REVIEWS);
+        s3.putObject(BUCKET, "reviews.txt", content);
+        CountingDynamoDbService failing = new CountingDynamoDbService(dynamoDb, 2);
+        IngestPipeline pipeline = new IngestPipeline(new S3Service(s3), parsingService, failing);
+
+        try {
+            pipeline.run(BUCKET, "reviews.txt", content.length, "prefix-");
+            fail("Expected the write failure to fail the run");
+        } catch (IngestFailedException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("table unavailable"));
+            // The parser still read the whole file, but only the batches before the failure were stored
+            assertEquals(REVIEWS, e.getPartialResult().getParsedCount());
+            assertEquals(200, e.getPartialResult().getWrittenCount());
+            assertEquals(3, failing.saves.get());
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void downloadFailureFailsTheRun() throws IOException {
+        byte[] head = textReviews(2_000);
+        S3Service truncating = new S3Service(s3) {
+            @Override
+            public S3ObjectStream openObjectStream(String bucketName, String objectKey, long objectSize) {
+                return new S3ObjectStream(new SequenceInputStream(new ByteArrayInputStream(head), new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        throw new IOException("Connection reset");
+                    }
+                }), null);
+            }
+        };
+        IngestPipeline pipeline = new IngestPipeline(truncating, parsingService, writer);
+
+        try {
+            pipeline.run(BUCKET, "reviews.txt", -1, "prefix-");
+            fail("Expected the download failure to fail the run");
+        } catch (IngestFailedException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Connection reset"));
+            assertFalse(e.getPartialResult().isComplete());
+        } finally {
+            pipeline.close();
+        }
+
+        // The failed run leaves the shared parser usable for the next file
+        s3.putObject(BUCKET, "next.txt", textReviews(10));
+        IngestPipeline next = new IngestPipeline(new S3Service(s3), parsingService, writer);
+        try {
+            assertEquals(10, next.run(BUCKET, "next.txt", -1, "next-").getWrittenCount());
+        } finally {
+            next.close();
+        }
+    }
+
+    private static byte[] textReviews(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append("ProductName: Product ").append(i % 10)
+                    .append(", Price: 10, Review: Fine, Rating: 4; ");
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Counts calls to saveReviewBatches and fails every call after the first few
+     */
+    private static final class CountingDynamoDbService extends DynamoDbService {
+
+        final AtomicInteger saves = new AtomicInteger();
+        private final int successfulSaves;
+
+        CountingDynamoDbService(InMemoryDynamoDbClient dynamoDb, int successfulSaves) {
+            super(dynamoDb);
+            this.successfulSaves = successfulSaves;
+        }
+
+        @Override
+        public List<BatchWriteResult> saveReviewBatches(List<ReviewBatch> reviewBatches) {
+            if (saves.incrementAndGet() > successfulSaves) {
+                throw new IllegalStateException("table unavailable");
+            }
+            return super.saveReviewBatches(reviewBatches);
+        }
+    }
+}
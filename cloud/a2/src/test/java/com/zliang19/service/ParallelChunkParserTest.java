@@ -0,0 +1,133 @@
+package com.zliang19.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.zliang19.model.ProductNameDictionary;
+import com.zliang19.model.ReviewBatch;
+
+/**
+ * Chunking of ParallelChunkParser, with a chunk parser that takes every record as a product
+ * name and rejects records starting with "bad"
+ */
+public class ParallelChunkParserTest {
+
+    private final ParallelChunkParser parser = new ParallelChunkParser(4, 64, 7);
+    private final List<ReviewBatch> batches = new ArrayList<>();
+    private final List<String> chunks = Collections.synchronizedList(new ArrayList<>());
+
+    @After
+    public void closeParser() {
+        parser.close();
+    }
+
+    @Test
+    public void recordsArriveInSourceOrder() throws IOException {
+        StringBuilder content = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String record = i % 50 == 49 ? "bad " + i : "Product " + i;
+            content.append(record).append(';');
+            if (!record.startsWith("bad")) {
+                expected.add(record);
+            }
+        }
+
+        ParseResult result = parse(content.toString(), new ProductNameDictionary(1024, 64));
+
+        assertEquals(490, result.getParsedCount());
+        assertEquals(10, result.getRejectedCount());
+        assertEquals(expected, validNames());
+        assertTrue("parsed " + chunks.size() + " chunks", chunks.size() > 50);
+    }
+
+    @Test
+    public void recordsLongerThanAChunkAreKeptWhole() throws IOException {
+        char[] filler = new char[10_000];
+        Arrays.fill(filler, 'x');
+        String longRecord = new String(filler);
+
+        parse("Laptop;" + longRecord + ";Phone;" + longRecord + "y;Tablet", null);
+
+        assertEquals(Arrays.asList("Laptop", longRecord, "Phone", longRecord + "y", "Tablet"), validNames());
+        // Every chunk but the last is cut just after a delimiter, however far it had to grow
+        for (int i = 0; i < chunks.size() - 1; i++) {
+            assertTrue(chunks.get(i).endsWith(";"));
+        }
+        assertTrue(chunks.size() < 10);
+    }
+
+    @Test
+    public void streamWithinOneChunkIsParsedWhole() throws IOException {
+        ParseResult result = parse("Laptop;Phone", null);
+
+        assertEquals(2, result.getParsedCount());
+        assertEquals(Arrays.asList("Laptop", "Phone"), validNames());
+        assertEquals(Collections.singletonList("Laptop;Phone"), chunks);
+    }
+
+    @Test
+    public void failedChunkFailsTheParse() {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            content.append(i == 60 ? "fail" : "Product " + i).append(';');
+        }
+
+        try {
+            parser.parse(stream(content.toString()), (byte) ';', (data, offset, length, out) -> {
+                if (new String(data, offset, length, StandardCharsets.UTF_8).contains("fail")) {
+                    throw new IllegalStateException("unreadable chunk");
+                }
+            }, null, batches::add);
+            fail("Expected the chunk failure to surface");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("unreadable chunk"));
+        }
+    }
+
+    private ParseResult parse(String content, ProductNameDictionary productNames) throws IOException {
+        return parser.parse(stream(content), (byte) ';', this::parseRecords, productNames, batches::add);
+    }
+
+    private void parseRecords(byte[] data, int offset, int length, ReviewBatchBuilder out) {
+        String chunk = new String(data, offset, length, StandardCharsets.UTF_8);
+        chunks.add(chunk);
+        for (String record : chunk.split(";")) {
+            ReviewBatch batch = out.batch();
+            if (record.startsWith("bad")) {
+                batch.addRejectedRow(batch.textMark());
+            } else {
+                batch.add(record, 10, "", 4);
+            }
+        }
+    }
+
+    private List<String> validNames() {
+        List<String> names = new ArrayList<>();
+        for (ReviewBatch batch : batches) {
+            for (int row = 0; row < batch.size(); row++) {
+                if (batch.isValid(row)) {
+                    names.add(batch.getProductName(row));
+                }
+            }
+        }
+        return names;
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
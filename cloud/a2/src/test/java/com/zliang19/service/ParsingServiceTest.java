@@ -0,0 +1,252 @@
+package com.zliang19.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.zliang19.model.ProductAggregate;
+import com.zliang19.model.ProductNameDictionary;
+import com.zliang19.model.ProductReview;
+import com.zliang19.model.ReviewBatch;
+
+/**
+ * Streaming parsers of ParsingService, fed from in-memory content
+ */
+public class ParsingServiceTest {
+
+    private final ParsingService parsingService = new ParsingService();
+    private final List<ReviewBatch> batches = new ArrayList<>();
+
+    @After
+    public void closeParser() {
+        parsingService.close();
+    }
+
+    @Test
+    public void jsonFieldsAreReadInAnyOrderAndUnknownOnesSkipped() throws IOException {
+        String reviews = "[{\"Rating\":4.5,\"Tags\":[\"tv\",{\"size\":[55,65]}],\"ProductName\":\"Sony TV\","
+                + "\"Meta\":{\"Review\":\"not this one\"},\"Price\":\"12000\",\"Review\":\"Caf\\u00e9 \\\"best\\\"\"},"
+                + "{\"ProductName\":\"Bravia Microwave\",\"Price\":350,\"Review\":\"Good value\",\"Rating\":\"4.12\"}]";
+
+        List<ProductReview> parsed = parsingService.parseContent(reviews, "reviews.json");
+
+        assertEquals(2, parsed.size());
+        assertEquals("Sony TV", parsed.get(0).getProductName());
+        assertEquals(12000.0, parsed.get(0).getPrice(), 0.0);
+        assertEquals("Caf\u00e9 \"best\"", parsed.get(0).getReviewComment());
+        assertEquals(4.5, parsed.get(0).getRating(), 0.0);
+        assertEquals("Bravia Microwave", parsed.get(1).getProductName());
+        assertEquals(4.12, parsed.get(1).getRating(), 0.0);
+    }
+
+    @Test
+    public void incompleteJsonReviewsAreRejected() throws IOException {
+        String reviews = "[{\"ProductName\":\"Laptop\",\"Price\":999,\"Review\":\"No rating\"},"
+                + "{\"ProductName\":null,\"Price\":999,\"Review\":\"Null name\",\"Rating\":4},"
+                + "42,"
+                + "{\"ProductName\":\"Laptop\",\"Price\":999,\"Review\":\"Complete\",\"Rating\":4}]";
+
+        ParseResult result = parsingService.parseJsonStream(stream(reviews), batches::add);
+
+        assertEquals(1, result.getParsedCount());
+        assertEquals(3, result.getRejectedCount());
+        // Rejected records keep their rows, so the valid one is still the fourth
+        assertEquals(4, batches.get(0).size());
+        assertEquals("Complete", batches.get(0).getReviewComment(3));
+    }
+
+    @Test
+    public void singleJsonObjectIsOneReview() throws IOException {
+        List<ProductReview> parsed = parsingService.parseContent(
+                "{\"ProductName\":\"Laptop\",\"Price\":999,\"Review\":\"Fine\",\"Rating\":4}", "review.json");
+
+        assertEquals(1, parsed.size());
+        assertEquals("Laptop", parsed.get(0).getProductName());
+    }
+
+    @Test
+    public void jsonReviewsAreStreamedInFullBatches() throws IOException {
+        StringBuilder reviews = new StringBuilder("[");
+        for (int i = 0; i < 250; i++) {
+            reviews.append(i == 0 ? "" : ",").append("{\"ProductName\":\"Product ").append(i)
+                    .append("\",\"Price\":").append(i).append(",\"Review\":\"Fine\",\"Rating\":4}");
+        }
+
+        ParseResult result = parsingService.parseJsonStream(stream(reviews.append("]").toString()), batches::add);
+
+        assertEquals(250, result.getParsedCount());
+        assertEquals(3, batches.size());
+        assertEquals(100, batches.get(0).size());
+        assertEquals(50, batches.get(2).size());
+        assertEquals("Product 249", batches.get(2).getProductName(49));
+        assertEquals(249.0, lastPrice(batches), 0.0);
+    }
+
+    @Test
+    public void truncatedJsonFailsTheFile() {
+        try {
+            parsingService.parseJsonStream(stream("[{\"ProductName\":\"Laptop\",\"Price\":999,\"Review\":\"Fine\""),
+                    batches::add);
+            fail("Expected the truncated JSON to fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Failed to parse JSON content"));
+        }
+    }
+
+    @Test
+    public void nonFiniteJsonNumbersAreRejected() throws IOException {
+        String reviews = "[" + String.join(",", nonFiniteReviews())
+                + ",{\"ProductName\":\"Laptop\",\"Price\":\"1e3\",\"Review\":\"Fine\",\"Rating\":4}]";
+
+        ParseResult result = parsingService.parseJsonStream(stream(reviews), batches::add);
+
+        assertEquals(1, result.getParsedCount());
+        assertEquals(3, result.getRejectedCount());
+        assertEquals(1000.0, lastPrice(batches), 0.0);
+    }
+
+    @Test
+    public void nonFiniteJsonLinesNumbersAreRejected() throws IOException {
+        String reviews = String.join("\n", nonFiniteReviews())
+                + "\n{\"ProductName\":\"Laptop\",\"Price\":999.5,\"Review\":\"Fine\",\"Rating\":4}\n";
+
+        ParseResult result = parsingService.parseJsonLinesStream(stream(reviews), batches::add);
+
+        assertEquals(1, result.getParsedCount());
+        assertEquals(3, result.getRejectedCount());
+        assertEquals(999.5, lastPrice(batches), 0.0);
+    }
+
+    @Test
+    public void jsonLinesAcrossChunksKeepFileOrder() throws IOException {
+        // About 2 MB, so the lines are cut into several chunks parsed in parallel
+        StringBuilder lines = new StringBuilder();
+        int expected = 0;
+        for (int i = 0; i < 30_000; i++) {
+            if (i % 1000 == 500) {
+                lines.append("{\"ProductName\":\"Broken\",\"Price\":\n");
+            } else if (i % 1000 == 700) {
+                lines.append("  \r\n");
+            } else {
+                lines.append("{\"ProductName\":\"Product ").append(expected).append("\",\"Price\":").append(expected)
+                        .append(",\"Review\":\"Fine\",\"Rating\":4}").append(i % 2 == 0 ? "\r\n" : "\n");
+                expected++;
+            }
+        }
+
+        ParseResult result = parsingService.parseBatches(stream(lines.toString()), "reviews.jsonl", null,
+                batches::add);
+
+        assertEquals(expected, result.getParsedCount());
+        // A broken line rejects only itself; blank lines add no row
+        assertEquals(30, result.getRejectedCount());
+        int valid = 0;
+        for (ReviewBatch batch : batches) {
+            for (int row = 0; row < batch.size(); row++) {
+                if (batch.isValid(row)) {
+                    assertEquals("Product " + valid, batch.getProductName(row));
+                    assertEquals(valid, batch.getPrice(row), 0.0);
+                    valid++;
+                }
+            }
+        }
+        assertEquals(expected, valid);
+    }
+
+    @Test
+    public void jsonLinesExtensionsPickTheLineParser() throws IOException {
+        String lines = "{\"ProductName\":\"Laptop\",\"Price\":999,\"Review\":\"Fine\",\"Rating\":4}\n"
+                + "{\"ProductName\":\"Phone\",\"Price\":599,\"Review\":\"Good\",\"Rating\":5}";
+
+        assertEquals(2, parsingService.parseContent(lines, "reviews.ndjson").size());
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(lines.getBytes(StandardCharsets.UTF_8));
+        }
+        List<ProductReview> parsed = new ArrayList<>();
+        ParseResult result = parsingService.parseContent(new ByteArrayInputStream(compressed.toByteArray()),
+                "reviews.jsonl.gz", parsed::add);
+        assertEquals(2, result.getParsedCount());
+        assertEquals("Phone", parsed.get(1).getProductName());
+    }
+
+    @Test
+    public void fullDictionaryIsReplacedForTheNextFile() throws IOException {
+        ParsingService smallDictionary = new ParsingService(2);
+        try {
+            List<ReviewBatch> first = new ArrayList<>();
+            smallDictionary.parseJsonLinesStream(stream(jsonLines("Laptop", "Phone", "Tablet")), first::add);
+            ProductNameDictionary full = first.get(0).getProductNameDictionary();
+            assertTrue(full.isFull());
+            assertEquals(ProductNameDictionary.NO_CODE, first.get(0).getProductNameCode(2));
+
+            // The next file gets codes again, from a new dictionary
+            List<ReviewBatch> second = new ArrayList<>();
+            smallDictionary.parseJsonLinesStream(stream(jsonLines("Tablet", "Laptop")), second::add);
+            assertNotSame(full, second.get(0).getProductNameDictionary());
+            assertEquals(0, second.get(0).getProductNameCode(0));
+            assertEquals(1, second.get(0).getProductNameCode(1));
+
+            // Batches of the first file still decode, and equal codes of two dictionaries are not mixed up
+            assertEquals("Laptop", first.get(0).getProductName(0));
+            assertEquals("Phone", first.get(0).getProductName(1));
+            ProductAggregator aggregator = new ProductAggregator();
+            first.forEach(aggregator::add);
+            second.forEach(aggregator::add);
+            List<String> names = new ArrayList<>();
+            for (ProductAggregate aggregate : aggregator.getAggregates()) {
+                names.add(aggregate.getProductName() + "=" + aggregate.getReviewCount());
+            }
+            assertEquals("[Laptop=2, Phone=1, Tablet=2]", names.toString());
+        } finally {
+            smallDictionary.close();
+        }
+    }
+
+    private static String jsonLines(String... productNames) {
+        StringBuilder lines = new StringBuilder();
+        for (String productName : productNames) {
+            lines.append("{\"ProductName\":\"").append(productName)
+                    .append("\",\"Price\":10,\"Review\":\"Fine\",\"Rating\":4}\n");
+        }
+        return lines.toString();
+    }
+
+    /**
+     * Reviews whose price or rating reads as NaN or Infinity; DynamoDB cannot store either
+     */
+    private static List<String> nonFiniteReviews() {
+        List<String> reviews = new ArrayList<>();
+        reviews.add("{\"ProductName\":\"Laptop\",\"Price\":\"NaN\",\"Review\":\"Fast\",\"Rating\":5}");
+        reviews.add("{\"ProductName\":\"Laptop\",\"Price\":999.99,\"Review\":\"Fast\",\"Rating\":\"-Infinity\"}");
+        reviews.add("{\"ProductName\":\"Laptop\",\"Price\":1e999,\"Review\":\"Fast\",\"Rating\":5}");
+        return reviews;
+    }
+
+    /**
+     * @return Price of the last row, the only valid one in these tests
+     */
+    private static double lastPrice(List<ReviewBatch> batches) {
+        ReviewBatch batch = batches.get(batches.size() - 1);
+        assertTrue(batch.isValid(batch.size() - 1));
+        return batch.getPrice(batch.size() - 1);
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
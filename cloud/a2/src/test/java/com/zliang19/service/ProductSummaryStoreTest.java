@@ -0,0 +1,268 @@
+package com.zliang19.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zliang19.model.ProductAggregate;
+import com.zliang19.testing.TestDynamoDb;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+
+/**
+ * Per-product summary updates, on DynamoDB Local when configured (see {@link TestDynamoDb})
+ */
+public class ProductSummaryStoreTest {
+
+    private static final String SUMMARY_TABLE = "ProductReviewSummary";
+    private static final String LEDGER_TABLE = "ProductReviewIngestLedger";
+    private static final String FIRST_FILE = IdempotencyStore.objectId("reviews", "a.json", "\"a\"", null);
+    private static final String SECOND_FILE = IdempotencyStore.objectId("reviews", "b.json", "\"b\"", null);
+
+    private TestDynamoDb tables;
+    private CountingClient client;
+    private ExecutorService executor;
+    private ProductSummaryStore store;
+
+    @Before
+    public void createStore() {
+        tables = new TestDynamoDb()
+                .createTable(SUMMARY_TABLE, ProductSummaryStore.KEY_ATTRIBUTE)
+                .createTable(LEDGER_TABLE, "ObjectId");
+        client = new CountingClient(tables.client());
+        executor = Executors.newFixedThreadPool(4);
+        IdempotencyStore ledger = new IdempotencyStore(client, LEDGER_TABLE, 16, 900, 3600);
+        store = new ProductSummaryStore(client, SUMMARY_TABLE, ledger, executor);
+    }
+
+    @After
+    public void dropTables() {
+        executor.shutdownNow();
+        tables.close();
+    }
+
+    @Test
+    public void eachVersionIsAddedOnce() {
+        List<ProductAggregate> file = Arrays.asList(aggregate("Laptop", 4.0, 999.0), aggregate("Phone", 3.0, 499.0));
+
+        assertEquals(0, store.apply(file, FIRST_FILE).getFailedCount());
+        assertEquals(0, store.apply(file, FIRST_FILE).getFailedCount());
+        assertEquals(1, summary("Laptop").getReviewCount());
+
+        // A different version of the same content counts again
+        store.apply(file, SECOND_FILE);
+        ProductAggregate laptop = summary("Laptop");
+        assertEquals(2, laptop.getReviewCount());
+        assertEquals(8.0, laptop.getRatingSum(), 1e-9);
+        assertEquals(2, summary("Phone").getReviewCount());
+    }
+
+    @Test
+    public void extremesOnlyWiden() {
+        ProductAggregate first = new ProductAggregate("Laptop");
+        first.add(800, 2.0);
+        first.add(1200, 4.0);
+        ProductAggregate second = new ProductAggregate("Laptop");
+        second.add(600, 3.0);
+        second.add(1000, 5.0);
+
+        store.apply(Arrays.asList(first), FIRST_FILE);
+        store.apply(Arrays.asList(second), SECOND_FILE);
+
+        ProductAggregate laptop = summary("Laptop");
+        assertEquals(4, laptop.getReviewCount());
+        assertEquals(14.0, laptop.getRatingSum(), 1e-9);
+        assertEquals(2.0, laptop.getRatingMin(), 1e-9);
+        assertEquals(5.0, laptop.getRatingMax(), 1e-9);
+        assertEquals(600.0, laptop.getPriceMin(), 1e-9);
+        assertEquals(1200.0, laptop.getPriceMax(), 1e-9);
+    }
+
+    @Test
+    public void rankingAttributesFollowTheTotals() {
+        store.apply(Arrays.asList(aggregate("Laptop", 4.0, 999.0)), FIRST_FILE);
+        store.apply(Arrays.asList(aggregate("Laptop", 1.0, 999.0)), SECOND_FILE);
+
+        Map<String, AttributeValue> item = item("Laptop");
+        assertEquals(2.5, Double.parseDouble(item.get(ProductSummaryStore.AVERAGE_RATING_ATTRIBUTE).n()), 1e-9);
+        assertEquals(ProductSummaryStore.rankingShard("Laptop"), item.get(ProductSummaryStore.RANK_SHARD_ATTRIBUTE).s());
+    }
+
+    @Test
+    public void concurrentFilesOfOneProductAllCount() throws Exception {
+        // Without object IDs every apply adds again; each retries on the count the other changed
+        ExecutorService writers = Executors.newFixedThreadPool(4);
+        List<Future<SummaryUpdateResult>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            double rating = 1 + i % 5;
+            results.add(writers.submit(() -> store.apply(Arrays.asList(aggregate("Laptop", rating, 10 * rating)), null)));
+        }
+        int failed = 0;
+        for (Future<SummaryUpdateResult> result : results) {
+            failed += result.get().getFailedCount();
+        }
+        writers.shutdown();
+
+        ProductAggregate laptop = summary("Laptop");
+        assertEquals(20 - failed, laptop.getReviewCount());
+        double average = Double.parseDouble(item("Laptop").get(ProductSummaryStore.AVERAGE_RATING_ATTRIBUTE).n());
+        assertEquals(laptop.getAverageRating(), average, 1e-9);
+        if (failed == 0) {
+            assertEquals(1.0, laptop.getRatingMin(), 1e-9);
+            assertEquals(50.0, laptop.getPriceMax(), 1e-9);
+        }
+    }
+
+    @Test
+    public void productsAreWrittenFiftyPerTransaction() {
+        List<ProductAggregate> file = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            file.add(aggregate("Product " + i, 1 + i % 5, 10 + i));
+        }
+
+        // New products need no second attempt: 3 transactions of 50, 50 and 20 products
+        assertEquals(0, store.apply(file, FIRST_FILE).getFailedCount());
+        assertEquals(3, client.transactions.get());
+        assertEquals(100, client.largestTransaction.get());
+
+        // Known products are cancelled once to learn their extremes, then written
+        client.transactions.set(0);
+        assertEquals(0, store.apply(file, SECOND_FILE).getFailedCount());
+        assertEquals(6, client.transactions.get());
+        assertEquals(2, summary("Product 119").getReviewCount());
+
+        // Without an object ID there are no markers, so 100 products fit one transaction
+        client.transactions.set(0);
+        client.largestTransaction.set(0);
+        assertEquals(0, store.apply(file.subList(0, 100), null).getFailedCount());
+        assertEquals(2, client.transactions.get());
+        assertEquals(100, client.largestTransaction.get());
+        assertEquals(3, summary("Product 0").getReviewCount());
+    }
+
+    @Test
+    public void failedGroupIsRetriedWithoutCountingTwice() {
+        List<ProductAggregate> file = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            file.add(aggregate("Product " + i, 4.0, 10.0));
+        }
+        client.failTransactionsWith = "Product 55";
+
+        SummaryUpdateResult result = store.apply(file, FIRST_FILE);
+        assertEquals(10, result.getFailedCount());
+        assertEquals(1, summary("Product 0").getReviewCount());
+        assertNull(item("Product 55"));
+
+        client.failTransactionsWith = null;
+        assertEquals(0, store.apply(file, FIRST_FILE).getFailedCount());
+        assertEquals(1, summary("Product 0").getReviewCount());
+        assertEquals(1, summary("Product 55").getReviewCount());
+    }
+
+    @Test
+    public void namesLongerThanAKeyAreSkippedAndCounted() {
+        String longest = repeat('x', ProductSummaryStore.MAX_PRODUCT_NAME_BYTES);
+        // Each euro sign is three bytes in UTF-8
+        String tooManyBytes = repeat('€', ProductSummaryStore.MAX_PRODUCT_NAME_BYTES / 3 + 1);
+        List<ProductAggregate> file = Arrays.asList(aggregate("Laptop", 4.0, 999.0),
+                aggregate(longest, 4.0, 1.0), aggregate(longest + "x", 4.0, 1.0), aggregate(tooManyBytes, 4.0, 1.0),
+                aggregate("", 4.0, 1.0));
+
+        SummaryUpdateResult result = store.apply(file, FIRST_FILE);
+
+        assertEquals(0, result.getFailedCount());
+        assertEquals(2, result.getSkippedCount());
+        assertNotNull(item("Laptop"));
+        assertNotNull(item(longest));
+        assertTrue(ProductSummaryStore.fitsKey(longest));
+        assertFalse(ProductSummaryStore.fitsKey(tooManyBytes));
+    }
+
+    private static ProductAggregate aggregate(String productName, double rating, double price) {
+        ProductAggregate aggregate = new ProductAggregate(productName);
+        aggregate.add(price, rating);
+        return aggregate;
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private ProductAggregate summary(String productName) {
+        Map<String, AttributeValue> item = item(productName);
+        assertNotNull(productName, item);
+        return ProductSummaryStore.toAggregate(item);
+    }
+
+    private Map<String, AttributeValue> item(String productName) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put(ProductSummaryStore.KEY_ATTRIBUTE, AttributeValue.builder().s(productName).build());
+        Map<String, AttributeValue> item = tables.client().getItem(GetItemRequest.builder()
+                .tableName(SUMMARY_TABLE)
+                .key(key)
+                .consistentRead(true)
+                .build()).item();
+        return item != null && !item.isEmpty() ? item : null;
+    }
+
+    /**
+     * Counts transactions on the way to a real client, and fails those that touch a chosen product
+     */
+    private static final class CountingClient implements DynamoDbClient {
+
+        private final DynamoDbClient delegate;
+        final AtomicInteger transactions = new AtomicInteger();
+        final AtomicInteger largestTransaction = new AtomicInteger();
+        volatile String failTransactionsWith;
+
+        CountingClient(DynamoDbClient delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public TransactWriteItemsResponse transactWriteItems(TransactWriteItemsRequest request) {
+            transactions.incrementAndGet();
+            largestTransaction.accumulateAndGet(request.transactItems().size(), Math::max);
+            for (TransactWriteItem item : request.transactItems()) {
+                if (item.update() != null && failTransactionsWith != null
+                        && failTransactionsWith.equals(item.update().key().get(ProductSummaryStore.KEY_ATTRIBUTE).s())) {
+                    throw SdkClientException.create("Connection reset");
+                }
+            }
+            return delegate.transactWriteItems(request);
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.zliang19.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class QueryCacheTest {
+
+    private static final long TTL_MILLIS = 60_000;
+
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+
+    @After
+    public void stopCallers() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    public void concurrentMissesShareOneLoad() throws Exception {
+        QueryCache<String, String> cache = new QueryCache<>(16, TTL_MILLIS);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        int callerCount = 8;
+
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < callerCount; i++) {
+            results.add(callers.submit(() -> cache.get("product", key -> {
+                loads.incrementAndGet();
+                awaitQuietly(release);
+                return "reviews of " + key;
+            })));
+        }
+        // Every caller but the loader has to be waiting on the load before it finishes
+        waitUntil(() -> cache.getCoalescedCount() == callerCount - 1);
+        release.countDown();
+
+        String first = results.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<String> result : results) {
+            assertSame(first, result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(callerCount - 1, cache.getCoalescedCount());
+    }
+
+    @Test
+    public void freshEntryIsServedWithoutLoading() {
+        QueryCache<String, Integer> cache = new QueryCache<>(16, TTL_MILLIS);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals(Integer.valueOf(1), cache.get("a", key -> loads.incrementAndGet()));
+        assertEquals(Integer.valueOf(1), cache.get("a", key -> loads.incrementAndGet()));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void invalidatedKeyIsLoadedAgain() {
+        QueryCache<String, Integer> cache = new QueryCache<>(16, TTL_MILLIS);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("a", key -> loads.incrementAndGet());
+        cache.invalidate("a");
+        assertEquals(Integer.valueOf(2), cache.get("a", key -> loads.incrementAndGet()));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void loadRunningDuringInvalidationIsNotCached() throws Exception {
+        QueryCache<String, String> cache = new QueryCache<>(16, TTL_MILLIS);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> stale = callers.submit(() -> cache.get("a", key -> {
+            loading.countDown();
+            awaitQuietly(release);
+            return "before";
+        }));
+        loading.await(5, TimeUnit.SECONDS);
+        cache.invalidate("a");
+        release.countDown();
+
+        assertEquals("before", stale.get(5, TimeUnit.SECONDS));
+        assertEquals("after", cache.get("a", key -> "after"));
+    }
+
+    @Test
+    public void zeroTtlCoalescesButDoesNotCache() {
+        QueryCache<String, Integer> cache = new QueryCache<>(16, 0);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("a", key -> loads.incrementAndGet());
+        cache.get("a", key -> loads.incrementAndGet());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void leastRecentlyUsedKeyIsEvicted() {
+        QueryCache<String, String> cache = new QueryCache<>(2, TTL_MILLIS);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("a", key -> key + loads.incrementAndGet());
+        cache.get("b", key -> key + loads.incrementAndGet());
+        cache.get("a", key -> key + loads.incrementAndGet());
+        cache.get("c", key -> key + loads.incrementAndGet());
+
+        // "b" was the least recently used of the two kept keys when "c" arrived
+        assertEquals("a1", cache.get("a", key -> key + loads.incrementAndGet()));
+        assertEquals("b4", cache.get("b", key -> key + loads.incrementAndGet()));
+    }
+
+    @Test
+    public void loaderFailureReachesEveryWaiterAndIsNotCached() throws Exception {
+        QueryCache<String, String> cache = new QueryCache<>(16, TTL_MILLIS);
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(callers.submit(() -> cache.get("a", key -> {
+                awaitQuietly(release);
+                throw new IllegalStateException("backend down");
+            })));
+        }
+        waitUntil(() -> cache.getCoalescedCount() == 2);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail("Expected the loader failure");
+            } catch (java.util.concurrent.ExecutionException e) {
+                assertEquals("backend down", e.getCause().getMessage());
+            }
+        }
+        assertEquals("recovered", cache.get("a", key -> "recovered"));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitUntil(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Condition not reached within 5 seconds");
+            }
+            Thread.sleep(1);
+        }
+    }
+}
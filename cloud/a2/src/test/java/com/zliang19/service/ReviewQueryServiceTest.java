@@ -0,0 +1,231 @@
+package com.zliang19.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zliang19.model.ProductAggregate;
+import com.zliang19.model.ProductReview;
+import com.zliang19.model.ProductReviewSchema;
+import com.zliang19.model.ReviewBatch;
+import com.zliang19.testing.TestDynamoDb;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+
+/**
+ * Cached reads of ReviewQueryService over both indexes, on DynamoDB Local when configured
+ * (see {@link TestDynamoDb}). The service reads through a client that only serves Query,
+ * so any Scan fails the test.
+ */
+public class ReviewQueryServiceTest {
+
+    private static final String REVIEW_TABLE = "ProductReview";
+    private static final String SUMMARY_TABLE = "ProductReviewSummary";
+    private static final String LEDGER_TABLE = "ProductReviewIngestLedger";
+    private static final Comparator<ProductAggregate> BY_AVERAGE_RATING =
+            Comparator.comparingDouble(ProductAggregate::getAverageRating).reversed()
+                    .thenComparing(Comparator.comparingLong(ProductAggregate::getReviewCount).reversed())
+                    .thenComparing(ProductAggregate::getProductName);
+
+    private TestDynamoDb tables;
+    private ExecutorService executor;
+    private ProductSummaryStore summaries;
+    private DynamoDbService writer;
+    private QueryOnlyClient reads;
+    private ReviewQueryService queries;
+    private long position;
+
+    @Before
+    public void createTables() {
+        tables = new TestDynamoDb()
+                .createTable(REVIEW_TABLE, ProductReviewSchema.IDENTIFIER,
+                        ReviewQueryService.DEFAULT_INDEX_NAME, ProductReviewSchema.PRODUCT_NAME)
+                .createTable(SUMMARY_TABLE, ProductSummaryStore.KEY_ATTRIBUTE,
+                        ReviewQueryService.DEFAULT_RANKING_INDEX_NAME, ProductSummaryStore.RANK_SHARD_ATTRIBUTE,
+                        ProductSummaryStore.AVERAGE_RATING_ATTRIBUTE)
+                .createTable(LEDGER_TABLE, "ObjectId");
+        executor = Executors.newFixedThreadPool(4);
+        summaries = new ProductSummaryStore(tables.client(), SUMMARY_TABLE,
+                new IdempotencyStore(tables.client(), LEDGER_TABLE, 16, 900, 3600), executor);
+        // Not closed, as that would close the shared client; its batch writers are daemon threads
+        writer = new DynamoDbService(tables.client());
+        reads = new QueryOnlyClient(tables.client());
+        queries = new ReviewQueryService(reads, REVIEW_TABLE, ReviewQueryService.DEFAULT_INDEX_NAME, SUMMARY_TABLE,
+                ReviewQueryService.DEFAULT_RANKING_INDEX_NAME, 16, 60_000, 1000);
+    }
+
+    @After
+    public void dropTables() {
+        executor.shutdownNow();
+        tables.close();
+    }
+
+    @Test
+    public void reviewsAreCachedUntilInvalidated() {
+        writeReviews("Laptop", 3);
+        writeReviews("Phone", 2);
+
+        List<ProductReview> laptop = queries.getReviewsForProduct("Laptop");
+        assertEquals(3, laptop.size());
+        for (ProductReview review : laptop) {
+            assertEquals("Laptop", review.getProductName());
+        }
+        assertEquals(2, queries.getReviewsForProduct("Phone").size());
+        assertEquals(0, queries.getReviewsForProduct("Tablet").size());
+
+        // A review written by an ingest elsewhere shows up once the product is invalidated
+        writeReviews("Laptop", 1);
+        int queried = reads.queries.get();
+        assertEquals(3, queries.getReviewsForProduct("Laptop").size());
+        assertEquals(queried, reads.queries.get());
+        queries.invalidateProducts(Collections.singletonList("Laptop"));
+        assertEquals(4, queries.getReviewsForProduct("Laptop").size());
+    }
+
+    @Test
+    public void reviewsAreCappedPerProduct() {
+        writeReviews("Laptop", 5);
+        ReviewQueryService capped = new ReviewQueryService(reads, REVIEW_TABLE, ReviewQueryService.DEFAULT_INDEX_NAME,
+                SUMMARY_TABLE, ReviewQueryService.DEFAULT_RANKING_INDEX_NAME, 16, 60_000, 2);
+
+        assertEquals(2, capped.getReviewsForProduct("Laptop").size());
+    }
+
+    @Test
+    public void rankingReadsOnlyTheTopOfEachShard() {
+        // 200 products with distinct averages from 1 to 4.98 and one to three reviews each
+        List<ProductAggregate> products = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ProductAggregate product = new ProductAggregate("Product " + i);
+            for (int review = 0; review <= i % 3; review++) {
+                product.add(10, 1 + (i * 37 % 200) / 50.0);
+            }
+            products.add(product);
+        }
+        assertEquals(0, summaries.apply(products, null).getFailedCount());
+
+        List<ProductAggregate> top = queries.getTopRatedProducts(5, 0);
+        assertEquals(names(expectedTop(products, 5, 0)), names(top));
+        assertTrue("read " + reads.items.get() + " items", reads.items.get() < 100);
+
+        List<ProductAggregate> mostReviewed = queries.getTopRatedProducts(5, 3);
+        assertEquals(names(expectedTop(products, 5, 3)), names(mostReviewed));
+        for (ProductAggregate product : mostReviewed) {
+            assertEquals(3, product.getReviewCount());
+        }
+
+        // Every product, as a consistency check would ask for
+        assertEquals(names(expectedTop(products, 200, 0)), names(queries.getTopRatedProducts(Integer.MAX_VALUE, 0)));
+    }
+
+    @Test
+    public void tiesAreOrderedByReviewCount() {
+        ProductAggregate once = new ProductAggregate("Once");
+        once.add(10, 5.0);
+        ProductAggregate twice = new ProductAggregate("Twice");
+        twice.add(10, 5.0);
+        twice.add(10, 5.0);
+        ProductAggregate lower = new ProductAggregate("Lower");
+        lower.add(10, 4.0);
+        summaries.apply(Arrays.asList(once, lower, twice), null);
+
+        assertEquals(Collections.singletonList("Twice"), names(queries.getTopRatedProducts(1, 0)));
+        assertEquals(Arrays.asList("Twice", "Once", "Lower"), names(queries.getTopRatedProducts(3, 0)));
+    }
+
+    @Test
+    public void rankingIsCachedUntilInvalidated() {
+        ProductAggregate laptop = new ProductAggregate("Laptop");
+        laptop.add(999, 3.0);
+        summaries.apply(Collections.singletonList(laptop), null);
+        assertEquals(3.0, queries.getTopRatedProducts(10, 0).get(0).getAverageRating(), 1e-9);
+
+        ProductAggregate praise = new ProductAggregate("Laptop");
+        praise.add(999, 5.0);
+        summaries.apply(Collections.singletonList(praise), null);
+        int queried = reads.queries.get();
+        assertEquals(3.0, queries.getTopRatedProducts(10, 0).get(0).getAverageRating(), 1e-9);
+        assertEquals(queried, reads.queries.get());
+
+        queries.invalidateRanking();
+        ProductAggregate ranked = queries.getTopRatedProducts(10, 0).get(0);
+        assertEquals(2, ranked.getReviewCount());
+        assertEquals(4.0, ranked.getAverageRating(), 1e-9);
+    }
+
+    private void writeReviews(String productName, int count) {
+        ReviewBatch batch = new ReviewBatch(count);
+        for (int i = 0; i < count; i++) {
+            batch.add(productName, 100 + i, "Review " + i, 4.0);
+        }
+        batch.setFirstIdentifier("0123456789abcdef0123456789abcdef-", position);
+        position += count;
+        for (BatchWriteResult result : writer.saveReviewBatches(Collections.singletonList(batch))) {
+            assertTrue(result.isSuccessful());
+        }
+    }
+
+    private static List<ProductAggregate> expectedTop(List<ProductAggregate> products, int limit, long minReviews) {
+        List<ProductAggregate> expected = new ArrayList<>();
+        for (ProductAggregate product : products) {
+            if (product.getReviewCount() >= minReviews) {
+                expected.add(product);
+            }
+        }
+        expected.sort(BY_AVERAGE_RATING);
+        return expected.subList(0, Math.min(limit, expected.size()));
+    }
+
+    private static List<String> names(List<ProductAggregate> products) {
+        List<String> names = new ArrayList<>();
+        for (ProductAggregate product : products) {
+            names.add(product.getProductName());
+        }
+        return names;
+    }
+
+    /**
+     * Serves only Query, counting requests and items returned
+     */
+    private static final class QueryOnlyClient implements DynamoDbClient {
+
+        private final DynamoDbClient delegate;
+        final AtomicInteger queries = new AtomicInteger();
+        final AtomicInteger items = new AtomicInteger();
+
+        QueryOnlyClient(DynamoDbClient delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public QueryResponse query(QueryRequest request) {
+            queries.incrementAndGet();
+            QueryResponse response = delegate.query(request);
+            items.addAndGet(response.count());
+            return response;
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
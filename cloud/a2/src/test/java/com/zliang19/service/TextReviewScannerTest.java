@@ -0,0 +1,215 @@
+package com.zliang19.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.zliang19.model.ProductNameDictionary;
+import com.zliang19.model.ProductReview;
+import com.zliang19.model.ReviewBatch;
+
+/**
+ * Checks the scanner against the regex parser it replaced, which is kept here as the reference
+ */
+public class TextReviewScannerTest {
+
+    private static final String[] NAMES = {"Laptop", "Wireless Mouse", "USB-C Hub", "Desk Lamp", "Keyboard"};
+    private static final String[] COMMENTS = {"Works well", "Stopped charging after a week",
+        "Great value for the price", "ok", "Would buy again!", "Light, but flimsy"};
+
+    private final TextReviewScanner scanner = new TextReviewScanner();
+
+    @Test
+    public void recordsMatchTheBaselineParser() {
+        for (String record : generateRecords(500, new Random(7))) {
+            ProductReview expected = parseBaseline(record);
+            ProductReview actual = scanner.parseRecord(record.toCharArray(), 0, record.length());
+            assertSameReview(record, expected, actual);
+        }
+    }
+
+    @Test
+    public void streamedFileMatchesTheBaselineParser() throws IOException {
+        // Large enough that records straddle the scanner's read buffer boundaries
+        String content = String.join(";\n", generateRecords(2000, new Random(11)));
+        assertTrue(content.length() > 8192 * 4);
+
+        List<ProductReview> expected = new ArrayList<>();
+        int expectedRejected = 0;
+        for (String record : content.split(";")) {
+            record = record.trim();
+            if (record.isEmpty()) {
+                continue;
+            }
+            ProductReview review = parseBaseline(record);
+            if (review != null) {
+                expected.add(review);
+            } else {
+                expectedRejected++;
+            }
+        }
+
+        List<ProductReview> actual = new ArrayList<>();
+        ReviewBatchBuilder builder = new ReviewBatchBuilder(128, new ProductNameDictionary(1024, 64),
+                batch -> batch.forEachReview(actual::add));
+        int valid = scanner.scan(new StringReader(content), builder);
+        ParseResult result = builder.finish();
+
+        assertEquals(expected.size(), valid);
+        assertEquals(expected.size(), result.getParsedCount());
+        assertEquals(expectedRejected, result.getRejectedCount());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameReview("review " + i, expected.get(i), actual.get(i));
+        }
+    }
+
+    @Test
+    public void incompleteOrNonNumericRecordsAreRejectedByBoth() {
+        String[] records = {
+            "ProductName: Laptop, Price: 999.99, Review: Fast",
+            "ProductName: Laptop, Price: cheap, Review: Fast, Rating: 5",
+            "ProductName: Laptop, Price: 999.99, Review: Fast, Rating: five",
+            "Price: 999.99, Review: Fast, Rating: 5",
+            "just some text",
+        };
+        for (String record : records) {
+            assertNull(record, parseBaseline(record));
+            assertNull(record, scanner.parseRecord(record.toCharArray(), 0, record.length()));
+        }
+    }
+
+    @Test
+    public void nonFiniteNumbersAreRejected() {
+        // The baseline accepted these, and the write then failed since DynamoDB cannot store them
+        String[] records = {
+            "ProductName: Laptop, Price: NaN, Review: Fast, Rating: 5",
+            "ProductName: Laptop, Price: 999.99, Review: Fast, Rating: Infinity",
+            "ProductName: Laptop, Price: -Infinity, Review: Fast, Rating: 5",
+            "ProductName: Laptop, Price: 1e999, Review: Fast, Rating: 5",
+        };
+        List<ReviewBatch> batches = new ArrayList<>();
+        ReviewBatchBuilder builder = new ReviewBatchBuilder(16, null, batches::add);
+        for (String record : records) {
+            assertNull(record, scanner.parseRecord(record.toCharArray(), 0, record.length()));
+        }
+        char[] content = (String.join(";", records) + ";ProductName: Laptop, Price: 1e3, Review: Fine, Rating: 4")
+                .toCharArray();
+
+        scanner.scan(content, 0, content.length, builder);
+        ParseResult result = builder.finish();
+        assertEquals(1, result.getParsedCount());
+        assertEquals(4, result.getRejectedCount());
+        assertEquals(1000.0, lastPrice(batches), 0.0);
+    }
+
+    @Test
+    public void blankRecordsAddNoRow() {
+        List<ReviewBatch> batches = new ArrayList<>();
+        ReviewBatchBuilder builder = new ReviewBatchBuilder(16, null, batches::add);
+        char[] content = "  ;\n;ProductName: Laptop, Price: 1, Review: Fine, Rating: 4;  \n".toCharArray();
+
+        assertEquals(1, scanner.scan(content, 0, content.length, builder));
+        ParseResult result = builder.finish();
+        assertEquals(1, result.getParsedCount());
+        assertEquals(0, result.getRejectedCount());
+        assertEquals(1, batches.get(0).size());
+    }
+
+    @Test
+    public void commaInsideAValueIsRejectedByBoth() {
+        // A comma not followed by a label leaves the value ambiguous, as it did for the baseline
+        String record = "ProductName: Laptop, Price: 999.99, Review: Fast, but loud, Rating: 4";
+        assertNull(parseBaseline(record));
+        assertNull(scanner.parseRecord(record.toCharArray(), 0, record.length()));
+    }
+
+    /**
+     * @return Price of the last row, the only valid one in these tests
+     */
+    private static double lastPrice(List<ReviewBatch> batches) {
+        ReviewBatch batch = batches.get(batches.size() - 1);
+        assertTrue(batch.isValid(batch.size() - 1));
+        return batch.getPrice(batch.size() - 1);
+    }
+
+    private static List<String> generateRecords(int count, Random random) {
+        List<String> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String name = NAMES[random.nextInt(NAMES.length)] + " " + random.nextInt(100);
+            String price = random.nextInt(10) == 0 ? "n/a" : String.valueOf(random.nextInt(100000) / 100.0);
+            String comment = COMMENTS[random.nextInt(COMMENTS.length)];
+            String rating = String.valueOf(1 + random.nextInt(5));
+            switch (random.nextInt(4)) {
+                case 0:
+                    records.add("Rating: " + rating + ", ProductName: " + name + ", Review: " + comment
+                            + ", Price: " + price);
+                    break;
+                case 1:
+                    records.add("productname:" + name + " ,price:  " + price + ", review: " + comment
+                            + ",rating:" + rating);
+                    break;
+                case 2:
+                    // Missing rating
+                    records.add("ProductName: " + name + ", Price: " + price + ", Review: " + comment);
+                    break;
+                default:
+                    records.add("ProductName: " + name + ", Price: " + price + ", Review: " + comment
+                            + ", Rating: " + rating);
+                    break;
+            }
+        }
+        return records;
+    }
+
+    private static void assertSameReview(String message, ProductReview expected, ProductReview actual) {
+        if (expected == null) {
+            assertNull(message, actual);
+            return;
+        }
+        assertNotNull(message, actual);
+        assertEquals(message, expected.getProductName(), actual.getProductName());
+        assertEquals(message, expected.getPrice(), actual.getPrice(), 0.0);
+        assertEquals(message, expected.getReviewComment(), actual.getReviewComment());
+        assertEquals(message, expected.getRating(), actual.getRating(), 0.0);
+    }
+
+    /**
+     * The original regex parser for one record
+     */
+    private static ProductReview parseBaseline(String record) {
+        String productName = extractField(record, "ProductName");
+        String priceStr = extractField(record, "Price");
+        String reviewComment = extractField(record, "Review");
+        String ratingStr = extractField(record, "Rating");
+
+        if (productName == null || priceStr == null || reviewComment == null || ratingStr == null) {
+            return null;
+        }
+        try {
+            return new ProductReview(null, productName, Double.parseDouble(priceStr), reviewComment,
+                    Double.parseDouble(ratingStr));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String extractField(String text, String fieldName) {
+        Pattern regex = Pattern.compile(fieldName + ":\\s*([^,]+?)(?=\\s*,\\s*\\w+:|$)", Pattern.CASE_INSENSITIVE);
+        Matcher matcher = regex.matcher(text);
+        if (matcher.find()) {
+            return matcher.group(1).trim();
+        }
+        return null;
+    }
+}
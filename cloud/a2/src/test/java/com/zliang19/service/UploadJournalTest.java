@@ -0,0 +1,155 @@
+package com.zliang19.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Buffered writes, rotation and read-back of UploadJournal in a temporary directory
+ */
+public class UploadJournalTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path path;
+    private final List<UploadJournal> journals = new ArrayList<>();
+
+    @Before
+    public void choosePath() {
+        path = folder.getRoot().toPath().resolve("s3_upload_log.txt");
+    }
+
+    @After
+    public void closeJournals() {
+        for (UploadJournal journal : journals) {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void entriesAreQueriedByBucketKeyAndTime() throws IOException {
+        UploadJournal journal = open(Long.MAX_VALUE, 0);
+        Instant before = Instant.now().minusSeconds(1);
+        journal.append("reviews", "2024/a.json");
+        journal.append("archive", "2024/b.json");
+        journal.append("reviews", "2025/c.txt");
+
+        assertEquals(Arrays.asList("2024/a.json", "2024/b.json", "2025/c.txt"),
+                keys(journal.query(null, null, null, null)));
+        assertEquals(Arrays.asList("2024/a.json", "2025/c.txt"), keys(journal.query("reviews", null, null, null)));
+        assertEquals(Arrays.asList("2024/a.json", "2024/b.json"), keys(journal.query(null, "2024/", null, null)));
+        assertEquals(3, journal.query(null, null, before, Instant.now().plusSeconds(1)).size());
+        assertEquals(0, journal.query(null, null, Instant.now().plusSeconds(60), null).size());
+        assertEquals(0, journal.query(null, null, null, before).size());
+
+        UploadJournal.Entry entry = journal.query("archive", null, null, null).get(0);
+        assertEquals("archive", entry.getBucketName());
+        assertFalse(entry.getTimestamp().isBefore(before.truncatedTo(ChronoUnit.SECONDS)));
+    }
+
+    @Test
+    public void linesKeepTheUploadLogFormat() throws IOException {
+        UploadJournal journal = open(Long.MAX_VALUE, 0);
+        journal.append("reviews", "a.json");
+        journal.close();
+
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0), lines.get(0).matches("\\[\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}\\.\\d{3}] "
+                + "File uploaded to bucket: reviews, object: a\\.json"));
+    }
+
+    @Test
+    public void fullFilesAreRotatedAndTheOldestDropped() throws IOException {
+        UploadJournal journal = open(400, 2);
+        for (int i = 0; i < 40; i++) {
+            journal.append("reviews", String.format("file-%02d.json", i));
+            // One write per entry, so every file is filled up to its limit
+            journal.flush();
+        }
+
+        assertTrue(Files.exists(path.resolveSibling(path.getFileName() + ".1")));
+        assertTrue(Files.exists(path.resolveSibling(path.getFileName() + ".2")));
+        assertFalse(Files.exists(path.resolveSibling(path.getFileName() + ".3")));
+        for (String suffix : Arrays.asList("", ".1", ".2")) {
+            assertTrue(Files.size(path.resolveSibling(path.getFileName() + suffix)) <= 400);
+        }
+
+        // The newest entries survive, oldest first, and run up to the last one appended
+        List<String> keys = keys(journal.query(null, null, null, null));
+        assertTrue(keys.size() > 5 && keys.size() < 40);
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(String.format("file-%02d.json", 40 - keys.size() + i), keys.get(i));
+        }
+    }
+
+    @Test
+    public void concurrentAppendsAreAllWrittenInOrderPerThread() throws Exception {
+        UploadJournal journal = open(Long.MAX_VALUE, 0);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            String prefix = "thread-" + t + "/";
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    journal.append("reviews", prefix + i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int t = 0; t < threads.length; t++) {
+            List<String> keys = keys(journal.query(null, "thread-" + t + "/", null, null));
+            assertEquals(5_000, keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                assertEquals("thread-" + t + "/" + i, keys.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void entryLargerThanTheBufferIsWrittenWhole() throws IOException {
+        UploadJournal journal = open(Long.MAX_VALUE, 0);
+        char[] longKey = new char[100_000];
+        Arrays.fill(longKey, 'k');
+        journal.append("reviews", "before.json");
+        journal.append("reviews", new String(longKey));
+        journal.append("reviews", "after.json");
+
+        List<String> keys = keys(journal.query(null, null, null, null));
+        assertEquals(Arrays.asList("before.json", new String(longKey), "after.json"), keys);
+    }
+
+    private UploadJournal open(long maxFileBytes, int maxRotatedFiles) {
+        UploadJournal journal = new UploadJournal(path, maxFileBytes, maxRotatedFiles);
+        journals.add(journal);
+        return journal;
+    }
+
+    private static List<String> keys(List<UploadJournal.Entry> entries) {
+        List<String> keys = new ArrayList<>();
+        for (UploadJournal.Entry entry : entries) {
+            keys.add(entry.getObjectKey());
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,574 @@
+package com.zliang19.testing;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DescribeTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.DescribeTableResponse;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValuesOnConditionCheckFailure;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.Put;
+import software.amazon.awssdk.services.dynamodb.model.TableDescription;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.Update;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+/**
+ * DynamoDB stand-in that keeps tables in memory. Supports the calls DynamoDbService,
+ * IdempotencyStore, ProductSummaryStore and ReviewQueryService make:
+ * BatchWriteItem, GetItem, PutItem, DeleteItem, UpdateItem with "ADD #name :value, ..." and
+ * "SET #name = :value, ..." clauses, TransactWriteItems of up to 100 puts and such updates, Query
+ * on a secondary index with "#name = :value", scans and DescribeTable. Queries on an index with
+ * a sort key return items in its order, either way, and page through LastEvaluatedKey; other
+ * queries and scans return everything in one page, up to the request limit. Conditions may combine attribute_exists,
+ * attribute_not_exists, "=", "<" and ">" terms with OR, and such groups in parentheses with AND;
+ * a transaction whose condition fails is cancelled with per-item reasons, carrying the old item
+ * when the write asks for it, like DynamoDB's. A fixed delay
+ * per request and a throttle rate, the share of batch items returned as unprocessed,
+ * make it possible to exercise the retry path. Items written through BatchWriteItem are
+ * only counted unless retained, so long runs measure the handler rather than this store.
+ */
+public class InMemoryDynamoDbClient implements DynamoDbClient {
+
+    private static final Pattern UPDATE_KEYWORD = Pattern.compile("\\b(ADD|SET)\\s+");
+    private static final Pattern ADD_ACTION = Pattern.compile("(\\S+)\\s+(:\\S+)");
+    private static final Pattern SET_ACTION = Pattern.compile("(\\S+)\\s*=\\s*(:\\S+)");
+    private static final Pattern COMMA = Pattern.compile("\\s*,\\s*");
+    private static final Pattern EXISTS_CONDITION = Pattern.compile("attribute_(not_)?exists\\(\\s*([^)\\s]+)\\s*\\)");
+    private static final Pattern COMPARE_CONDITION = Pattern.compile("(\\S+)\\s*(=|<|>)\\s*(:\\S+)");
+    private static final Pattern OR = Pattern.compile("\\s+OR\\s+");
+    private static final Pattern AND = Pattern.compile("\\s+AND\\s+");
+    private static final int MAX_TRANSACTION_ITEMS = 100;
+    private static final Pattern KEY_CONDITION = Pattern.compile("(\\S+)\\s*=\\s*(:\\S+)");
+
+    private final Map<String, String> keyAttributes = new ConcurrentHashMap<>();
+    private final Map<String, Map<AttributeValue, Map<String, AttributeValue>>> tables = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> batchWrites = new ConcurrentHashMap<>();
+    private final Map<String, String> indexKeyAttributes = new ConcurrentHashMap<>();
+    private final Map<String, String> indexSortAttributes = new ConcurrentHashMap<>();
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong scans = new AtomicLong();
+    private final long latencyMillis;
+    private final double throttleRate;
+    private final boolean retainBatchItems;
+    private final Random random = new Random(42);
+
+    /**
+     * @param latencyMillis Delay added to every request, 0 for none
+     * @param throttleRate Share of BatchWriteItem items returned as unprocessed, between 0 and 1
+     * @param retainBatchItems Whether items written through BatchWriteItem are stored or only counted
+     */
+    public InMemoryDynamoDbClient(long latencyMillis, double throttleRate, boolean retainBatchItems) {
+        this.latencyMillis = latencyMillis;
+        this.throttleRate = throttleRate;
+        this.retainBatchItems = retainBatchItems;
+    }
+
+    /**
+     * Creates an empty table with a single partition key
+     */
+    public InMemoryDynamoDbClient createTable(String tableName, String keyAttribute) {
+        keyAttributes.put(tableName, keyAttribute);
+        tables.put(tableName, new ConcurrentHashMap<>());
+        batchWrites.put(tableName, new AtomicLong());
+        return this;
+    }
+
+    /**
+     * Adds a global secondary index with a single partition key to a table
+     */
+    public InMemoryDynamoDbClient createIndex(String tableName, String indexName, String keyAttribute) {
+        return createIndex(tableName, indexName, keyAttribute, null);
+    }
+
+    /**
+     * Adds a global secondary index with a partition key and a numeric sort key to a table
+     * @param sortAttribute Sort key of the index, or null for none
+     */
+    public InMemoryDynamoDbClient createIndex(String tableName, String indexName, String keyAttribute,
+                                              String sortAttribute) {
+        table(tableName);
+        indexKeyAttributes.put(tableName + "/" + indexName, keyAttribute);
+        if (sortAttribute != null) {
+            indexSortAttributes.put(tableName + "/" + indexName, sortAttribute);
+        }
+        return this;
+    }
+
+    /**
+     * @return Number of Query requests served
+     */
+    public long queryCount() {
+        return queries.get();
+    }
+
+    /**
+     * @return Number of Scan requests served, COUNT scans included
+     */
+    public long scanCount() {
+        return scans.get();
+    }
+
+    /**
+     * @return Number of items accepted by BatchWriteItem for a table, retained or not
+     */
+    public long batchWriteCount(String tableName) {
+        table(tableName);
+        return batchWrites.get(tableName).get();
+    }
+
+    /**
+     * @return Snapshot of the items held in a table
+     */
+    public List<Map<String, AttributeValue>> items(String tableName) {
+        Map<AttributeValue, Map<String, AttributeValue>> table = table(tableName);
+        synchronized (table) {
+            return new ArrayList<>(table.values());
+        }
+    }
+
+    @Override
+    public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+        simulateLatency();
+        Map<String, List<WriteRequest>> unprocessed = new HashMap<>();
+        for (Map.Entry<String, List<WriteRequest>> entry : request.requestItems().entrySet()) {
+            Map<AttributeValue, Map<String, AttributeValue>> table = table(entry.getKey());
+            String keyAttribute = keyAttributes.get(entry.getKey());
+            for (WriteRequest write : entry.getValue()) {
+                if (throttleRate > 0 && nextDouble() < throttleRate) {
+                    unprocessed.computeIfAbsent(entry.getKey(), name -> new ArrayList<>()).add(write);
+                    continue;
+                }
+                batchWrites.get(entry.getKey()).incrementAndGet();
+                if (!retainBatchItems) {
+                    continue;
+                }
+                if (write.putRequest() != null) {
+                    Map<String, AttributeValue> item = write.putRequest().item();
+                    table.put(item.get(keyAttribute), item);
+                } else if (write.deleteRequest() != null) {
+                    table.remove(write.deleteRequest().key().get(keyAttribute));
+                }
+            }
+        }
+        return BatchWriteItemResponse.builder().unprocessedItems(unprocessed).build();
+    }
+
+    @Override
+    public PutItemResponse putItem(PutItemRequest request) {
+        simulateLatency();
+        Map<AttributeValue, Map<String, AttributeValue>> table = table(request.tableName());
+        AttributeValue key = request.item().get(keyAttributes.get(request.tableName()));
+        synchronized (table) {
+            checkCondition(request.conditionExpression(), request.expressionAttributeNames(),
+                    request.expressionAttributeValues(), table.get(key));
+            table.put(key, request.item());
+        }
+        return PutItemResponse.builder().build();
+    }
+
+    @Override
+    public GetItemResponse getItem(GetItemRequest request) {
+        simulateLatency();
+        Map<AttributeValue, Map<String, AttributeValue>> table = table(request.tableName());
+        AttributeValue key = request.key().get(keyAttributes.get(request.tableName()));
+        Map<String, AttributeValue> item = table.get(key);
+        return item != null ? GetItemResponse.builder().item(item).build() : GetItemResponse.builder().build();
+    }
+
+    @Override
+    public DeleteItemResponse deleteItem(DeleteItemRequest request) {
+        simulateLatency();
+        Map<AttributeValue, Map<String, AttributeValue>> table = table(request.tableName());
+        AttributeValue key = request.key().get(keyAttributes.get(request.tableName()));
+        synchronized (table) {
+            checkCondition(request.conditionExpression(), request.expressionAttributeNames(),
+                    request.expressionAttributeValues(), table.get(key));
+            table.remove(key);
+        }
+        return DeleteItemResponse.builder().build();
+    }
+
+    @Override
+    public UpdateItemResponse updateItem(UpdateItemRequest request) {
+        simulateLatency();
+        Map<AttributeValue, Map<String, AttributeValue>> table = table(request.tableName());
+        AttributeValue key = request.key().get(keyAttributes.get(request.tableName()));
+        synchronized (table) {
+            Map<String, AttributeValue> existing = table.get(key);
+            checkCondition(request.conditionExpression(), request.expressionAttributeNames(),
+                    request.expressionAttributeValues(), existing);
+
+            Map<String, AttributeValue> updated = new HashMap<>();
+            Map<String, AttributeValue> item = applyUpdate(request.updateExpression(), request.expressionAttributeNames(),
+                    request.expressionAttributeValues(), request.key(), existing, updated);
+            table.put(key, item);
+            return UpdateItemResponse.builder()
+                    .attributes(request.returnValues() == ReturnValue.ALL_NEW ? item : updated)
+                    .build();
+        }
+    }
+
+    @Override
+    public TransactWriteItemsResponse transactWriteItems(TransactWriteItemsRequest request) {
+        simulateLatency();
+        List<TransactWriteItem> writes = request.transactItems();
+        if (writes.size() > MAX_TRANSACTION_ITEMS) {
+            throw DynamoDbException.builder().statusCode(400)
+                    .message("Member must have length less than or equal to " + MAX_TRANSACTION_ITEMS)
+                    .build();
+        }
+        for (TransactWriteItem write : writes) {
+            if (write.put() == null && write.update() == null) {
+                throw new UnsupportedOperationException("Only Put and Update transaction items are supported");
+            }
+        }
+        // Tables are locked in name order, so concurrent transactions over the same tables cannot deadlock
+        TreeSet<String> tableNames = new TreeSet<>();
+        for (TransactWriteItem write : writes) {
+            tableNames.add(write.put() != null ? write.put().tableName() : write.update().tableName());
+        }
+        transactLocked(new ArrayList<>(tableNames), 0, writes);
+        return TransactWriteItemsResponse.builder().build();
+    }
+
+    private void transactLocked(List<String> tableNames, int next, List<TransactWriteItem> writes) {
+        if (next < tableNames.size()) {
+            Map<AttributeValue, Map<String, AttributeValue>> table = table(tableNames.get(next));
+            synchronized (table) {
+                transactLocked(tableNames, next + 1, writes);
+            }
+            return;
+        }
+
+        // Step 1: Check every condition before anything is written
+        List<CancellationReason> reasons = new ArrayList<>(writes.size());
+        boolean cancelled = false;
+        for (TransactWriteItem write : writes) {
+            Put put = write.put();
+            Update update = write.update();
+            Map<String, AttributeValue> existing = put != null
+                    ? existing(put.tableName(), put.item())
+                    : existing(update.tableName(), update.key());
+            CancellationReason.Builder reason = CancellationReason.builder().code("None");
+            try {
+                if (put != null) {
+                    checkCondition(put.conditionExpression(), put.expressionAttributeNames(),
+                            put.expressionAttributeValues(), existing);
+                } else {
+                    checkCondition(update.conditionExpression(), update.expressionAttributeNames(),
+                            update.expressionAttributeValues(), existing);
+                }
+            } catch (ConditionalCheckFailedException e) {
+                reason.code("ConditionalCheckFailed").message(e.getMessage());
+                ReturnValuesOnConditionCheckFailure returnValues = put != null
+                        ? put.returnValuesOnConditionCheckFailure()
+                        : update.returnValuesOnConditionCheckFailure();
+                if (returnValues == ReturnValuesOnConditionCheckFailure.ALL_OLD && existing != null) {
+                    reason.item(existing);
+                }
+                cancelled = true;
+            }
+            reasons.add(reason.build());
+        }
+        if (cancelled) {
+            throw TransactionCanceledException.builder()
+                    .message("Transaction cancelled, please refer cancellation reasons for specific reasons")
+                    .cancellationReasons(reasons)
+                    .build();
+        }
+
+        // Step 2: Apply the writes
+        for (TransactWriteItem write : writes) {
+            if (write.put() != null) {
+                Put put = write.put();
+                table(put.tableName()).put(put.item().get(keyAttributes.get(put.tableName())), put.item());
+            } else {
+                Update update = write.update();
+                Map<AttributeValue, Map<String, AttributeValue>> table = table(update.tableName());
+                AttributeValue key = update.key().get(keyAttributes.get(update.tableName()));
+                table.put(key, applyUpdate(update.updateExpression(), update.expressionAttributeNames(),
+                        update.expressionAttributeValues(), update.key(), table.get(key), new HashMap<>()));
+            }
+        }
+    }
+
+    private Map<String, AttributeValue> existing(String tableName, Map<String, AttributeValue> keyOrItem) {
+        return table(tableName).get(keyOrItem.get(keyAttributes.get(tableName)));
+    }
+
+    /**
+     * Applies an expression of "ADD #name :value, ..." and "SET #name = :value, ..." clauses to a copy of an item
+     * @param updated Receives the attributes the expression changed
+     * @return The updated item, created from the key if it did not exist
+     */
+    private static Map<String, AttributeValue> applyUpdate(String expression, Map<String, String> names,
+                                                           Map<String, AttributeValue> values,
+                                                           Map<String, AttributeValue> key,
+                                                           Map<String, AttributeValue> existing,
+                                                           Map<String, AttributeValue> updated) {
+        String trimmed = expression.trim();
+        Matcher keyword = UPDATE_KEYWORD.matcher(trimmed);
+        if (!keyword.lookingAt()) {
+            throw new UnsupportedOperationException("Only ADD and SET updates are supported: " + expression);
+        }
+        Map<String, AttributeValue> item = existing != null ? new HashMap<>(existing) : new HashMap<>(key);
+        boolean more = true;
+        while (more) {
+            boolean add = "ADD".equals(keyword.group(1));
+            int bodyStart = keyword.end();
+            more = keyword.find();
+            String body = trimmed.substring(bodyStart, more ? keyword.start() : trimmed.length()).trim();
+
+            Pattern actionPattern = add ? ADD_ACTION : SET_ACTION;
+            for (String action : COMMA.split(body)) {
+                Matcher matcher = actionPattern.matcher(action);
+                if (!matcher.matches()) {
+                    throw new UnsupportedOperationException("Unsupported update action: " + action);
+                }
+                String name = resolveName(matcher.group(1), names);
+                AttributeValue value = values.get(matcher.group(2));
+                if (add) {
+                    AttributeValue current = item.get(name);
+                    BigDecimal sum = (current != null ? new BigDecimal(current.n()) : BigDecimal.ZERO)
+                            .add(new BigDecimal(value.n()));
+                    value = AttributeValue.builder().n(sum.toPlainString()).build();
+                }
+                item.put(name, value);
+                updated.put(name, value);
+            }
+        }
+        return item;
+    }
+
+    @Override
+    public QueryResponse query(QueryRequest request) {
+        simulateLatency();
+        queries.incrementAndGet();
+        Map<AttributeValue, Map<String, AttributeValue>> table = table(request.tableName());
+        String indexKey = indexKeyAttributes.get(request.tableName() + "/" + request.indexName());
+        if (request.indexName() == null || indexKey == null) {
+            throw DynamoDbException.builder()
+                    .message("The table does not have the specified index: " + request.indexName())
+                    .build();
+        }
+        Matcher condition = KEY_CONDITION.matcher(request.keyConditionExpression().trim());
+        if (!condition.matches()
+                || !indexKey.equals(resolveName(condition.group(1), request.expressionAttributeNames()))) {
+            throw new UnsupportedOperationException("Unsupported key condition: " + request.keyConditionExpression());
+        }
+        AttributeValue expected = request.expressionAttributeValues().get(condition.group(2));
+        int limit = request.limit() != null ? request.limit() : Integer.MAX_VALUE;
+        String sortKey = indexSortAttributes.get(request.tableName() + "/" + request.indexName());
+        if (sortKey != null) {
+            return querySorted(request, table, indexKey, sortKey, expected, limit);
+        }
+
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        for (Map<String, AttributeValue> item : table.values()) {
+            if (items.size() == limit) {
+                break;
+            }
+            if (expected.equals(item.get(indexKey))) {
+                items.add(item);
+            }
+        }
+        return QueryResponse.builder().items(items).count(items.size()).scannedCount(items.size()).build();
+    }
+
+    /**
+     * Serves a query on an index with a sort key: items lacking either index key are not in the
+     * index, ties are ordered by table key, and a page that stops short of the end says where it stopped
+     */
+    private QueryResponse querySorted(QueryRequest request, Map<AttributeValue, Map<String, AttributeValue>> table,
+                                      String indexKey, String sortKey, AttributeValue expected, int limit) {
+        String keyAttribute = keyAttributes.get(request.tableName());
+        Comparator<Map<String, AttributeValue>> order = Comparator
+                .comparing((Map<String, AttributeValue> item) -> new BigDecimal(item.get(sortKey).n()))
+                .thenComparing(item -> item.get(keyAttribute).s());
+        if (Boolean.FALSE.equals(request.scanIndexForward())) {
+            order = order.reversed();
+        }
+        List<Map<String, AttributeValue>> matching = new ArrayList<>();
+        for (Map<String, AttributeValue> item : table.values()) {
+            if (expected.equals(item.get(indexKey)) && item.containsKey(sortKey)) {
+                matching.add(item);
+            }
+        }
+        matching.sort(order);
+
+        int from = 0;
+        if (request.hasExclusiveStartKey() && !request.exclusiveStartKey().isEmpty()) {
+            while (from < matching.size() && order.compare(matching.get(from), request.exclusiveStartKey()) <= 0) {
+                from++;
+            }
+        }
+        int to = (int) Math.min(matching.size(), (long) from + limit);
+        List<Map<String, AttributeValue>> items = new ArrayList<>(matching.subList(from, to));
+        QueryResponse.Builder response = QueryResponse.builder().items(items).count(items.size())
+                .scannedCount(items.size());
+        if (to < matching.size()) {
+            Map<String, AttributeValue> last = items.get(items.size() - 1);
+            Map<String, AttributeValue> lastKey = new HashMap<>();
+            for (String attribute : new String[] {keyAttribute, indexKey, sortKey}) {
+                lastKey.put(attribute, last.get(attribute));
+            }
+            response.lastEvaluatedKey(lastKey);
+        }
+        return response.build();
+    }
+
+    @Override
+    public ScanResponse scan(ScanRequest request) {
+        simulateLatency();
+        scans.incrementAndGet();
+        Map<AttributeValue, Map<String, AttributeValue>> table = table(request.tableName());
+        if ("COUNT".equals(request.selectAsString())) {
+            return ScanResponse.builder().count(table.size()).scannedCount(table.size()).build();
+        }
+        List<Map<String, AttributeValue>> items = new ArrayList<>(table.values());
+        if (request.limit() != null && items.size() > request.limit()) {
+            items = items.subList(0, request.limit());
+        }
+        return ScanResponse.builder().items(items).count(items.size()).scannedCount(items.size()).build();
+    }
+
+    @Override
+    public DescribeTableResponse describeTable(DescribeTableRequest request) {
+        simulateLatency();
+        Map<AttributeValue, Map<String, AttributeValue>> table = table(request.tableName());
+        return DescribeTableResponse.builder()
+                .table(TableDescription.builder()
+                        .tableName(request.tableName())
+                        .itemCount((long) table.size())
+                        .build())
+                .build();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private Map<AttributeValue, Map<String, AttributeValue>> table(String tableName) {
+        Map<AttributeValue, Map<String, AttributeValue>> table = tables.get(tableName);
+        if (table == null) {
+            throw ResourceNotFoundException.builder().message("Table not found: " + tableName).build();
+        }
+        return table;
+    }
+
+    /**
+     * Evaluates a condition made of attribute_exists, attribute_not_exists, "=", "<" and ">" terms
+     * joined by OR, or an AND of such groups in parentheses; any other condition is rejected
+     */
+    private static void checkCondition(String condition, Map<String, String> names,
+                                       Map<String, AttributeValue> values, Map<String, AttributeValue> existing) {
+        if (condition == null) {
+            return;
+        }
+        for (String group : AND.split(condition.trim())) {
+            if (!anyHolds(unwrap(group.trim()), names, values, existing)) {
+                throw ConditionalCheckFailedException.builder().message("The conditional request failed").build();
+            }
+        }
+    }
+
+    private static boolean anyHolds(String terms, Map<String, String> names, Map<String, AttributeValue> values,
+                                    Map<String, AttributeValue> existing) {
+        for (String term : OR.split(terms)) {
+            if (holds(term.trim(), names, values, existing)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String unwrap(String group) {
+        return group.startsWith("(") && group.endsWith(")") ? group.substring(1, group.length() - 1).trim() : group;
+    }
+
+    private static boolean holds(String term, Map<String, String> names, Map<String, AttributeValue> values,
+                                 Map<String, AttributeValue> existing) {
+        Matcher exists = EXISTS_CONDITION.matcher(term);
+        if (exists.matches()) {
+            boolean present = existing != null && existing.containsKey(resolveName(exists.group(2), names));
+            return present == (exists.group(1) == null);
+        }
+        Matcher compare = COMPARE_CONDITION.matcher(term);
+        if (!compare.matches()) {
+            throw new UnsupportedOperationException("Unsupported condition: " + term);
+        }
+        AttributeValue actual = existing != null ? existing.get(resolveName(compare.group(1), names)) : null;
+        AttributeValue expected = values.get(compare.group(3));
+        if (actual == null) {
+            return false;
+        }
+        if ("=".equals(compare.group(2))) {
+            return actual.equals(expected);
+        }
+        int order = actual.n() != null
+                ? new BigDecimal(actual.n()).compareTo(new BigDecimal(expected.n()))
+                : actual.s().compareTo(expected.s());
+        return "<".equals(compare.group(2)) ? order < 0 : order > 0;
+    }
+
+    private static String resolveName(String name, Map<String, String> names) {
+        return name.startsWith("#") && names != null ? names.get(name) : name;
+    }
+
+    private synchronized double nextDouble() {
+        return random.nextDouble();
+    }
+
+    private void simulateLatency() {
+        if (latencyMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw SdkClientException.create("Interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.zliang19.testing;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+import software.amazon.awssdk.services.s3.model.HeadBucketResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * S3 stand-in that serves objects from memory. Supports the calls S3Service makes:
+ * GetObject (whole or ranged, with If-Match), HeadObject and HeadBucket. An optional
+ * fixed delay per request approximates time to first byte.
+ */
+public class InMemoryS3Client implements S3Client {
+
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final Map<String, String> contentEncodings = new ConcurrentHashMap<>();
+    private final long latencyMillis;
+
+    /**
+     * @param latencyMillis Delay added to every request, 0 for none
+     */
+    public InMemoryS3Client(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Stores an object; the array is shared, not copied
+     */
+    public void putObject(String bucketName, String objectKey, byte[] content) {
+        putObject(bucketName, objectKey, content, null);
+    }
+
+    /**
+     * Stores an object with a Content-Encoding; the array is shared, not copied
+     */
+    public void putObject(String bucketName, String objectKey, byte[] content, String contentEncoding) {
+        objects.put(bucketName + "/" + objectKey, content);
+        if (contentEncoding != null) {
+            contentEncodings.put(bucketName + "/" + objectKey, contentEncoding);
+        } else {
+            contentEncodings.remove(bucketName + "/" + objectKey);
+        }
+    }
+
+    @Override
+    public <ReturnT> ReturnT getObject(GetObjectRequest request,
+                                       ResponseTransformer<GetObjectResponse, ReturnT> transformer) {
+        byte[] content = find(request.bucket(), request.key());
+        if (request.ifMatch() != null && !request.ifMatch().equals(eTag(content))) {
+            throw (S3Exception) S3Exception.builder().statusCode(412).message("Precondition Failed").build();
+        }
+
+        int start = 0;
+        int end = content.length - 1;
+        if (request.range() != null) {
+            String[] bounds = request.range().substring("bytes=".length()).split("-");
+            start = Integer.parseInt(bounds[0]);
+            end = Math.min(Integer.parseInt(bounds[1]), content.length - 1);
+        }
+        byte[] body = start == 0 && end == content.length - 1 ? content : Arrays.copyOfRange(content, start, end + 1);
+
+        GetObjectResponse response = GetObjectResponse.builder()
+                .contentLength((long) body.length)
+                .contentEncoding(contentEncodings.get(request.bucket() + "/" + request.key()))
+                .eTag(eTag(content))
+                .build();
+        try {
+            return transformer.transform(response, AbortableInputStream.create(new ByteArrayInputStream(body)));
+        } catch (Exception e) {
+            throw SdkClientException.create("Failed to transform in-memory object", e);
+        }
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest request) {
+        byte[] content = find(request.bucket(), request.key());
+        return HeadObjectResponse.builder()
+                .contentLength((long) content.length)
+                .contentEncoding(contentEncodings.get(request.bucket() + "/" + request.key()))
+                .eTag(eTag(content))
+                .build();
+    }
+
+    @Override
+    public HeadBucketResponse headBucket(HeadBucketRequest request) {
+        simulateLatency();
+        return HeadBucketResponse.builder().build();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+        objects.clear();
+    }
+
+    private byte[] find(String bucketName, String objectKey) {
+        simulateLatency();
+        byte[] content = objects.get(bucketName + "/" + objectKey);
+        if (content == null) {
+            throw NoSuchKeyException.builder().statusCode(404).message("No such key: " + objectKey).build();
+        }
+        return content;
+    }
+
+    /**
+     * Identity-based ETag: stable for a stored array and different for a replaced one
+     */
+    private static String eTag(byte[] content) {
+        return "\"" + Integer.toHexString(System.identityHashCode(content)) + "-" + content.length + "\"";
+    }
+
+    private void simulateLatency() {
+        if (latencyMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw SdkClientException.create("Interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.zliang19.testing;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition;
+import software.amazon.awssdk.services.dynamodb.model.BillingMode;
+import software.amazon.awssdk.services.dynamodb.model.CreateTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.GlobalSecondaryIndex;
+import software.amazon.awssdk.services.dynamodb.model.KeySchemaElement;
+import software.amazon.awssdk.services.dynamodb.model.KeyType;
+import software.amazon.awssdk.services.dynamodb.model.Projection;
+import software.amazon.awssdk.services.dynamodb.model.ProjectionType;
+import software.amazon.awssdk.services.dynamodb.model.ResourceInUseException;
+import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
+
+/**
+ * Tables for tests. When DYNAMODB_LOCAL_ENDPOINT is set, e.g. to http://localhost:8000, the
+ * tables are created on that DynamoDB Local instance and dropped again by {@link #close()};
+ * otherwise they live in an {@link InMemoryDynamoDbClient}. The variable is separate from
+ * DYNAMODB_ENDPOINT so tests never drop tables of an endpoint configured for the handler.
+ * Every key attribute is a string, as in all tables of this project, except the sort keys of
+ * indexes, which are numbers.
+ */
+public final class TestDynamoDb implements AutoCloseable {
+
+    public static final String ENDPOINT_ENV = "DYNAMODB_LOCAL_ENDPOINT";
+
+    private final DynamoDbClient client;
+    private final DynamoDbClient admin;
+    private final InMemoryDynamoDbClient inMemory;
+    private final List<String> createdTables = new ArrayList<>();
+
+    public TestDynamoDb() {
+        String endpoint = System.getenv(ENDPOINT_ENV);
+        if (endpoint != null && !endpoint.isEmpty()) {
+            this.client = localClient(endpoint);
+            this.admin = localClient(endpoint);
+            this.inMemory = null;
+        } else {
+            this.inMemory = new InMemoryDynamoDbClient(0, 0, true);
+            this.client = inMemory;
+            this.admin = null;
+        }
+    }
+
+    /**
+     * @return Client for the code under test; closing it does not affect {@link #close()}
+     */
+    public DynamoDbClient client() {
+        return client;
+    }
+
+    /**
+     * @return Whether the tables are on DynamoDB Local
+     */
+    public boolean isLocal() {
+        return inMemory == null;
+    }
+
+    /**
+     * Creates an empty table with a string partition key
+     */
+    public TestDynamoDb createTable(String tableName, String keyAttribute) {
+        return createTable(tableName, keyAttribute, null, null);
+    }
+
+    /**
+     * Creates an empty table with a string partition key and a global secondary index on a
+     * second string attribute, projecting all attributes
+     * @param indexName Name of the index, or null for none
+     * @param indexKeyAttribute Partition key of the index
+     */
+    public TestDynamoDb createTable(String tableName, String keyAttribute, String indexName, String indexKeyAttribute) {
+        return createTable(tableName, keyAttribute, indexName, indexKeyAttribute, null);
+    }
+
+    /**
+     * Creates an empty table with a string partition key and a global secondary index with a
+     * string partition key and a numeric sort key, projecting all attributes
+     * @param indexName Name of the index, or null for none
+     * @param indexKeyAttribute Partition key of the index
+     * @param indexSortAttribute Sort key of the index, or null for none
+     */
+    public TestDynamoDb createTable(String tableName, String keyAttribute, String indexName, String indexKeyAttribute,
+                                    String indexSortAttribute) {
+        if (inMemory != null) {
+            inMemory.createTable(tableName, keyAttribute);
+            if (indexName != null) {
+                inMemory.createIndex(tableName, indexName, indexKeyAttribute, indexSortAttribute);
+            }
+            return this;
+        }
+
+        List<AttributeDefinition> attributes = new ArrayList<>();
+        attributes.add(stringAttribute(keyAttribute));
+        CreateTableRequest.Builder request = CreateTableRequest.builder()
+                .tableName(tableName)
+                .keySchema(hashKey(keyAttribute))
+                .billingMode(BillingMode.PAY_PER_REQUEST);
+        if (indexName != null) {
+            attributes.add(stringAttribute(indexKeyAttribute));
+            List<KeySchemaElement> indexKey = new ArrayList<>();
+            indexKey.add(hashKey(indexKeyAttribute));
+            if (indexSortAttribute != null) {
+                attributes.add(AttributeDefinition.builder()
+                        .attributeName(indexSortAttribute)
+                        .attributeType(ScalarAttributeType.N)
+                        .build());
+                indexKey.add(KeySchemaElement.builder().attributeName(indexSortAttribute).keyType(KeyType.RANGE).build());
+            }
+            request.globalSecondaryIndexes(GlobalSecondaryIndex.builder()
+                    .indexName(indexName)
+                    .keySchema(indexKey)
+                    .projection(Projection.builder().projectionType(ProjectionType.ALL).build())
+                    .build());
+        }
+        request.attributeDefinitions(attributes);
+
+        // A table left behind by an aborted run is dropped first
+        try {
+            admin.createTable(request.build());
+        } catch (ResourceInUseException e) {
+            deleteTable(tableName);
+            admin.createTable(request.build());
+        }
+        admin.waiter().waitUntilTableExists(builder -> builder.tableName(tableName));
+        createdTables.add(tableName);
+        return this;
+    }
+
+    /**
+     * Drops the tables created on DynamoDB Local
+     */
+    @Override
+    public void close() {
+        if (admin == null) {
+            return;
+        }
+        for (String tableName : createdTables) {
+            deleteTable(tableName);
+        }
+        admin.close();
+    }
+
+    private void deleteTable(String tableName) {
+        try {
+            admin.deleteTable(DeleteTableRequest.builder().tableName(tableName).build());
+            admin.waiter().waitUntilTableNotExists(builder -> builder.tableName(tableName));
+        } catch (ResourceNotFoundException e) {
+            // Already gone
+        }
+    }
+
+    private static DynamoDbClient localClient(String endpoint) {
+        return DynamoDbClient.builder()
+                .endpointOverride(URI.create(endpoint))
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("local", "local")))
+                .httpClient(UrlConnectionHttpClient.builder().build())
+                .build();
+    }
+
+    private static AttributeDefinition stringAttribute(String name) {
+        return AttributeDefinition.builder().attributeName(name).attributeType(ScalarAttributeType.S).build();
+    }
+
+    private static KeySchemaElement hashKey(String name) {
+        return KeySchemaElement.builder().attributeName(name).keyType(KeyType.HASH).build();
+    }
+}